@@ -0,0 +1,80 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.BulkLoader;
+import filesystem.persistence.Manifest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares building a tree of the given amount of nodes with addFile and addDir calls, with a BulkLoader fed from
+ * memory and with a BulkLoader reading a binary manifest. The names are generated up front so only the building is
+ * timed. Every directory is listed after its files, so the loader resolves all its parents late.
+ */
+public class BulkLoadBenchmark {
+    private static final int FILES_PER_DIR = 100;
+
+    public static void main(String[] args) throws FileSystemException, IOException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dirs = (nodes + FILES_PER_DIR) / (FILES_PER_DIR + 1);
+        String[] dirNames = new String[dirs];
+        String[] fileNames = new String[dirs * FILES_PER_DIR];
+        for (int d = 0; d < dirs; d++) {
+            dirNames[d] = "d" + d;
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                fileNames[d * FILES_PER_DIR + f] = "d" + d + "-" + f;
+            }
+        }
+        Path manifest = Files.createTempFile("bulk-load-benchmark", ".bin");
+        try {
+            try (Manifest.BinaryWriter writer = new Manifest.BinaryWriter(manifest)) {
+                feed(writer, dirNames, fileNames);
+            }
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                BasicFileSystemManager added = new BasicFileSystemManager();
+                for (int d = 0; d < dirs; d++) {
+                    added.addDir("root", dirNames[d]);
+                    for (int f = 0; f < FILES_PER_DIR; f++) {
+                        added.addFile(dirNames[d], fileNames[d * FILES_PER_DIR + f], size(d * FILES_PER_DIR + f));
+                    }
+                }
+                report("addFile / addDir", start, added);
+
+                start = System.nanoTime();
+                BulkLoader loader = new BulkLoader(dirs + fileNames.length);
+                feed(loader, dirNames, fileNames);
+                report("BulkLoader", start, loader.build());
+
+                start = System.nanoTime();
+                report("BulkLoader, binary manifest", start,
+                        BulkLoader.loadBinary(manifest, dirs + fileNames.length));
+            }
+        } finally {
+            Files.deleteIfExists(manifest);
+        }
+    }
+
+    private static void feed(Manifest.Sink sink, String[] dirNames, String[] fileNames) throws FileSystemException {
+        for (int d = 0; d < dirNames.length; d++) {
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                sink.file(dirNames[d], fileNames[d * FILES_PER_DIR + f], size(d * FILES_PER_DIR + f));
+            }
+            sink.directory("root", dirNames[d]);
+        }
+    }
+
+    private static int size(int index) {
+        return 1 + (int) ((index * 2654435761L) % 1_000_000);
+    }
+
+    private static void report(String method, long start, BasicFileSystemManager manager) throws FileSystemException {
+        long elapsed = System.nanoTime() - start;
+        long nodes = manager.getFileCount("root") + manager.getDirectoryCount("root");
+        System.out.printf("%-28s %d nodes in %.1f ms, %.2f M nodes/s%n",
+                method, nodes, elapsed / 1e6, nodes / (elapsed / 1e3));
+    }
+}
@@ -0,0 +1,57 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.FileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes a whole subtree of the given shape and size. Each delete needs a fresh tree, so every iteration builds one
+ * and times a single delete. A random tree a tenth of the size stays next to it, so the global indexes are not
+ * emptied by the delete.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeleteBenchmark {
+    @Param({"BASIC", "CONCURRENT", "COMPACT"})
+    public Implementation implementation;
+
+    @Param({"WIDE", "DEEP"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int nodes;
+
+    private FileSystemManager manager;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws FileSystemException {
+        manager = implementation.create();
+        manager.addDir("root", "keep");
+        TreeShape.RANDOM.build(manager, "keep", "k", Math.max(1, nodes / 10), 7);
+        manager.addDir("root", "victim");
+        shape.build(manager, "victim", "v", nodes, 42);
+    }
+
+    @Benchmark
+    public FileSystemManager deleteSubtree() throws FileSystemException {
+        manager.delete("victim");
+        return manager;
+    }
+}
@@ -0,0 +1,79 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.BasicFileSystemManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how deleting a whole subtree scales with the number of files in it.
+ * The subtree is a directory holding FILES_PER_DIR files per sub directory, and the rest of the tree holds the same
+ * amount of files so the heap is never trivially small. The delete call itself only unlinks the directory, so its time
+ * should stay flat while the subtree size doubles. The subtree is then reclaimed by adding files one at a time: the
+ * total reclaim time per deleted file should stay roughly flat, and so should the p99 and max time of the adds.
+ */
+public class DeleteScalingBenchmark {
+    private static final int FILES_PER_DIR = 1_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) throws FileSystemException {
+        int maxFiles = args.length > 0 ? Integer.parseInt(args[0]) : 400_000;
+
+        System.out.printf("%12s %14s %14s %14s %14s%n", "files", "delete (us)", "reclaim ns/f", "add p99 (us)",
+                "add max (us)");
+        for (int files = 25_000; files <= maxFiles; files *= 2) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                measureDelete(files);
+            }
+            long[] best = measureDelete(files);
+            for (int i = 1; i < MEASURED_ROUNDS; i++) {
+                long[] round = measureDelete(files);
+                for (int j = 0; j < best.length; j++) {
+                    best[j] = Math.min(best[j], round[j]);
+                }
+            }
+            System.out.printf("%12d %14.2f %14.1f %14.2f %14.2f%n", files, best[0] / 1e3, (double) best[1] / files,
+                    best[2] / 1e3, best[3] / 1e3);
+        }
+    }
+
+    /**
+     * @return The nanoseconds taken by the delete call, by the whole reclaim, and the p99 and max of the adds that
+     * reclaimed the subtree
+     */
+    private static long[] measureDelete(int files) throws FileSystemException {
+        BasicFileSystemManager manager = new BasicFileSystemManager();
+        populate(manager, "keep", files);
+        populate(manager, "drop", files);
+
+        long start = System.nanoTime();
+        manager.delete("drop");
+        long deleted = System.nanoTime();
+        List<Long> adds = new ArrayList<>();
+        while (manager.reclaimDeleted(0)) {
+            long addStart = System.nanoTime();
+            manager.addFile("root", "added-" + adds.size(), 1);
+            adds.add(System.nanoTime() - addStart);
+        }
+        long reclaimed = System.nanoTime();
+        Collections.sort(adds);
+        long p99 = adds.isEmpty() ? 0 : adds.get((int) (adds.size() * 0.99));
+        long max = adds.isEmpty() ? 0 : adds.get(adds.size() - 1);
+        return new long[] {deleted - start, reclaimed - deleted, p99, max};
+    }
+
+    private static void populate(BasicFileSystemManager manager, String dirName, int files) throws FileSystemException {
+        manager.addDir("root", dirName);
+        for (int i = 0; i < files; i++) {
+            String subDir = dirName + "-" + (i / FILES_PER_DIR);
+            if (i % FILES_PER_DIR == 0) {
+                manager.addDir(dirName, subDir);
+            }
+            // Sizes are spread so the subtree files end up all over the heap
+            manager.addFile(subDir, dirName + "-f" + i, 1 + (int) ((i * 2654435761L) % 1_000_000));
+        }
+    }
+}
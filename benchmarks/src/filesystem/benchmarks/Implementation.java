@@ -0,0 +1,50 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.CompactFileSystemManager;
+import filesystem.operations.ConcurrentFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import filesystem.operations.InstrumentedFileSystemManager;
+
+/**
+ * The file system managers compared by the JMH benchmarks, selected with the "implementation" parameter.
+ */
+public enum Implementation {
+    BASIC {
+        @Override
+        FileSystemManager create() throws FileSystemException {
+            return new BasicFileSystemManager();
+        }
+    },
+    CONCURRENT {
+        @Override
+        FileSystemManager create() throws FileSystemException {
+            return new ConcurrentFileSystemManager();
+        }
+    },
+    COMPACT {
+        @Override
+        FileSystemManager create() {
+            return new CompactFileSystemManager();
+        }
+    },
+    // BASIC measured by an InstrumentedFileSystemManager
+    INSTRUMENTED {
+        @Override
+        FileSystemManager create() throws FileSystemException {
+            return new InstrumentedFileSystemManager(new BasicFileSystemManager());
+        }
+    },
+    // BASIC behind an InstrumentedFileSystemManager that is turned off, to check it costs close to nothing
+    INSTRUMENTED_DISABLED {
+        @Override
+        FileSystemManager create() throws FileSystemException {
+            InstrumentedFileSystemManager manager = new InstrumentedFileSystemManager(new BasicFileSystemManager());
+            manager.setEnabled(false);
+            return manager;
+        }
+    };
+
+    abstract FileSystemManager create() throws FileSystemException;
+}
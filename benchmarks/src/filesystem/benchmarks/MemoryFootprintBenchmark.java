@@ -0,0 +1,115 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.CompactFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import filesystem.persistence.Manifest;
+
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Measures the retained heap per node of the object based BasicFileSystemManager and of the struct of arrays
+ * CompactFileSystemManager. Both get the same tree of NODES nodes and the heap in use is compared after a full GC
+ * before and after building it.
+ * Without a shape argument the tree is made of directories of FILES_PER_DIR files under the root. With a TreeShape
+ * name, e.g. REALISTIC, the tree has that shape and the bare Directory and File nodes of the same tree, linked without
+ * any manager or index, are measured too, which isolates the cost of the nodes and of their children storage.
+ */
+public class MemoryFootprintBenchmark {
+    private static final int FILES_PER_DIR = 100;
+
+    public static void main(String[] args) throws FileSystemException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        TreeShape shape = args.length > 1 ? TreeShape.valueOf(args[1]) : null;
+        System.out.printf("%30s %14s %14s%n", "manager", "heap (MB)", "bytes / node");
+        measure("BasicFileSystemManager", nodes, shape, () -> {
+            try {
+                return new BasicFileSystemManager();
+            } catch (FileSystemException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        measure("CompactFileSystemManager", nodes, shape, CompactFileSystemManager::new);
+        if (shape != null) {
+            measureNodes(nodes, shape);
+        }
+    }
+
+    private static void measure(String label, int nodes, TreeShape shape, Supplier<FileSystemManager> factory)
+            throws FileSystemException {
+        long before = usedHeap();
+        FileSystemManager manager = factory.get();
+        if (shape == null) {
+            populate(manager, nodes);
+        } else {
+            shape.build(manager, "root", "", nodes, 42);
+        }
+        long after = usedHeap();
+        System.out.printf("%30s %14.1f %14.1f%n", label, (after - before) / 1e6, (double) (after - before) / nodes);
+        // Keeps the manager reachable until the measurement is done
+        if (manager.getFileCount("root") < 0) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static void measureNodes(int nodes, TreeShape shape) throws FileSystemException {
+        long before = usedHeap();
+        Directory root = buildNodes(nodes, shape);
+        long after = usedHeap();
+        System.out.printf("%30s %14.1f %14.1f%n", "Directory / File nodes", (after - before) / 1e6,
+                (double) (after - before) / nodes);
+        // Keeps the tree reachable until the measurement is done
+        if (root.getChildren().isEmpty()) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Links the nodes of the tree directly, the map of the directories by name is garbage once this returns.
+     */
+    private static Directory buildNodes(int nodes, TreeShape shape) throws FileSystemException {
+        Directory root = new Directory("root");
+        HashMap<String, Directory> dirs = new HashMap<>();
+        dirs.put("root", root);
+        shape.build(new Manifest.Sink() {
+            @Override
+            public void file(String parentDirName, String fileName, long fileSize) throws FileSystemException {
+                dirs.get(parentDirName).addChild(new File(fileName, fileSize, root.getCreationDate()));
+            }
+
+            @Override
+            public void directory(String parentDirName, String dirName) throws FileSystemException {
+                Directory dir = new Directory(dirName, root.getCreationDate());
+                dirs.get(parentDirName).addChild(dir);
+                dirs.put(dirName, dir);
+            }
+        }, "root", "", nodes, 42);
+        return root;
+    }
+
+    private static void populate(FileSystemManager manager, int nodes) throws FileSystemException {
+        int created = 0;
+        int dir = 0;
+        while (created < nodes) {
+            String dirName = "d" + dir++;
+            manager.addDir("root", dirName);
+            created++;
+            for (int i = 0; i < FILES_PER_DIR && created < nodes; i++) {
+                manager.addFile(dirName, dirName + "-" + i, 1 + (int) ((created * 2654435761L) % 1_000_000));
+                created++;
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
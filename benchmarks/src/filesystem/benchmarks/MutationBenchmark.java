@@ -0,0 +1,69 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.FileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * addFile and addDir into a tree of the given shape and size. The tree is rebuilt before every iteration, so the
+ * nodes added by an iteration only grow it by the few percent one iteration manages to add.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+    @Param({"BASIC", "CONCURRENT", "COMPACT", "INSTRUMENTED", "INSTRUMENTED_DISABLED"})
+    public Implementation implementation;
+
+    @Param({"WIDE", "DEEP", "RANDOM"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int nodes;
+
+    private FileSystemManager manager;
+    private String[] dirNames;
+    private int nextDir;
+    private long nextName;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws FileSystemException {
+        manager = implementation.create();
+        dirNames = shape.build(manager, "root", "", nodes, 42).getDirNames();
+    }
+
+    @Benchmark
+    public void addFile() throws FileSystemException {
+        manager.addFile(nextParent(), "n" + nextName++, 1 + (int) (nextName & 0xFFFFF));
+    }
+
+    @Benchmark
+    public void addDir() throws FileSystemException {
+        manager.addDir(nextParent(), "n" + nextName++);
+    }
+
+    /**
+     * Spreads the adds over all the directories of the tree, at all depths.
+     */
+    private String nextParent() {
+        String parent = dirNames[nextDir];
+        nextDir = nextDir + 1 == dirNames.length ? 0 : nextDir + 1;
+        return parent;
+    }
+}
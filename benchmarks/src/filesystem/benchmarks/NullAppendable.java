@@ -0,0 +1,31 @@
+package filesystem.benchmarks;
+
+/**
+ * Destination of showFileSystem in the benchmarks, it only counts what it receives so the output is not optimized away
+ * and the measurement is not dominated by a real writer.
+ */
+final class NullAppendable implements Appendable {
+    private long length;
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        length += csq.length();
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+        length += end - start;
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        length++;
+        return this;
+    }
+
+    long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,99 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.FileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read only operations on a tree built once per trial: getFileSize, getBiggestFile, showFileSystem and a page of
+ * the prefix and suffix name searches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"BASIC", "CONCURRENT", "COMPACT", "INSTRUMENTED", "INSTRUMENTED_DISABLED"})
+    public Implementation implementation;
+
+    @Param({"WIDE", "DEEP", "RANDOM"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int nodes;
+
+    private FileSystemManager manager;
+    private String[] fileNames;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws FileSystemException {
+        manager = implementation.create();
+        fileNames = shape.build(manager, "root", "", nodes, 42).getFileNames();
+    }
+
+    @Benchmark
+    public long getFileSize() throws FileSystemException {
+        // Walks the files in creation order, which is not their order in any of the indexes
+        String name = fileNames[next];
+        next = next + 1 == fileNames.length ? 0 : next + 1;
+        return manager.getFileSize(name);
+    }
+
+    @Benchmark
+    public String getBiggestFile() throws FileSystemException {
+        return manager.getBiggestFile();
+    }
+
+    @Benchmark
+    public int findByPrefix() {
+        // A file name as the prefix, e.g. f12 matches f12, f120 to f129, f1200 and so on
+        String prefix = fileNames[next];
+        next = next + 1 == fileNames.length ? 0 : next + 1;
+        return page(manager.findByPrefix(prefix, null));
+    }
+
+    @Benchmark
+    public int findBySuffix() {
+        String name = fileNames[next];
+        next = next + 1 == fileNames.length ? 0 : next + 1;
+        return page(manager.findBySuffix(name.substring(Math.max(1, name.length() - 2)), null));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long showFileSystem() throws IOException {
+        NullAppendable out = new NullAppendable();
+        manager.showFileSystem(out, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES);
+        return out.getLength();
+    }
+
+    private static int page(Iterator<String> names) {
+        int found = 0;
+        while (found < PAGE_SIZE && names.hasNext()) {
+            names.next();
+            found++;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,64 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.persistence.DurabilityOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a durable manager takes to start from a snapshot plus a log tail.
+ * The tree has NODES nodes spread over directories of FILES_PER_DIR files, and TAIL mutations are logged after the
+ * last snapshot so the replay path is measured as well.
+ */
+public class RecoveryBenchmark {
+    private static final int FILES_PER_DIR = 100;
+    private static final int TAIL = 10_000;
+
+    public static void main(String[] args) throws FileSystemException, IOException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path directory = Files.createTempDirectory("recovery-benchmark");
+        DurabilityOptions options = new DurabilityOptions(directory, 4096, 0, 0);
+        try {
+            BasicFileSystemManager manager = BasicFileSystemManager.open(options);
+            int created = populate(manager, nodes);
+            manager.checkpoint();
+            for (int i = 0; i < TAIL; i++) {
+                manager.addFile("root", "tail-" + i, 1 + i);
+            }
+            manager.close();
+
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                BasicFileSystemManager restored = BasicFileSystemManager.open(options);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("Restored %d nodes (%d from the log) in %.1f ms%n",
+                        created + TAIL, TAIL, elapsed / 1e6);
+                restored.close();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static int populate(BasicFileSystemManager manager, int nodes) throws FileSystemException {
+        int created = 0;
+        int dir = 0;
+        while (created < nodes) {
+            String dirName = "d" + dir++;
+            manager.addDir("root", dirName);
+            created++;
+            for (int i = 0; i < FILES_PER_DIR && created < nodes; i++) {
+                manager.addFile(dirName, dirName + "-" + i, 1 + (int) ((created * 2654435761L) % 1_000_000));
+                created++;
+            }
+        }
+        return created;
+    }
+}
@@ -0,0 +1,66 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots of a BasicFileSystemManager once its persistent mirror exists: the cost of taking one, and the cost of an
+ * addFile that also maintains the mirror, to compare with MutationBenchmark.addFile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({"WIDE", "DEEP", "RANDOM"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int nodes;
+
+    private BasicFileSystemManager manager;
+    private String[] dirNames;
+    private int nextDir;
+    private long nextName;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws FileSystemException {
+        manager = new BasicFileSystemManager();
+        dirNames = shape.build(manager, "root", "", nodes, 42).getDirNames();
+        // The first snapshot builds the mirror
+        manager.snapshot();
+    }
+
+    @Benchmark
+    public FileSystemSnapshot snapshot() {
+        return manager.snapshot();
+    }
+
+    @Benchmark
+    public void addFileWithSnapshots() throws FileSystemException {
+        manager.addFile(nextParent(), "n" + nextName++, 1 + (int) (nextName & 0xFFFFF));
+    }
+
+    private String nextParent() {
+        String parent = dirNames[nextDir];
+        nextDir = nextDir + 1 == dirNames.length ? 0 : nextDir + 1;
+        return parent;
+    }
+}
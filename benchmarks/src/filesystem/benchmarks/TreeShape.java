@@ -0,0 +1,197 @@
+package filesystem.benchmarks;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.operations.FileSystemManager;
+import filesystem.persistence.Manifest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tree shapes the JMH benchmarks are run against, selected with the "shape" parameter.
+ * Every shape builds exactly the requested amount of nodes under a parent directory, with file sizes drawn from the
+ * same seeded random sequence, so runs are reproducible and comparable across implementations.
+ */
+public enum TreeShape {
+    /**
+     * Directories of WIDE_FAN_OUT files each, all directly under the parent. Two levels deep.
+     */
+    WIDE {
+        @Override
+        void populate(Builder builder) throws FileSystemException {
+            while (builder.hasRoom()) {
+                String dir = builder.addDir(builder.parent);
+                for (int i = 0; i < WIDE_FAN_OUT && builder.hasRoom(); i++) {
+                    builder.addFile(dir);
+                }
+            }
+        }
+    },
+    /**
+     * Chains of directories DEEP_DEPTH levels deep, every directory holding one file.
+     * The depth is capped so that building ten million nodes stays linear.
+     */
+    DEEP {
+        @Override
+        void populate(Builder builder) throws FileSystemException {
+            while (builder.hasRoom()) {
+                String dir = builder.parent;
+                for (int depth = 0; depth < DEEP_DEPTH && builder.hasRoom(); depth++) {
+                    dir = builder.addDir(dir);
+                    if (builder.hasRoom()) {
+                        builder.addFile(dir);
+                    }
+                }
+            }
+        }
+    },
+    /**
+     * Every node goes under a random existing directory, one node in RANDOM_DIR_RATIO is a directory.
+     */
+    RANDOM {
+        @Override
+        void populate(Builder builder) throws FileSystemException {
+            List<String> dirs = new ArrayList<>();
+            dirs.add(builder.parent);
+            while (builder.hasRoom()) {
+                String parent = dirs.get(builder.random.nextInt(dirs.size()));
+                if (builder.random.nextInt(RANDOM_DIR_RATIO) == 0) {
+                    dirs.add(builder.addDir(parent));
+                } else {
+                    builder.addFile(parent);
+                }
+            }
+        }
+    },
+    /**
+     * Shaped like a real file system: most directories are leaves holding a few files, some are empty and a few hold
+     * hundreds of entries. Directories are expanded breadth first, each getting a skewed random number of
+     * subdirectories and files, until the tree has all its nodes.
+     */
+    REALISTIC {
+        @Override
+        void populate(Builder builder) throws FileSystemException {
+            ArrayDeque<String> pending = new ArrayDeque<>();
+            while (builder.hasRoom()) {
+                if (pending.isEmpty()) {
+                    pending.add(builder.parent);
+                }
+                String dir = pending.poll();
+                int subdirs = skewed(builder.random, 0.55, 2, 8, 40);
+                int files = skewed(builder.random, 0.2, 4, 20, 300);
+                for (int i = 0; i < subdirs && builder.hasRoom(); i++) {
+                    pending.add(builder.addDir(dir));
+                }
+                for (int i = 0; i < files && builder.hasRoom(); i++) {
+                    builder.addFile(dir);
+                }
+            }
+        }
+    };
+
+    private static final int WIDE_FAN_OUT = 1_000;
+    private static final int DEEP_DEPTH = 500;
+    private static final int RANDOM_DIR_RATIO = 5;
+
+    /**
+     * @return 0 with the given probability, otherwise up to small, medium or large with probabilities 0.6, 0.3, 0.1
+     */
+    private static int skewed(Random random, double none, int small, int medium, int large) {
+        if (random.nextDouble() < none) {
+            return 0;
+        }
+        double bucket = random.nextDouble();
+        int max = bucket < 0.6 ? small : bucket < 0.9 ? medium : large;
+        return 1 + random.nextInt(max);
+    }
+
+    /**
+     * The names of the nodes of a built tree, the parent directory not included.
+     */
+    public static final class Tree {
+        private final List<String> fileNames = new ArrayList<>();
+        private final List<String> dirNames = new ArrayList<>();
+
+        public String[] getFileNames() {
+            return fileNames.toArray(new String[0]);
+        }
+
+        public String[] getDirNames() {
+            return dirNames.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Adds a tree of the given amount of nodes under an existing directory.
+     * @param manager The manager to fill
+     * @param parent The directory the tree is built under
+     * @param prefix Prefix of all the names, keeps several trees in one manager apart
+     * @param nodes Number of nodes to add
+     * @param seed Seed of the file sizes and of the random shape
+     * @return The names of the added nodes
+     * @throws FileSystemException if the manager rejects a node
+     */
+    public Tree build(FileSystemManager manager, String parent, String prefix, int nodes, long seed)
+            throws FileSystemException {
+        return build(new Manifest.Sink() {
+            @Override
+            public void file(String parentDirName, String fileName, long fileSize) throws FileSystemException {
+                manager.addFile(parentDirName, fileName, (int) fileSize);
+            }
+
+            @Override
+            public void directory(String parentDirName, String dirName) throws FileSystemException {
+                manager.addDir(parentDirName, dirName);
+            }
+        }, parent, prefix, nodes, seed);
+    }
+
+    /**
+     * Same as build(FileSystemManager, ...) but the nodes go to any sink, e.g. a manifest writer or a BulkLoader.
+     */
+    public Tree build(Manifest.Sink sink, String parent, String prefix, int nodes, long seed)
+            throws FileSystemException {
+        Builder builder = new Builder(sink, parent, prefix, nodes, seed);
+        populate(builder);
+        return builder.tree;
+    }
+
+    abstract void populate(Builder builder) throws FileSystemException;
+
+    static final class Builder {
+        private final Manifest.Sink sink;
+        private final String parent;
+        private final String prefix;
+        private final int nodes;
+        private final Random random;
+        private final Tree tree = new Tree();
+        private int created;
+
+        private Builder(Manifest.Sink sink, String parent, String prefix, int nodes, long seed) {
+            this.sink = sink;
+            this.parent = parent;
+            this.prefix = prefix;
+            this.nodes = nodes;
+            this.random = new Random(seed);
+        }
+
+        boolean hasRoom() {
+            return created < nodes;
+        }
+
+        String addDir(String parentDir) throws FileSystemException {
+            String name = prefix + "d" + created++;
+            sink.directory(parentDir, name);
+            tree.dirNames.add(name);
+            return name;
+        }
+
+        void addFile(String parentDir) throws FileSystemException {
+            String name = prefix + "f" + created++;
+            sink.file(parentDir, name, 1 + random.nextInt(1 << 20));
+            tree.fileNames.add(name);
+        }
+    }
+}
@@ -2,9 +2,62 @@ package filesystem.exceptions;
 
 /**
  * This class represents a generic exception that can be thrown by the file system.
+ *
+ * Lookups that miss are frequent in some workloads, so these exceptions are cheap to create:
+ * - A message given as a format and its arguments is only formatted when getMessage() is called.
+ * - Stack traces can be turned off with setStackTraces(false), or with -Dfilesystem.exceptions.stackless=true, then
+ *   creating an exception costs about as much as any other small object.
  */
 public class FileSystemException extends Throwable {
+    private static volatile boolean stackTraces = !Boolean.getBoolean("filesystem.exceptions.stackless");
+
+    private final String format;
+    private final Object[] args;
+    private String message;
+
     public FileSystemException(String message) {
-        super(message);
+        super(null, null, true, stackTraces);
+        this.format = null;
+        this.args = null;
+        this.message = message;
+    }
+
+    /**
+     * @param format A String.format format, formatted the first time the message is read
+     * @param args Its arguments, which must not change afterwards
+     */
+    public FileSystemException(String format, Object... args) {
+        super(null, null, true, stackTraces);
+        this.format = format;
+        this.args = args;
+    }
+
+    public FileSystemException(String message, Throwable cause) {
+        super(null, cause, true, stackTraces);
+        this.format = null;
+        this.args = null;
+        this.message = message;
+    }
+
+    /**
+     * Turns the stack traces of the exceptions created from now on on or off, for the whole JVM.
+     * @param enabled
+     */
+    public static void setStackTraces(boolean enabled) {
+        stackTraces = enabled;
+    }
+
+    public static boolean hasStackTraces() {
+        return stackTraces;
+    }
+
+    @Override
+    public String getMessage() {
+        String formatted = message;
+        if (formatted == null && format != null) {
+            formatted = String.format(format, args);
+            message = formatted;
+        }
+        return formatted;
     }
 }
@@ -9,4 +9,8 @@ public class DirectoryNotFoundException extends FileSystemException {
     public DirectoryNotFoundException(String message) {
         super(message);
     }
+
+    public DirectoryNotFoundException(String format, Object... args) {
+        super(format, args);
+    }
 }
@@ -0,0 +1,16 @@
+package filesystem.exceptions.manager;
+
+import filesystem.exceptions.FileSystemException;
+
+/**
+ * Listing cursor that is malformed or was made for another listing order.
+ */
+public class InvalidCursorException extends FileSystemException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+
+    public InvalidCursorException(String format, Object... args) {
+        super(format, args);
+    }
+}
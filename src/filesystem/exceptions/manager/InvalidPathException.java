@@ -0,0 +1,16 @@
+package filesystem.exceptions.manager;
+
+import filesystem.exceptions.FileSystemException;
+
+/**
+ * Malformed path error, a path must be absolute and made of valid names.
+ */
+public class InvalidPathException extends FileSystemException {
+    public InvalidPathException(String message) {
+        super(message);
+    }
+
+    public InvalidPathException(String format, Object... args) {
+        super(format, args);
+    }
+}
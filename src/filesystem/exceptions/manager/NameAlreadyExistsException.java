@@ -9,4 +9,8 @@ public class NameAlreadyExistsException extends FileSystemException {
     public NameAlreadyExistsException(String message) {
         super(message);
     }
+
+    public NameAlreadyExistsException(String format, Object... args) {
+        super(format, args);
+    }
 }
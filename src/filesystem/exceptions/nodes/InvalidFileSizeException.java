@@ -9,4 +9,8 @@ public class InvalidFileSizeException extends FileSystemException {
     public InvalidFileSizeException(String message) {
         super(message);
     }
+
+    public InvalidFileSizeException(String format, Object... args) {
+        super(format, args);
+    }
 }
@@ -6,5 +6,11 @@ import filesystem.exceptions.FileSystemException;
  * Basic exception for invalid name.
  */
 public class InvalidNameException extends FileSystemException {
-    public InvalidNameException(String message) {super(message);}
+    public InvalidNameException(String message) {
+        super(message);
+    }
+
+    public InvalidNameException(String format, Object... args) {
+        super(format, args);
+    }
 }
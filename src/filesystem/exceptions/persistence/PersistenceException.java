@@ -0,0 +1,20 @@
+package filesystem.exceptions.persistence;
+
+import filesystem.exceptions.FileSystemException;
+
+/**
+ * Failure to read or write the durable state (write ahead log or snapshot) of a file system manager.
+ */
+public class PersistenceException extends FileSystemException {
+    public PersistenceException(String message) {
+        super(message);
+    }
+
+    public PersistenceException(String format, Object... args) {
+        super(format, args);
+    }
+
+    public PersistenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,315 @@
+package filesystem.indexes;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntToLongFunction;
+
+/**
+ * The FileSizeIndex treap for files identified by int ids, as kept by a NodeStore.
+ * The tree links, subtree counts and priorities are int arrays indexed by the file id, so a file costs 16 bytes and
+ * no object. The sizes are not copied, they are read through the given function.
+ *
+ * Same complexities as FileSizeIndex: O(log F) expected for add, remove and select, O(log F + k) to iterate k files.
+ * The size of a file must not change while it is in the index, remove it and add it back instead.
+ * Iterators are lazy and fail fast if the index is modified while they are in use.
+ */
+public class CompactSizeIndex {
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final IntToLongFunction sizes;
+    private int[] left;
+    private int[] right;
+    private int[] counts;
+    private int[] priorities;
+    private int root = NONE;
+    private int modCount;
+    private int seed = 0x2545F491;
+
+    /**
+     * @param sizes Returns the size of a file from its id
+     */
+    public CompactSizeIndex(IntToLongFunction sizes) {
+        this.sizes = sizes;
+        left = new int[INITIAL_CAPACITY];
+        right = new int[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        priorities = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds a file to the index.
+     * Time complexity: O(log F).
+     * @param id The file to add, must not be in the index already
+     */
+    public void add(int id) {
+        if (id >= counts.length) {
+            grow(id);
+        }
+        left[id] = NONE;
+        right[id] = NONE;
+        counts[id] = 1;
+        priorities[id] = nextPriority();
+        root = insert(root, id);
+        modCount++;
+    }
+
+    /**
+     * Removes a file from the index.
+     * Time complexity: O(log F).
+     * @param id The file to remove, must be in the index
+     */
+    public void remove(int id) {
+        root = delete(root, id);
+        modCount++;
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    /**
+     * @return The id of the biggest file, the index must not be empty
+     */
+    public int last() {
+        int node = root;
+        while (right[node] != NONE) {
+            node = right[node];
+        }
+        return node;
+    }
+
+    /**
+     * Returns the file at the given rank in ascending size order.
+     * Time complexity: O(log F).
+     * @param rank 0 for the smallest file up to size() - 1 for the biggest
+     * @return The id of the file
+     */
+    public int select(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Rank %d is out of bounds for %d files", rank, size()));
+        }
+        int node = root;
+        while (true) {
+            int leftCount = count(left[node]);
+            if (rank < leftCount) {
+                node = left[node];
+            } else if (rank == leftCount) {
+                return node;
+            } else {
+                rank -= leftCount + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * Iterates the files whose size is within the given bounds, from the smallest.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @param minSize Inclusive lower bound
+     * @param maxSize Inclusive upper bound
+     * @return Lazy iterator of file ids
+     */
+    public PrimitiveIterator.OfInt range(long minSize, long maxSize) {
+        return new AscendingIterator(minSize, maxSize);
+    }
+
+    /**
+     * Iterates all the files from the biggest.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @return Lazy iterator of file ids
+     */
+    public PrimitiveIterator.OfInt descendingIterator() {
+        return new DescendingIterator();
+    }
+
+    private int compare(int id, int node) {
+        int bySize = Long.compare(sizes.applyAsLong(id), sizes.applyAsLong(node));
+        return bySize != 0 ? bySize : Integer.compare(id, node);
+    }
+
+    private int count(int node) {
+        return node == NONE ? 0 : counts[node];
+    }
+
+    private void updateCount(int node) {
+        counts[node] = 1 + count(left[node]) + count(right[node]);
+    }
+
+    private int insert(int node, int added) {
+        if (node == NONE) {
+            return added;
+        }
+        if (compare(added, node) < 0) {
+            left[node] = insert(left[node], added);
+            if (priorities[left[node]] > priorities[node]) {
+                node = rotateRight(node);
+            }
+        } else {
+            right[node] = insert(right[node], added);
+            if (priorities[right[node]] > priorities[node]) {
+                node = rotateLeft(node);
+            }
+        }
+        updateCount(node);
+        return node;
+    }
+
+    private int delete(int node, int id) {
+        if (node == NONE) {
+            return NONE;
+        }
+        if (node == id) {
+            return merge(left[node], right[node]);
+        }
+        if (compare(id, node) < 0) {
+            left[node] = delete(left[node], id);
+        } else {
+            right[node] = delete(right[node], id);
+        }
+        updateCount(node);
+        return node;
+    }
+
+    /**
+     * Merges two treaps where all the keys of the first are smaller than the keys of the second.
+     */
+    private int merge(int smaller, int bigger) {
+        if (smaller == NONE) {
+            return bigger;
+        }
+        if (bigger == NONE) {
+            return smaller;
+        }
+        if (priorities[smaller] > priorities[bigger]) {
+            right[smaller] = merge(right[smaller], bigger);
+            updateCount(smaller);
+            return smaller;
+        }
+        left[bigger] = merge(smaller, left[bigger]);
+        updateCount(bigger);
+        return bigger;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        updateCount(node);
+        updateCount(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        updateCount(node);
+        updateCount(pivot);
+        return pivot;
+    }
+
+    private void grow(int id) {
+        int capacity = Math.max(id + 1, counts.length + (counts.length >> 1));
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+    }
+
+    /**
+     * Xorshift, cheaper than a shared Random and good enough to keep the treap balanced.
+     */
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private abstract class TreeIterator implements PrimitiveIterator.OfInt {
+        // The path of the iterator, at most the height of the treap
+        int[] stack = new int[32];
+        int depth;
+        private final int expectedModCount = modCount;
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            int node = stack[--depth];
+            pushFrom(node);
+            return node;
+        }
+
+        void push(int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+
+        abstract void pushFrom(int visited);
+    }
+
+    private final class AscendingIterator extends TreeIterator {
+        private final long maxSize;
+
+        private AscendingIterator(long minSize, long maxSize) {
+            this.maxSize = maxSize;
+            // Keep the path of nodes that are not smaller than the lower bound
+            int node = root;
+            while (node != NONE) {
+                if (sizes.applyAsLong(node) >= minSize) {
+                    push(node);
+                    node = left[node];
+                } else {
+                    node = right[node];
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0 && sizes.applyAsLong(stack[depth - 1]) <= maxSize;
+        }
+
+        @Override
+        void pushFrom(int visited) {
+            for (int node = right[visited]; node != NONE; node = left[node]) {
+                push(node);
+            }
+        }
+    }
+
+    private final class DescendingIterator extends TreeIterator {
+
+        private DescendingIterator() {
+            for (int node = root; node != NONE; node = right[node]) {
+                push(node);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        void pushFrom(int visited) {
+            for (int node = left[visited]; node != NONE; node = right[node]) {
+                push(node);
+            }
+        }
+    }
+}
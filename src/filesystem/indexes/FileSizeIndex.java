@@ -0,0 +1,33 @@
+package filesystem.indexes;
+
+import filesystem.nodes.File;
+
+/**
+ * Order statistic tree of files keyed on (size, id), see FileTreap. Besides ordered iteration it can find the file at
+ * any rank, which a heap or a sorted set can't.
+ *
+ * Complexities (F is the number of files, all expected because of the random priorities):
+ * - add / remove: O(log F)
+ * - select (file at rank): O(log F)
+ * - iterating k files from any size bound: O(log F + k)
+ *
+ * The size of a file must not change while it is in the index, remove it and add it back instead.
+ */
+public class FileSizeIndex extends FileTreap {
+
+    /**
+     * Converts a percentile to a rank with the nearest rank method, e.g. p50 of 4 files is the 2nd smallest.
+     * @param percentile Between 0 and 100, 0 is the smallest file
+     * @param fileCount Number of files, must be positive
+     * @return Rank between 0 and fileCount - 1
+     */
+    public static int percentileRank(double percentile, int fileCount) {
+        int rank = (int) Math.ceil(percentile / 100.0 * fileCount) - 1;
+        return Math.max(0, Math.min(fileCount - 1, rank));
+    }
+
+    @Override
+    protected long keyOf(File file) {
+        return file.getSize();
+    }
+}
@@ -0,0 +1,22 @@
+package filesystem.indexes;
+
+import filesystem.nodes.File;
+
+/**
+ * Files ordered by creation time, from the oldest, ties broken by id which follows the creation order (see FileTreap).
+ * Backs the retention queries: the files created in a time range, the oldest or newest ones, and the files to delete
+ * once they are older than a cutoff, all found without walking the tree.
+ *
+ * Complexities (F is the number of files, all expected because of the random priorities):
+ * - add / remove: O(log F)
+ * - iterating k files from any time bound, from the oldest or from the newest: O(log F + k)
+ *
+ * The creation time of a file never changes, so a file keeps its place for as long as it is in the index.
+ */
+public class FileTimeIndex extends FileTreap {
+
+    @Override
+    protected long keyOf(File file) {
+        return file.getCreationMillis();
+    }
+}
@@ -0,0 +1,372 @@
+package filesystem.indexes;
+
+import filesystem.nodes.File;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Order statistic tree of files keyed on (key, id), where the key is a long read from the file by the subclass,
+ * implemented as a treap where every node knows the size of its subtree. Besides ordered iteration it can find the file
+ * at any rank, which a heap or a sorted set can't.
+ *
+ * Complexities (F is the number of files, all expected because of the random priorities):
+ * - add / remove: O(log F)
+ * - select (file at rank): O(log F)
+ * - iterating k files from any key bound, in either direction: O(log F + k)
+ *
+ * The key of a file must not change while it is in the index, remove it and add it back instead.
+ * Iterators are lazy and fail fast if the index is modified while they are in use.
+ */
+public abstract class FileTreap {
+
+    private static final class Node {
+        private final File file;
+        private int priority;
+        private Node left;
+        private Node right;
+        private int count;
+
+        private Node(File file, int priority) {
+            this.file = file;
+            this.priority = priority;
+            this.count = 1;
+        }
+    }
+
+    private Node root;
+    private int modCount;
+    private int seed = 0x2545F491;
+
+    /**
+     * @return The key the files are ordered by, ties are broken by the file id
+     */
+    protected abstract long keyOf(File file);
+
+    /**
+     * Adds a file to the index.
+     * Time complexity: O(log F).
+     * @param file The file to add, must not be in the index already
+     */
+    public void add(File file) {
+        root = insert(root, new Node(file, nextPriority()));
+        modCount++;
+    }
+
+    /**
+     * Builds the index from files that are already sorted, instead of inserting them one by one.
+     * The tree is built perfectly balanced, and random priorities are handed out by level so the treap order holds
+     * and later inserts keep it balanced.
+     * Time complexity: O(F log F) for sorting the priorities, with much smaller constants than F inserts.
+     * @param ascending The files sorted by (key, id) from the smallest, the index must be empty
+     */
+    public void addAllSorted(List<File> ascending) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Bulk building requires an empty index");
+        }
+        root = build(ascending, 0, ascending.size());
+        int[] priorities = new int[ascending.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = nextPriority();
+        }
+        Arrays.sort(priorities);
+
+        // The biggest priorities go to the shallowest levels, which come first in BFS order
+        int next = priorities.length - 1;
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        if (root != null) {
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.priority = priorities[next--];
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * Removes a file from the index.
+     * Time complexity: O(log F).
+     * @param file The file to remove
+     * @return true if the file was in the index
+     */
+    public boolean remove(File file) {
+        int before = size();
+        root = delete(root, file);
+        if (size() == before) {
+            return false;
+        }
+        modCount++;
+        return true;
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    /**
+     * Returns the file at the given rank in ascending key order.
+     * Time complexity: O(log F).
+     * @param rank 0 for the file with the smallest key up to size() - 1 for the biggest
+     * @return File
+     */
+    public File select(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Rank %d is out of bounds for %d files", rank, size()));
+        }
+        Node node = root;
+        while (true) {
+            int leftCount = count(node.left);
+            if (rank < leftCount) {
+                node = node.left;
+            } else if (rank == leftCount) {
+                return node.file;
+            } else {
+                rank -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Iterates the files whose key is within the given bounds, from the smallest key.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @param minKey Inclusive lower bound
+     * @param maxKey Inclusive upper bound
+     * @return Lazy iterator
+     */
+    public Iterator<File> range(long minKey, long maxKey) {
+        return new AscendingIterator(minKey, maxKey);
+    }
+
+    /**
+     * Iterates the files whose key is within the given bounds, from the biggest key.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @param minKey Inclusive lower bound
+     * @param maxKey Inclusive upper bound
+     * @return Lazy iterator
+     */
+    public Iterator<File> descendingRange(long minKey, long maxKey) {
+        return new DescendingIterator(minKey, maxKey);
+    }
+
+    /**
+     * Iterates all the files from the biggest key.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @return Lazy iterator
+     */
+    public Iterator<File> descendingIterator() {
+        return descendingRange(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private int compare(File file, Node node) {
+        int byKey = Long.compare(keyOf(file), keyOf(node.file));
+        return byKey != 0 ? byKey : Long.compare(file.getId(), node.file.getId());
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private static void updateCount(Node node) {
+        node.count = 1 + count(node.left) + count(node.right);
+    }
+
+    /**
+     * Builds a perfectly balanced tree out of a sorted slice, priorities are set by the caller.
+     */
+    private static Node build(List<File> ascending, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        Node node = new Node(ascending.get(middle), 0);
+        node.left = build(ascending, from, middle);
+        node.right = build(ascending, middle + 1, to);
+        updateCount(node);
+        return node;
+    }
+
+    private Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (compare(added.file, node) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        updateCount(node);
+        return node;
+    }
+
+    private Node delete(Node node, File file) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(file, node);
+        if (cmp == 0 && node.file == file) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            node.left = delete(node.left, file);
+        } else {
+            node.right = delete(node.right, file);
+        }
+        updateCount(node);
+        return node;
+    }
+
+    /**
+     * Merges two treaps where all the keys of the first are smaller than the keys of the second.
+     */
+    private static Node merge(Node smaller, Node bigger) {
+        if (smaller == null) {
+            return bigger;
+        }
+        if (bigger == null) {
+            return smaller;
+        }
+        if (smaller.priority > bigger.priority) {
+            smaller.right = merge(smaller.right, bigger);
+            updateCount(smaller);
+            return smaller;
+        }
+        bigger.left = merge(smaller, bigger.left);
+        updateCount(bigger);
+        return bigger;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        updateCount(node);
+        updateCount(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        updateCount(node);
+        updateCount(right);
+        return right;
+    }
+
+    /**
+     * Xorshift, cheaper than a shared Random and good enough to keep the treap balanced.
+     */
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private abstract class TreeIterator implements Iterator<File> {
+        final ArrayDeque<Node> stack = new ArrayDeque<>();
+        private final int expectedModCount = modCount;
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            Node node = stack.pop();
+            pushFrom(node);
+            return node.file;
+        }
+
+        abstract void pushFrom(Node visited);
+    }
+
+    private final class AscendingIterator extends TreeIterator {
+        private final long maxKey;
+
+        private AscendingIterator(long minKey, long maxKey) {
+            this.maxKey = maxKey;
+            // Keep the path of nodes that are not smaller than the lower bound
+            Node node = root;
+            while (node != null) {
+                if (keyOf(node.file) >= minKey) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty() && keyOf(stack.peek().file) <= maxKey;
+        }
+
+        @Override
+        void pushFrom(Node visited) {
+            for (Node node = visited.right; node != null; node = node.left) {
+                stack.push(node);
+            }
+        }
+    }
+
+    private final class DescendingIterator extends TreeIterator {
+        private final long minKey;
+
+        private DescendingIterator(long minKey, long maxKey) {
+            this.minKey = minKey;
+            // Keep the path of nodes that are not bigger than the upper bound
+            Node node = root;
+            while (node != null) {
+                if (keyOf(node.file) <= maxKey) {
+                    stack.push(node);
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty() && keyOf(stack.peek().file) >= minKey;
+        }
+
+        @Override
+        void pushFrom(Node visited) {
+            for (Node node = visited.left; node != null; node = node.right) {
+                stack.push(node);
+            }
+        }
+    }
+}
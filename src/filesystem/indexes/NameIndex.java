@@ -0,0 +1,255 @@
+package filesystem.indexes;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Sorted index of node names answering prefix, suffix and glob searches without walking the tree.
+ * The names are kept in a sorted set, and reversed in a second sorted set so that a suffix search is a prefix search
+ * over the reversed names. A search seeks to its first candidate and stops at the first name past the matching range,
+ * so it costs O(log N) to start and O(1) amortized per returned name, whatever the size of the tree.
+ *
+ * Every search takes an exclusive cursor, the last name of the previous page or null for the first page, and returns
+ * a lazy iterator: a page is read by taking as many names as needed and passing the last one back as the cursor.
+ * Both sets are skip lists, so the index can be read while it is modified and its iterators are weakly consistent.
+ * A name is held once however many nodes have it.
+ */
+public class NameIndex {
+    private static final char ANY_SEQUENCE = '*';
+    private static final char ANY_CHARACTER = '?';
+
+    /**
+     * The order of the names returned by bySuffix, the lexicographic order of the reversed names.
+     */
+    public static final Comparator<String> SUFFIX_ORDER = Comparator.comparing(NameIndex::reverse);
+
+    // Skip list maps rather than sets, only the maps can be bulk built from sorted keys
+    private ConcurrentSkipListMap<String, Boolean> names;
+    private ConcurrentSkipListMap<String, Boolean> reversedNames;
+
+    public NameIndex() {
+        this.names = new ConcurrentSkipListMap<>();
+        this.reversedNames = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Time complexity: O(log N).
+     * @param name Must not be in the index already
+     */
+    public void add(String name) {
+        names.put(name, Boolean.TRUE);
+        reversedNames.put(reverse(name), Boolean.TRUE);
+    }
+
+    /**
+     * Fills an empty index at once: the names are sorted and the skip lists are built from the sorted arrays in linear
+     * time, which is much cheaper than inserting the names one by one.
+     * Time complexity: O(M log M) for M names.
+     * @param added Distinct names, the index must be empty
+     */
+    public void addAll(Collection<String> added) {
+        String[] sorted = added.toArray(new String[0]);
+        String[] reversed = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            reversed[i] = reverse(sorted[i]);
+        }
+        Arrays.parallelSort(sorted);
+        Arrays.parallelSort(reversed);
+        names = new ConcurrentSkipListMap<>(new SortedArrayMap<>(sorted, Boolean.TRUE, null));
+        reversedNames = new ConcurrentSkipListMap<>(new SortedArrayMap<>(reversed, Boolean.TRUE, null));
+    }
+
+    /**
+     * Time complexity: O(log N).
+     * @param name Must be in the index
+     */
+    public void remove(String name) {
+        names.remove(name);
+        reversedNames.remove(reverse(name));
+    }
+
+    /**
+     * Iterates the names starting with the given prefix, in lexicographic order.
+     * Time complexity: O(log N) to create, O(1) amortized per returned name.
+     * @param prefix
+     * @param after Exclusive cursor, the last name of the previous page or null to start from the first match
+     * @return Lazy iterator of names
+     */
+    public Iterator<String> byPrefix(String prefix, String after) {
+        return new MatchIterator(from(names, prefix, after), name -> name.startsWith(prefix), name -> true, false);
+    }
+
+    /**
+     * Iterates the names ending with the given suffix, in the lexicographic order of the reversed names.
+     * Time complexity: O(log N) to create, O(1) amortized per returned name.
+     * @param suffix
+     * @param after Exclusive cursor, the last name of the previous page or null to start from the first match
+     * @return Lazy iterator of names
+     */
+    public Iterator<String> bySuffix(String suffix, String after) {
+        String reversedSuffix = reverse(suffix);
+        return new MatchIterator(from(reversedNames, reversedSuffix, after == null ? null : reverse(after)),
+                name -> name.startsWith(reversedSuffix), name -> true, true);
+    }
+
+    /**
+     * Iterates the names matching a glob pattern, where * matches any sequence of characters and ? any single one.
+     * The longest of the literal prefix and literal suffix of the pattern is used to seek in the matching set, and the
+     * names within that range are checked against the whole pattern. The names come in the order of that set, which
+     * only depends on the pattern, so the cursor of a page is always valid for the next one.
+     * Time complexity: O(log N) to create, then O(R * P) for the R names sharing the anchor and a pattern of length P.
+     * A pattern starting and ending with a wildcard has no anchor and scans all the names.
+     * @param pattern
+     * @param after Exclusive cursor, the last name of the previous page or null to start from the first match
+     * @return Lazy iterator of names
+     */
+    public Iterator<String> byGlob(String pattern, String after) {
+        int firstWildcard = indexOfWildcard(pattern);
+        if (firstWildcard < 0) {
+            Iterator<String> exact = from(names, pattern, after);
+            return new MatchIterator(exact, pattern::equals, name -> true, false);
+        }
+        String prefix = pattern.substring(0, firstWildcard);
+        String suffix = pattern.substring(lastIndexOfWildcard(pattern) + 1);
+        Predicate<String> matches = name -> matches(pattern, name);
+        if (prefix.length() >= suffix.length()) {
+            return new MatchIterator(from(names, prefix, after), name -> name.startsWith(prefix), matches, false);
+        }
+        String reversedSuffix = reverse(suffix);
+        return new MatchIterator(from(reversedNames, reversedSuffix, after == null ? null : reverse(after)),
+                name -> name.startsWith(reversedSuffix), name -> matches(pattern, reverse(name)), true);
+    }
+
+    /**
+     * The order of the names returned by byGlob for a pattern, e.g. to merge the pages of several indexes.
+     * @param pattern
+     * @return The natural order, or SUFFIX_ORDER when the search is anchored on the literal suffix of the pattern
+     */
+    public static Comparator<String> globOrder(String pattern) {
+        int firstWildcard = indexOfWildcard(pattern);
+        if (firstWildcard < 0 || firstWildcard >= pattern.length() - 1 - lastIndexOfWildcard(pattern)) {
+            return Comparator.naturalOrder();
+        }
+        return SUFFIX_ORDER;
+    }
+
+    /**
+     * Matches a whole name against a glob pattern, backtracking only to the latest *.
+     * Time complexity: O(L * P) in the worst case for a name of length L and a pattern of length P.
+     * @param pattern Pattern where * matches any sequence of characters and ? any single one
+     * @param name
+     * @return true if the pattern matches the whole name
+     */
+    public static boolean matches(String pattern, String name) {
+        int p = 0;
+        int n = 0;
+        int starPattern = -1;
+        int starName = 0;
+        while (n < name.length()) {
+            if (p < pattern.length()
+                    && (pattern.charAt(p) == ANY_CHARACTER || pattern.charAt(p) == name.charAt(n))) {
+                p++;
+                n++;
+            } else if (p < pattern.length() && pattern.charAt(p) == ANY_SEQUENCE) {
+                starPattern = p++;
+                starName = n;
+            } else if (starPattern >= 0) {
+                // Let the latest * take one more character
+                p = starPattern + 1;
+                n = ++starName;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == ANY_SEQUENCE) {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    /**
+     * Seeks to the first key not smaller than the prefix and strictly after the cursor.
+     */
+    private static Iterator<String> from(ConcurrentSkipListMap<String, Boolean> index, String prefix, String after) {
+        NavigableSet<String> keys = index.navigableKeySet();
+        if (after != null && after.compareTo(prefix) >= 0) {
+            return keys.tailSet(after, false).iterator();
+        }
+        return keys.tailSet(prefix, true).iterator();
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (pattern.charAt(i) == ANY_SEQUENCE || pattern.charAt(i) == ANY_CHARACTER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfWildcard(String pattern) {
+        for (int i = pattern.length() - 1; i >= 0; i--) {
+            if (pattern.charAt(i) == ANY_SEQUENCE || pattern.charAt(i) == ANY_CHARACTER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String reverse(String name) {
+        return new StringBuilder(name).reverse().toString();
+    }
+
+    /**
+     * Walks the keys while they are in range and returns the ones accepted by the filter.
+     */
+    private static final class MatchIterator implements Iterator<String> {
+        private final Iterator<String> keys;
+        private final Predicate<String> inRange;
+        private final Predicate<String> filter;
+        private final boolean reversed;
+        private String next;
+        private boolean done;
+
+        private MatchIterator(Iterator<String> keys, Predicate<String> inRange, Predicate<String> filter,
+                              boolean reversed) {
+            this.keys = keys;
+            this.inRange = inRange;
+            this.filter = filter;
+            this.reversed = reversed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                if (!keys.hasNext()) {
+                    done = true;
+                    break;
+                }
+                String key = keys.next();
+                if (!inRange.test(key)) {
+                    done = true;
+                } else if (filter.test(key)) {
+                    next = key;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String key = next;
+            next = null;
+            return reversed ? reverse(key) : key;
+        }
+    }
+}
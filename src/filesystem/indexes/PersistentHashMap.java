@@ -0,0 +1,347 @@
+package filesystem.indexes;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash map, implemented as a hash array mapped trie: every level consumes 5 bits of the hash and keeps only
+ * the occupied slots of its 32, found through a bitmap. An update copies the O(log32 N) nodes on the path to the
+ * changed entry and shares everything else with the previous version, so any number of versions can be kept and read
+ * from any thread while new versions are derived from them.
+ *
+ * Complexities (N is the number of entries):
+ * - get / put / remove: O(log32 N), which is at most 7 levels
+ * - iterating: O(N), in hash order
+ *
+ * @param <K> Key type, with consistent equals and hashCode
+ * @param <V> Value type, null values are not supported
+ */
+public final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param key
+     * @return The value of the key, or null if the map doesn't have it
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return root == null ? null : (V) root.get(key, hash(key), 0);
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param key
+     * @param value Must not be null
+     * @return A map with the key set to the value, this map if it already was
+     */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node updated = root == null
+                ? new BitmapNode(0, new Object[0]).put(key, value, hash(key), 0, added)
+                : root.put(key, value, hash(key), 0, added);
+        return updated == root ? this : new PersistentHashMap<>(updated, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param key
+     * @return A map without the key, this map if it didn't have it
+     */
+    public PersistentHashMap<K, V> remove(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node updated = root.remove(key, hash(key), 0);
+        return updated == root ? this : new PersistentHashMap<>(updated, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterates the keys in hash order.
+     * Time complexity: O(1) amortized per key.
+     * @return Lazy iterator
+     */
+    public Iterator<K> keys() {
+        return new EntryIterator<>(root, 0);
+    }
+
+    /**
+     * Iterates the values in the hash order of their keys.
+     * Time complexity: O(1) amortized per value.
+     * @return Lazy iterator
+     */
+    public Iterator<V> values() {
+        return new EntryIterator<>(root, 1);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Trie node, whose entries are stored flat as key and value pairs. A null key marks a slot holding a child node.
+     */
+    private abstract static class Node {
+        final Object[] entries;
+
+        Node(Object[] entries) {
+            this.entries = entries;
+        }
+
+        abstract Object get(Object key, int hash, int shift);
+
+        abstract Node put(Object key, Object value, int hash, int shift, boolean[] added);
+
+        // Returns null once the node is empty
+        abstract Node remove(Object key, int hash, int shift);
+    }
+
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+
+        private BitmapNode(int bitmap, Object[] entries) {
+            super(entries);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int slot = slot(bit);
+            Object slotKey = entries[slot];
+            if (slotKey == null) {
+                return ((Node) entries[slot + 1]).get(key, hash, shift + BITS);
+            }
+            return key.equals(slotKey) ? entries[slot + 1] : null;
+        }
+
+        @Override
+        Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            int bit = bit(hash, shift);
+            int slot = slot(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[entries.length + 2];
+                System.arraycopy(entries, 0, copy, 0, slot);
+                copy[slot] = key;
+                copy[slot + 1] = value;
+                System.arraycopy(entries, slot, copy, slot + 2, entries.length - slot);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object slotKey = entries[slot];
+            Object slotValue = entries[slot + 1];
+            if (slotKey == null) {
+                Node child = (Node) slotValue;
+                Node updated = child.put(key, value, hash, shift + BITS, added);
+                return updated == child ? this : with(slot, null, updated);
+            }
+            if (key.equals(slotKey)) {
+                return slotValue == value ? this : with(slot, slotKey, value);
+            }
+            // Two keys share the slot, push both one level down
+            added[0] = true;
+            return with(slot, null, pair(slotKey, slotValue, hash(slotKey), key, value, hash, shift + BITS));
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int slot = slot(bit);
+            Object slotKey = entries[slot];
+            if (slotKey == null) {
+                Node child = (Node) entries[slot + 1];
+                Node updated = child.remove(key, hash, shift + BITS);
+                if (updated == child) {
+                    return this;
+                }
+                return updated == null ? without(bit, slot) : with(slot, null, updated);
+            }
+            return key.equals(slotKey) ? without(bit, slot) : this;
+        }
+
+        private Node with(int slot, Object key, Object value) {
+            Object[] copy = entries.clone();
+            copy[slot] = key;
+            copy[slot + 1] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private Node without(int bit, int slot) {
+            if (entries.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[entries.length - 2];
+            System.arraycopy(entries, 0, copy, 0, slot);
+            System.arraycopy(entries, slot + 2, copy, slot, entries.length - slot - 2);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+
+        private int slot(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+    }
+
+    /**
+     * Keys whose whole hashes are equal, compared one by one.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        private CollisionNode(int hash, Object[] entries) {
+            super(entries);
+            this.hash = hash;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int slot = find(key);
+            return slot < 0 ? null : entries[slot + 1];
+        }
+
+        @Override
+        Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                // A different hash reached this level, the collisions become a child of a bitmap node
+                BitmapNode parent = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[]{null, this});
+                return parent.put(key, value, hash, shift, added);
+            }
+            int slot = find(key);
+            if (slot >= 0) {
+                if (entries[slot + 1] == value) {
+                    return this;
+                }
+                Object[] copy = entries.clone();
+                copy[slot + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = new Object[entries.length + 2];
+            System.arraycopy(entries, 0, copy, 0, entries.length);
+            copy[entries.length] = key;
+            copy[entries.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int slot = find(key);
+            if (slot < 0) {
+                return this;
+            }
+            if (entries.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[entries.length - 2];
+            System.arraycopy(entries, 0, copy, 0, slot);
+            System.arraycopy(entries, slot + 2, copy, slot, entries.length - slot - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        private int find(Object key) {
+            for (int i = 0; i < entries.length; i += 2) {
+                if (key.equals(entries[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Builds the smallest node holding two distinct keys.
+     */
+    private static Node pair(Object key1, Object value1, int hash1, Object key2, Object value2, int hash2, int shift) {
+        if (hash1 == hash2) {
+            return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+        }
+        boolean[] added = new boolean[1];
+        return new BitmapNode(0, new Object[0])
+                .put(key1, value1, hash1, shift, added)
+                .put(key2, value2, hash2, shift, added);
+    }
+
+    /**
+     * DFS over the trie with one position per open node, returning either the keys or the values of the entries.
+     */
+    private static final class EntryIterator<T> implements Iterator<T> {
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<Integer> positions = new ArrayDeque<>();
+        // 0 to return the keys, 1 to return the values
+        private final int offset;
+        private Object next;
+
+        private EntryIterator(Node root, int offset) {
+            this.offset = offset;
+            if (root != null) {
+                nodes.push(root);
+                positions.push(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !nodes.isEmpty()) {
+                Node node = nodes.peek();
+                int position = positions.pop();
+                if (position >= node.entries.length) {
+                    nodes.pop();
+                    continue;
+                }
+                positions.push(position + 2);
+                if (node.entries[position] == null) {
+                    nodes.push((Node) node.entries[position + 1]);
+                    positions.push(0);
+                } else {
+                    next = node.entries[position + offset];
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object element = next;
+            next = null;
+            return (T) element;
+        }
+    }
+}
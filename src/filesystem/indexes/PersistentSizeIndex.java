@@ -0,0 +1,338 @@
+package filesystem.indexes;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable order statistic tree of files keyed on (size, id), the persistent counterpart of FileSizeIndex.
+ * It is a treap whose nodes are never modified: an add or a remove copies the O(log F) nodes on its path and shares
+ * the rest of the tree with the previous version, so every version stays valid and can be read from any thread.
+ * The priority of a node is a hash of the file id, so the shape only depends on the files and no random state has
+ * to be carried from one version to the next.
+ *
+ * The files are any immutable records of a size and a unique id, so that a version never changes when a file does.
+ * A file is removed by its key, the record passed to remove only has to have the same size and id.
+ *
+ * Complexities (F is the number of files, all expected because of the hashed priorities):
+ * - add / remove: O(log F) time and new nodes
+ * - last (biggest file) / select (file at rank): O(log F)
+ * - iterating k files from any size bound: O(log F + k)
+ *
+ * @param <T> Type of the file records
+ */
+public final class PersistentSizeIndex<T> {
+
+    private static final class Node<T> {
+        private final T file;
+        private final int priority;
+        private final Node<T> left;
+        private final Node<T> right;
+        private final int count;
+
+        private Node(T file, int priority, Node<T> left, Node<T> right) {
+            this.file = file;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.count = 1 + count(left) + count(right);
+        }
+    }
+
+    private final ToLongFunction<T> sizeOf;
+    private final ToLongFunction<T> idOf;
+    private final Node<T> root;
+
+    private PersistentSizeIndex(ToLongFunction<T> sizeOf, ToLongFunction<T> idOf, Node<T> root) {
+        this.sizeOf = sizeOf;
+        this.idOf = idOf;
+        this.root = root;
+    }
+
+    /**
+     * @param sizeOf Size of a file record
+     * @param idOf Unique id of a file record, the tie breaker between files of the same size
+     * @return An empty index
+     */
+    public static <T> PersistentSizeIndex<T> empty(ToLongFunction<T> sizeOf, ToLongFunction<T> idOf) {
+        return new PersistentSizeIndex<>(sizeOf, idOf, null);
+    }
+
+    /**
+     * Builds an index out of files that are already sorted, as a Cartesian tree of their priorities.
+     * Time complexity: O(F).
+     * @param ascending The files sorted by (size, id) from the smallest
+     * @param sizeOf Size of a file record
+     * @param idOf Unique id of a file record
+     * @return PersistentSizeIndex
+     */
+    public static <T> PersistentSizeIndex<T> fromSorted(List<T> ascending, ToLongFunction<T> sizeOf,
+                                                        ToLongFunction<T> idOf) {
+        int n = ascending.size();
+        if (n == 0) {
+            return empty(sizeOf, idOf);
+        }
+        int[] priorities = new int[n];
+        int[] left = new int[n];
+        int[] right = new int[n];
+        int[] stack = new int[n];
+        int top = -1;
+        // The right spine of the tree built so far is on the stack, each file pops the ones of lower priority
+        for (int i = 0; i < n; i++) {
+            priorities[i] = priority(idOf.applyAsLong(ascending.get(i)));
+            right[i] = -1;
+            int last = -1;
+            while (top >= 0 && priorities[stack[top]] < priorities[i]) {
+                last = stack[top--];
+            }
+            left[i] = last;
+            if (top >= 0) {
+                right[stack[top]] = i;
+            }
+            stack[++top] = i;
+        }
+        return new PersistentSizeIndex<>(sizeOf, idOf, build(ascending, priorities, left, right, stack[0]));
+    }
+
+    /**
+     * Time complexity: O(log F).
+     * @param file Must not be in the index already
+     * @return An index with the file
+     */
+    public PersistentSizeIndex<T> add(T file) {
+        return new PersistentSizeIndex<>(sizeOf, idOf, insert(root, file, priority(idOf.applyAsLong(file))));
+    }
+
+    /**
+     * Time complexity: O(log F).
+     * @param file A record with the size and the id of the file to remove
+     * @return An index without the file, this index if it didn't have it
+     */
+    public PersistentSizeIndex<T> remove(T file) {
+        Node<T> updated = delete(root, file);
+        return updated == root ? this : new PersistentSizeIndex<>(sizeOf, idOf, updated);
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Time complexity: O(log F).
+     * @return The biggest file, or null if the index is empty
+     */
+    public T last() {
+        Node<T> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.file;
+    }
+
+    /**
+     * Returns the file at the given rank in ascending size order.
+     * Time complexity: O(log F).
+     * @param rank 0 for the smallest file up to size() - 1 for the biggest
+     * @return File
+     */
+    public T select(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Rank %d is out of bounds for %d files", rank, size()));
+        }
+        Node<T> node = root;
+        while (true) {
+            int leftCount = count(node.left);
+            if (rank < leftCount) {
+                node = node.left;
+            } else if (rank == leftCount) {
+                return node.file;
+            } else {
+                rank -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Iterates the files whose size is within the given bounds, from the smallest.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @param minSize Inclusive lower bound
+     * @param maxSize Inclusive upper bound
+     * @return Lazy iterator
+     */
+    public Iterator<T> range(long minSize, long maxSize) {
+        return new AscendingIterator<>(root, sizeOf, minSize, maxSize);
+    }
+
+    /**
+     * Iterates all the files from the biggest.
+     * Time complexity: O(log F) to create, O(1) amortized per file.
+     * @return Lazy iterator
+     */
+    public Iterator<T> descendingIterator() {
+        return new DescendingIterator<>(root);
+    }
+
+    private int compare(T file, Node<T> node) {
+        int bySize = Long.compare(sizeOf.applyAsLong(file), sizeOf.applyAsLong(node.file));
+        return bySize != 0 ? bySize : Long.compare(idOf.applyAsLong(file), idOf.applyAsLong(node.file));
+    }
+
+    private static int count(Node<?> node) {
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Murmur3 finalizer of the file id, spreads sequential ids over all the priorities.
+     */
+    private static int priority(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static <T> Node<T> build(List<T> ascending, int[] priorities, int[] left, int[] right, int index) {
+        if (index < 0) {
+            return null;
+        }
+        return new Node<>(ascending.get(index), priorities[index],
+                build(ascending, priorities, left, right, left[index]),
+                build(ascending, priorities, left, right, right[index]));
+    }
+
+    private Node<T> insert(Node<T> node, T file, int priority) {
+        if (node == null) {
+            return new Node<>(file, priority, null, null);
+        }
+        if (compare(file, node) < 0) {
+            Node<T> left = insert(node.left, file, priority);
+            if (left.priority > node.priority) {
+                // Rotate right
+                return new Node<>(left.file, left.priority, left.left,
+                        new Node<>(node.file, node.priority, left.right, node.right));
+            }
+            return new Node<>(node.file, node.priority, left, node.right);
+        }
+        Node<T> right = insert(node.right, file, priority);
+        if (right.priority > node.priority) {
+            // Rotate left
+            return new Node<>(right.file, right.priority,
+                    new Node<>(node.file, node.priority, node.left, right.left), right.right);
+        }
+        return new Node<>(node.file, node.priority, node.left, right);
+    }
+
+    private Node<T> delete(Node<T> node, T file) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(file, node);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node<T> left = delete(node.left, file);
+            return left == node.left ? node : new Node<>(node.file, node.priority, left, node.right);
+        }
+        Node<T> right = delete(node.right, file);
+        return right == node.right ? node : new Node<>(node.file, node.priority, node.left, right);
+    }
+
+    /**
+     * Merges two treaps where all the keys of the first are smaller than the keys of the second.
+     */
+    private static <T> Node<T> merge(Node<T> smaller, Node<T> bigger) {
+        if (smaller == null) {
+            return bigger;
+        }
+        if (bigger == null) {
+            return smaller;
+        }
+        if (smaller.priority > bigger.priority) {
+            return new Node<>(smaller.file, smaller.priority, smaller.left, merge(smaller.right, bigger));
+        }
+        return new Node<>(bigger.file, bigger.priority, merge(smaller, bigger.left), bigger.right);
+    }
+
+    private abstract static class TreeIterator<T> implements Iterator<T> {
+        final ArrayDeque<Node<T>> stack = new ArrayDeque<>();
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<T> node = stack.pop();
+            pushFrom(node);
+            return node.file;
+        }
+
+        abstract void pushFrom(Node<T> visited);
+    }
+
+    private static final class AscendingIterator<T> extends TreeIterator<T> {
+        private final ToLongFunction<T> sizeOf;
+        private final long maxSize;
+
+        private AscendingIterator(Node<T> root, ToLongFunction<T> sizeOf, long minSize, long maxSize) {
+            this.sizeOf = sizeOf;
+            this.maxSize = maxSize;
+            // Keep the path of nodes that are not smaller than the lower bound
+            Node<T> node = root;
+            while (node != null) {
+                if (sizeOf.applyAsLong(node.file) >= minSize) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty() && sizeOf.applyAsLong(stack.peek().file) <= maxSize;
+        }
+
+        @Override
+        void pushFrom(Node<T> visited) {
+            for (Node<T> node = visited.right; node != null; node = node.left) {
+                stack.push(node);
+            }
+        }
+    }
+
+    private static final class DescendingIterator<T> extends TreeIterator<T> {
+
+        private DescendingIterator(Node<T> root) {
+            for (Node<T> node = root; node != null; node = node.right) {
+                stack.push(node);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        void pushFrom(Node<T> visited) {
+            for (Node<T> node = visited.left; node != null; node = node.right) {
+                stack.push(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package filesystem.indexes;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Read only sorted map view of a slice of a sorted array of distinct keys, all mapped to the same value.
+ * Its purpose is to feed the linear time bulk constructor of ConcurrentSkipListMap (and TreeMap), which only reads the
+ * comparator and the ordered entries: the indexes sort their keys in an array and build the skip list from this view,
+ * instead of inserting the keys one by one. The other methods are still implemented, lookups and range views are
+ * binary searches over the shared array, never copies of it.
+ *
+ * A bound given to subMap, headMap or tailMap outside of the slice of a view is clamped to it.
+ *
+ * Method Signatures and Complexities Summary:
+ *
+ * 1. SortedArrayMap(K[] sorted, V value, Comparator<? super K> comparator)
+ *    - Time Complexity: O(1) (The array is neither copied nor checked)
+ *
+ * 2. public V get(Object key) / containsKey(Object key)
+ *    - Time Complexity: O(log n) (Binary search)
+ *
+ * 3. public SortedMap<K, V> subMap(K fromKey, K toKey) / headMap(K toKey) / tailMap(K fromKey)
+ *    - Time Complexity: O(log n) (Binary search of the bounds)
+ *
+ * 4. public K firstKey() / lastKey() / size()
+ *    - Time Complexity: O(1)
+ *
+ * 5. public Set<Entry<K, V>> entrySet()
+ *    - Time Complexity: O(1), O(1) per iterated entry
+ */
+final class SortedArrayMap<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+    private final K[] sorted;
+    private final V value;
+    private final Comparator<? super K> comparator;
+    // The slice [from, to) of the array seen by this view
+    private final int from;
+    private final int to;
+
+    /**
+     * @param sorted Distinct keys, sorted by the comparator, the array must not be modified while the map is in use
+     * @param value The value of every key
+     * @param comparator The order of the keys, null for their natural order
+     */
+    SortedArrayMap(K[] sorted, V value, Comparator<? super K> comparator) {
+        this(sorted, value, comparator, 0, sorted.length);
+    }
+
+    private SortedArrayMap(K[] sorted, V value, Comparator<? super K> comparator, int from, int to) {
+        this.sorted = sorted;
+        this.value = value;
+        this.comparator = comparator;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        return indexOf(key) >= 0 ? value : null;
+    }
+
+    @Override
+    public K firstKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return sorted[from];
+    }
+
+    @Override
+    public K lastKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return sorted[to - 1];
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        if (compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new SortedArrayMap<>(sorted, value, comparator, lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return new SortedArrayMap<>(sorted, value, comparator, from, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return new SortedArrayMap<>(sorted, value, comparator, lowerBound(fromKey), to);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<>() {
+                    private int next = from;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < to;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (next >= to) {
+                            throw new NoSuchElementException();
+                        }
+                        return new SimpleImmutableEntry<>(sorted[next++], value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * @return The index of the first key of the slice not below the given key, to if there is none
+     */
+    private int lowerBound(K key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(sorted[middle], key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The index of the key in the slice, -1 if it is not in it
+     */
+    @SuppressWarnings("unchecked")
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int index = lowerBound((K) key);
+        return index < to && compare(sorted[index], (K) key) == 0 ? index : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(K a, K b) {
+        return comparator != null ? comparator.compare(a, b) : ((Comparable<? super K>) a).compareTo(b);
+    }
+}
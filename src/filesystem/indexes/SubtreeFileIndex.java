@@ -0,0 +1,463 @@
+package filesystem.indexes;
+
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Index of the biggest files under every directory, kept as a single Euler tour of the tree: every directory has an
+ * opening and a closing entry, every file a single entry, and the tour lists the entries in pre-order, so the files of
+ * a subtree are exactly the entries between the two entries of its directory. The tour is an implicit treap, ordered
+ * by position instead of a key, where every entry knows the number of entries and the biggest file below it.
+ *
+ * - The biggest files of a subtree come from the O(log N) pieces of the treap covering its range.
+ * - Deleting or moving a subtree cuts its range out with two splits, and moving it pastes the range back after the
+ *   opening entry of its new parent, whatever the size of the subtree.
+ * - A resized file only updates the biggest file of the entries above it.
+ * - Every node links to its entry (see FileSystemNode.getSubtreeEntry), so no lookup is needed to find its range.
+ *
+ * Complexities (N is the number of files and directories, all expected because of the random priorities):
+ * - add: O(log N + S) for a node with a subtree of S nodes, O(log N) for a new file or directory
+ * - remove / move: O(log N), whatever the size of the subtree
+ * - resized: O(log N)
+ * - biggest file of a subtree: O(log N)
+ * - k biggest files of a subtree: O(log N + k * log N * log(k * log N))
+ * - iterating the files of a subtree of S nodes: O(log N + S)
+ * - memory: one entry per file and two per directory, O(N), against O(F * h) for a size ordered copy per directory
+ *
+ * Not thread safe, the entries of a removed subtree stay linked to its nodes and are collected with them.
+ */
+public final class SubtreeFileIndex {
+    private static final Comparator<Piece> BIGGEST_PIECE_FIRST = Comparator.comparing(Piece::top, File.BIGGEST_FIRST);
+
+    /**
+     * A position in the tour, opaque outside of the index.
+     */
+    public static final class Entry {
+        // The file of a file entry, null for the entries of a directory
+        private final File file;
+        // The closing entry of a directory, set on its opening entry only
+        private final Entry close;
+        private final int priority;
+        private Entry left;
+        private Entry right;
+        private Entry parent;
+        // Number of entries in the treap below this one, itself included
+        private int count;
+        // Biggest file in the treap below this entry, itself included, null if there is none
+        private File biggest;
+
+        private Entry(File file, Entry close, int priority) {
+            this.file = file;
+            this.close = close;
+            this.priority = priority;
+            this.count = 1;
+            this.biggest = file;
+        }
+    }
+
+    /**
+     * A range of the tour which a top-k query hasn't split yet: the whole treap below an entry, or its own file only.
+     */
+    private static final class Piece {
+        private final Entry entry;
+        private final boolean whole;
+
+        private Piece(Entry entry, boolean whole) {
+            this.entry = entry;
+            this.whole = whole;
+        }
+
+        private File top() {
+            return whole ? entry.biggest : entry.file;
+        }
+    }
+
+    private Entry root;
+    private int seed = 0x2545F491;
+    // The two halves of the last split, the entries before the position and the entries from it
+    private Entry low;
+    private Entry high;
+
+    /**
+     * Indexes a root directory and the whole tree already below it, e.g. a restored one.
+     * Time complexity: O(N).
+     * @param rootDir
+     */
+    public SubtreeFileIndex(Directory rootDir) {
+        root = tour(rootDir);
+    }
+
+    /**
+     * Indexes a node under an indexed directory, with the whole subtree already below it. The node doesn't have to be
+     * linked to the directory yet.
+     * Time complexity: O(log N + S) for a subtree of S nodes.
+     * @param node A new file or directory, or the root of a new subtree
+     * @param parent The directory of the node
+     */
+    public void add(FileSystemNode node, Directory parent) {
+        paste(tour(node), parent);
+    }
+
+    /**
+     * Takes a node out of the index, with its whole subtree. Can be called once the node is unlinked.
+     * Time complexity: O(log N).
+     * @param node An indexed file or directory
+     */
+    public void remove(FileSystemNode node) {
+        cut(node);
+    }
+
+    /**
+     * Moves a node, with its whole subtree, right after the opening entry of its new parent.
+     * Time complexity: O(log N).
+     * @param node An indexed file or directory
+     * @param newParent An indexed directory outside of the subtree of the node
+     */
+    public void move(FileSystemNode node, Directory newParent) {
+        paste(cut(node), newParent);
+    }
+
+    /**
+     * Updates the biggest files above the entry of a file whose size changed. Must be called once the size changed.
+     * Time complexity: O(log N).
+     * @param file An indexed file
+     */
+    public void resized(File file) {
+        for (Entry entry = file.getSubtreeEntry(); entry != null; entry = entry.parent) {
+            update(entry);
+        }
+    }
+
+    /**
+     * Time complexity: O(log N).
+     * @param dir An indexed directory
+     * @return The biggest file under the directory, by File.BIGGEST_FIRST, or null if it has none
+     */
+    public File biggest(Directory dir) {
+        File biggest = null;
+        for (Piece piece : pieces(dir)) {
+            biggest = bigger(biggest, piece.top());
+        }
+        return biggest;
+    }
+
+    /**
+     * Expands the pieces of the range of the directory best first: a whole piece is replaced by its left part, its own
+     * file and its right part, so a file comes out once every piece that could hold a bigger one was expanded.
+     * Time complexity: O(log N + k * log N * log(k * log N)), every returned file takes at most one expansion per level
+     * of the treap.
+     * @param dir An indexed directory
+     * @param k
+     * @return Up to k files under the directory, from the biggest
+     */
+    public List<File> biggest(Directory dir, int k) {
+        List<File> biggest = new ArrayList<>(Math.max(0, Math.min(k, 1024)));
+        if (k <= 0) {
+            return biggest;
+        }
+        PriorityQueue<Piece> pending = new PriorityQueue<>(BIGGEST_PIECE_FIRST);
+        pending.addAll(pieces(dir));
+        while (biggest.size() < k && !pending.isEmpty()) {
+            Piece piece = pending.poll();
+            if (!piece.whole) {
+                biggest.add(piece.entry.file);
+                continue;
+            }
+            Entry entry = piece.entry;
+            if (entry.left != null && entry.left.biggest != null) {
+                pending.add(new Piece(entry.left, true));
+            }
+            if (entry.file != null) {
+                pending.add(new Piece(entry, false));
+            }
+            if (entry.right != null && entry.right.biggest != null) {
+                pending.add(new Piece(entry.right, true));
+            }
+        }
+        return biggest;
+    }
+
+    /**
+     * Iterates the files under a directory in tour order, which the index must not change while it is in use.
+     * Time complexity: O(log N) to create, O(1) amortized per entry of the range, so O(S) for a subtree of S nodes.
+     * @param dir An indexed directory
+     * @return Lazy iterator
+     */
+    public Iterator<File> files(Directory dir) {
+        Entry open = dir.getSubtreeEntry();
+        return new Iterator<>() {
+            private Entry next = nextFile(open);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public File next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                File file = next.file;
+                next = nextFile(next);
+                return file;
+            }
+
+            private Entry nextFile(Entry from) {
+                for (Entry entry = successor(from); entry != open.close; entry = successor(entry)) {
+                    if (entry.file != null) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return The pieces of the treap covering the entries strictly between the two entries of the directory
+     */
+    private List<Piece> pieces(Directory dir) {
+        Entry open = dir.getSubtreeEntry();
+        List<Piece> pieces = new ArrayList<>();
+        collect(top(open), rank(open) + 1, rank(open.close), pieces);
+        return pieces;
+    }
+
+    /**
+     * Collects the pieces covering the positions [from, to) of the treap below the entry, which have a file.
+     */
+    private static void collect(Entry entry, int from, int to, List<Piece> pieces) {
+        if (entry == null || from >= to || entry.biggest == null) {
+            return;
+        }
+        if (from <= 0 && to >= entry.count) {
+            pieces.add(new Piece(entry, true));
+            return;
+        }
+        int leftCount = count(entry.left);
+        if (from < leftCount) {
+            collect(entry.left, from, Math.min(to, leftCount), pieces);
+        }
+        if (entry.file != null && from <= leftCount && leftCount < to) {
+            pieces.add(new Piece(entry, false));
+        }
+        if (to > leftCount + 1) {
+            collect(entry.right, from - leftCount - 1, to - leftCount - 1, pieces);
+        }
+    }
+
+    /**
+     * Cuts the range of a node out of the tour.
+     * @return The treap of the cut range
+     */
+    private Entry cut(FileSystemNode node) {
+        Entry first = node.getSubtreeEntry();
+        Entry last = first.close != null ? first.close : first;
+        int from = rank(first);
+        int to = rank(last) + 1;
+        split(root, from);
+        Entry before = low;
+        split(high, to - from);
+        Entry range = low;
+        root = merge(before, high);
+        root.parent = null;
+        range.parent = null;
+        return range;
+    }
+
+    /**
+     * Inserts a range right after the opening entry of a directory, so it becomes its first child.
+     */
+    private void paste(Entry range, Directory parent) {
+        split(root, rank(parent.getSubtreeEntry()) + 1);
+        Entry after = high;
+        root = merge(merge(low, range), after);
+        root.parent = null;
+    }
+
+    /**
+     * Splits a treap at a position into low and high, the treaps of the entries before and from the position.
+     */
+    private void split(Entry entry, int position) {
+        if (entry == null) {
+            low = null;
+            high = null;
+            return;
+        }
+        int leftCount = count(entry.left);
+        if (position <= leftCount) {
+            split(entry.left, position);
+            entry.left = high;
+            update(entry);
+            high = entry;
+        } else {
+            split(entry.right, position - leftCount - 1);
+            entry.right = low;
+            update(entry);
+            low = entry;
+        }
+        if (low != null) {
+            low.parent = null;
+        }
+        if (high != null) {
+            high.parent = null;
+        }
+    }
+
+    /**
+     * @return The treap of the entries of the first treap followed by the entries of the second
+     */
+    private static Entry merge(Entry first, Entry second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        }
+        second.left = merge(first, second.left);
+        update(second);
+        return second;
+    }
+
+    /**
+     * Builds the treap of the tour of a subtree in a single pass: the entries come in position order, so every new
+     * entry goes to the right spine, taking the spine entries of lower priority as its left child. An entry leaving
+     * the spine gets no more children, so its count and biggest file are final.
+     * Time complexity: O(S) for a subtree of S nodes.
+     * @return The treap of the tour, with the entries linked to their nodes
+     */
+    private Entry tour(FileSystemNode subtreeRoot) {
+        ArrayDeque<Entry> spine = new ArrayDeque<>();
+        // Nodes to enter and closing entries to append once the children before them are done
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(subtreeRoot);
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof Entry) {
+                append(spine, (Entry) next);
+            } else if (next instanceof File) {
+                Entry entry = new Entry((File) next, null, nextPriority());
+                ((File) next).setSubtreeEntry(entry);
+                append(spine, entry);
+            } else {
+                Directory dir = (Directory) next;
+                Entry open = new Entry(null, new Entry(null, null, nextPriority()), nextPriority());
+                dir.setSubtreeEntry(open);
+                append(spine, open);
+                pending.push(open.close);
+                for (FileSystemNode child : dir.getChildren()) {
+                    pending.push(child);
+                }
+            }
+        }
+        Entry top = null;
+        while (!spine.isEmpty()) {
+            top = spine.pop();
+            update(top);
+        }
+        return top;
+    }
+
+    private static void append(ArrayDeque<Entry> spine, Entry entry) {
+        Entry below = null;
+        while (!spine.isEmpty() && spine.peek().priority < entry.priority) {
+            below = spine.pop();
+            update(below);
+        }
+        entry.left = below;
+        if (!spine.isEmpty()) {
+            spine.peek().right = entry;
+        }
+        spine.push(entry);
+    }
+
+    /**
+     * @return The position of the entry in its treap
+     */
+    private static int rank(Entry entry) {
+        int rank = count(entry.left);
+        for (Entry child = entry, parent = entry.parent; parent != null; child = parent, parent = parent.parent) {
+            if (parent.right == child) {
+                rank += count(parent.left) + 1;
+            }
+        }
+        return rank;
+    }
+
+    private static Entry top(Entry entry) {
+        while (entry.parent != null) {
+            entry = entry.parent;
+        }
+        return entry;
+    }
+
+    /**
+     * @return The entry at the next position of the treap, null after the last one
+     */
+    private static Entry successor(Entry entry) {
+        if (entry.right != null) {
+            Entry next = entry.right;
+            while (next.left != null) {
+                next = next.left;
+            }
+            return next;
+        }
+        Entry child = entry;
+        Entry parent = entry.parent;
+        while (parent != null && parent.right == child) {
+            child = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    private static int count(Entry entry) {
+        return entry == null ? 0 : entry.count;
+    }
+
+    private static void update(Entry entry) {
+        File biggest = entry.file;
+        if (entry.left != null) {
+            entry.left.parent = entry;
+            biggest = bigger(biggest, entry.left.biggest);
+        }
+        if (entry.right != null) {
+            entry.right.parent = entry;
+            biggest = bigger(biggest, entry.right.biggest);
+        }
+        entry.count = 1 + count(entry.left) + count(entry.right);
+        entry.biggest = biggest;
+    }
+
+    private static File bigger(File first, File second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return File.BIGGEST_FIRST.compare(first, second) <= 0 ? first : second;
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
@@ -0,0 +1,91 @@
+package filesystem.listing;
+
+import filesystem.exceptions.manager.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of a child in a listing order: its rank in the order (see SortKey.rank) and its name.
+ *
+ * A continuation cursor is the key of the last child of a page, encoded with its sort key as an opaque URL safe
+ * string. The next page starts strictly after that key, whether the child is still there or not, so a cursor stays
+ * valid across any insert and delete: children removed meanwhile are simply not returned, children inserted after the
+ * position are, children inserted before it are not.
+ */
+public final class ListingKey implements Comparable<ListingKey> {
+    private static final char SEPARATOR = ':';
+
+    private final long rank;
+    private final String name;
+
+    public ListingKey(long rank, String name) {
+        this.rank = rank;
+        this.name = name;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int compareTo(ListingKey other) {
+        int byRank = Long.compare(rank, other.rank);
+        return byRank != 0 ? byRank : name.compareTo(other.name);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ListingKey && rank == ((ListingKey) other).rank
+                && name.equals(((ListingKey) other).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(rank) * 31 + name.hashCode();
+    }
+
+    /**
+     * @return The opaque cursor resuming a listing in the given order after this key
+     */
+    public String toCursor(SortKey sortKey) {
+        String plain = sortKey.name() + SEPARATOR + rank + SEPARATOR + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor returned by toCursor.
+     * @param cursor The cursor, or null for the first page
+     * @param sortKey The order of the listing being resumed, which must be the one of the cursor
+     * @return ListingKey, null for a null cursor
+     * @throws InvalidCursorException if the cursor is malformed or was made for another order
+     */
+    public static ListingKey fromCursor(String cursor, SortKey sortKey) throws InvalidCursorException {
+        if (cursor == null) {
+            return null;
+        }
+        String plain;
+        try {
+            plain = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Malformed listing cursor: %s", cursor);
+        }
+        int rankStart = plain.indexOf(SEPARATOR) + 1;
+        int nameStart = plain.indexOf(SEPARATOR, rankStart) + 1;
+        if (rankStart == 0 || nameStart == 0) {
+            throw new InvalidCursorException("Malformed listing cursor: %s", cursor);
+        }
+        if (!plain.substring(0, rankStart - 1).equals(sortKey.name())) {
+            throw new InvalidCursorException("Listing cursor %s was not made for the %s order", cursor, sortKey);
+        }
+        try {
+            return new ListingKey(Long.parseLong(plain.substring(rankStart, nameStart - 1)), plain.substring(nameStart));
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException("Malformed listing cursor: %s", cursor);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package filesystem.listing;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * One page of a directory listing: the keys of up to limit children in the listing order, and the cursor resuming the
+ * listing after the last of them. The keys hold the name of every child and the value it is ordered by, so pages of
+ * several directories in the same order can be merged.
+ */
+public final class ListingPage {
+    private final List<ListingKey> keys;
+    private final String nextCursor;
+
+    /**
+     * @param keys The keys of the children of the page, in the listing order
+     * @param nextCursor The cursor of the next page, or null if the listing reached the end of the directory
+     */
+    public ListingPage(List<ListingKey> keys, String nextCursor) {
+        this.keys = List.copyOf(keys);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ListingKey> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return A view of the names of the children of the page, in the listing order
+     */
+    public List<String> getNames() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return keys.get(index).getName();
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+
+    /**
+     * @return The opaque cursor to pass to the next list call, or null if there is no next page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page size is not positive
+     */
+    public static void validateLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException(String.format("limit must be positive: %d", limit));
+        }
+    }
+}
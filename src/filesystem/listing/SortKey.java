@@ -0,0 +1,42 @@
+package filesystem.listing;
+
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+
+/**
+ * Orders of a directory listing. Every order ranks the children by a long and breaks ties by name, names being unique
+ * within a directory, so the order is total and a page can resume after any (rank, name) position.
+ */
+public enum SortKey {
+    // Lexicographic order of the names
+    NAME,
+    // Files from the smallest, after the directories. The size of a directory is the total of its subtree, which
+    // changes with every file added below it, so directories are ranked first and by name instead
+    SIZE,
+    // Oldest first, to the millisecond
+    CREATION_DATE;
+
+    // Rank of the directories in the SIZE order, below every file since file sizes are positive
+    private static final long DIRECTORY_SIZE_RANK = -1;
+
+    /**
+     * @return The rank of a child in this order, which never changes while the child exists
+     */
+    public long rank(FileSystemNode node) {
+        switch (this) {
+            case SIZE:
+                return node instanceof File ? ((File) node).getSize() : DIRECTORY_SIZE_RANK;
+            case CREATION_DATE:
+                return node.getCreationMillis();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return The position of a child in this order
+     */
+    public ListingKey keyOf(FileSystemNode node) {
+        return new ListingKey(rank(node), node.getName());
+    }
+}
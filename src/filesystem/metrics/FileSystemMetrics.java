@@ -0,0 +1,170 @@
+package filesystem.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Operation metrics of a file system manager: a latency histogram and a failure counter per operation, failure counts
+ * per exception type and named gauges read on demand.
+ * Every recording method is lock free and allocation free, except the first failure of a new exception type.
+ */
+public class FileSystemMetrics {
+    /**
+     * The operations of FileSystemManager that are measured.
+     */
+    public enum Operation {
+        ADD_FILE,
+        ADD_DIR,
+        DELETE,
+        MOVE,
+        RENAME,
+        // Both resize and append
+        RESIZE,
+        APPLY_BATCH,
+        DELETE_OLDER_THAN,
+        SHOW_FILE_SYSTEM,
+        GET_FILE_SIZE,
+        // The lookups that don't throw: tryGetFileSize, nodeType and exists
+        LOOKUP,
+        GET_BIGGEST_FILE,
+        GET_BIGGEST_FILES,
+        GET_FILES_IN_SIZE_RANGE,
+        // The creation time queries: getFilesCreatedBetween, getOldestFiles and getNewestFiles
+        GET_FILES_BY_TIME,
+        GET_FILE_SIZE_AT_RANK,
+        GET_FILE_SIZE_PERCENTILE,
+        GET_DIRECTORY_AGGREGATE,
+        FIND,
+        LIST
+    }
+
+    private final EnumMap<Operation, LatencyHistogram> latencies;
+    private final EnumMap<Operation, LongAdder> failures;
+    private final ConcurrentHashMap<Class<?>, LongAdder> exceptions;
+    private final LongAdder deletedNodes;
+    // Registered once when the owner is built, then only read
+    private final Map<String, LongSupplier> gauges;
+
+    public FileSystemMetrics() {
+        this.latencies = new EnumMap<>(Operation.class);
+        this.failures = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+        this.exceptions = new ConcurrentHashMap<>();
+        this.deletedNodes = new LongAdder();
+        this.gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+    }
+
+    /**
+     * Records a completed operation, successful or not.
+     * @param operation
+     * @param nanos How long the operation took
+     */
+    public void recordLatency(Operation operation, long nanos) {
+        latencies.get(operation).record(nanos);
+    }
+
+    /**
+     * Counts a failed operation and the type of its exception.
+     * @param operation
+     * @param failure The thrown exception
+     */
+    public void recordFailure(Operation operation, Throwable failure) {
+        failures.get(operation).increment();
+        exceptions.computeIfAbsent(failure.getClass(), type -> new LongAdder()).increment();
+    }
+
+    /**
+     * Counts the nodes removed from the tree by a delete, the deleted node and everything below it.
+     * @param nodes
+     */
+    public void recordDeletedNodes(long nodes) {
+        deletedNodes.add(nodes);
+    }
+
+    /**
+     * Registers a gauge, read every time the gauges are listed.
+     * @param name
+     * @param gauge
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return The latency histogram of the operation in nanoseconds, which also counts its calls
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @return The number of calls to the operation, failed ones included
+     */
+    public long getOperationCount(Operation operation) {
+        return latencies.get(operation).getCount();
+    }
+
+    /**
+     * @return The number of calls to the operation that threw
+     */
+    public long getFailureCount(Operation operation) {
+        return failures.get(operation).sum();
+    }
+
+    /**
+     * @return The number of operations that threw the given exception type, subclasses not included
+     */
+    public long getExceptionCount(Class<? extends Throwable> type) {
+        LongAdder count = exceptions.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return The failure counts keyed by the simple name of the exception type, in name order
+     */
+    public Map<String, Long> getExceptionCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        exceptions.forEach((type, count) -> counts.merge(type.getSimpleName(), count.sum(), Long::sum));
+        return counts;
+    }
+
+    /**
+     * @return The number of nodes removed by all the deletes
+     */
+    public long getDeletedNodeCount() {
+        return deletedNodes.sum();
+    }
+
+    /**
+     * Reads every gauge. Each gauge documents its own cost.
+     * @return The current gauge values keyed by name, in registration order
+     */
+    public Map<String, Long> readGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        synchronized (gauges) {
+            gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        }
+        return values;
+    }
+
+    /**
+     * Forgets every recorded latency and count, the gauges are kept.
+     */
+    public void reset() {
+        for (Operation operation : Operation.values()) {
+            latencies.get(operation).reset();
+            failures.get(operation).reset();
+        }
+        exceptions.clear();
+        deletedNodes.reset();
+    }
+}
@@ -0,0 +1,36 @@
+package filesystem.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of a delete that took longer than the threshold, 10 ms unless the recording settings say otherwise.
+ * Costs a branch per delete while no recording enables it.
+ */
+@Name("filesystem.SlowDelete")
+@Label("Slow Delete")
+@Category("File System")
+@Description("A delete of a file or directory that took longer than the threshold")
+@Threshold("10 ms")
+@StackTrace(false)
+public class SlowDeleteEvent extends Event {
+    @Label("Name")
+    private final String name;
+
+    @Label("Removed Nodes")
+    @Description("The deleted node and every node below it")
+    private long removedNodes;
+
+    public SlowDeleteEvent(String name) {
+        this.name = name;
+    }
+
+    public void setRemovedNodes(long removedNodes) {
+        this.removedNodes = removedNodes;
+    }
+}
@@ -0,0 +1,41 @@
+package filesystem.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a traversal of the whole tree or of a big part of it, e.g. showFileSystem.
+ * Costs a branch per traversal while no recording enables it.
+ */
+@Name("filesystem.Traversal")
+@Label("Tree Traversal")
+@Category("File System")
+@Description("A walk over the file system tree, up to a depth and an amount of nodes")
+@StackTrace(false)
+public class TraversalEvent extends Event {
+    @Label("Reason")
+    private final String reason;
+
+    @Label("Max Depth")
+    private final int maxDepth;
+
+    @Label("Max Nodes")
+    private final long maxNodes;
+
+    @Label("Visited Nodes")
+    private long visitedNodes;
+
+    public TraversalEvent(String reason, int maxDepth, long maxNodes) {
+        this.reason = reason;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    public void setVisitedNodes(long visitedNodes) {
+        this.visitedNodes = visitedNodes;
+    }
+}
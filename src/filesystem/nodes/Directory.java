@@ -1,16 +1,68 @@
 package filesystem.nodes;
 
 import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
 
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Represents a directory in the file system.
  * Directories can contain other files and directories.
+ *
+ * Most directories are empty or hold a handful of entries, so the children are not kept in a HashMap, which costs a map
+ * object, a table and an entry object per child. Their storage adapts to their number instead:
+ * - No children: a shared empty array, nothing is allocated.
+ * - Up to INLINE_CAPACITY children: a small array scanned linearly, which is as fast as hashing for so few names and
+ *   iterates in insertion order.
+ * - More children: an open addressing hash table of the nodes themselves, at most half full, with backward shift
+ *   deletion so removals leave no tombstones. It turns back into a small array once it holds SHRINK_THRESHOLD
+ *   children.
+ *
+ * Listings (see list) walk the children in a SortKey order. A directory with more than INLINE_CAPACITY children keeps
+ * a sorted map of them per order it was listed in, built by the first such listing and updated by every add, remove,
+ * move, rename and resize from then on, so a page costs O(log n + limit). Smaller directories are sorted on every
+ * listing. Like the children storage, the listing orders are not thread safe, listings and changes of the children
+ * must be serialized by the caller.
  */
 public class Directory extends FileSystemNode {
-    private final HashMap<String, FileSystemNode> children = new HashMap<>();
+    private static final AtomicLongFieldUpdater<Directory> TOTAL_SIZE =
+            AtomicLongFieldUpdater.newUpdater(Directory.class, "totalSize");
+    private static final AtomicLongFieldUpdater<Directory> FILE_COUNT =
+            AtomicLongFieldUpdater.newUpdater(Directory.class, "fileCount");
+    private static final AtomicLongFieldUpdater<Directory> DIRECTORY_COUNT =
+            AtomicLongFieldUpdater.newUpdater(Directory.class, "directoryCount");
+    private static final FileSystemNode[] NO_CHILDREN = new FileSystemNode[0];
+    // Largest array scanned linearly, bigger arrays are hash tables
+    private static final int INLINE_CAPACITY = 8;
+    // A hash table turns back into a small array once it holds this many children
+    private static final int SHRINK_THRESHOLD = INLINE_CAPACITY / 2;
+
+    // Children storage, chosen by the length of the array (see the class comment):
+    // - NO_CHILDREN, shared by every empty directory
+    // - up to INLINE_CAPACITY slots, the children packed at the start in insertion order and found by a linear scan
+    // - a power of two above it, an open addressing hash table keyed by name with linear probing
+    private FileSystemNode[] children = NO_CHILDREN;
+    private int childCount;
+    // Aggregates of the whole subtree below this directory, not including the directory itself.
+    // Updated atomically since concurrent adds under different parents share ancestors.
+    private volatile long totalSize;
+    private volatile long fileCount;
+    private volatile long directoryCount;
+    // Children by listing key, indexed by SortKey ordinal, null until the directory is listed in that order
+    private TreeMap<ListingKey, FileSystemNode>[] listingOrders;
 
     /**
      * Creates a new directory with the given name.
@@ -21,23 +73,544 @@ public class Directory extends FileSystemNode {
         super(name);
     }
 
+    /**
+     * Creates a directory that was created earlier, e.g. when it is restored from disk.
+     * @param name The name of the directory
+     * @param creationMillis The original creation time of the directory, in milliseconds since the epoch
+     * @throws InvalidNameException if the name is invalid
+     */
+    public Directory(String name, long creationMillis) throws InvalidNameException {
+        super(name, creationMillis);
+    }
+
+    /**
+     * Sizes the children storage of an empty directory for the given number of children, so adding them never grows it.
+     * Does nothing once the directory has children.
+     * @param expectedChildren
+     */
+    public void ensureChildCapacity(int expectedChildren) {
+        if (childCount == 0 && expectedChildren > 0) {
+            children = new FileSystemNode[expectedChildren <= INLINE_CAPACITY
+                    ? expectedChildren : tableCapacity(expectedChildren)];
+        }
+    }
+
     public void addChild(FileSystemNode child) {
-        children.put(child.getName(), child);
+        if (listingOrders != null) {
+            removeFromListings(getChild(child.getName()));
+        }
+        putChild(child);
         child.setParent(this);
+        addToListings(child);
     }
 
     public void removeChild(FileSystemNode child) {
-        children.remove(child.getName());
+        removeChild(child.getName());
         child.setParent(null);
+        removeFromListings(child);
+    }
+
+    /**
+     * Moves a child of this directory under another directory. The parent of the child changes in a single write, so a
+     * lock free reader following its parent chain never sees it detached.
+     * @param child A child of this directory
+     * @param newParent Another directory, which has no child with the same name
+     */
+    public void moveChild(FileSystemNode child, Directory newParent) {
+        newParent.putChild(child);
+        child.setParent(newParent);
+        newParent.addToListings(child);
+        removeChild(child.getName());
+        removeFromListings(child);
+    }
+
+    /**
+     * Renames a child of this directory and rekeys it in the children storage.
+     * @param child A child of this directory
+     * @param newName A valid name that no other child of this directory has
+     */
+    public void renameChild(FileSystemNode child, String newName) {
+        removeFromListings(child);
+        removeChild(child.getName());
+        child.setName(newName);
+        putChild(child);
+        addToListings(child);
+    }
+
+    /**
+     * Changes the size of a child file in place. The file is rekeyed in the listing orders of this directory, and the
+     * total sizes of this directory and of every ancestor take the difference.
+     * Indexes kept outside the tree must take the file out before the call and put it back after.
+     * Time complexity: O(h + log n) where h is the depth of this directory and n its number of children.
+     * @param child A file of this directory
+     * @param newSize A valid file size
+     */
+    public void resizeChild(File child, long newSize) {
+        long delta = newSize - child.getSize();
+        removeFromListings(child);
+        child.setSize(newSize);
+        for (Directory dir = this; dir != null; dir = dir.getParentDirectory()) {
+            TOTAL_SIZE.addAndGet(dir, delta);
+        }
+        addToListings(child);
+    }
+
+    /**
+     * Time complexity: O(1) on average.
+     * @return The child with the given name or null
+     */
+    public FileSystemNode getChild(String name) {
+        FileSystemNode[] slots = children;
+        int index = indexOf(slots, name);
+        return index < 0 ? null : slots[index];
     }
 
+    /**
+     * @return A read only view of the children, in insertion order while there are at most INLINE_CAPACITY of them
+     */
     public Collection<FileSystemNode> getChildren() {
-        return children.values();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<FileSystemNode> iterator() {
+                return new ChildIterator(children);
+            }
+
+            @Override
+            public int size() {
+                return childCount;
+            }
+        };
     }
 
-    @Override
-    public String toString() {
-        return String.format("%s [created=%s] [files=%s]", getName(), getCreationDate(), children.size());
+    /**
+     * Lists a page of the children in the given order, strictly after the given position, which doesn't have to be
+     * the position of a current child.
+     * Time complexity: O(log n + limit), plus O(n log n) to build the order on the first listing in it of a directory
+     * holding more than INLINE_CAPACITY children.
+     * Space complexity: O(limit), plus O(n) for a new order.
+     * @param after The key of the last child of the previous page, or null for the first page
+     * @param limit Maximum number of children in the page
+     * @param sortKey
+     * @return ListingPage, whose cursor is the key of its last child if more children follow it
+     */
+    public ListingPage list(ListingKey after, int limit, SortKey sortKey) {
+        NavigableMap<ListingKey, FileSystemNode> order = listingOrder(sortKey);
+        if (after != null) {
+            order = order.tailMap(after, false);
+        }
+        List<ListingKey> keys = new ArrayList<>(Math.min(limit, childCount));
+        for (ListingKey key : order.keySet()) {
+            if (keys.size() == limit) {
+                return new ListingPage(keys, keys.get(limit - 1).toCursor(sortKey));
+            }
+            keys.add(key);
+        }
+        return new ListingPage(keys, null);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private NavigableMap<ListingKey, FileSystemNode> listingOrder(SortKey sortKey) {
+        if (listingOrders != null && listingOrders[sortKey.ordinal()] != null) {
+            return listingOrders[sortKey.ordinal()];
+        }
+        TreeMap<ListingKey, FileSystemNode> order = new TreeMap<>();
+        for (FileSystemNode child : getChildren()) {
+            order.put(sortKey.keyOf(child), child);
+        }
+        if (childCount > INLINE_CAPACITY) {
+            if (listingOrders == null) {
+                listingOrders = new TreeMap[SortKey.values().length];
+            }
+            listingOrders[sortKey.ordinal()] = order;
+        }
+        return order;
+    }
+
+    /**
+     * Time complexity: O(log n) per listing order kept by this directory.
+     */
+    private void addToListings(FileSystemNode child) {
+        if (listingOrders == null) {
+            return;
+        }
+        for (SortKey sortKey : SortKey.values()) {
+            TreeMap<ListingKey, FileSystemNode> order = listingOrders[sortKey.ordinal()];
+            if (order != null) {
+                order.put(sortKey.keyOf(child), child);
+            }
+        }
+    }
+
+    /**
+     * Must be called while the child still has the name it was listed under.
+     * Time complexity: O(log n) per listing order kept by this directory.
+     */
+    private void removeFromListings(FileSystemNode child) {
+        if (listingOrders == null || child == null) {
+            return;
+        }
+        for (SortKey sortKey : SortKey.values()) {
+            TreeMap<ListingKey, FileSystemNode> order = listingOrders[sortKey.ordinal()];
+            if (order != null) {
+                order.remove(sortKey.keyOf(child));
+            }
+        }
+    }
+
+    /**
+     * Adds a child, or replaces the child with the same name.
+     * Time complexity: O(1) on average, amortized over the growths of the storage.
+     */
+    private void putChild(FileSystemNode child) {
+        String name = child.getName();
+        int index = indexOf(children, name);
+        if (index >= 0) {
+            children[index] = child;
+            return;
+        }
+        if (children.length <= INLINE_CAPACITY) {
+            if (childCount < children.length) {
+                children[childCount++] = child;
+                return;
+            }
+            if (childCount < INLINE_CAPACITY) {
+                children = Arrays.copyOf(children, Math.min(INLINE_CAPACITY, Math.max(1, childCount * 2)));
+                children[childCount++] = child;
+                return;
+            }
+            rehash(tableCapacity(childCount + 1));
+        } else if ((childCount + 1) * 2 > children.length) {
+            rehash(children.length * 2);
+        }
+        insert(children, child);
+        childCount++;
+    }
+
+    /**
+     * Removes the child with the given name, if any.
+     * Time complexity: O(1) on average.
+     */
+    private void removeChild(String name) {
+        FileSystemNode[] slots = children;
+        int index = indexOf(slots, name);
+        if (index < 0) {
+            return;
+        }
+        childCount--;
+        if (slots.length <= INLINE_CAPACITY) {
+            // Shift the next children left, which keeps them packed and in insertion order
+            System.arraycopy(slots, index + 1, slots, index, childCount - index);
+            slots[childCount] = null;
+            if (childCount == 0) {
+                children = NO_CHILDREN;
+            }
+            return;
+        }
+        // Backward shift deletion: move back every following entry of the probe run that may sit in the hole
+        int mask = slots.length - 1;
+        int hole = index;
+        for (int slot = (hole + 1) & mask; slots[slot] != null; slot = (slot + 1) & mask) {
+            int home = hash(slots[slot].getName()) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = null;
+        if (childCount <= SHRINK_THRESHOLD) {
+            rehash(INLINE_CAPACITY);
+        }
+    }
+
+    /**
+     * @return The slot of the child with the given name, -1 if there is none
+     */
+    private int indexOf(FileSystemNode[] slots, String name) {
+        if (slots.length <= INLINE_CAPACITY) {
+            for (int i = 0; i < slots.length; i++) {
+                FileSystemNode child = slots[i];
+                if (child == null) {
+                    return -1;
+                }
+                if (child.getName().equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash(name) & mask; slots[slot] != null; slot = (slot + 1) & mask) {
+            if (slots[slot].getName().equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the children to new storage of the given length, a small array or a hash table.
+     */
+    private void rehash(int length) {
+        FileSystemNode[] slots = new FileSystemNode[length];
+        int count = 0;
+        for (FileSystemNode child : children) {
+            if (child == null) {
+                continue;
+            }
+            if (length <= INLINE_CAPACITY) {
+                slots[count++] = child;
+            } else {
+                insert(slots, child);
+            }
+        }
+        children = slots;
+    }
+
+    private static void insert(FileSystemNode[] table, FileSystemNode child) {
+        int mask = table.length - 1;
+        int slot = hash(child.getName()) & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = child;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return The smallest hash table length holding the given number of children at most half full
+     */
+    private static int tableCapacity(int expectedChildren) {
+        return Math.max(INLINE_CAPACITY * 2, Integer.highestOneBit(expectedChildren * 2 - 1) << 1);
+    }
+
+    private static int hash(String name) {
+        // Spread the high bits, the table is indexed by a mask
+        int hash = name.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Iterates the non empty slots of the storage the directory had when the iteration started.
+     */
+    private static final class ChildIterator implements Iterator<FileSystemNode> {
+        private final FileSystemNode[] slots;
+        private int next;
+
+        private ChildIterator(FileSystemNode[] slots) {
+            this.slots = slots;
+            advance(0);
+        }
+
+        private void advance(int from) {
+            next = from;
+            while (next < slots.length && slots[next] == null) {
+                next++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < slots.length;
+        }
+
+        @Override
+        public FileSystemNode next() {
+            if (next >= slots.length) {
+                throw new NoSuchElementException();
+            }
+            FileSystemNode child = slots[next];
+            advance(next + 1);
+            return child;
+        }
+    }
+
+    /**
+     * Counts a file that was added somewhere below this directory in this directory and all of its ancestors.
+     * Time complexity: O(h) where h is the depth of this directory.
+     * @param file The added file
+     */
+    public void subtreeFileAdded(File file) {
+        for (Directory dir = this; dir != null; dir = dir.getParentDirectory()) {
+            TOTAL_SIZE.addAndGet(dir, file.getSize());
+            FILE_COUNT.incrementAndGet(dir);
+        }
+    }
+
+    /**
+     * Takes a file that was removed from below this directory out of this directory and all of its ancestors.
+     * Time complexity: O(h) where h is the depth of this directory.
+     * @param file The removed file
+     */
+    public void subtreeFileRemoved(File file) {
+        for (Directory dir = this; dir != null; dir = dir.getParentDirectory()) {
+            TOTAL_SIZE.addAndGet(dir, -file.getSize());
+            FILE_COUNT.decrementAndGet(dir);
+        }
+    }
+
+    /**
+     * Counts a directory that was added below this directory in this directory and all of its ancestors.
+     * Time complexity: O(h) where h is the depth of this directory.
+     */
+    public void subtreeDirectoryAdded() {
+        for (Directory dir = this; dir != null; dir = dir.getParentDirectory()) {
+            DIRECTORY_COUNT.incrementAndGet(dir);
+        }
+    }
+
+    /**
+     * Takes a removed directory and its whole subtree out of the aggregates of this directory and all of its
+     * ancestors, from the aggregates of the removed directory, so the subtree is not visited.
+     * Time complexity: O(h) where h is the depth of this directory.
+     * @param removed The removed directory, its own aggregates are left untouched
+     */
+    public void subtreeDirectoryRemoved(Directory removed) {
+        for (Directory dir = this; dir != null; dir = dir.getParentDirectory()) {
+            TOTAL_SIZE.addAndGet(dir, -removed.getTotalSize());
+            FILE_COUNT.addAndGet(dir, -removed.getFileCount());
+            DIRECTORY_COUNT.addAndGet(dir, -removed.getDirectoryCount() - 1);
+        }
+    }
+
+    /**
+     * Takes a node moved away from below this directory out of the aggregates of this directory and of its ancestors,
+     * up to but not including the common ancestor of its old and new parents, which keeps counting it.
+     * Time complexity: O(d) for the d directories below the common ancestor.
+     * @param moved The moved file or directory, the aggregates of a directory are left untouched
+     * @param commonAncestor See commonAncestor(Directory, Directory)
+     */
+    public void subtreeMovedOut(FileSystemNode moved, Directory commonAncestor) {
+        subtreeMoved(moved, commonAncestor, -1);
+    }
+
+    /**
+     * Adds a node moved below this directory to the aggregates of this directory and of its ancestors, up to but not
+     * including the common ancestor of its old and new parents, which already counts it.
+     * Time complexity: O(d) for the d directories below the common ancestor.
+     * @param moved The moved file or directory, the aggregates of a directory are left untouched
+     * @param commonAncestor See commonAncestor(Directory, Directory)
+     */
+    public void subtreeMovedIn(FileSystemNode moved, Directory commonAncestor) {
+        subtreeMoved(moved, commonAncestor, 1);
+    }
+
+    private void subtreeMoved(FileSystemNode moved, Directory commonAncestor, int sign) {
+        long movedSize;
+        long movedFileCount;
+        long movedDirectoryCount;
+        if (moved instanceof File) {
+            movedSize = ((File) moved).getSize();
+            movedFileCount = 1;
+            movedDirectoryCount = 0;
+        } else {
+            Directory dir = (Directory) moved;
+            movedSize = dir.getTotalSize();
+            movedFileCount = dir.getFileCount();
+            movedDirectoryCount = dir.getDirectoryCount() + 1;
+        }
+        for (Directory dir = this; dir != commonAncestor; dir = dir.getParentDirectory()) {
+            TOTAL_SIZE.addAndGet(dir, sign * movedSize);
+            FILE_COUNT.addAndGet(dir, sign * movedFileCount);
+            DIRECTORY_COUNT.addAndGet(dir, sign * movedDirectoryCount);
+        }
+    }
+
+    /**
+     * Finds the deepest directory that is an ancestor of both directories, or one of them.
+     * Time complexity: O(h).
+     * @return The common ancestor, null if the directories are not in the same tree
+     */
+    public static Directory commonAncestor(Directory first, Directory second) {
+        int firstDepth = depth(first);
+        int secondDepth = depth(second);
+        for (; firstDepth > secondDepth; firstDepth--) {
+            first = first.getParentDirectory();
+        }
+        for (; secondDepth > firstDepth; secondDepth--) {
+            second = second.getParentDirectory();
+        }
+        while (first != second) {
+            first = first.getParentDirectory();
+            second = second.getParentDirectory();
+        }
+        return first;
+    }
+
+    private static int depth(Directory dir) {
+        int depth = 0;
+        for (Directory current = dir.getParentDirectory(); current != null; current = current.getParentDirectory()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Sets the aggregates of every directory of a tree that was just restored, in a single walk, instead of walking up
+     * the ancestors of every node. Every directory is summed up once its children are.
+     * Time complexity: O(N) for the N nodes of the tree.
+     * Space complexity: O(h) for the walk.
+     * @param root The root of the restored tree, whose aggregates are all zero
+     */
+    public static void restoreAggregates(Directory root) {
+        // The directories on the path, each with the iterator over its remaining children
+        ArrayDeque<Directory> path = new ArrayDeque<>();
+        ArrayDeque<Iterator<FileSystemNode>> levels = new ArrayDeque<>();
+        path.push(root);
+        levels.push(root.getChildren().iterator());
+        while (!path.isEmpty()) {
+            Directory dir = path.peek();
+            Iterator<FileSystemNode> children = levels.peek();
+            if (!children.hasNext()) {
+                path.pop();
+                levels.pop();
+                Directory parent = path.peek();
+                if (parent != null) {
+                    parent.totalSize += dir.totalSize;
+                    parent.fileCount += dir.fileCount;
+                    parent.directoryCount += dir.directoryCount + 1;
+                }
+                continue;
+            }
+            FileSystemNode child = children.next();
+            if (child instanceof File) {
+                dir.totalSize += ((File) child).getSize();
+                dir.fileCount++;
+            } else {
+                path.push((Directory) child);
+                levels.push(((Directory) child).getChildren().iterator());
+            }
+        }
+    }
+
+    private Directory getParentDirectory() {
+        return (Directory) getParent();
+    }
+
+    /**
+     * @return The total size in bytes of all the files in this subtree
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return The number of files in this subtree
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return The number of directories in this subtree, not including this directory
+     */
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        out.append(getName()).append(" [created=").append(getCreationDate().toString())
+                .append("] [files=").append(Long.toString(fileCount))
+                .append(", dirs=").append(Long.toString(directoryCount))
+                .append(", size=").append(Long.toString(totalSize)).append(" bytes]");
+    }
+}
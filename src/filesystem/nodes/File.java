@@ -3,11 +3,21 @@ package filesystem.nodes;
 import filesystem.exceptions.FileSystemException;
 import filesystem.exceptions.nodes.InvalidFileSizeException;
 
+import java.io.IOException;
+import java.util.Comparator;
+
 /**
  * Represents a file in the file system.
  */
 public class File extends FileSystemNode {
-    private final long size;
+    // Orders files from the biggest to the smallest, ties are broken by the node id so distinct files never compare equal
+    public static final Comparator<File> BIGGEST_FIRST =
+            Comparator.comparingLong(File::getSize).reversed().thenComparingLong(File::getId);
+    // Orders files from the oldest to the newest, ties are broken by the node id which follows the creation order
+    public static final Comparator<File> OLDEST_FIRST =
+            Comparator.comparingLong(File::getCreationMillis).thenComparingLong(File::getId);
+    // Only changed by Directory.resizeChild, which rekeys the file in the indexes ordered by size
+    private long size;
 
     /**
      * Creates a new file with the given name and size.
@@ -21,13 +31,26 @@ public class File extends FileSystemNode {
         this.size = size;
     }
 
+    /**
+     * Creates a file that was created earlier, e.g. when it is restored from disk.
+     * @param name The name of the file
+     * @param size The size of the file in bytes
+     * @param creationMillis The original creation time of the file, in milliseconds since the epoch
+     * @throws FileSystemException if the size is negative
+     */
+    public File(String name, long size, long creationMillis) throws FileSystemException {
+        super(name, creationMillis);
+        validateSize(size);
+        this.size = size;
+    }
+
     /**
      * Validates that the file size is non-negative.
      *
      * @param size The size to validate
      * @throws InvalidFileSizeException if the size is negative
      */
-    private static void validateSize(long size) throws InvalidFileSizeException {
+    public static void validateSize(long size) throws InvalidFileSizeException {
         if (size <= 0) {
             throw new InvalidFileSizeException(
                     String.format("File size cannot be negative: %d", size)
@@ -39,8 +62,13 @@ public class File extends FileSystemNode {
         return size;
     }
 
+    void setSize(long size) {
+        this.size = size;
+    }
+
     @Override
-    public String toString() {
-        return String.format("%s [size=%d bytes, created=%s]", getName(), size, getCreationDate());
+    public void appendTo(Appendable out) throws IOException {
+        out.append(getName()).append(" [size=").append(Long.toString(size))
+                .append(" bytes, created=").append(getCreationDate().toString()).append(']');
     }
 }
\ No newline at end of file
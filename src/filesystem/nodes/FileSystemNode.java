@@ -1,18 +1,34 @@
 package filesystem.nodes;
 
 import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.indexes.SubtreeFileIndex;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for all file system entities.
  * Provides common attributes and behavior for files and directories.
  */
 public abstract class FileSystemNode {
+    // Separates the names of a path, so it can't be part of a name
+    public static final char PATH_SEPARATOR = '/';
     private static final int MAX_NAME_LENGTH = 32;
-    private final String name;
-    private final LocalDateTime creationDate;
-    private FileSystemNode parent;
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+    // Unique per node, used as a tie breaker by the ordered indexes
+    private final long id;
+    // Volatile so lock free readers of a concurrent manager see a rename at once
+    private volatile String name;
+    // Milliseconds since the epoch, a primitive so the time index and the listings compare it without allocating
+    private final long creationMillis;
+    // Volatile so lock free readers of a concurrent manager see a subtree detach at once
+    private volatile FileSystemNode parent;
+    // Only read and written by the SubtreeFileIndex of the manager, under its lock in a concurrent one
+    private SubtreeFileIndex.Entry subtreeEntry;
 
     /**
      * FileSystemNode Ctor.
@@ -20,9 +36,20 @@ public abstract class FileSystemNode {
      * @throws InvalidNameException if the name is null or exceeds 32 characters
      */
     public FileSystemNode(String name) throws InvalidNameException {
+        this(name, System.currentTimeMillis());
+    }
+
+    /**
+     * FileSystemNode Ctor for a node that was created earlier, e.g. when it is restored from disk.
+     * @param name The name of the file system node
+     * @param creationMillis The original creation time of the node, in milliseconds since the epoch
+     * @throws InvalidNameException if the name is null or exceeds 32 characters
+     */
+    public FileSystemNode(String name, long creationMillis) throws InvalidNameException {
         validateName(name);
+        this.id = ID_SEQUENCE.incrementAndGet();
         this.name = name;
-        this.creationDate = LocalDateTime.now();
+        this.creationMillis = creationMillis;
         this.parent = null; // Explicitly set parent to null, this will be updated when the node is added to a directory by using setParent()
     }
 
@@ -31,7 +58,7 @@ public abstract class FileSystemNode {
      * @param name The name to validate
      * @throws InvalidNameException if the name is invalid
      */
-    private static void validateName(String name) throws InvalidNameException {
+    public static void validateName(String name) throws InvalidNameException {
         if (name == null) {
             throw new InvalidNameException("Name cannot be null");
         }
@@ -43,14 +70,47 @@ public abstract class FileSystemNode {
                     String.format("Name cannot be longer than %d characters: %s",
                             MAX_NAME_LENGTH, name));
         }
+        if (name.indexOf(PATH_SEPARATOR) >= 0) {
+            throw new InvalidNameException("Name cannot contain %c: %s", PATH_SEPARATOR, name);
+        }
+    }
+
+    public long getId() {
+        return id;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Only the parent directory renames a node, since its children are keyed by name (see Directory.renameChild).
+     */
+    void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The creation time in milliseconds since the epoch
+     */
+    public long getCreationMillis() {
+        return creationMillis;
+    }
+
+    /**
+     * Allocates the date, the ordered queries and the indexes use getCreationMillis instead.
+     * @return The creation time as a date in the default time zone
+     */
     public LocalDateTime getCreationDate() {
-        return creationDate;
+        return toDate(creationMillis);
+    }
+
+    /**
+     * Converts milliseconds since the epoch to a date in the default time zone, the way the creation times are
+     * displayed.
+     */
+    public static LocalDateTime toDate(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
     }
 
     public FileSystemNode getParent() {
@@ -61,8 +121,36 @@ public abstract class FileSystemNode {
         this.parent = parent;
     }
 
+    /**
+     * @return The entry of this node in its SubtreeFileIndex, the opening one of a directory, or null if it is not in
+     * one
+     */
+    public SubtreeFileIndex.Entry getSubtreeEntry() {
+        return subtreeEntry;
+    }
+
+    public void setSubtreeEntry(SubtreeFileIndex.Entry subtreeEntry) {
+        this.subtreeEntry = subtreeEntry;
+    }
+
+    /**
+     * Writes the display line of this node without building intermediate strings.
+     * @param out The destination
+     * @throws IOException if the destination fails to write
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append(getName()).append(" [created=").append(getCreationDate().toString()).append(']');
+    }
+
     @Override
     public String toString() {
-        return String.format("%s [created=%s]", getName(), getCreationDate());
+        StringBuilder sb = new StringBuilder();
+        try {
+            appendTo(sb);
+        } catch (IOException e) {
+            // A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,523 @@
+package filesystem.nodes;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Struct of arrays storage of a file system tree, an alternative to the FileSystemNode objects for very big trees.
+ *
+ * Every node is an int id indexing a set of primitive arrays (type, parent, size, creation time, name offset, sibling
+ * links and subtree counts), so a node costs no object header and no pointer. For a directory the size array holds the
+ * total size of its subtree. Children are an intrusive doubly linked int list through the sibling arrays, newest
+ * child first. Names live in a shared byte arena as [unsigned byte length][UTF-8 bytes] and are looked up through an
+ * open addressing table of ids, so no String is kept per node.
+ *
+ * Ids of deleted nodes are reused and the arena is compacted once more than half of it belongs to deleted names.
+ * The root always has id ROOT. Not thread safe.
+ */
+public final class NodeStore {
+    public static final int NONE = -1;
+    public static final int ROOT = 0;
+
+    private static final byte FREE = 0;
+    private static final byte FILE = 1;
+    private static final byte DIRECTORY = 2;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MIN_ARENA_TO_COMPACT = 1 << 16;
+
+    private byte[] types;
+    private int[] parents;
+    private long[] sizes;
+    private long[] creationMillis;
+    private int[] nameOffsets;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] previousSiblings;
+    private int[] fileCounts;
+    private int[] directoryCounts;
+
+    private byte[] names;
+    private int namesUsed;
+    private int namesGarbage;
+    // Holds id + 1 per slot, 0 for an empty slot
+    private int[] nameTable;
+    private int highWater;
+    private int freeHead = NONE;
+    private int nodeCount;
+
+    /**
+     * Creates a store holding only the root directory.
+     * @param rootName Name of the root directory
+     * @param creationMillis Creation time of the root in epoch milliseconds
+     */
+    public NodeStore(String rootName, long creationMillis) {
+        types = new byte[INITIAL_CAPACITY];
+        parents = new int[INITIAL_CAPACITY];
+        sizes = new long[INITIAL_CAPACITY];
+        this.creationMillis = new long[INITIAL_CAPACITY];
+        nameOffsets = new int[INITIAL_CAPACITY];
+        firstChildren = new int[INITIAL_CAPACITY];
+        nextSiblings = new int[INITIAL_CAPACITY];
+        previousSiblings = new int[INITIAL_CAPACITY];
+        fileCounts = new int[INITIAL_CAPACITY];
+        directoryCounts = new int[INITIAL_CAPACITY];
+        names = new byte[INITIAL_CAPACITY * 8];
+        nameTable = new int[INITIAL_CAPACITY * 2];
+        allocate(DIRECTORY, NONE, encode(rootName), 0, creationMillis);
+    }
+
+    /**
+     * Finds a node by name.
+     * Time complexity: O(1) on average.
+     * @param name The name of the node
+     * @return The id of the node or NONE
+     */
+    public int find(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        if (!isAscii(name)) {
+            return find(encode(name));
+        }
+        // An ASCII name is its own UTF-8 encoding, it is hashed and compared without encoding it
+        int mask = nameTable.length - 1;
+        for (int slot = hash(name) & mask; nameTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = nameTable[slot] - 1;
+            if (nameEquals(id, name)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private int find(byte[] bytes) {
+        int mask = nameTable.length - 1;
+        for (int slot = hash(bytes, 0, bytes.length) & mask; nameTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = nameTable[slot] - 1;
+            if (nameEquals(id, bytes)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Adds a file under a directory and updates the aggregates of all the ancestors.
+     * The name must be valid and unused, which is checked by the caller.
+     * Time complexity: O(h) where h is the depth of the parent directory.
+     * @return The id of the new file
+     */
+    public int addFile(int parent, String name, long size, long creationMillis) {
+        int id = allocate(FILE, parent, encode(name), size, creationMillis);
+        for (int dir = parent; dir != NONE; dir = parents[dir]) {
+            sizes[dir] += size;
+            fileCounts[dir]++;
+        }
+        return id;
+    }
+
+    /**
+     * Adds a directory under a directory and updates the directory counts of all the ancestors.
+     * The name must be valid and unused, which is checked by the caller.
+     * Time complexity: O(h) where h is the depth of the parent directory.
+     * @return The id of the new directory
+     */
+    public int addDirectory(int parent, String name, long creationMillis) {
+        int id = allocate(DIRECTORY, parent, encode(name), 0, creationMillis);
+        for (int dir = parent; dir != NONE; dir = parents[dir]) {
+            directoryCounts[dir]++;
+        }
+        return id;
+    }
+
+    /**
+     * Removes a node and its whole subtree. The subtree is detached first and then freed in post order by walking the
+     * parent and sibling links, so no stack is needed.
+     * Time complexity: O(h + S) where S is the number of removed nodes.
+     * Space complexity: O(1).
+     * @param id The node to remove, not the root
+     * @param removedNodes Called with every removed node while its type, size and name are still readable
+     */
+    public void remove(int id, IntConsumer removedNodes) {
+        boolean isFile = types[id] == FILE;
+        long removedSize = sizes[id];
+        int removedFileCount = isFile ? 1 : fileCounts[id];
+        int removedDirectoryCount = isFile ? 0 : directoryCounts[id] + 1;
+        for (int dir = parents[id]; dir != NONE; dir = parents[dir]) {
+            sizes[dir] -= removedSize;
+            fileCounts[dir] -= removedFileCount;
+            directoryCounts[dir] -= removedDirectoryCount;
+        }
+        unlinkFromSiblings(id);
+
+        int node = id;
+        while (true) {
+            while (firstChildren[node] != NONE) {
+                node = firstChildren[node];
+            }
+            int next = nextSiblings[node];
+            int parent = parents[node];
+            free(node, removedNodes);
+            if (node == id) {
+                break;
+            }
+            if (next != NONE) {
+                node = next;
+            } else {
+                // All the children of the parent are freed, it is a leaf now
+                firstChildren[parent] = NONE;
+                node = parent;
+            }
+        }
+        if (namesGarbage > MIN_ARENA_TO_COMPACT && namesGarbage > namesUsed / 2) {
+            compactNames();
+        }
+    }
+
+    /**
+     * Moves a node and its subtree under another directory, as its newest child, and moves its aggregates from the
+     * old ancestors to the new ones. The new parent must not be in the subtree of the node, which the caller checks.
+     * Time complexity: O(h).
+     * @param id The node to move, not the root
+     * @param newParent A directory
+     */
+    public void move(int id, int newParent) {
+        boolean isFile = types[id] == FILE;
+        long movedSize = sizes[id];
+        int movedFileCount = isFile ? 1 : fileCounts[id];
+        int movedDirectoryCount = isFile ? 0 : directoryCounts[id] + 1;
+        for (int dir = parents[id]; dir != NONE; dir = parents[dir]) {
+            sizes[dir] -= movedSize;
+            fileCounts[dir] -= movedFileCount;
+            directoryCounts[dir] -= movedDirectoryCount;
+        }
+        unlinkFromSiblings(id);
+        parents[id] = newParent;
+        linkToParent(id, newParent);
+        for (int dir = newParent; dir != NONE; dir = parents[dir]) {
+            sizes[dir] += movedSize;
+            fileCounts[dir] += movedFileCount;
+            directoryCounts[dir] += movedDirectoryCount;
+        }
+    }
+
+    /**
+     * Renames a node. The old name bytes become garbage in the arena and the new ones are appended.
+     * The name must be valid and unused, which is checked by the caller.
+     * Time complexity: O(1) on average.
+     * @param id The node to rename
+     * @param newName
+     */
+    public void rename(int id, String newName) {
+        removeName(id);
+        namesGarbage += 1 + (names[nameOffsets[id]] & 0xFF);
+        byte[] name = encode(newName);
+        nameOffsets[id] = storeName(name);
+        insertName(id, name);
+        if (namesGarbage > MIN_ARENA_TO_COMPACT && namesGarbage > namesUsed / 2) {
+            compactNames();
+        }
+    }
+
+    public boolean isFile(int id) {
+        return types[id] == FILE;
+    }
+
+    public boolean isDirectory(int id) {
+        return types[id] == DIRECTORY;
+    }
+
+    public String getName(int id) {
+        int offset = nameOffsets[id];
+        return new String(names, offset + 1, names[offset] & 0xFF, StandardCharsets.UTF_8);
+    }
+
+    public int getParent(int id) {
+        return parents[id];
+    }
+
+    /**
+     * @return The size of a file or the total size of the files under a directory
+     */
+    public long getSize(int id) {
+        return sizes[id];
+    }
+
+    public long getCreationMillis(int id) {
+        return creationMillis[id];
+    }
+
+    public LocalDateTime getCreationDate(int id) {
+        return FileSystemNode.toDate(creationMillis[id]);
+    }
+
+    /**
+     * @return The number of files under a directory, recursively
+     */
+    public int getFileCount(int id) {
+        return fileCounts[id];
+    }
+
+    /**
+     * @return The number of directories under a directory, recursively and not including the directory itself
+     */
+    public int getDirectoryCount(int id) {
+        return directoryCounts[id];
+    }
+
+    /**
+     * @return The newest child of a directory or NONE
+     */
+    public int getFirstChild(int id) {
+        return firstChildren[id];
+    }
+
+    /**
+     * @return The next older sibling of a node or NONE
+     */
+    public int getNextSibling(int id) {
+        return nextSiblings[id];
+    }
+
+    /**
+     * @return The number of live nodes, including the root
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    /**
+     * @return One more than the biggest id in use, for sizing arrays indexed by id
+     */
+    public int getIdLimit() {
+        return highWater;
+    }
+
+    private int allocate(byte type, int parent, byte[] name, long size, long created) {
+        int id;
+        if (freeHead != NONE) {
+            id = freeHead;
+            freeHead = nextSiblings[id];
+        } else {
+            if (highWater == types.length) {
+                grow();
+            }
+            id = highWater++;
+        }
+        types[id] = type;
+        parents[id] = parent;
+        sizes[id] = size;
+        creationMillis[id] = created;
+        nameOffsets[id] = storeName(name);
+        firstChildren[id] = NONE;
+        fileCounts[id] = 0;
+        directoryCounts[id] = 0;
+        previousSiblings[id] = NONE;
+        nextSiblings[id] = NONE;
+        if (parent != NONE) {
+            linkToParent(id, parent);
+        }
+        nodeCount++;
+        insertName(id, name);
+        return id;
+    }
+
+    private void free(int id, IntConsumer removedNodes) {
+        removedNodes.accept(id);
+        removeName(id);
+        namesGarbage += 1 + (names[nameOffsets[id]] & 0xFF);
+        types[id] = FREE;
+        nextSiblings[id] = freeHead;
+        freeHead = id;
+        nodeCount--;
+    }
+
+    /**
+     * Links an unlinked node as the newest child of its parent.
+     */
+    private void linkToParent(int id, int parent) {
+        int first = firstChildren[parent];
+        nextSiblings[id] = first;
+        if (first != NONE) {
+            previousSiblings[first] = id;
+        }
+        firstChildren[parent] = id;
+    }
+
+    private void unlinkFromSiblings(int id) {
+        int previous = previousSiblings[id];
+        int next = nextSiblings[id];
+        if (previous != NONE) {
+            nextSiblings[previous] = next;
+        } else {
+            firstChildren[parents[id]] = next;
+        }
+        if (next != NONE) {
+            previousSiblings[next] = previous;
+        }
+        nextSiblings[id] = NONE;
+        previousSiblings[id] = NONE;
+    }
+
+    private void grow() {
+        int capacity = types.length + (types.length >> 1);
+        types = Arrays.copyOf(types, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        creationMillis = Arrays.copyOf(creationMillis, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+        fileCounts = Arrays.copyOf(fileCounts, capacity);
+        directoryCounts = Arrays.copyOf(directoryCounts, capacity);
+    }
+
+    private int storeName(byte[] name) {
+        if (namesUsed + 1 + name.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length + (names.length >> 1), namesUsed + 1 + name.length));
+        }
+        int offset = namesUsed;
+        names[offset] = (byte) name.length;
+        System.arraycopy(name, 0, names, offset + 1, name.length);
+        namesUsed += 1 + name.length;
+        return offset;
+    }
+
+    /**
+     * Copies the names of the live nodes into a new arena, dropping the bytes of the deleted ones.
+     * Time complexity: O(N + arena size).
+     */
+    private void compactNames() {
+        byte[] compacted = new byte[Math.max(INITIAL_CAPACITY, (namesUsed - namesGarbage) * 5 / 4)];
+        int used = 0;
+        for (int id = 0; id < highWater; id++) {
+            if (types[id] == FREE) {
+                continue;
+            }
+            int offset = nameOffsets[id];
+            int length = 1 + (names[offset] & 0xFF);
+            System.arraycopy(names, offset, compacted, used, length);
+            nameOffsets[id] = used;
+            used += length;
+        }
+        names = compacted;
+        namesUsed = used;
+        namesGarbage = 0;
+    }
+
+    private void insertName(int id, byte[] name) {
+        // Kept at most half full so probe sequences stay short
+        if (nodeCount * 2 > nameTable.length) {
+            rehash(nameTable.length * 2);
+        }
+        int mask = nameTable.length - 1;
+        int slot = hash(name, 0, name.length) & mask;
+        while (nameTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        nameTable[slot] = id + 1;
+    }
+
+    /**
+     * Removes a name with backward shift deletion, which keeps linear probing correct without tombstones.
+     */
+    private void removeName(int id) {
+        int mask = nameTable.length - 1;
+        int slot = storedHash(id) & mask;
+        while (nameTable[slot] != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (nameTable[next] == 0) {
+                break;
+            }
+            int home = storedHash(nameTable[next] - 1) & mask;
+            // Move the entry back unless its home slot lies cyclically within (slot, next]
+            boolean homeBetween = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!homeBetween) {
+                nameTable[slot] = nameTable[next];
+                slot = next;
+            }
+        }
+        nameTable[slot] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = nameTable;
+        nameTable = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : old) {
+            if (entry != 0) {
+                int slot = storedHash(entry - 1) & mask;
+                while (nameTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                nameTable[slot] = entry;
+            }
+        }
+    }
+
+    private boolean nameEquals(int id, byte[] name) {
+        int offset = nameOffsets[id];
+        int length = names[offset] & 0xFF;
+        return length == name.length
+                && Arrays.equals(names, offset + 1, offset + 1 + length, name, 0, length);
+    }
+
+    private boolean nameEquals(int id, String asciiName) {
+        int offset = nameOffsets[id];
+        int length = names[offset] & 0xFF;
+        if (length != asciiName.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (names[offset + 1 + i] != asciiName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int storedHash(int id) {
+        int offset = nameOffsets[id];
+        return hash(names, offset + 1, names[offset] & 0xFF);
+    }
+
+    private static int hash(byte[] bytes, int from, int length) {
+        int hash = 1;
+        for (int i = from; i < from + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the low bits, the table is indexed by a mask
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // Same hash as the UTF-8 bytes of an ASCII name
+    private static int hash(String asciiName) {
+        int hash = 1;
+        for (int i = 0; i < asciiName.length(); i++) {
+            hash = 31 * hash + asciiName.charAt(i);
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+}
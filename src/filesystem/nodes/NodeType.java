@@ -0,0 +1,11 @@
+package filesystem.nodes;
+
+/**
+ * What a name designates, returned by the lookups that don't throw.
+ */
+public enum NodeType {
+    FILE,
+    DIRECTORY,
+    // No single node has the name
+    NONE
+}
@@ -4,14 +4,43 @@ import filesystem.exceptions.FileSystemException;
 import filesystem.exceptions.manager.DirectoryNotFoundException;
 import filesystem.exceptions.manager.NameAlreadyExistsException;
 import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.exceptions.persistence.PersistenceException;
+import filesystem.indexes.FileSizeIndex;
+import filesystem.indexes.FileTimeIndex;
+import filesystem.indexes.NameIndex;
+import filesystem.indexes.SubtreeFileIndex;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
 import filesystem.nodes.Directory;
 import filesystem.nodes.File;
 import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeType;
+import filesystem.persistence.DurabilityOptions;
+import filesystem.persistence.SnapshotFile;
+import filesystem.persistence.WriteAheadLog;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.ChangeNotifier;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 
 /**
@@ -20,15 +49,15 @@ import java.util.PriorityQueue;
  * Method Signatures and Complexities Summary:
  *
  * 1. public void addFile(String parentDirName, String fileName, int fileSize)
- *    - Time Complexity: O(log F) (Insertion in the priority queue)
+ *    - Time Complexity: O(h + log N) (Insertion in the size, time and subtree file indexes, and the ancestors aggregates)
  *    - Space Complexity: O(1)
  *
  * 2. public void addDir(String parentDirName, String dirName)
- *    - Time Complexity: O(1)
+ *    - Time Complexity: O(h + log N) (Insertion in the subtree file index, and the ancestors aggregates)
  *    - Space Complexity: O(1)
  *
  * 3. public String getBiggestFile()
- *    - Time Complexity: O(1) (Peek operation on the max heap)
+ *    - Time Complexity: O(log F) (Last live entry of the size index)
  *    - Space Complexity: O(1)
  *
  * 4. public long getFileSize(String fileName)
@@ -36,31 +65,272 @@ import java.util.PriorityQueue;
  *    - Space Complexity: O(1)
  *
  * 5. public void showFileSystem()
- *    - Time Complexity: O(N) (DFS traversal of the file system tree)
+ *    - Time Complexity: O(N) (Streaming DFS traversal of the file system tree)
  *    - Space Complexity: O(h)
  *
  * 6. public void delete(String name)
- *    - Time Complexity: Max{O(N), O(F**2)} (DFS traversal of the file system tree and removal from the max heap)
- *    - Space Complexity: O(n + h) (n is the maximum number of nodes for a directory and h is the height of the file system tree)
+ *    - Time Complexity: O(h + log N), for a directory too whose subtree is reclaimed lazily (see below)
+ *    - Space Complexity: O(h) (h is the height of the file system tree)
+ *
+ * 7. public long getDirectorySize(String dirName) / getFileCount(String dirName) / getDirectoryCount(String dirName)
+ *    - Time Complexity: O(1) (Aggregates kept on every directory)
+ *    - Space Complexity: O(1)
+ *
+ * 8. public String getBiggestFile(String dirName)
+ *    - Time Complexity: O(log N) (Range query on the subtree file index, see below)
+ *    - Space Complexity: O(1)
+ *
+ * 9. public List<String> getBiggestFiles(String dirName, int k)
+ *    - Time Complexity: O(log N + k * log N * log(k * log N)) (Best first walk over the subtree file index)
+ *    - Space Complexity: O(k)
+ *
+ * 10. public List<String> getBiggestFiles(int k)
+ *    - Time Complexity: O(log F + k) (Reverse walk over the size index)
+ *    - Space Complexity: O(k)
+ *
+ * 11. public Iterator<String> getFilesInSizeRange(long minSize, long maxSize)
+ *    - Time Complexity: O(log F) to create the iterator and O(1) amortized per returned file (Walk over the size index)
+ *    - Space Complexity: O(log F)
+ *
+ * 12. public long getFileSizeAtRank(long rank) / getFileSizePercentile(double percentile)
+ *    - Time Complexity: O(log F) (Order statistic lookup in the size index, plus O(h) per dead file skipped while
+ *      deletes are pending, when the ranks are approximate)
+ *    - Space Complexity: O(log F)
+ *
+ * 13. The path variants of the operations above, e.g. addFileByPath(String filePath, int fileSize)
+ *    - Time Complexity: the same plus O(1) for a path in the resolver cache, or O(L) to walk a path of L names
+ *    - Operations returning paths add O(h) per returned path
+ *
+ * 14. public Iterator<String> findByPrefix(String prefix, String after) / findBySuffix / findByGlob
+ *    - Time Complexity: O(log N) to create the iterator and O(1) amortized per returned name (Seek in the name index)
+ *    - Space Complexity: O(1)
+ *
+ * 15. public FileSystemSnapshot snapshot()
+ *    - Time Complexity: O(1), O(N) for the first snapshot which builds the persistent mirror (see below)
+ *    - Space Complexity: O(1), the snapshot shares its structure with the manager
+ *
+ * 16. public void move(String name, String newParentDirName)
+ *    - Time Complexity: O(h + log N), whatever the size of the moved subtree
+ *    - Space Complexity: O(1)
+ *
+ * 17. public void rename(String oldName, String newName)
+ *    - Time Complexity: O(1) (Rekey in the name map and the children map of the parent)
+ *    - Space Complexity: O(1)
+ *
+ * 18. public long tryGetFileSize(String fileName) / nodeType(String name) / exists(String name)
+ *    - Time Complexity: O(1) (Lookup in the name map, without exceptions)
+ *    - Space Complexity: O(1), nothing is allocated on a hit or a miss
+ *
+ * 19. public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+ *    - Time Complexity: O(1), then O(h) more per mutation while any subscription exists (see ChangeNotifier)
+ *    - Space Complexity: O(queue capacity) per subscription
+ *
+ * 20. public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey)
+ *    - Time Complexity: O(log n + limit) for a directory of n children (Seek in its listing order, see Directory)
+ *    - Space Complexity: O(limit), plus O(n) for the order built by the first listing in it
+ *
+ * 21. public void apply(FileSystemBatch batch)
+ *    - Time Complexity: O(k * h) to validate k operations, then at most as much as the k operations on their own to
+ *      commit them, but a new subtree is linked and counted by its ancestors once (see below)
+ *    - Space Complexity: O(k)
+ *
+ * 22. public Iterator<String> getFilesCreatedBetween(long fromMillis, long toMillis)
+ *    - Time Complexity: O(log F) to create the iterator and O(1) amortized per returned file (Walk over the time index)
+ *    - Space Complexity: O(log F)
+ *
+ * 23. public List<String> getOldestFiles(int k) / getNewestFiles(int k), and their variants scoped to a directory
+ *    - Time Complexity: O(log F + k), O(min(k * F / S * h, S' * log k)) under a directory of S files and S' nodes
+ *      (see below)
+ *    - Space Complexity: O(k)
+ *
+ * 24. public int deleteOlderThan(long cutoffMillis)
+ *    - Time Complexity: O(log F + D * (h + log N)) for the D deleted files, whatever the size of the tree
+ *    - Space Complexity: O(D)
+ *
+ * 25. public void resize(String fileName, long newSize) / append(String fileName, long delta)
+ *    - Time Complexity: O(h + log N) for the size index, the subtree file index and the ancestors (see below)
+ *    - Space Complexity: O(1)
+ *
+ * Nodes added by path only need a unique name within their directory. The name map keeps every name held by a single
+ * node, the names held by several nodes move to a separate map and the name based operations reject them.
+ *
+ * The sorted name index behind the searches is built by the first search, in O(N log N), and maintained by every add
+ * and delete from then on. Managers that are never searched don't pay for it, and restoring a snapshot stays linear.
+ *
+ * Every add and delete also updates the aggregates of all the ancestors of the changed node, O(h). The biggest files
+ * under a directory come from a single subtree file index (see SubtreeFileIndex): an Euler tour of the tree kept in a
+ * treap ordered by position, where every directory spans the range of its subtree and every entry knows the biggest
+ * file below it. An add, a delete or a move costs O(log N) in it, whatever the size of the subtree, and it takes O(N)
+ * memory.
+ *
+ * Lazy directory delete: deleting a directory only unlinks it from its parent, updates the aggregates of its
+ * ancestors, cuts its range out of the subtree file index and queues a tombstone. Unlinking is enough to hide the
+ * whole subtree, since a node whose parent chain doesn't reach the root is dead and every lookup and index walk skips
+ * dead nodes while tombstones are queued. Every mutation then frees a batch of at most RECLAIM_BATCH nodes of the
+ * oldest tombstone from the name map, the name index, the size index and the time index, so no single operation pays
+ * for a whole subtree. Callers with idle time can reclaim more with reclaimDeleted(int maxNodes).
+ * While tombstones are queued, lookups cost O(h) more for the liveness check, and the rank and percentile queries are
+ * approximate since the size index can't skip dead files when counting, reads never reclaim. A move never meets a
+ * dead file, the subtree file index holds none.
+ *
+ * Snapshots: the first call to snapshot() mirrors the tree with persistent structures, an immutable version per
+ * directory holding a hash array mapped trie of its children, a persistent name map and a persistent size treap.
+ * From then on every add and delete also copies the versions of the changed directory and of its ancestors, O(h)
+ * trie updates and O(log F) treap nodes, and a snapshot is just the current versions. A move or a rename copies the
+ * same paths, the versions of the moved or renamed subtree are shared as they are. Files are mirrored by immutable
+ * records of their name and size, since a live file can be renamed. A delete still pending is not reclaimed for a
+ * snapshot: the snapshot takes the set of the pending deleted roots along and skips their dead nodes itself.
+ *
+ * Durable mode (see open(DurabilityOptions)): every mutation is validated, appended to a write ahead log and only then
+ * applied. A snapshot of the whole tree is written every few mutations and the log is truncated after it. On startup
+ * the latest snapshot is memory mapped, the indexes are bulk built from it and only the log tail is replayed.
+ *
+ * Batches: apply(FileSystemBatch) validates every operation against an overlay of the tree before changing anything.
+ * The new nodes are built and linked under each other aside from the tree and the deleted nodes are only recorded, so
+ * a failed batch leaves nothing to undo. The commit deletes the recorded nodes, then links every new subtree to its
+ * parent in a single step, its ancestors taking its aggregates and the subtree file index its whole range at once,
+ * and registers its nodes in the name map and the indexes. The batch is logged as a single unit and counts as one
+ * mutation for the snapshots and the reclaimer.
+ *
+ * Creation times: every node keeps its creation time as epoch milliseconds and the time index orders the files by it.
+ * The oldest or newest files under a directory come from one of two walks, whichever is cheaper from the aggregates:
+ * the time index filtered by ancestry, which finds one file of the directory every F / S files on average, or the
+ * range of the directory in the subtree file index through a bounded heap.
+ *
+ * Resizes: a file changes size in place instead of being deleted and added again. The size index and the listing
+ * orders of its parent take it out under its old size and back under the new one, the subtree file index updates the
+ * biggest files above its entry and the total sizes of the ancestors take the difference. The name map, the name
+ * index and the time index don't depend on the size and are left alone.
  */
 
-public class BasicFileSystemManager implements FileSystemManager {
+public class BasicFileSystemManager implements PathFileSystemManager, ResizableFileSystemManager,
+        BatchFileSystemManager, TimeIndexedFileSystemManager {
+    // Nodes of deleted directories freed by every mutation
+    static final int RECLAIM_BATCH = 64;
 
-    private final FileSystemNode root;
+    private final Directory root;
     private final HashMap<String, FileSystemNode> nameMap;
-    private final PriorityQueue<File> maxHeap;
+    // Names held by more than one node, which only the path based operations can address
+    private final HashMap<String, List<FileSystemNode>> sharedNames;
+    private final PathResolver paths;
+    // Every name but the root's, held once however many nodes have it. Built on the first name search
+    private NameIndex nameIndex;
+    private final FileSizeIndex sizeIndex;
+    // The biggest files under every directory, see SubtreeFileIndex
+    private final SubtreeFileIndex subtreeFiles;
+    // Every file by creation time, maintained with the size index
+    private final FileTimeIndex timeIndex;
+    // Deleted directories whose subtree is still in the name map and the indexes, oldest first
+    private final ArrayDeque<Tombstone> tombstones;
+    private final ChangeNotifier watchers;
+    // Persistent mirror of the tree behind snapshot(), created by the first snapshot
+    private VersionedTree versions;
+    // Only set in durable mode
+    private DurabilityOptions durability;
+    private WriteAheadLog log;
+    private long mutationsSinceSnapshot;
 
 
     public BasicFileSystemManager() throws InvalidNameException {
-        this.root = new Directory("root");
-        this.nameMap = new HashMap<>();
+        this(new Directory("root"), 16);
+    }
+
+    private BasicFileSystemManager(Directory root, int expectedNodes) {
+        this.root = root;
+        // Sized so the expected nodes fit without rehashing under the default load factor
+        this.nameMap = new HashMap<>(Math.max(16, (int) (expectedNodes / 0.75f) + 1));
         this.nameMap.put(root.getName(), root);
-        this.maxHeap = new PriorityQueue<>(Comparator.comparingLong(File::getSize).reversed());
+        this.sharedNames = new HashMap<>();
+        this.paths = new PathResolver(root, PathResolver.DEFAULT_CACHE_CAPACITY);
+        this.sizeIndex = new FileSizeIndex();
+        // Indexes the whole tree of a restored root at once
+        this.subtreeFiles = new SubtreeFileIndex(root);
+        this.timeIndex = new FileTimeIndex();
+        this.tombstones = new ArrayDeque<>();
+        this.watchers = new ChangeNotifier();
+    }
+
+    /**
+     * Opens a durable file system manager, restoring the state kept in the options directory.
+     * The latest snapshot is memory mapped and all the indexes are bulk built from it, then only the mutations logged
+     * after that snapshot are replayed.
+     * Time complexity: O(N log F) for the snapshot plus the replayed mutations.
+     * @param options Where the state is kept and how often it is synced and snapshotted
+     * @return BasicFileSystemManager
+     * @throws FileSystemException if the state can't be read or restored
+     */
+    public static BasicFileSystemManager open(DurabilityOptions options) throws FileSystemException {
+        try {
+            Files.createDirectories(options.getDirectory());
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't create the directory: %s", options.getDirectory()), e);
+        }
+
+        BasicFileSystemManager manager;
+        long lastLsn = 0;
+        if (Files.exists(options.getSnapshotFile())) {
+            SnapshotFile.Contents contents = SnapshotFile.read(options.getSnapshotFile());
+            manager = restored(contents.getRoot(), contents.getNodes(), contents.getFilesBySize());
+            lastLsn = contents.getLastLsn();
+        } else {
+            manager = new BasicFileSystemManager();
+        }
+        lastLsn = WriteAheadLog.replay(options.getLogFile(), lastLsn, manager.new LogReplayer());
+
+        manager.durability = options;
+        manager.log = WriteAheadLog.open(options, lastLsn + 1);
+        return manager;
+    }
+
+    /**
+     * Builds an in memory manager around a tree whose parent and children links are already in place, e.g. read from
+     * a snapshot or bulk loaded, and bulk builds its name map and indexes.
+     * Time complexity: O(N + F log F).
+     * @param root The root of the tree, named root
+     * @param nodes All the nodes of the tree, starting with the root
+     * @param filesBySize All the files ordered by ascending size and then by ascending id
+     * @return BasicFileSystemManager
+     */
+    static BasicFileSystemManager restored(Directory root, FileSystemNode[] nodes, List<File> filesBySize) {
+        BasicFileSystemManager manager = new BasicFileSystemManager(root, nodes.length);
+        manager.restore(nodes, filesBySize);
+        return manager;
+    }
+
+    /**
+     * Writes a snapshot of the whole tree and truncates the write ahead log. Only valid in durable mode.
+     * Called automatically every DurabilityOptions.getSnapshotEveryOps() mutations.
+     * Time complexity: O(N).
+     * Space complexity: O(h).
+     * @throws FileSystemException if the manager is not durable or the snapshot can't be written
+     */
+    public void checkpoint() throws FileSystemException {
+        if (log == null) {
+            throw new FileSystemException("Checkpoint requires a durable file system manager");
+        }
+        log.sync();
+        long nodeCount = 1 + root.getFileCount() + root.getDirectoryCount();
+        SnapshotFile.write(durability.getSnapshotFile(), root, nodeCount, log.getLastLsn());
+        log.truncate();
+        mutationsSinceSnapshot = 0;
+    }
+
+    /**
+     * Syncs every logged mutation to disk and releases the log. Does nothing for an in memory manager.
+     * @throws FileSystemException if the last sync fails
+     */
+    public void close() throws FileSystemException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
     }
 
     /**
      * Adds a file to the file system.
-     * Time complexity: O(log F), where F is the number of files in the file system. The time complexity is due to the insertion operation in the priority queue.
+     * Time complexity: O(h + log N), where N is the number of nodes in the file system and h is the depth of the parent
+     * directory. The time complexity is due to the insertion in the size, time and subtree file indexes and the update
+     * of the ancestors aggregates.
      * Space complexity: O(1) since we are only adding a file node.
      * @param parentDirName
      * @param fileName
@@ -72,16 +342,34 @@ public class BasicFileSystemManager implements FileSystemManager {
         checkFileExistence(fileName);
 
         File file = new File(fileName, fileSize);
+        if (log != null) {
+            log.logAddFile(parentDirName, file);
+        }
+        linkFile(parent, file);
+        afterLoggedMutation();
+    }
+
+    private void linkFile(Directory parent, File file) {
         // Add file while making sure a double link is established
         file.setParent(parent);
         parent.addChild(file);
-        maxHeap.add(file);
-        nameMap.put(fileName, file);
+        parent.subtreeFileAdded(file);
+        subtreeFiles.add(file, parent);
+        sizeIndex.add(file);
+        timeIndex.add(file);
+        if (versions != null) {
+            versions.linked(file);
+        }
+        registerName(file);
+        if (watchers.isWatched()) {
+            watchers.added(file);
+        }
     }
 
     /**
      * Adds a directory to the file system.
-     * Time complexity: O(1) on average, as the directory is added to the parent directory's children map and the name map but not to the priority queue.
+     * Time complexity: O(h + log N) on average, as the directory is added to the parent directory's children map, the name map and the subtree file index but not to the size index.
+     * The ancestors of the new directory have their directory count updated.
      * Space complexity: O(1) since we are only adding a directory node.
      * @param parentDirName
      * @param dirName
@@ -92,144 +380,1779 @@ public class BasicFileSystemManager implements FileSystemManager {
         checkFileExistence(dirName);
 
         Directory dir = new Directory(dirName);
+        if (log != null) {
+            log.logAddDir(parentDirName, dir);
+        }
+        linkDirectory(parent, dir);
+        afterLoggedMutation();
+    }
+
+    private void linkDirectory(Directory parent, Directory dir) {
         // Add directory while making sure a double link is established
         dir.setParent(parent);
         parent.addChild(dir);
-        nameMap.put(dirName, dir);
+        parent.subtreeDirectoryAdded();
+        subtreeFiles.add(dir, parent);
+        if (versions != null) {
+            versions.linked(dir);
+        }
+        registerName(dir);
+        if (watchers.isWatched()) {
+            watchers.added(dir);
+        }
+    }
+
+    /**
+     * Adds a file at the given path. The name only needs to be unique within the parent directory.
+     * Time complexity: O(h + log N) plus O(L) to resolve a parent path of L names that is not in the resolver cache.
+     * Space complexity: O(1).
+     * @param filePath The path of the new file, e.g. /Documents/resume.docx
+     * @param fileSize
+     * @throws FileSystemException
+     */
+    public void addFileByPath(String filePath, int fileSize) throws FileSystemException {
+        String parentPath = PathResolver.parentPath(filePath);
+        Directory parent = resolveParentDirectory(parentPath);
+        String fileName = PathResolver.lastName(filePath);
+        checkChildExistence(parent, fileName);
+
+        File file = new File(fileName, fileSize);
+        if (log != null) {
+            log.logAddFile(parentPath, file);
+        }
+        linkFile(parent, file);
+        afterLoggedMutation();
+    }
+
+    /**
+     * Adds a directory at the given path. The name only needs to be unique within the parent directory.
+     * Time complexity: O(h + log N) plus O(L) to resolve a parent path of L names that is not in the resolver cache.
+     * Space complexity: O(1).
+     * @param dirPath The path of the new directory, e.g. /Documents/Work
+     * @throws FileSystemException
+     */
+    public void addDirByPath(String dirPath) throws FileSystemException {
+        String parentPath = PathResolver.parentPath(dirPath);
+        Directory parent = resolveParentDirectory(parentPath);
+        String dirName = PathResolver.lastName(dirPath);
+        checkChildExistence(parent, dirName);
+
+        Directory dir = new Directory(dirName);
+        if (log != null) {
+            log.logAddDir(parentPath, dir);
+        }
+        linkDirectory(parent, dir);
+        afterLoggedMutation();
     }
 
     /**
      * Returns the name of the biggest file in the file system.
-     * Time complexity: O(1) since we are just peeking at the top of the max heap.
+     * Time complexity: O(log F) since the biggest file is the last live entry of the size index, plus O(h) for every
+     * bigger dead file of a pending delete, which is skipped.
      * Space complexity: O(1) since we are not using any additional space.
      * @return String
      */
     public String getBiggestFile() throws FileSystemException {
-        if (maxHeap.isEmpty()) {
+        return biggestFile().getName();
+    }
+
+    /**
+     * Returns the path of the biggest file in the file system.
+     * Time complexity: O(log F + h), see getBiggestFile, and O(h) to build the path.
+     * Space complexity: O(h).
+     * @return String
+     */
+    public String getBiggestFilePath() throws FileSystemException {
+        return PathResolver.pathOf(biggestFile());
+    }
+
+    private File biggestFile() throws FileSystemException {
+        // The dead files of a pending delete are skipped, only the reclaimer takes them out of the size index
+        Iterator<File> files = live(sizeIndex.descendingIterator());
+        if (!files.hasNext()) {
             throw new FileSystemException("No files found in the file system, can't get the biggest file.");
         }
-        return maxHeap.peek().getName();
+        return files.next();
     }
 
     /**
-     * Returns the size of a file in the file system.
-     * Time complexity: O(1) since we are just looking up the file in the name map.
-     * Space complexity: O(1) since we are not using any additional space.
-     * @param fileName
-     * @return long
-     * @throws FileSystemException
+     * Returns the names of the k biggest files in the file system, from the biggest.
+     * Time complexity: O(log F + k) since the size index is walked from its biggest entry.
+     * Space complexity: O(k) for the returned list.
+     * @param k
+     * @return List of up to k file names
      */
-    public long getFileSize(String fileName) throws FileSystemException {
-        FileSystemNode node = nameMap.get(fileName);
-        if (node == null) {
-            throw new FileSystemException(String.format("Node not found: %s", fileName));
-        }
-        if (node instanceof File) {
-            return ((File) node).getSize();
+    public List<String> getBiggestFiles(int k) {
+        return biggestFiles(k, FileSystemNode::getName);
+    }
+
+    /**
+     * Returns the paths of the k biggest files in the file system, from the biggest.
+     * Time complexity: O(log F + k * h).
+     * Space complexity: O(k * h) for the returned list.
+     * @param k
+     * @return List of up to k file paths
+     */
+    public List<String> getBiggestFilePaths(int k) {
+        return biggestFiles(k, PathResolver::pathOf);
+    }
+
+    private List<String> biggestFiles(int k, Function<FileSystemNode, String> label) {
+        List<String> biggest = new ArrayList<>(Math.max(0, Math.min(k, sizeIndex.size())));
+        Iterator<File> files = live(sizeIndex.descendingIterator());
+        while (biggest.size() < k && files.hasNext()) {
+            biggest.add(label.apply(files.next()));
         }
-        throw new FileSystemException(String.format("Node is not a file: %s", fileName));
+        return biggest;
     }
 
     /**
-     * Displays the file system structure using helper recursive function (DFS).
-     * We choose this approach since File Systems are typically shallow and wide.
-     * Time complexity: O(N) where N is the number of nodes in the file system. In tree #Edges = #Nodes - 1, so O(N+E) = O(2N-1) = O(N).
-     * Space complexity: O(h) where h is the depth of the file system tree.
+     * Lazily iterates the names of the files whose size is within the given inclusive bounds, from the smallest.
+     * The iterator fails with a ConcurrentModificationException if files are added or deleted while it is in use.
+     * Time complexity: O(log F) to create the iterator and O(1) amortized for every returned file.
+     * Space complexity: O(log F) for the path kept by the iterator.
+     * @param minSize
+     * @param maxSize
+     * @return Iterator of file names
      */
-    public void showFileSystem() {
-        System.out.println(formatFileSystem(root, 0));
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        return filesInSizeRange(minSize, maxSize, FileSystemNode::getName);
     }
 
     /**
-     * Deletes a file or directory from the file system using a recursive approach (DFS).
-     * We choose this approach since File Systems are typically shallow and wide.
-     * Time complexity: Max{O(N), O(F**2)} where N is the number of nodes in the file system and F is the number of files.
-     * Explanation: At the worst case we need to remove all the nodes from the max heap which takes O(F**2) time. But in that case we will go over all the nodes
-     * in the file system tree which takes O(N) time. So the overall time complexity is Max{O(N), O(F**2)}.
-     * Space complexity: O(n + h) where n is the maximum number of nodes for a directory and h is the height of the file system tree.
-     * Explanation: The space complexity is due to the recursive call stack and the copy of children in the deleteDirectoryContents method.
-     * @param name
-     * @throws FileSystemException
+     * Lazily iterates the paths of the files whose size is within the given inclusive bounds, from the smallest.
+     * The iterator fails with a ConcurrentModificationException if files are added or deleted while it is in use.
+     * Time complexity: O(log F) to create the iterator and O(h) amortized for every returned file.
+     * Space complexity: O(log F) for the path kept by the iterator.
+     * @param minSize
+     * @param maxSize
+     * @return Iterator of file paths
      */
-    public void delete(String name) throws FileSystemException {
-        // Check if node exists
-        FileSystemNode nodeToDelete = nameMap.get(name);
-        if (nodeToDelete == null) {
-            throw new FileSystemException(String.format("Node not found: %s", name));
+    public Iterator<String> getFilePathsInSizeRange(long minSize, long maxSize) {
+        return filesInSizeRange(minSize, maxSize, PathResolver::pathOf);
+    }
+
+    private Iterator<String> filesInSizeRange(long minSize, long maxSize, Function<FileSystemNode, String> label) {
+        Iterator<File> files = live(sizeIndex.range(minSize, maxSize));
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return label.apply(files.next());
+            }
+        };
+    }
+
+    /**
+     * Lazily iterates the names of the files created within the given inclusive bounds, from the oldest.
+     * The iterator fails with a ConcurrentModificationException if files are added or deleted while it is in use.
+     * Time complexity: O(log F) to create the iterator and O(1) amortized for every returned file.
+     * Space complexity: O(log F) for the path kept by the iterator.
+     * @param fromMillis Creation time in milliseconds since the epoch
+     * @param toMillis Creation time in milliseconds since the epoch
+     * @return Iterator of file names
+     */
+    public Iterator<String> getFilesCreatedBetween(long fromMillis, long toMillis) {
+        Iterator<File> files = live(timeIndex.range(fromMillis, toMillis));
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return files.next().getName();
+            }
+        };
+    }
+
+    /**
+     * Returns the names of the k oldest files in the file system, from the oldest.
+     * Time complexity: O(log F + k) since the time index is walked from its oldest entry.
+     * Space complexity: O(k) for the returned list.
+     * @param k
+     * @return List of up to k file names
+     */
+    public List<String> getOldestFiles(int k) {
+        return filesByTime(root, k, false);
+    }
+
+    /**
+     * Returns the names of the k newest files in the file system, from the newest.
+     * Time complexity: O(log F + k) since the time index is walked from its newest entry.
+     * Space complexity: O(k) for the returned list.
+     * @param k
+     * @return List of up to k file names
+     */
+    public List<String> getNewestFiles(int k) {
+        return filesByTime(root, k, true);
+    }
+
+    /**
+     * Returns the names of the k oldest files under a directory, recursively, from the oldest.
+     * Time complexity: O(min(k * F / S * h, S' * log k)) for a directory of S files and S' nodes, see filesByTime.
+     * Space complexity: O(k).
+     * @param dirName
+     * @param k
+     * @return List of up to k file names
+     * @throws FileSystemException if there is no such directory
+     */
+    public List<String> getOldestFiles(String dirName, int k) throws FileSystemException {
+        return filesByTime(getDirectory(dirName), k, false);
+    }
+
+    /**
+     * Returns the names of the k newest files under a directory, recursively, from the newest.
+     * Time complexity: O(min(k * F / S * h, S' * log k)) for a directory of S files and S' nodes, see filesByTime.
+     * Space complexity: O(k).
+     * @param dirName
+     * @param k
+     * @return List of up to k file names
+     * @throws FileSystemException if there is no such directory
+     */
+    public List<String> getNewestFiles(String dirName, int k) throws FileSystemException {
+        return filesByTime(getDirectory(dirName), k, true);
+    }
+
+    /**
+     * Picks the cheaper of two walks from the aggregates. The time index holds one file of a directory of S files every
+     * F / S files on average, so finding k of them takes about k * F / S steps of O(h) for the ancestry check. The
+     * range of the directory in the subtree file index holds its S files exactly, among the entries of its S'
+     * directories and files, so all of them go through a heap of the k best.
+     */
+    private List<String> filesByTime(Directory dir, int k, boolean newestFirst) {
+        long scopeFiles = dir.getFileCount();
+        int wanted = (int) Math.max(0, Math.min(k, scopeFiles));
+        List<String> names = new ArrayList<>(Math.min(wanted, 1024));
+        if (wanted == 0) {
+            return names;
         }
 
-        // Cannot delete root
-        if (nodeToDelete == root) {
-            throw new FileSystemException("Cannot delete root directory");
+        if ((double) wanted * root.getFileCount() <= (double) scopeFiles * scopeFiles) {
+            Iterator<File> files = live(newestFirst
+                    ? timeIndex.descendingIterator()
+                    : timeIndex.range(Long.MIN_VALUE, Long.MAX_VALUE));
+            while (names.size() < wanted && files.hasNext()) {
+                File file = files.next();
+                if (dir == root || isUnder(file, dir)) {
+                    names.add(file.getName());
+                }
+            }
+            return names;
+        }
+
+        Comparator<File> order = newestFirst ? File.OLDEST_FIRST.reversed() : File.OLDEST_FIRST;
+        // The worst of the k best files on top
+        PriorityQueue<File> best = new PriorityQueue<>(wanted + 1, order.reversed());
+        for (Iterator<File> files = subtreeFiles.files(dir); files.hasNext(); ) {
+            best.add(files.next());
+            if (best.size() > wanted) {
+                best.poll();
+            }
         }
+        while (!best.isEmpty()) {
+            names.add(best.poll().getName());
+        }
+        Collections.reverse(names);
+        return names;
+    }
 
-        // Remove from parent's children
-        FileSystemNode parent = nodeToDelete.getParent();
-        if (parent instanceof Directory) {
-            ((Directory) parent).removeChild(nodeToDelete);
+    private static boolean isUnder(FileSystemNode node, Directory dir) {
+        for (FileSystemNode ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor == dir) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        // If it's a directory, recursively delete all contents
-        if (nodeToDelete instanceof Directory) {
-            deleteDirectoryContents((Directory) nodeToDelete);
-        } else if (nodeToDelete instanceof File) {
-            // If it's a file, remove from maxHeap
-            maxHeap.remove(nodeToDelete);
+    /**
+     * Deletes every file created before the cutoff, found from the oldest end of the time index, so the cost depends on
+     * the deleted files only. The directories are kept, even once empty. The whole delete is logged as its cutoff.
+     * Time complexity: O(log F + D * (h + log N)) for the D deleted files, like deleting each of them.
+     * Space complexity: O(D).
+     * @param cutoffMillis Creation time in milliseconds since the epoch, files created at or after it are kept
+     * @return The number of deleted files
+     * @throws FileSystemException if the delete can't be logged
+     */
+    public int deleteOlderThan(long cutoffMillis) throws FileSystemException {
+        if (cutoffMillis == Long.MIN_VALUE) {
+            return 0;
+        }
+        List<File> expired = new ArrayList<>();
+        live(timeIndex.range(Long.MIN_VALUE, cutoffMillis - 1)).forEachRemaining(expired::add);
+        if (expired.isEmpty()) {
+            return 0;
         }
 
-        // Remove from nameMap
-        nameMap.remove(name);
+        if (log != null) {
+            log.logDeleteOlderThan(cutoffMillis);
+        }
+        for (File file : expired) {
+            unlink(file);
+        }
+        afterLoggedMutation();
+        return expired.size();
     }
 
+    /**
+     * Returns the size of the file at the given rank when all the files are ordered by size.
+     * Exact when no delete is pending. The dead files of a pending delete stay in the size index until the reclaimer
+     * takes them out, so the rank is then mapped proportionally over the whole index and the nearest live file is
+     * returned: the smallest and biggest ranks are still exact, the others may be off by up to the number of pending
+     * dead files. A read never reclaims.
+     * Time complexity: O(log F) since every node of the size index knows the size of its subtree, plus O(h) per dead
+     * file skipped while deletes are pending.
+     * Space complexity: O(log F).
+     * @param rank 0 for the smallest file up to the number of files - 1 for the biggest
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        long fileCount = root.getFileCount();
+        if (rank < 0 || rank >= fileCount) {
+            throw new FileSystemException(
+                    String.format("Rank %d is out of bounds, there are %d files", rank, fileCount));
+        }
+        return sizeAtLiveRank(rank, fileCount);
+    }
 
-    private void deleteDirectoryContents(Directory directory) {
-        // Create a copy of children to avoid concurrent modification
-        var children = new ArrayList<>(directory.getChildren());
+    /**
+     * Returns the file size at the given percentile using the nearest rank method, e.g. 50 for the median.
+     * The rank is taken among the live files, see getFileSizeAtRank(long) while deletes are pending.
+     * Time complexity: O(log F), plus O(h) per dead file skipped while deletes are pending.
+     * Space complexity: O(log F).
+     * @param percentile Between 0 and 100
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new FileSystemException("Percentile must be between 0 and 100: %s", percentile);
+        }
+        long fileCount = root.getFileCount();
+        if (fileCount == 0) {
+            throw new FileSystemException("No files found in the file system, can't get a percentile.");
+        }
+        return sizeAtLiveRank(FileSizeIndex.percentileRank(percentile, (int) fileCount), fileCount);
+    }
 
-        for (FileSystemNode child : children) {
-            // Remove from nameMap
-            nameMap.remove(child.getName());
+    /**
+     * Read only: the rank among the live files is mapped proportionally to a rank of the size index, and the nearest
+     * live file is looked for from there, first towards the biggest files then towards the smallest.
+     * @param rank Between 0 and the number of live files - 1
+     */
+    private long sizeAtLiveRank(long rank, long fileCount) {
+        int indexed = sizeIndex.size();
+        if (indexed == fileCount) {
+            return sizeIndex.select((int) rank).getSize();
+        }
+        int scaled = fileCount == 1 ? 0 : (int) (rank * (indexed - 1) / (fileCount - 1));
+        long size = sizeIndex.select(scaled).getSize();
+        Iterator<File> bigger = live(sizeIndex.range(size, Long.MAX_VALUE));
+        if (bigger.hasNext()) {
+            return bigger.next().getSize();
+        }
+        // There is a live file since fileCount > 0
+        return live(sizeIndex.descendingRange(Long.MIN_VALUE, size)).next().getSize();
+    }
 
-            // If child is a directory, recursively delete its contents
-            if (child instanceof Directory) {
-                deleteDirectoryContents((Directory) child);
-            } else if (child instanceof File) {
-                // If child is a file, remove from maxHeap
-                maxHeap.remove(child);
-            }
+    /**
+     * Returns the name of the biggest file under a directory, recursively.
+     * Time complexity: O(log N) since the range of the directory in the subtree file index is covered by O(log N)
+     * treap nodes which know the biggest file below them.
+     * Space complexity: O(1).
+     * @param dirName
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        return biggestFile(getDirectory(dirName), dirName).getName();
+    }
+
+    /**
+     * Returns the path of the biggest file under the directory at the given path, recursively.
+     * Time complexity: O(log N) for the file, see getBiggestFile(String), plus O(h) to resolve the directory and build
+     * its path.
+     * Space complexity: O(h).
+     * @param dirPath
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFilePath(String dirPath) throws FileSystemException {
+        return PathResolver.pathOf(biggestFile(resolveDirectory(dirPath), dirPath));
+    }
+
+    private File biggestFile(Directory dir, String dirLabel) throws FileSystemException {
+        File biggest = subtreeFiles.biggest(dir);
+        if (biggest == null) {
+            throw new FileSystemException("No files found under %s, can't get the biggest file.", dirLabel);
         }
+        return biggest;
+    }
+
+    /**
+     * Returns the names of the k biggest files under a directory, recursively, from the biggest.
+     * Time complexity: O(log N + k * log N * log(k * log N)), see SubtreeFileIndex.biggest(Directory, int).
+     * Space complexity: O(k) for the returned list.
+     * @param dirName
+     * @param k
+     * @return List of up to k file names
+     * @throws FileSystemException
+     */
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        return biggestFiles(getDirectory(dirName), k, FileSystemNode::getName);
     }
 
+    /**
+     * Returns the paths of the k biggest files under the directory at the given path, recursively, from the biggest.
+     * Time complexity: as getBiggestFiles(String, int), plus O(k * h) for the paths.
+     * Space complexity: O(k * h) for the returned list.
+     * @param dirPath
+     * @param k
+     * @return List of up to k file paths
+     * @throws FileSystemException
+     */
+    public List<String> getBiggestFilePaths(String dirPath, int k) throws FileSystemException {
+        return biggestFiles(resolveDirectory(dirPath), k, PathResolver::pathOf);
+    }
 
-    private Directory getParentDirectory(String parentDirName) throws DirectoryNotFoundException {
-        Directory parent = (Directory) nameMap.get(parentDirName);
-        if (parent == null) {
-            throw new DirectoryNotFoundException(String.format("Parent directory not found: %s", parentDirName));
+    private List<String> biggestFiles(Directory dir, int k, Function<FileSystemNode, String> label) {
+        List<File> files = subtreeFiles.biggest(dir, k);
+        List<String> biggest = new ArrayList<>(files.size());
+        for (File file : files) {
+            biggest.add(label.apply(file));
         }
-        return parent;
+        return biggest;
     }
 
-    private void checkFileExistence(String fileName) throws NameAlreadyExistsException {
-        if (nameMap.containsKey(fileName)) {
-            throw new NameAlreadyExistsException(String.format("File already exists: %s", fileName));
+    /**
+     * Returns the size of a file in the file system.
+     * Time complexity: O(1) since we are just looking up the file in the name map.
+     * Space complexity: O(1) since we are not using any additional space.
+     * @param fileName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSize(String fileName) throws FileSystemException {
+        FileSystemNode node = lookup(fileName);
+        if (node == null) {
+            throw new FileSystemException("Node not found: %s", fileName);
         }
+        return fileSize(node, fileName);
+    }
+
+    /**
+     * Returns the size of the file at the given path.
+     * Time complexity: O(1) when the path is in the resolver cache, O(L) for a path of L names otherwise.
+     * Space complexity: O(1).
+     * @param filePath
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizeByPath(String filePath) throws FileSystemException {
+        return fileSize(resolve(filePath), filePath);
     }
 
-    private static String formatFileSystem(FileSystemNode node, int indent) {
-        StringBuilder sb = new StringBuilder();
-        String indentation = " ".repeat(indent);
+    private static long fileSize(FileSystemNode node, String label) throws FileSystemException {
+        if (node instanceof File) {
+            return ((File) node).getSize();
+        }
+        throw new FileSystemException("Node is not a file: %s", label);
+    }
 
-        sb.append(indentation).append(node.toString()).append("\n");
+    /**
+     * Returns the size of a file, or NO_SIZE if the name doesn't designate a single live file.
+     * Time complexity: O(1), O(h) more while deletes are pending.
+     * Space complexity: O(1), nothing is allocated.
+     * @param fileName
+     * @return long
+     */
+    public long tryGetFileSize(String fileName) {
+        FileSystemNode node = peek(fileName);
+        return node instanceof File ? ((File) node).getSize() : NO_SIZE;
+    }
 
-        // If node is a directory, format its children recursively
-        if (node instanceof Directory) {
-            for (FileSystemNode child : ((Directory) node).getChildren()) {
-                sb.append(formatFileSystem(child, indent + 3));
-            }
+    /**
+     * Returns what the name designates, NodeType.NONE if no single live node has it.
+     * Time complexity: O(1), O(h) more while deletes are pending.
+     * Space complexity: O(1), nothing is allocated.
+     * @param name
+     * @return NodeType
+     */
+    public NodeType nodeType(String name) {
+        FileSystemNode node = peek(name);
+        if (node == null) {
+            return NodeType.NONE;
         }
+        return node instanceof File ? NodeType.FILE : NodeType.DIRECTORY;
+    }
 
-        return sb.toString();
+    /**
+     * Returns the total size of all the files under a directory, recursively.
+     * Time complexity: O(1) since the aggregate is kept up to date on every add and delete.
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return getDirectory(dirName).getTotalSize();
     }
 
+    /**
+     * Returns the total size of all the files under the directory at the given path, recursively.
+     * Time complexity: O(1) when the path is in the resolver cache, O(L) for a path of L names otherwise.
+     * Space complexity: O(1).
+     * @param dirPath
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectorySizeByPath(String dirPath) throws FileSystemException {
+        return resolveDirectory(dirPath).getTotalSize();
+    }
 
+    /**
+     * Returns the number of files under a directory, recursively.
+     * Time complexity: O(1) since the aggregate is kept up to date on every add and delete.
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileCount(String dirName) throws FileSystemException {
+        return getDirectory(dirName).getFileCount();
+    }
+
+    /**
+     * Returns the number of files under the directory at the given path, recursively.
+     * Time complexity: O(1) when the path is in the resolver cache, O(L) for a path of L names otherwise.
+     * Space complexity: O(1).
+     * @param dirPath
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileCountByPath(String dirPath) throws FileSystemException {
+        return resolveDirectory(dirPath).getFileCount();
+    }
+
+    /**
+     * Returns the number of directories under a directory, recursively and not including the directory itself.
+     * Time complexity: O(1) since the aggregate is kept up to date on every add and delete.
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return getDirectory(dirName).getDirectoryCount();
+    }
+
+    /**
+     * Returns the number of directories under the directory at the given path, recursively and not including the
+     * directory itself.
+     * Time complexity: O(1) when the path is in the resolver cache, O(L) for a path of L names otherwise.
+     * Space complexity: O(1).
+     * @param dirPath
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectoryCountByPath(String dirPath) throws FileSystemException {
+        return resolveDirectory(dirPath).getDirectoryCount();
+    }
+
+    /**
+     * Lazily iterates the names of the files and directories starting with the given prefix, in lexicographic order.
+     * A name shared by several nodes is returned once.
+     * Time complexity: O(log N) to create the iterator and O(1) amortized for every returned name, plus O(N log N) to
+     * build the name index on the first search.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param prefix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return liveNames(nameIndex().byPrefix(prefix, after));
+    }
+
+    /**
+     * Lazily iterates the names of the files and directories ending with the given suffix, e.g. ".log", in the
+     * lexicographic order of the reversed names.
+     * Time complexity: O(log N) to create the iterator and O(1) amortized for every returned name, plus O(N log N) to
+     * build the name index on the first search.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param suffix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return liveNames(nameIndex().bySuffix(suffix, after));
+    }
+
+    /**
+     * Lazily iterates the names of the files and directories matching a glob pattern such as "tmp_*.log", where *
+     * matches any sequence of characters and ? any single one.
+     * Time complexity: O(log N) to create the iterator, then proportional to the names sharing the longest literal
+     * prefix or suffix of the pattern. A pattern with no literal prefix or suffix scans all the names.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param pattern
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return liveNames(nameIndex().byGlob(pattern, after));
+    }
+
+    private NameIndex nameIndex() {
+        if (nameIndex == null) {
+            List<String> names = new ArrayList<>(nameMap.size() + sharedNames.size());
+            names.addAll(nameMap.keySet());
+            names.remove(root.getName());
+            names.addAll(sharedNames.keySet());
+            nameIndex = new NameIndex();
+            nameIndex.addAll(names);
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Displays the file system structure using an iterative DFS that streams every node to the standard output.
+     * We choose this approach since File Systems are typically shallow and wide.
+     * Time complexity: O(N) where N is the number of nodes in the file system. In tree #Edges = #Nodes - 1, so O(N+E) = O(2N-1) = O(N).
+     * Space complexity: O(h) where h is the depth of the file system tree.
+     */
+    public void showFileSystem() {
+        FileSystemPrinter.print(root, System.out);
+    }
+
+    /**
+     * Streams the file system structure to the given destination using an iterative DFS with an explicit stack.
+     * Nothing is buffered besides what the destination buffers itself.
+     * Time complexity: O(min(N, maxNodes)).
+     * Space complexity: O(h) where h is the depth of the file system tree.
+     * @param out The destination, e.g. a Writer or a StringBuilder
+     * @param maxDepth Nodes deeper than this are not printed, the root is at depth 0
+     * @param maxNodes Maximum number of nodes to print
+     * @throws IOException if the destination fails to write
+     */
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        FileSystemPrinter.print(root, out, maxDepth, maxNodes);
+    }
+
+    /**
+     * Streams the structure of the subtree at the given path, the node at the path being printed at depth 0.
+     * Time complexity: O(L + min(S, maxNodes)) for a path of L names and a subtree of S nodes.
+     * Space complexity: O(h) where h is the depth of the subtree.
+     * @param path The path of the node to start from
+     * @param out The destination, e.g. a Writer or a StringBuilder
+     * @param maxDepth Nodes deeper than this are not printed
+     * @param maxNodes Maximum number of nodes to print
+     * @throws FileSystemException if there is no node at the path
+     * @throws IOException if the destination fails to write
+     */
+    public void showFileSystemByPath(String path, Appendable out, int maxDepth, long maxNodes)
+            throws FileSystemException, IOException {
+        FileSystemPrinter.print(resolve(path), out, maxDepth, maxNodes);
+    }
+
+    /**
+     * Deletes a file or directory from the file system.
+     * A deleted directory is unlinked from its parent and hidden at once, its subtree is freed from the name map and the
+     * indexes by the following mutations, a bounded batch at a time (see reclaimDeleted).
+     * Time complexity: O(h + log N), where h is its depth and N the number of nodes, since it leaves the size index,
+     * the time index and the subtree file index and the aggregates of every ancestor change. The same for a directory,
+     * whatever its size, whose range is cut out of the subtree file index at once.
+     * Space complexity: O(1).
+     * @param name
+     * @throws FileSystemException
+     */
+    public void delete(String name) throws FileSystemException {
+        // Check if node exists
+        FileSystemNode nodeToDelete = lookup(name);
+        if (nodeToDelete == null) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+
+        // Cannot delete root
+        if (nodeToDelete == root) {
+            throw new FileSystemException("Cannot delete root directory");
+        }
+
+        if (log != null) {
+            log.logDelete(name);
+        }
+        unlink(nodeToDelete);
+        afterLoggedMutation();
+    }
+
+    /**
+     * Deletes the file or directory at the given path, and everything below it.
+     * Time complexity: as delete(String name) plus resolving the path.
+     * Space complexity: O(h).
+     * @param path
+     * @throws FileSystemException
+     */
+    public void deleteByPath(String path) throws FileSystemException {
+        FileSystemNode nodeToDelete = resolve(path);
+        if (nodeToDelete == root) {
+            throw new FileSystemException("Cannot delete root directory");
+        }
+
+        if (log != null) {
+            log.logDelete(path);
+        }
+        unlink(nodeToDelete);
+        afterLoggedMutation();
+    }
+
+    private void unlink(FileSystemNode nodeToDelete) {
+        // Remove from parent's children, which detaches the node
+        Directory parent = (Directory) nodeToDelete.getParent();
+        parent.removeChild(nodeToDelete);
+
+        if (nodeToDelete instanceof Directory) {
+            // Only the aggregates and the subtree file index are updated now, the subtree is left to the reclaimer
+            parent.subtreeDirectoryRemoved((Directory) nodeToDelete);
+            subtreeFiles.remove(nodeToDelete);
+            tombstones.addLast(new Tombstone((Directory) nodeToDelete));
+            // Cached nodes below the directory keep their parent, unlike the directory itself
+            paths.clear();
+        } else {
+            File file = (File) nodeToDelete;
+            parent.subtreeFileRemoved(file);
+            subtreeFiles.remove(file);
+            sizeIndex.remove(file);
+            timeIndex.remove(file);
+            unregisterName(file);
+        }
+        if (versions != null) {
+            versions.unlinked(nodeToDelete, parent);
+        }
+        if (watchers.isWatched()) {
+            watchers.removed(nodeToDelete, parent);
+        }
+    }
+
+    /**
+     * Moves a file or a directory, with its whole subtree, under another directory. Only the parent of the node and the
+     * children of its old and new parents are relinked, the subtree itself is not visited. The aggregates only change
+     * for the ancestors below the common ancestor of the old and new parents, which keep counting the node, and the
+     * range of the node is cut out of the subtree file index and pasted back under its new parent.
+     * Time complexity: O(h + log N), whatever the size of the subtree. Pending deletes are left to the reclaimer.
+     * Space complexity: O(1).
+     * @param name
+     * @param newParentDirName
+     * @throws FileSystemException if the node is the root or the new parent is in its subtree
+     */
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        FileSystemNode node = lookup(name);
+        if (node == null) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+        if (node == root) {
+            throw new FileSystemException("Cannot move root directory");
+        }
+        Directory newParent = getParentDirectory(newParentDirName);
+        checkNotInSubtree(node, newParent, name);
+
+        if (log != null) {
+            log.logMove(name, newParentDirName);
+        }
+        relink(node, newParent);
+        afterLoggedMutation();
+    }
+
+    /**
+     * Moves the file or directory at the given path under the directory at the other path, see move. The node only
+     * needs a name unique within its new parent.
+     * Time complexity: as move(String name, String newParentDirName) plus resolving the paths.
+     * Space complexity: O(h).
+     * @param path
+     * @param newParentDirPath
+     * @throws FileSystemException if the node is the root, the new parent is in its subtree or already has a child
+     * with the same name
+     */
+    public void moveByPath(String path, String newParentDirPath) throws FileSystemException {
+        FileSystemNode node = resolve(path);
+        if (node == root) {
+            throw new FileSystemException("Cannot move root directory");
+        }
+        Directory newParent = resolveParentDirectory(newParentDirPath);
+        checkNotInSubtree(node, newParent, path);
+        if (node.getParent() != newParent) {
+            checkChildExistence(newParent, node.getName());
+        }
+
+        if (log != null) {
+            log.logMove(path, newParentDirPath);
+        }
+        relink(node, newParent);
+        afterLoggedMutation();
+    }
+
+    private static void checkNotInSubtree(FileSystemNode node, Directory newParent, String label)
+            throws FileSystemException {
+        for (FileSystemNode dir = newParent; dir != null; dir = dir.getParent()) {
+            if (dir == node) {
+                throw new FileSystemException("Cannot move %s into its own subtree", label);
+            }
+        }
+    }
+
+    private void relink(FileSystemNode node, Directory newParent) {
+        Directory formerParent = (Directory) node.getParent();
+        if (formerParent == newParent) {
+            return;
+        }
+        Directory commonAncestor = Directory.commonAncestor(formerParent, newParent);
+        formerParent.subtreeMovedOut(node, commonAncestor);
+        formerParent.moveChild(node, newParent);
+        newParent.subtreeMovedIn(node, commonAncestor);
+        subtreeFiles.move(node, newParent);
+        if (versions != null) {
+            versions.moved(node, formerParent);
+        }
+        // The cached paths below the node changed
+        paths.clear();
+        if (watchers.isWatched()) {
+            watchers.moved(node, formerParent);
+        }
+    }
+
+    /**
+     * Renames a file or a directory. The node keeps its place, its subtree and its creation date, only the name map,
+     * the name index and the children of its parent are rekeyed.
+     * Time complexity: O(1) on average, plus O(log N) once the name index is built.
+     * Space complexity: O(1).
+     * @param oldName
+     * @param newName Must be valid and unused
+     * @throws FileSystemException if the node is the root or the new name is invalid or taken
+     */
+    public void rename(String oldName, String newName) throws FileSystemException {
+        FileSystemNode node = lookup(oldName);
+        if (node == null) {
+            throw new FileSystemException("Node not found: %s", oldName);
+        }
+        if (node == root) {
+            throw new FileSystemException("Cannot rename root directory");
+        }
+        FileSystemNode.validateName(newName);
+        checkFileExistence(newName);
+
+        if (log != null) {
+            log.logRename(oldName, newName);
+        }
+        renameNode(node, newName);
+        afterLoggedMutation();
+    }
+
+    /**
+     * Renames the file or directory at the given path, see rename. The new name only has to be unique within the
+     * parent, a name held by other nodes elsewhere becomes shared.
+     * Time complexity: as rename(String oldName, String newName) plus resolving the path.
+     * Space complexity: O(h).
+     * @param path
+     * @param newName Must be valid and unused in the parent
+     * @throws FileSystemException if the node is the root or the new name is invalid or taken in the parent
+     */
+    public void renameByPath(String path, String newName) throws FileSystemException {
+        FileSystemNode node = resolve(path);
+        if (node == root) {
+            throw new FileSystemException("Cannot rename root directory");
+        }
+        FileSystemNode.validateName(newName);
+        checkChildExistence((Directory) node.getParent(), newName);
+
+        if (log != null) {
+            log.logRename(path, newName);
+        }
+        renameNode(node, newName);
+        afterLoggedMutation();
+    }
+
+    private void renameNode(FileSystemNode node, String newName) {
+        String oldName = node.getName();
+        unregisterName(node);
+        ((Directory) node.getParent()).renameChild(node, newName);
+        if (versions != null) {
+            versions.renamed(node, oldName);
+        }
+        registerName(node);
+        // The cached paths through the node changed
+        paths.clear();
+        if (watchers.isWatched()) {
+            watchers.renamed(node, oldName);
+        }
+    }
+
+    /**
+     * Changes the size of a file in place. The file keeps its identity, its place and its creation date, it is only
+     * rekeyed in the size index and the listing orders of its parent, the subtree file index updates the biggest files
+     * above its entry and the total sizes of its ancestors take the difference.
+     * Time complexity: O(log N) for the indexes, O(h) for the ancestors.
+     * Space complexity: O(1).
+     * @param fileName
+     * @param newSize Must be positive
+     * @throws FileSystemException if the name is not a file or the size is invalid
+     */
+    public void resize(String fileName, long newSize) throws FileSystemException {
+        resize(lookupFile(fileName), fileName, newSize);
+    }
+
+    /**
+     * Grows or shrinks a file by the given number of bytes, see resize. Logged as the resulting size.
+     * Time complexity: O(log N) for the indexes, O(h) for the ancestors.
+     * Space complexity: O(1).
+     * @param fileName
+     * @param delta Bytes to add, negative to truncate
+     * @throws FileSystemException if the name is not a file or the resulting size is invalid
+     */
+    public void append(String fileName, long delta) throws FileSystemException {
+        File file = lookupFile(fileName);
+        // An overflowing sum wraps to a negative size, which is rejected like any other
+        resize(file, fileName, file.getSize() + delta);
+    }
+
+    /**
+     * Changes the size of the file at the given path in place, see resize.
+     * Time complexity: as resize(String fileName, long newSize) plus resolving the path.
+     * Space complexity: O(h).
+     * @param filePath
+     * @param newSize Must be positive
+     * @throws FileSystemException if the path is not a file or the size is invalid
+     */
+    public void resizeByPath(String filePath, long newSize) throws FileSystemException {
+        resize(resolveFile(filePath), filePath, newSize);
+    }
+
+    /**
+     * Grows or shrinks the file at the given path by the given number of bytes, see append.
+     * Time complexity: as append(String fileName, long delta) plus resolving the path.
+     * Space complexity: O(h).
+     * @param filePath
+     * @param delta Bytes to add, negative to truncate
+     * @throws FileSystemException if the path is not a file or the resulting size is invalid
+     */
+    public void appendByPath(String filePath, long delta) throws FileSystemException {
+        File file = resolveFile(filePath);
+        resize(file, filePath, file.getSize() + delta);
+    }
+
+    /**
+     * @param fileName The name or the path the file was addressed by, which is logged
+     */
+    private void resize(File file, String fileName, long newSize) throws FileSystemException {
+        File.validateSize(newSize);
+        if (newSize == file.getSize()) {
+            return;
+        }
+
+        if (log != null) {
+            log.logResize(fileName, newSize);
+        }
+        resizeFile(file, newSize);
+        afterLoggedMutation();
+    }
+
+    private File lookupFile(String fileName) throws FileSystemException {
+        FileSystemNode node = lookup(fileName);
+        if (node == null) {
+            throw new FileSystemException("Node not found: %s", fileName);
+        }
+        if (!(node instanceof File)) {
+            throw new FileSystemException("Node is not a file: %s", fileName);
+        }
+        return (File) node;
+    }
+
+    private void resizeFile(File file, long newSize) {
+        // The size index is keyed by size, the file leaves it before its size changes
+        sizeIndex.remove(file);
+        ((Directory) file.getParent()).resizeChild(file, newSize);
+        subtreeFiles.resized(file);
+        sizeIndex.add(file);
+        if (versions != null) {
+            versions.resized(file);
+        }
+        if (watchers.isWatched()) {
+            watchers.resized(file);
+        }
+    }
+
+    /**
+     * Applies the adds and deletes of a batch all together, or none of them. Each operation is validated against the
+     * tree as the previous operations of the batch leave it, and the first invalid one is thrown before anything
+     * changes. A node the batch both adds and deletes never reaches the tree.
+     * Time complexity: O(k * h) to validate k operations. The commit costs O(h + log N) per deleted node, like delete,
+     * and O(log F) per new file plus O(h + log N + S) per new subtree of S nodes, since the ancestors and the subtree
+     * file index take a new subtree once for all its nodes.
+     * Space complexity: O(k).
+     * @param batch
+     * @throws FileSystemException if an operation of the batch is invalid, nothing is applied then
+     */
+    public void apply(FileSystemBatch batch) throws FileSystemException {
+        apply(batch.operations());
+    }
+
+    /**
+     * Applies the operations of a batch, see apply(FileSystemBatch).
+     */
+    void apply(List<FileSystemBatch.Operation> operations) throws FileSystemException {
+        BatchStage stage = new BatchStage();
+        for (FileSystemBatch.Operation operation : operations) {
+            stage.stage(operation);
+        }
+        // The new subtrees whose parent stays in the tree, each with its nodes from the top
+        Map<FileSystemNode, Directory> addedRoots = stage.survivingAddedRoots();
+        List<List<FileSystemNode>> addedSubtrees = new ArrayList<>(addedRoots.size());
+        for (FileSystemNode addedRoot : addedRoots.keySet()) {
+            addedSubtrees.add(preOrder(addedRoot));
+        }
+        if (stage.deleted.isEmpty() && addedSubtrees.isEmpty()) {
+            return;
+        }
+
+        if (log != null) {
+            logBatch(stage.deleted, addedRoots, addedSubtrees);
+        }
+        for (FileSystemNode node : stage.deleted) {
+            unlink(node);
+        }
+        int i = 0;
+        for (Map.Entry<FileSystemNode, Directory> addedRoot : addedRoots.entrySet()) {
+            linkSubtree(addedRoot.getValue(), addedRoot.getKey(), addedSubtrees.get(i++));
+        }
+        afterLoggedMutation();
+    }
+
+    /**
+     * Logs a batch as its net effect: the deletes of the nodes of the tree, then the adds of the new nodes from the top
+     * of every new subtree, which replay can apply one by one.
+     */
+    private void logBatch(Collection<FileSystemNode> deleted, Map<FileSystemNode, Directory> addedRoots,
+                          List<List<FileSystemNode>> addedSubtrees) throws PersistenceException {
+        int records = deleted.size();
+        for (List<FileSystemNode> subtree : addedSubtrees) {
+            records += subtree.size();
+        }
+        log.logBeginBatch(records);
+        for (FileSystemNode node : deleted) {
+            log.logDelete(node.getName());
+        }
+        int i = 0;
+        for (Directory parent : addedRoots.values()) {
+            for (FileSystemNode node : addedSubtrees.get(i++)) {
+                String parentDirName = node.getParent() == null ? parent.getName() : node.getParent().getName();
+                if (node instanceof File) {
+                    log.logAddFile(parentDirName, (File) node);
+                } else {
+                    log.logAddDir(parentDirName, (Directory) node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Links a subtree built aside from the tree, whose aggregates are already complete, and registers its nodes from the
+     * top so every directory is mirrored and reported before its children.
+     * @param nodes The nodes of the subtree in pre-order, starting with its root
+     */
+    private void linkSubtree(Directory parent, FileSystemNode subtreeRoot, List<FileSystemNode> nodes) {
+        parent.addChild(subtreeRoot);
+        // A single walk up the ancestors with the aggregates of the whole subtree, and a single range of the index
+        parent.subtreeMovedIn(subtreeRoot, null);
+        subtreeFiles.add(subtreeRoot, parent);
+        for (FileSystemNode node : nodes) {
+            if (node instanceof File) {
+                sizeIndex.add((File) node);
+                timeIndex.add((File) node);
+            }
+            if (versions != null) {
+                versions.linked(node);
+            }
+            registerName(node);
+            if (watchers.isWatched()) {
+                watchers.added(node);
+            }
+        }
+    }
+
+    private static List<FileSystemNode> preOrder(FileSystemNode subtreeRoot) {
+        List<FileSystemNode> nodes = new ArrayList<>();
+        ArrayDeque<FileSystemNode> pending = new ArrayDeque<>();
+        pending.push(subtreeRoot);
+        while (!pending.isEmpty()) {
+            FileSystemNode node = pending.pop();
+            nodes.add(node);
+            if (node instanceof Directory) {
+                for (FileSystemNode child : ((Directory) node).getChildren()) {
+                    pending.push(child);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Lists a page of the children of a directory, ordered by name, size or creation date. The cursor of a page
+     * resumes the listing after its last child, even if that child was deleted or other children were added since.
+     * Time complexity: O(log n + limit) for a directory of n children, plus O(n log n) to build the order on the first
+     * listing in it of a directory holding more than a handful of children.
+     * Space complexity: O(limit), plus O(n) for a new order.
+     * @param dirName
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit Maximum number of names in the page
+     * @param sortKey
+     * @return ListingPage
+     * @throws FileSystemException if there is no such directory or the cursor was made for another order
+     */
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        ListingPage.validateLimit(limit);
+        return getDirectory(dirName).list(ListingKey.fromCursor(cursor, sortKey), limit, sortKey);
+    }
+
+    /**
+     * Lists a page of the children of the directory at the given path, see list.
+     * Time complexity: O(log n + limit), plus O(1) when the path is in the resolver cache, O(L) for a path of L names
+     * otherwise.
+     * Space complexity: O(limit).
+     * @param dirPath
+     * @param cursor
+     * @param limit
+     * @param sortKey
+     * @return ListingPage
+     * @throws FileSystemException if there is no directory at the path or the cursor was made for another order
+     */
+    public ListingPage listByPath(String dirPath, String cursor, int limit, SortKey sortKey)
+            throws FileSystemException {
+        ListingPage.validateLimit(limit);
+        return resolveDirectory(dirPath).list(ListingKey.fromCursor(cursor, sortKey), limit, sortKey);
+    }
+
+    /**
+     * Subscribes to the changes under a directory: its children, or its whole subtree if recursive. The listener is
+     * called on another thread with batches of the events that happened since the previous batch, and a mutation
+     * never waits for it: once the queue of the subscription is full, events are dropped and the next batch tells how
+     * many. Deleting a directory, whatever its size, is reported by a single SUBTREE_REMOVED event.
+     * Time complexity: O(1), then O(h) more per mutation while any subscription exists.
+     * Space complexity: O(queue capacity).
+     * @param dirName
+     * @param recursive Whether the changes below the children are reported too
+     * @param options Queue capacity and batch size
+     * @param listener
+     * @return Subscription, to close once the changes are no longer needed
+     * @throws FileSystemException if there is no such directory
+     */
+    public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        return watchers.subscribe(getDirectory(dirName), recursive, options, listener);
+    }
+
+    /**
+     * Subscribes to the changes under the directory at the given path, see watch.
+     * Time complexity: O(1) when the path is in the resolver cache, O(L) for a path of L names otherwise.
+     * Space complexity: O(queue capacity).
+     * @param dirPath
+     * @param recursive
+     * @param options
+     * @param listener
+     * @return Subscription
+     * @throws FileSystemException if there is no directory at the path
+     */
+    public Subscription watchByPath(String dirPath, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        return watchers.subscribe(resolveDirectory(dirPath), recursive, options, listener);
+    }
+
+    /**
+     * Returns a read only view of the file system as it is now, which later mutations never change. The snapshot can
+     * be read from other threads while this manager keeps changing, and shares its memory with the manager and the
+     * other snapshots.
+     * The first snapshot builds a persistent mirror of the tree, which every mutation then maintains by copying the
+     * versions of the changed directory and of its ancestors, so every following snapshot is a copy of four
+     * references. Only the first snapshot reclaims the pending deletes, to mirror a tree without dead nodes. The later
+     * ones leave them to the reclaimer and skip the dead nodes themselves, see FileSystemSnapshot.
+     * Time complexity: O(1), O(N) plus the pending deletes for the first snapshot.
+     * Space complexity: O(1), O(N) for the mirror built by the first snapshot.
+     * @return FileSystemSnapshot
+     */
+    public FileSystemSnapshot snapshot() {
+        if (versions == null) {
+            reclaimDeleted(Integer.MAX_VALUE);
+            List<File> filesBySize = new ArrayList<>(sizeIndex.size());
+            sizeIndex.range(Long.MIN_VALUE, Long.MAX_VALUE).forEachRemaining(filesBySize::add);
+            versions = new VersionedTree(root, nameMap, sharedNames.keySet(), filesBySize);
+        }
+        return versions.snapshot();
+    }
+
+    /**
+     * Frees the nodes of deleted directories from the name map and the indexes, from the oldest delete. Every mutation
+     * already reclaims RECLAIM_BATCH nodes, this lets callers reclaim more when they are idle.
+     * Time complexity: O(maxNodes * h * log F).
+     * Space complexity: O(1).
+     * @param maxNodes Maximum number of nodes to free
+     * @return true if deleted nodes are still waiting to be freed
+     */
+    public boolean reclaimDeleted(int maxNodes) {
+        int reclaimed = 0;
+        while (!tombstones.isEmpty() && reclaimed < maxNodes) {
+            Tombstone tombstone = tombstones.peekFirst();
+            if (tombstone.levels.isEmpty()) {
+                tombstones.pollFirst();
+                if (versions != null) {
+                    versions.purged(tombstone.deleted);
+                }
+            } else if (reclaimNext(tombstone)) {
+                reclaimed++;
+            }
+        }
+        return !tombstones.isEmpty();
+    }
+
+    /**
+     * Advances the DFS of a tombstone by one step.
+     * @return true if a node was reclaimed, false if a finished level was popped
+     */
+    private boolean reclaimNext(Tombstone tombstone) {
+        Iterator<FileSystemNode> level = tombstone.levels.peek();
+        if (!level.hasNext()) {
+            tombstone.levels.pop();
+            return false;
+        }
+        reclaim(level.next(), tombstone);
+        return true;
+    }
+
+    private void reclaim(FileSystemNode node, Tombstone tombstone) {
+        // A name reused since the delete already evicted its dead holder
+        unregisterName(node);
+        if (node instanceof Directory) {
+            // The children of a dead directory are never modified, so they can be iterated across batches
+            tombstone.levels.push(((Directory) node).getChildren().iterator());
+        } else {
+            File file = (File) node;
+            sizeIndex.remove(file);
+            timeIndex.remove(file);
+            if (versions != null) {
+                versions.reclaimed(file);
+            }
+        }
+    }
+
+    /**
+     * A node is live if its parent chain reaches the root, the nodes of a deleted directory reach its detached root.
+     * Time complexity: O(1) when no delete is pending, O(h) otherwise.
+     */
+    private boolean isLive(FileSystemNode node) {
+        if (tombstones.isEmpty()) {
+            return true;
+        }
+        for (FileSystemNode current = node; current != root; current = current.getParent()) {
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unregisters the dead holders of a name, so a deleted name can be looked up and used again before it is reclaimed.
+     * Time complexity: O(1) when no delete is pending, O(k * h) for a name held by k nodes otherwise.
+     */
+    private void evictDeadHolders(String name) {
+        if (tombstones.isEmpty()) {
+            return;
+        }
+        FileSystemNode holder = nameMap.get(name);
+        if (holder != null) {
+            if (!isLive(holder)) {
+                unregisterName(holder);
+            }
+            return;
+        }
+        List<FileSystemNode> holders = sharedNames.get(name);
+        if (holders != null) {
+            for (FileSystemNode shared : new ArrayList<>(holders)) {
+                if (!isLive(shared)) {
+                    unregisterName(shared);
+                }
+            }
+        }
+    }
+
+    private Iterator<File> live(Iterator<File> files) {
+        return new SkippingIterator<>(files, this::isLive);
+    }
+
+    private Iterator<String> liveNames(Iterator<String> names) {
+        return new SkippingIterator<>(names, name -> {
+            evictDeadHolders(name);
+            return nameMap.containsKey(name) || sharedNames.containsKey(name);
+        });
+    }
+
+    /**
+     * Takes a snapshot once enough mutations were logged since the last one, and reclaims a batch of deleted nodes.
+     */
+    private void afterLoggedMutation() throws FileSystemException {
+        reclaimDeleted(RECLAIM_BATCH);
+        if (log != null && durability.getSnapshotEveryOps() > 0
+                && ++mutationsSinceSnapshot >= durability.getSnapshotEveryOps()) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Builds the name map and all the indexes of a tree read from a snapshot, with bulk operations only: the files come
+     * already sorted by size, so the size index is built in linear time, and the aggregates are summed up in a single
+     * walk. The subtree file index was built from the whole tree with the manager. Only the time index needs a sort.
+     * Time complexity: O(N + F log F).
+     * @param nodes All the nodes of the tree, starting with the root
+     * @param filesBySize All the files ordered by ascending size and then by ascending id
+     */
+    private void restore(FileSystemNode[] nodes, List<File> filesBySize) {
+        for (int i = 1; i < nodes.length; i++) {
+            registerName(nodes[i]);
+        }
+        Directory.restoreAggregates(root);
+        sizeIndex.addAllSorted(filesBySize);
+        List<File> filesByTime = new ArrayList<>(filesBySize);
+        filesByTime.sort(File.OLDEST_FIRST);
+        timeIndex.addAllSorted(filesByTime);
+    }
+
+    /**
+     * Applies the logged mutations to the tree without logging them again.
+     * The path based operations log paths where the name based ones log names, a path is told apart by its leading
+     * separator which a name can't contain.
+     */
+    private class LogReplayer implements WriteAheadLog.Replayer {
+        @Override
+        public void addFile(String parentDirName, String fileName, long fileSize, long creationMillis)
+                throws FileSystemException {
+            linkFile(replayParent(parentDirName, fileName), new File(fileName, fileSize, creationMillis));
+        }
+
+        @Override
+        public void addDir(String parentDirName, String dirName, long creationMillis) throws FileSystemException {
+            linkDirectory(replayParent(parentDirName, dirName), new Directory(dirName, creationMillis));
+        }
+
+        @Override
+        public void delete(String name) throws FileSystemException {
+            if (isPath(name)) {
+                deleteByPath(name);
+            } else {
+                BasicFileSystemManager.this.delete(name);
+            }
+        }
+
+        @Override
+        public void move(String name, String newParentDirName) throws FileSystemException {
+            if (isPath(name)) {
+                moveByPath(name, newParentDirName);
+            } else {
+                BasicFileSystemManager.this.move(name, newParentDirName);
+            }
+        }
+
+        @Override
+        public void rename(String oldName, String newName) throws FileSystemException {
+            if (isPath(oldName)) {
+                renameByPath(oldName, newName);
+            } else {
+                BasicFileSystemManager.this.rename(oldName, newName);
+            }
+        }
+
+        @Override
+        public void deleteOlderThan(long cutoffMillis) throws FileSystemException {
+            BasicFileSystemManager.this.deleteOlderThan(cutoffMillis);
+        }
+
+        @Override
+        public void resize(String fileName, long newSize) throws FileSystemException {
+            if (isPath(fileName)) {
+                resizeByPath(fileName, newSize);
+            } else {
+                BasicFileSystemManager.this.resize(fileName, newSize);
+            }
+        }
+
+        private Directory replayParent(String parentDirName, String childName) throws FileSystemException {
+            if (isPath(parentDirName)) {
+                Directory parent = resolveParentDirectory(parentDirName);
+                checkChildExistence(parent, childName);
+                return parent;
+            }
+            Directory parent = getParentDirectory(parentDirName);
+            checkFileExistence(childName);
+            return parent;
+        }
+
+        private boolean isPath(String name) {
+            return !name.isEmpty() && name.charAt(0) == FileSystemNode.PATH_SEPARATOR;
+        }
+    }
+
+
+    private Directory getParentDirectory(String parentDirName) throws FileSystemException {
+        FileSystemNode parent = lookup(parentDirName);
+        if (!(parent instanceof Directory)) {
+            throw new DirectoryNotFoundException("Parent directory not found: %s", parentDirName);
+        }
+        return (Directory) parent;
+    }
+
+    private Directory getDirectory(String dirName) throws FileSystemException {
+        FileSystemNode dir = lookup(dirName);
+        if (!(dir instanceof Directory)) {
+            throw new DirectoryNotFoundException("Directory not found: %s", dirName);
+        }
+        return (Directory) dir;
+    }
+
+    private void checkFileExistence(String fileName) throws NameAlreadyExistsException {
+        evictDeadHolders(fileName);
+        if (nameMap.containsKey(fileName) || sharedNames.containsKey(fileName)) {
+            throw new NameAlreadyExistsException("File already exists: %s", fileName);
+        }
+    }
+
+    private void checkChildExistence(Directory parent, String name) throws NameAlreadyExistsException {
+        if (parent.getChild(name) != null) {
+            throw new NameAlreadyExistsException(
+                    String.format("File already exists: %s", PathResolver.pathOf(parent) + FileSystemNode.PATH_SEPARATOR + name));
+        }
+    }
+
+    /**
+     * Finds a node by its name, which must not be shared by several nodes.
+     * @return The node or null if no node has that name
+     * @throws FileSystemException if several nodes have that name
+     */
+    private FileSystemNode lookup(String name) throws FileSystemException {
+        evictDeadHolders(name);
+        FileSystemNode node = nameMap.get(name);
+        if (node == null && sharedNames.containsKey(name)) {
+            throw new FileSystemException("Name is shared by several nodes, use a path instead: %s", name);
+        }
+        return node;
+    }
+
+    /**
+     * Resolves a name like lookup() but without throwing, allocating or unregistering the dead holders of the name.
+     * @return The single live node with that name, or null
+     */
+    private FileSystemNode peek(String name) {
+        FileSystemNode node = nameMap.get(name);
+        if (node != null) {
+            return isLive(node) ? node : null;
+        }
+        List<FileSystemNode> holders = sharedNames.get(name);
+        if (holders == null || tombstones.isEmpty()) {
+            return null;
+        }
+        // The name may only be shared with dead nodes waiting to be reclaimed
+        FileSystemNode live = null;
+        for (int i = 0; i < holders.size(); i++) {
+            if (isLive(holders.get(i))) {
+                if (live != null) {
+                    return null;
+                }
+                live = holders.get(i);
+            }
+        }
+        return live;
+    }
+
+    private void registerName(FileSystemNode node) {
+        String name = node.getName();
+        evictDeadHolders(name);
+        List<FileSystemNode> holders = sharedNames.get(name);
+        if (holders != null) {
+            holders.add(node);
+            return;
+        }
+        FileSystemNode holder = nameMap.putIfAbsent(name, node);
+        if (holder == null) {
+            if (nameIndex != null) {
+                nameIndex.add(name);
+            }
+            if (versions != null) {
+                versions.nameHeld(name, node);
+            }
+        } else {
+            nameMap.remove(name);
+            holders = new ArrayList<>(2);
+            holders.add(holder);
+            holders.add(node);
+            sharedNames.put(name, holders);
+            if (versions != null) {
+                versions.nameShared(name);
+            }
+        }
+    }
+
+    private void unregisterName(FileSystemNode node) {
+        String name = node.getName();
+        if (nameMap.remove(name, node)) {
+            if (nameIndex != null) {
+                nameIndex.remove(name);
+            }
+            if (versions != null) {
+                versions.nameHeld(name, null);
+            }
+            return;
+        }
+        List<FileSystemNode> holders = sharedNames.get(name);
+        if (holders == null || !holders.remove(node)) {
+            // Already unregistered as a dead holder
+            return;
+        }
+        if (holders.size() == 1) {
+            // Back to a single holder, the name based operations can address it again
+            sharedNames.remove(name);
+            nameMap.put(name, holders.get(0));
+            if (versions != null) {
+                versions.nameHeld(name, holders.get(0));
+            }
+        }
+    }
+
+    private FileSystemNode resolve(String path) throws FileSystemException {
+        FileSystemNode node = paths.resolve(path);
+        if (node == null) {
+            throw new FileSystemException("Node not found: %s", path);
+        }
+        return node;
+    }
+
+    private File resolveFile(String filePath) throws FileSystemException {
+        FileSystemNode node = resolve(filePath);
+        if (!(node instanceof File)) {
+            throw new FileSystemException("Node is not a file: %s", filePath);
+        }
+        return (File) node;
+    }
+
+    private Directory resolveParentDirectory(String parentPath) throws FileSystemException {
+        FileSystemNode parent = paths.resolve(parentPath);
+        if (!(parent instanceof Directory)) {
+            throw new DirectoryNotFoundException("Parent directory not found: %s", parentPath);
+        }
+        return (Directory) parent;
+    }
+
+    private Directory resolveDirectory(String dirPath) throws FileSystemException {
+        FileSystemNode dir = paths.resolve(dirPath);
+        if (!(dir instanceof Directory)) {
+            throw new DirectoryNotFoundException("Directory not found: %s", dirPath);
+        }
+        return (Directory) dir;
+    }
+
+    /**
+     * The overlay a batch is validated against: the tree as the operations staged so far leave it, without changing the
+     * tree. The new nodes are built and linked under each other aside from the tree, a new node whose parent is in the
+     * tree is kept with that parent until the commit, and the nodes of the tree deleted by the batch are only recorded.
+     */
+    private final class BatchStage {
+        // New nodes by name. A new node deleted by the batch keeps its entry until the name is reused, it is dead
+        private final HashMap<String, FileSystemNode> added = new HashMap<>();
+        // The new nodes whose parent is in the tree, with that parent, in batch order
+        private final LinkedHashMap<FileSystemNode, Directory> addedRoots = new LinkedHashMap<>();
+        // The nodes of the tree deleted by the batch, in batch order, so a node comes before its deleted ancestors
+        private final LinkedHashSet<FileSystemNode> deleted = new LinkedHashSet<>();
+
+        private void stage(FileSystemBatch.Operation operation) throws FileSystemException {
+            if (operation.kind == FileSystemBatch.Kind.DELETE) {
+                stageDelete(operation.name);
+            } else {
+                stageAdd(operation);
+            }
+        }
+
+        private void stageAdd(FileSystemBatch.Operation operation) throws FileSystemException {
+            FileSystemNode parent = find(operation.parentDirName);
+            if (!(parent instanceof Directory)) {
+                throw new DirectoryNotFoundException("Parent directory not found: %s", operation.parentDirName);
+            }
+            if (isTaken(operation.name)) {
+                throw new NameAlreadyExistsException("File already exists: %s", operation.name);
+            }
+
+            FileSystemNode node = operation.kind == FileSystemBatch.Kind.ADD_FILE
+                    ? new File(operation.name, operation.size)
+                    : new Directory(operation.name);
+            Directory dir = (Directory) parent;
+            if (added.get(dir.getName()) == dir) {
+                // The walk up the ancestors stops at the root of the new subtree, which has no parent yet
+                dir.addChild(node);
+                if (node instanceof File) {
+                    dir.subtreeFileAdded((File) node);
+                } else {
+                    dir.subtreeDirectoryAdded();
+                }
+            } else {
+                addedRoots.put(node, dir);
+            }
+            added.put(node.getName(), node);
+        }
+
+        private void stageDelete(String name) throws FileSystemException {
+            FileSystemNode node = find(name);
+            if (node == null) {
+                throw new FileSystemException("Node not found: %s", name);
+            }
+            if (node == root) {
+                throw new FileSystemException("Cannot delete root directory");
+            }
+            if (added.get(name) != node) {
+                deleted.add(node);
+            } else if (addedRoots.remove(node) == null) {
+                // A new node under a new directory, which drops it and its subtree from its aggregates
+                Directory parent = (Directory) node.getParent();
+                parent.removeChild(node);
+                if (node instanceof File) {
+                    parent.subtreeFileRemoved((File) node);
+                } else {
+                    parent.subtreeDirectoryRemoved((Directory) node);
+                }
+            }
+        }
+
+        /**
+         * @return The new subtrees whose parent is not deleted by the batch, with their parent, in batch order
+         */
+        private Map<FileSystemNode, Directory> survivingAddedRoots() {
+            Map<FileSystemNode, Directory> surviving = new LinkedHashMap<>();
+            for (Map.Entry<FileSystemNode, Directory> addedRoot : addedRoots.entrySet()) {
+                if (isAlive(addedRoot.getValue())) {
+                    surviving.put(addedRoot.getKey(), addedRoot.getValue());
+                }
+            }
+            return surviving;
+        }
+
+        /**
+         * Finds a node by its name like lookup(), among the new nodes and the nodes of the tree that are alive.
+         */
+        private FileSystemNode find(String name) throws FileSystemException {
+            FileSystemNode node = added.get(name);
+            if (node != null && isAlive(node)) {
+                return node;
+            }
+            node = nameMap.get(name);
+            if (node != null) {
+                return isAlive(node) ? node : null;
+            }
+            List<FileSystemNode> holders = sharedNames.get(name);
+            if (holders == null) {
+                return null;
+            }
+            FileSystemNode alive = null;
+            for (FileSystemNode holder : holders) {
+                if (isAlive(holder)) {
+                    if (alive != null) {
+                        throw new FileSystemException("Name is shared by several nodes, use a path instead: %s", name);
+                    }
+                    alive = holder;
+                }
+            }
+            return alive;
+        }
+
+        private boolean isTaken(String name) {
+            FileSystemNode node = added.get(name);
+            if (node != null && isAlive(node)) {
+                return true;
+            }
+            node = nameMap.get(name);
+            if (node != null) {
+                return isAlive(node);
+            }
+            List<FileSystemNode> holders = sharedNames.get(name);
+            if (holders != null) {
+                for (FileSystemNode holder : holders) {
+                    if (isAlive(holder)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * A node is alive if its parent chain, going from every new subtree root to its parent in the tree, reaches the
+         * root without going through a node deleted by the batch or a detached node.
+         * Time complexity: O(h).
+         */
+        private boolean isAlive(FileSystemNode node) {
+            FileSystemNode current = node;
+            while (current != root) {
+                if (current == null || deleted.contains(current)) {
+                    return false;
+                }
+                Directory treeParent = addedRoots.get(current);
+                current = treeParent != null ? treeParent : current.getParent();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A deleted directory, already unlinked from the tree, whose subtree is freed a batch at a time.
+     */
+    private static final class Tombstone {
+        private final Directory deleted;
+        // DFS over the deleted subtree, with the iterator over the children of every directory on the path
+        private final ArrayDeque<Iterator<FileSystemNode>> levels = new ArrayDeque<>();
+
+        private Tombstone(Directory deleted) {
+            this.deleted = deleted;
+            levels.push(List.<FileSystemNode>of(deleted).iterator());
+        }
+    }
+
+    /**
+     * Skips the elements rejected by the filter, looking one element ahead.
+     */
+    private static final class SkippingIterator<T> implements Iterator<T> {
+        private final Iterator<T> elements;
+        private final Predicate<T> filter;
+        private T next;
+
+        private SkippingIterator(Iterator<T> elements, Predicate<T> filter) {
+            this.elements = elements;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && elements.hasNext()) {
+                T element = elements.next();
+                if (filter.test(element)) {
+                    next = element;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T element = next;
+            next = null;
+            return element;
+        }
+    }
 }
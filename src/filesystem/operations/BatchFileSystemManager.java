@@ -0,0 +1,12 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+
+/**
+ * File system manager that applies a FileSystemBatch atomically: every operation of the batch is validated against the
+ * tree as the previous ones leave it, and either all of them are applied or none is.
+ */
+public interface BatchFileSystemManager extends FileSystemManager {
+    // Applies the adds and deletes of a batch all together, or none of them if any fails (see FileSystemBatch)
+    void apply(FileSystemBatch batch) throws FileSystemException;
+}
@@ -0,0 +1,243 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+import filesystem.persistence.Manifest;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Builds a BasicFileSystemManager from a stream of (parent, name, size) entries much faster than the same addFile and
+ * addDir calls: nodes are validated and created as they arrive, without any index update, and the tree, the name map
+ * and every index are built once all the entries are in.
+ *
+ * - The entries may come in any order, a parent listed after its children is fine since parents are only resolved by
+ *   build().
+ * - Names are unique, as for addFile and addDir, and checked when the entry arrives.
+ * - The children of every directory are sized before they are filled, and the files are sorted by size with a linear
+ *   radix sort which the size index is then built from in bulk, instead of F separate inserts.
+ * - Every node gets the same creation date, the time the loader was created.
+ *
+ * Time complexity: O(1) per entry and O(N + F * h) for build().
+ * A loader builds a single manager and must not be used after build().
+ */
+public class BulkLoader implements Manifest.Sink {
+    private static final String ROOT_NAME = "root";
+    private static final int RADIX_BITS = 16;
+
+    private final long creationMillis;
+    private final Directory root;
+    private final HashMap<String, FileSystemNode> nodesByName;
+    // The entries in arrival order, with the parent name of every node at the same position
+    private final ArrayList<FileSystemNode> nodes;
+    private final ArrayList<String> parentNames;
+    private int fileCount;
+    private boolean built;
+
+    /**
+     * @param expectedEntries How many entries will be added, the name map is sized for them
+     */
+    public BulkLoader(int expectedEntries) throws InvalidNameException {
+        this.creationMillis = System.currentTimeMillis();
+        this.root = new Directory(ROOT_NAME, creationMillis);
+        int capacity = Math.max(16, expectedEntries + 1);
+        this.nodesByName = new HashMap<>((int) (capacity / 0.75f) + 1);
+        this.nodesByName.put(ROOT_NAME, root);
+        this.nodes = new ArrayList<>(capacity);
+        this.parentNames = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Loads a CSV manifest, see Manifest.
+     * @param path
+     * @param expectedEntries How many entries the manifest has, or 0 if unknown
+     * @return BasicFileSystemManager
+     * @throws FileSystemException if the manifest can't be read or describes an invalid tree
+     */
+    public static BasicFileSystemManager loadCsv(Path path, int expectedEntries) throws FileSystemException {
+        BulkLoader loader = new BulkLoader(expectedEntries);
+        Manifest.readCsv(path, loader);
+        return loader.build();
+    }
+
+    /**
+     * Loads a binary manifest, see Manifest.
+     * @param path
+     * @param expectedEntries How many entries the manifest has, or 0 if unknown
+     * @return BasicFileSystemManager
+     * @throws FileSystemException if the manifest can't be read or describes an invalid tree
+     */
+    public static BasicFileSystemManager loadBinary(Path path, int expectedEntries) throws FileSystemException {
+        BulkLoader loader = new BulkLoader(expectedEntries);
+        Manifest.readBinary(path, loader);
+        return loader.build();
+    }
+
+    /**
+     * Adds a file entry.
+     * Time complexity: O(1).
+     * @param parentDirName The name of a directory of the loaded tree, which may be added later
+     * @param fileName
+     * @param fileSize
+     * @throws FileSystemException if the name or the size is invalid or the name is taken
+     */
+    @Override
+    public void file(String parentDirName, String fileName, long fileSize) throws FileSystemException {
+        add(parentDirName, new File(fileName, fileSize, creationMillis));
+        fileCount++;
+    }
+
+    /**
+     * Adds a directory entry.
+     * Time complexity: O(1).
+     * @param parentDirName The name of a directory of the loaded tree, which may be added later
+     * @param dirName
+     * @throws FileSystemException if the name is invalid or taken
+     */
+    @Override
+    public void directory(String parentDirName, String dirName) throws FileSystemException {
+        add(parentDirName, new Directory(dirName, creationMillis));
+    }
+
+    private void add(String parentDirName, FileSystemNode node) throws FileSystemException {
+        if (built) {
+            throw new IllegalStateException("The manager was already built");
+        }
+        if (nodesByName.putIfAbsent(node.getName(), node) != null) {
+            throw new NameAlreadyExistsException("File already exists: %s", node.getName());
+        }
+        nodes.add(node);
+        parentNames.add(parentDirName);
+    }
+
+    /**
+     * Links every node to its parent and builds the manager with all its indexes.
+     * Time complexity: O(N + F * h).
+     * Space complexity: O(N).
+     * @return BasicFileSystemManager
+     * @throws DirectoryNotFoundException if a parent is missing or is a file
+     * @throws FileSystemException if some directories are parents of each other and never reach the root
+     */
+    public BasicFileSystemManager build() throws FileSystemException {
+        if (built) {
+            throw new IllegalStateException("The manager was already built");
+        }
+        built = true;
+
+        // Resolve every parent first, so the children storage can be sized before it is filled
+        Directory[] parents = new Directory[nodes.size()];
+        HashMap<Directory, int[]> childCounts = new HashMap<>();
+        for (int i = 0; i < parents.length; i++) {
+            FileSystemNode parent = nodesByName.get(parentNames.get(i));
+            if (!(parent instanceof Directory)) {
+                throw new DirectoryNotFoundException(
+                        String.format("Parent directory not found: %s", parentNames.get(i)));
+            }
+            parents[i] = (Directory) parent;
+            childCounts.computeIfAbsent(parents[i], dir -> new int[1])[0]++;
+        }
+        childCounts.forEach((dir, count) -> dir.ensureChildCapacity(count[0]));
+
+        FileSystemNode[] allNodes = new FileSystemNode[nodes.size() + 1];
+        allNodes[0] = root;
+        List<File> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < parents.length; i++) {
+            FileSystemNode node = nodes.get(i);
+            parents[i].addChild(node);
+            allNodes[i + 1] = node;
+            if (node instanceof File) {
+                files.add((File) node);
+            }
+        }
+        checkConnected(allNodes.length);
+
+        // The files were created in arrival order, so a stable sort by size orders them by (size, id)
+        return BasicFileSystemManager.restored(root, allNodes, sortBySize(files));
+    }
+
+    /**
+     * Directories that are parents of each other form a cycle detached from the root, which a DFS from the root misses.
+     */
+    private void checkConnected(int nodeCount) throws FileSystemException {
+        int reached = 0;
+        ArrayDeque<Directory> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Directory dir = pending.pop();
+            reached++;
+            for (FileSystemNode child : dir.getChildren()) {
+                if (child instanceof Directory) {
+                    pending.push((Directory) child);
+                } else {
+                    reached++;
+                }
+            }
+        }
+        if (reached == nodeCount) {
+            return;
+        }
+        for (FileSystemNode node : nodes) {
+            if (node instanceof Directory && !reachesRoot(node, nodeCount)) {
+                throw new FileSystemException("Directory doesn't reach the root: %s", node.getName());
+            }
+        }
+    }
+
+    private boolean reachesRoot(FileSystemNode node, int nodeCount) {
+        FileSystemNode current = node;
+        for (int steps = 0; steps < nodeCount && current != null; steps++) {
+            if (current == root) {
+                return true;
+            }
+            current = current.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * Stable LSD radix sort of the files by size, RADIX_BITS bits at a time and only up to the highest set bit.
+     * Time complexity: O(F * (bits of the biggest size) / RADIX_BITS).
+     * Space complexity: O(F).
+     */
+    static List<File> sortBySize(List<File> files) {
+        File[] source = files.toArray(new File[0]);
+        long maxSize = 0;
+        for (File file : source) {
+            maxSize = Math.max(maxSize, file.getSize());
+        }
+        File[] target = new File[source.length];
+        int[] counts = new int[1 << RADIX_BITS];
+        for (int shift = 0; shift < Long.SIZE && (maxSize >>> shift) != 0; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (File file : source) {
+                counts[digit(file, shift)]++;
+            }
+            for (int digit = 0, start = 0; digit < counts.length; digit++) {
+                int count = counts[digit];
+                counts[digit] = start;
+                start += count;
+            }
+            for (File file : source) {
+                target[counts[digit(file, shift)]++] = file;
+            }
+            File[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+        return Arrays.asList(source);
+    }
+
+    private static int digit(File file, int shift) {
+        return (int) (file.getSize() >>> shift) & ((1 << RADIX_BITS) - 1);
+    }
+}
@@ -0,0 +1,625 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.indexes.CompactSizeIndex;
+import filesystem.indexes.FileSizeIndex;
+import filesystem.indexes.NameIndex;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeStore;
+import filesystem.nodes.NodeType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+
+
+/**
+ * Memory compact implementation of a file system manager, for trees of tens of millions of nodes.
+ * Nodes are int ids in a struct of arrays NodeStore instead of FileSystemNode objects, and the size index is the array
+ * based CompactSizeIndex. Creation dates are kept with millisecond precision.
+ *
+ * Method Signatures and Complexities Summary:
+ *
+ * 1. public void addFile(String parentDirName, String fileName, int fileSize)
+ *    - Time Complexity: O(h + log F) (Aggregates of the ancestors and insertion in the size index)
+ *
+ * 2. public void addDir(String parentDirName, String dirName)
+ *    - Time Complexity: O(h)
+ *
+ * 3. public String getBiggestFile()
+ *    - Time Complexity: O(log F) (Last entry of the size index)
+ *
+ * 4. public long getFileSize(String fileName)
+ *    - Time Complexity: O(1)
+ *
+ * 5. public void showFileSystem()
+ *    - Time Complexity: O(N), Space Complexity: O(1) (The walk follows the parent and sibling links)
+ *
+ * 6. public void delete(String name)
+ *    - Time Complexity: O(h + N + F log F)
+ *
+ * 7. public long getDirectorySize(String dirName) / getFileCount(String dirName) / getDirectoryCount(String dirName)
+ *    - Time Complexity: O(1)
+ *
+ * 8. public String getBiggestFile(String dirName) / getBiggestFiles(String dirName, int k)
+ *    - Time Complexity: O(S log k) for the S nodes under the directory, O(log F + k) for the root
+ *
+ * 9. public List<String> getBiggestFiles(int k) / getFilesInSizeRange(long minSize, long maxSize)
+ *    - Time Complexity: O(log F + k) (Walk over the size index)
+ *
+ * 10. public long getFileSizeAtRank(long rank) / getFileSizePercentile(double percentile)
+ *    - Time Complexity: O(log F)
+ *
+ * 11. public Iterator<String> findByPrefix(String prefix, String after) / findBySuffix / findByGlob
+ *    - Time Complexity: O(log N) to create the iterator and O(1) amortized per returned name, O(N log N) once for the
+ *      first search
+ *
+ * 12. public void move(String name, String newParentDirName)
+ *    - Time Complexity: O(h) (Sibling links relinked and aggregates moved between the old and new ancestors)
+ *
+ * 13. public void rename(String oldName, String newName)
+ *    - Time Complexity: O(1) (Rehash in the name table), plus O(log N) once the name index is built
+ *
+ * Unlike BasicFileSystemManager the directories don't keep their subtree files ordered by size, that index costs
+ * O(F * h) objects which is what this manager avoids, so subtree queries scan the subtree.
+ * For the same reason the name index, which holds two Strings per node, is only built on the first name search and
+ * maintained from then on.
+ */
+public class CompactFileSystemManager implements FileSystemManager {
+
+    private final NodeStore store;
+    private final CompactSizeIndex sizeIndex;
+    // Built on the first name search
+    private NameIndex nameIndex;
+
+
+    public CompactFileSystemManager() {
+        this.store = new NodeStore("root", System.currentTimeMillis());
+        this.sizeIndex = new CompactSizeIndex(store::getSize);
+    }
+
+    /**
+     * Adds a file to the file system.
+     * Time complexity: O(h + log F).
+     * Space complexity: O(1), a few array slots and the name bytes.
+     * @param parentDirName
+     * @param fileName
+     * @param fileSize
+     * @throws FileSystemException
+     */
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        int parent = getParentDirectory(parentDirName);
+        checkFileExistence(fileName);
+        FileSystemNode.validateName(fileName);
+        File.validateSize(fileSize);
+
+        int file = store.addFile(parent, fileName, fileSize, System.currentTimeMillis());
+        sizeIndex.add(file);
+        if (nameIndex != null) {
+            nameIndex.add(fileName);
+        }
+    }
+
+    /**
+     * Adds a directory to the file system.
+     * Time complexity: O(h) to update the directory counts of the ancestors.
+     * Space complexity: O(1), a few array slots and the name bytes.
+     * @param parentDirName
+     * @param dirName
+     * @throws FileSystemException
+     */
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        int parent = getParentDirectory(parentDirName);
+        checkFileExistence(dirName);
+        FileSystemNode.validateName(dirName);
+
+        store.addDirectory(parent, dirName, System.currentTimeMillis());
+        if (nameIndex != null) {
+            nameIndex.add(dirName);
+        }
+    }
+
+    /**
+     * Deletes a file or directory from the file system.
+     * Time complexity: O(h + N + F log F) for the N nodes and F files of the deleted subtree.
+     * Space complexity: O(1) since the subtree is freed by walking its own links.
+     * @param name
+     * @throws FileSystemException
+     */
+    public void delete(String name) throws FileSystemException {
+        int node = store.find(name);
+        if (node == NodeStore.NONE) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+        if (node == NodeStore.ROOT) {
+            throw new FileSystemException("Cannot delete root directory");
+        }
+        store.remove(node, this::removeFromIndexes);
+    }
+
+    /**
+     * Moves a file or a directory, with its whole subtree, under another directory. The node is relinked in the sibling
+     * lists and its aggregates are moved from its old ancestors to the new ones, the subtree itself is not visited.
+     * Time complexity: O(h).
+     * Space complexity: O(1).
+     * @param name
+     * @param newParentDirName
+     * @throws FileSystemException if the node is the root or the new parent is in its subtree
+     */
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        int node = store.find(name);
+        if (node == NodeStore.NONE) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+        if (node == NodeStore.ROOT) {
+            throw new FileSystemException("Cannot move root directory");
+        }
+        int newParent = getParentDirectory(newParentDirName);
+        for (int dir = newParent; dir != NodeStore.NONE; dir = store.getParent(dir)) {
+            if (dir == node) {
+                throw new FileSystemException("Cannot move %s into its own subtree", name);
+            }
+        }
+        if (store.getParent(node) != newParent) {
+            store.move(node, newParent);
+        }
+    }
+
+    /**
+     * Renames a file or a directory. The node keeps its id, its place and its creation date, so the size index is
+     * untouched and only the name table and the name index are rekeyed.
+     * Time complexity: O(1) on average, plus O(log N) once the name index is built.
+     * Space complexity: O(1), the new name bytes.
+     * @param oldName
+     * @param newName Must be valid and unused
+     * @throws FileSystemException if the node is the root or the new name is invalid or taken
+     */
+    public void rename(String oldName, String newName) throws FileSystemException {
+        int node = store.find(oldName);
+        if (node == NodeStore.NONE) {
+            throw new FileSystemException("Node not found: %s", oldName);
+        }
+        if (node == NodeStore.ROOT) {
+            throw new FileSystemException("Cannot rename root directory");
+        }
+        FileSystemNode.validateName(newName);
+        checkFileExistence(newName);
+
+        store.rename(node, newName);
+        if (nameIndex != null) {
+            nameIndex.remove(oldName);
+            nameIndex.add(newName);
+        }
+    }
+
+    /**
+     * Displays the file system structure on the standard output.
+     * Time complexity: O(N).
+     * Space complexity: O(1).
+     */
+    public void showFileSystem() {
+        // Not closed on purpose, closing the writer would close the standard output as well
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            showFileSystem(writer, UNLIMITED_DEPTH, UNLIMITED_NODES);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Streams the file system structure to the given destination, in the same format as the other managers.
+     * The DFS needs no stack: it goes down through the first child links and back up through the parent links.
+     * Time complexity: O(min(N, maxNodes) + h).
+     * Space complexity: O(1).
+     * @param out The destination, e.g. a Writer or a StringBuilder
+     * @param maxDepth Nodes deeper than this are not printed, the root is at depth 0
+     * @param maxNodes Maximum number of nodes to print
+     * @throws IOException if the destination fails to write
+     */
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        if (maxNodes <= 0) {
+            return;
+        }
+        int node = NodeStore.ROOT;
+        int depth = 0;
+        writeLine(node, depth, out);
+        long printed = 1;
+        while (true) {
+            int next = store.isDirectory(node) ? store.getFirstChild(node) : NodeStore.NONE;
+            if (next != NodeStore.NONE && depth >= maxDepth) {
+                FileSystemPrinter.writeEllipsis(depth + 1, out);
+                next = NodeStore.NONE;
+            }
+            if (next != NodeStore.NONE) {
+                depth++;
+            } else {
+                while (node != NodeStore.ROOT && store.getNextSibling(node) == NodeStore.NONE) {
+                    node = store.getParent(node);
+                    depth--;
+                }
+                if (node == NodeStore.ROOT) {
+                    return;
+                }
+                next = store.getNextSibling(node);
+            }
+            if (printed == maxNodes) {
+                FileSystemPrinter.writeEllipsis(depth, out);
+                return;
+            }
+            node = next;
+            writeLine(node, depth, out);
+            printed++;
+        }
+    }
+
+    /**
+     * Returns the size of a file in the file system.
+     * Time complexity: O(1).
+     * Space complexity: O(1).
+     * @param fileName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSize(String fileName) throws FileSystemException {
+        int node = store.find(fileName);
+        if (node == NodeStore.NONE) {
+            throw new FileSystemException("Node not found: %s", fileName);
+        }
+        if (store.isFile(node)) {
+            return store.getSize(node);
+        }
+        throw new FileSystemException("Node is not a file: %s", fileName);
+    }
+
+    /**
+     * Returns the size of a file, or NO_SIZE if there is none with that name.
+     * Time complexity: O(1).
+     * Space complexity: O(1), nothing is allocated for an ASCII name.
+     * @param fileName
+     * @return long
+     */
+    public long tryGetFileSize(String fileName) {
+        int node = store.find(fileName);
+        return node != NodeStore.NONE && store.isFile(node) ? store.getSize(node) : NO_SIZE;
+    }
+
+    /**
+     * Returns what the name designates.
+     * Time complexity: O(1).
+     * Space complexity: O(1), nothing is allocated for an ASCII name.
+     * @param name
+     * @return NodeType
+     */
+    public NodeType nodeType(String name) {
+        int node = store.find(name);
+        if (node == NodeStore.NONE) {
+            return NodeType.NONE;
+        }
+        return store.isFile(node) ? NodeType.FILE : NodeType.DIRECTORY;
+    }
+
+    /**
+     * Returns the name of the biggest file in the file system.
+     * Time complexity: O(log F).
+     * Space complexity: O(1).
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFile() throws FileSystemException {
+        if (sizeIndex.isEmpty()) {
+            throw new FileSystemException("No files found in the file system, can't get the biggest file.");
+        }
+        return store.getName(sizeIndex.last());
+    }
+
+    /**
+     * Returns the names of the k biggest files in the file system, from the biggest.
+     * Time complexity: O(log F + k).
+     * Space complexity: O(k) for the returned list.
+     * @param k
+     * @return List of up to k file names
+     */
+    public List<String> getBiggestFiles(int k) {
+        List<String> biggest = new ArrayList<>(Math.min(k, sizeIndex.size()));
+        PrimitiveIterator.OfInt files = sizeIndex.descendingIterator();
+        while (biggest.size() < k && files.hasNext()) {
+            biggest.add(store.getName(files.nextInt()));
+        }
+        return biggest;
+    }
+
+    /**
+     * Lazily iterates the names of the files whose size is within the given inclusive bounds, from the smallest.
+     * The iterator fails with a ConcurrentModificationException if files are added or deleted while it is in use.
+     * Time complexity: O(log F) to create the iterator and O(1) amortized for every returned file.
+     * Space complexity: O(log F) for the path kept by the iterator.
+     * @param minSize
+     * @param maxSize
+     * @return Iterator of file names
+     */
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        PrimitiveIterator.OfInt files = sizeIndex.range(minSize, maxSize);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return store.getName(files.nextInt());
+            }
+        };
+    }
+
+    /**
+     * Returns the size of the file at the given rank when all the files are ordered by size.
+     * Time complexity: O(log F).
+     * Space complexity: O(1).
+     * @param rank 0 for the smallest file up to the number of files - 1 for the biggest
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        if (rank < 0 || rank >= sizeIndex.size()) {
+            throw new FileSystemException(
+                    String.format("Rank %d is out of bounds, there are %d files", rank, sizeIndex.size()));
+        }
+        return store.getSize(sizeIndex.select((int) rank));
+    }
+
+    /**
+     * Returns the file size at the given percentile using the nearest rank method, e.g. 50 for the median.
+     * Time complexity: O(log F).
+     * Space complexity: O(1).
+     * @param percentile Between 0 and 100
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new FileSystemException("Percentile must be between 0 and 100: %s", percentile);
+        }
+        if (sizeIndex.isEmpty()) {
+            throw new FileSystemException("No files found in the file system, can't get a percentile.");
+        }
+        return store.getSize(sizeIndex.select(FileSizeIndex.percentileRank(percentile, sizeIndex.size())));
+    }
+
+    /**
+     * Returns the name of the biggest file under a directory, recursively.
+     * Time complexity: O(S) for the S nodes under the directory, O(log F) for the root.
+     * Space complexity: O(1).
+     * @param dirName
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        int dir = getDirectory(dirName);
+        if (store.getFileCount(dir) == 0) {
+            throw new FileSystemException("No files found under %s, can't get the biggest file.", dirName);
+        }
+        if (dir == NodeStore.ROOT) {
+            return store.getName(sizeIndex.last());
+        }
+        int biggest = NodeStore.NONE;
+        for (int node = firstNodeUnder(dir); node != NodeStore.NONE; node = nextNodeUnder(dir, node)) {
+            if (store.isFile(node) && (biggest == NodeStore.NONE || isBigger(node, biggest))) {
+                biggest = node;
+            }
+        }
+        return store.getName(biggest);
+    }
+
+    /**
+     * Returns the names of the k biggest files under a directory, recursively, from the biggest.
+     * The subtree is scanned with a min heap of the k biggest files seen so far.
+     * Time complexity: O(S log k) for the S nodes under the directory, O(log F + k) for the root.
+     * Space complexity: O(k).
+     * @param dirName
+     * @param k
+     * @return List of up to k file names
+     * @throws FileSystemException
+     */
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        int dir = getDirectory(dirName);
+        if (dir == NodeStore.ROOT) {
+            return getBiggestFiles(k);
+        }
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Integer> smallestFirst = new PriorityQueue<>((a, b) -> isBigger(a, b) ? 1 : -1);
+        for (int node = firstNodeUnder(dir); node != NodeStore.NONE; node = nextNodeUnder(dir, node)) {
+            if (!store.isFile(node)) {
+                continue;
+            }
+            if (smallestFirst.size() < k) {
+                smallestFirst.add(node);
+            } else if (isBigger(node, smallestFirst.peek())) {
+                smallestFirst.poll();
+                smallestFirst.add(node);
+            }
+        }
+        List<String> biggest = new ArrayList<>(smallestFirst.size());
+        while (!smallestFirst.isEmpty()) {
+            biggest.add(store.getName(smallestFirst.poll()));
+        }
+        Collections.reverse(biggest);
+        return biggest;
+    }
+
+    /**
+     * Returns the total size of all the files under a directory, recursively.
+     * Time complexity: O(1).
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return store.getSize(getDirectory(dirName));
+    }
+
+    /**
+     * Returns the number of files under a directory, recursively.
+     * Time complexity: O(1).
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileCount(String dirName) throws FileSystemException {
+        return store.getFileCount(getDirectory(dirName));
+    }
+
+    /**
+     * Returns the number of directories under a directory, recursively and not including the directory itself.
+     * Time complexity: O(1).
+     * Space complexity: O(1).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return store.getDirectoryCount(getDirectory(dirName));
+    }
+
+    /**
+     * Lazily iterates the names starting with the given prefix, in lexicographic order.
+     * Time complexity: O(log N) to create the iterator and O(1) amortized for every returned name, plus O(N log N) to
+     * build the name index on the first search.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param prefix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return nameIndex().byPrefix(prefix, after);
+    }
+
+    /**
+     * Lazily iterates the names ending with the given suffix, in the lexicographic order of the reversed names.
+     * Time complexity: O(log N) to create the iterator and O(1) amortized for every returned name, plus O(N log N) to
+     * build the name index on the first search.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param suffix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return nameIndex().bySuffix(suffix, after);
+    }
+
+    /**
+     * Lazily iterates the names matching a glob pattern of * and ?.
+     * Time complexity: O(log N) to create the iterator, then proportional to the names sharing the longest literal
+     * prefix or suffix of the pattern, plus O(N log N) to build the name index on the first search.
+     * Space complexity: O(1), O(N) for the name index on the first search.
+     * @param pattern
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return nameIndex().byGlob(pattern, after);
+    }
+
+    private NameIndex nameIndex() {
+        if (nameIndex == null) {
+            List<String> names = new ArrayList<>(store.size());
+            for (int id = 0; id < store.getIdLimit(); id++) {
+                if (id != NodeStore.ROOT && (store.isFile(id) || store.isDirectory(id))) {
+                    names.add(store.getName(id));
+                }
+            }
+            nameIndex = new NameIndex();
+            nameIndex.addAll(names);
+        }
+        return nameIndex;
+    }
+
+    private void removeFromIndexes(int node) {
+        if (store.isFile(node)) {
+            sizeIndex.remove(node);
+        }
+        if (nameIndex != null) {
+            nameIndex.remove(store.getName(node));
+        }
+    }
+
+    /**
+     * Orders files like the size index does, by size and then by id.
+     */
+    private boolean isBigger(int file, int other) {
+        long size = store.getSize(file);
+        long otherSize = store.getSize(other);
+        return size > otherSize || (size == otherSize && file > other);
+    }
+
+    private int firstNodeUnder(int dir) {
+        return store.getFirstChild(dir);
+    }
+
+    /**
+     * Pre order successor of a node within the subtree of dir, through the child, sibling and parent links.
+     */
+    private int nextNodeUnder(int dir, int node) {
+        if (store.isDirectory(node) && store.getFirstChild(node) != NodeStore.NONE) {
+            return store.getFirstChild(node);
+        }
+        while (node != dir && store.getNextSibling(node) == NodeStore.NONE) {
+            node = store.getParent(node);
+        }
+        return node == dir ? NodeStore.NONE : store.getNextSibling(node);
+    }
+
+    private void writeLine(int node, int depth, Appendable out) throws IOException {
+        FileSystemPrinter.indent(depth, out);
+        out.append(store.getName(node));
+        if (store.isFile(node)) {
+            out.append(" [size=").append(Long.toString(store.getSize(node)))
+                    .append(" bytes, created=").append(store.getCreationDate(node).toString()).append(']');
+        } else {
+            out.append(" [created=").append(store.getCreationDate(node).toString())
+                    .append("] [files=").append(Integer.toString(store.getFileCount(node)))
+                    .append(", dirs=").append(Integer.toString(store.getDirectoryCount(node)))
+                    .append(", size=").append(Long.toString(store.getSize(node))).append(" bytes]");
+        }
+        out.append('\n');
+    }
+
+    private int getParentDirectory(String parentDirName) throws DirectoryNotFoundException {
+        int parent = store.find(parentDirName);
+        if (parent == NodeStore.NONE || !store.isDirectory(parent)) {
+            throw new DirectoryNotFoundException("Parent directory not found: %s", parentDirName);
+        }
+        return parent;
+    }
+
+    private int getDirectory(String dirName) throws DirectoryNotFoundException {
+        int dir = store.find(dirName);
+        if (dir == NodeStore.NONE || !store.isDirectory(dir)) {
+            throw new DirectoryNotFoundException("Directory not found: %s", dirName);
+        }
+        return dir;
+    }
+
+    private void checkFileExistence(String fileName) throws NameAlreadyExistsException {
+        if (store.find(fileName) != NodeStore.NONE) {
+            throw new NameAlreadyExistsException("File already exists: %s", fileName);
+        }
+    }
+
+}
@@ -0,0 +1,735 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.indexes.FileSizeIndex;
+import filesystem.indexes.NameIndex;
+import filesystem.indexes.SubtreeFileIndex;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeType;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.ChangeNotifier;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Thread safe implementation of a file system manager.
+ * The tree is the same as in BasicFileSystemManager, the differences are in how it is guarded:
+ *
+ * - Reads (getFileSize, getBiggestFile) never take a lock. The name map is a ConcurrentHashMap and the files are kept
+ *   in a ConcurrentSkipListSet ordered by size, so both can be read while writers are running.
+ * - addFile / addDir take the tree lock in shared mode and a striped lock chosen by the parent directory, so adds
+ *   under different parents run in parallel and only adds to the same directory are serialized.
+ * - delete and showFileSystem take the tree lock in exclusive mode since they walk whole subtrees.
+ * - The order statistic size index (ranks, percentiles and size ranges) and the subtree file index (the biggest files
+ *   under a directory, see SubtreeFileIndex) are guarded by one index lock, which every add holds only for its
+ *   O(log N) insertions.
+ *
+ * A delete becomes visible to readers atomically: unlinking the deleted node from its parent is a single volatile
+ * write, and readers only report a node if its parent chain still reaches the root. The name map and the size set are
+ * cleaned after that, so a reader never sees half of a deleted subtree.
+ *
+ * Method Signatures and Complexities Summary:
+ *
+ * 1. public void addFile(String parentDirName, String fileName, int fileSize)
+ *    - Time Complexity: O(h + log N) (Insertion in the skip list and the indexes, and the ancestors aggregates)
+ *
+ * 2. public void addDir(String parentDirName, String dirName)
+ *    - Time Complexity: O(h + log N) (Insertion in the subtree file index, and the ancestors aggregates)
+ *
+ * 3. public String getBiggestFile()
+ *    - Time Complexity: O(h) (First entry of the skip list and a check that it is still attached to the tree)
+ *
+ * 4. public long getFileSize(String fileName)
+ *    - Time Complexity: O(h) (Lookup in the name map and a check that the node is still attached to the tree)
+ *
+ * 5. public void showFileSystem()
+ *    - Time Complexity: O(N)
+ *
+ * 6. public void delete(String name)
+ *    - Time Complexity: O(N + F log F)
+ *
+ * 7. public long getDirectorySize(String dirName) / getFileCount(String dirName) / getDirectoryCount(String dirName)
+ *    - Time Complexity: O(h) (Aggregates kept on every directory and a check that it is still attached to the tree)
+ *
+ * 8. public String getBiggestFile(String dirName) / getBiggestFiles(String dirName, int k)
+ *    - Time Complexity: O(h + log N), O(h + log N + k * log N * log(k * log N)) for k files (Range queries on the
+ *      subtree file index, under the index lock)
+ *
+ * 9. public List<String> getBiggestFiles(int k)
+ *    - Time Complexity: O(k) (First entries of the skip list)
+ *
+ * 10. public Iterator<String> getFilesInSizeRange(long minSize, long maxSize)
+ *    - Time Complexity: O(log F + M) (The M matching names are copied under the index lock)
+ *
+ * 11. public long getFileSizeAtRank(long rank) / getFileSizePercentile(double percentile)
+ *    - Time Complexity: O(log F) (Under the index lock)
+ *
+ * 12. public Iterator<String> findByPrefix(String prefix, String after) / findBySuffix / findByGlob
+ *    - Time Complexity: O(log N) to create the iterator and O(1) amortized per returned name, without blocking
+ *
+ * 13. public void move(String name, String newParentDirName)
+ *    - Time Complexity: O(h + log N), whatever the size of the moved subtree
+ *
+ * 14. public void rename(String oldName, String newName)
+ *    - Time Complexity: O(log N) (Rekey in the name map, the name index and the children map of the parent)
+ *
+ * 15. public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+ *    - Time Complexity: O(h), then O(h) more per mutation while any subscription exists, without blocking
+ *
+ * 16. public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey)
+ *    - Time Complexity: O(h + log n + limit) (Seek in the listing order of the directory, under its stripe lock)
+ *
+ * The aggregates are updated with atomic adds along the parent chain, so adds under different parents may update a
+ * shared ancestor at the same time. A reader can see an add reflected in a directory before its ancestors.
+ */
+public class ConcurrentFileSystemManager implements FileSystemManager {
+    private static final int STRIPES = 64;
+
+    private final Directory root;
+    private final ConcurrentHashMap<String, FileSystemNode> nameMap;
+    private final NameIndex nameIndex;
+    private final ConcurrentSkipListSet<File> filesBySize;
+    private final ReentrantReadWriteLock treeLock;
+    private final ReentrantLock[] stripes;
+    private final FileSizeIndex sizeIndex;
+    private final SubtreeFileIndex subtreeFiles;
+    // Guards the size index and the subtree file index
+    private final ReentrantLock indexLock;
+    private final ChangeNotifier watchers;
+
+
+    public ConcurrentFileSystemManager() throws InvalidNameException {
+        this.root = new Directory("root");
+        this.nameMap = new ConcurrentHashMap<>();
+        this.nameMap.put(root.getName(), root);
+        this.nameIndex = new NameIndex();
+        this.filesBySize = new ConcurrentSkipListSet<>(File.BIGGEST_FIRST);
+        this.treeLock = new ReentrantReadWriteLock();
+        this.stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.sizeIndex = new FileSizeIndex();
+        this.subtreeFiles = new SubtreeFileIndex(root);
+        this.indexLock = new ReentrantLock();
+        this.watchers = new ChangeNotifier();
+    }
+
+    /**
+     * Adds a file to the file system.
+     * Runs in parallel with adds to other directories and with all reads.
+     * @param parentDirName
+     * @param fileName
+     * @param fileSize
+     * @throws FileSystemException
+     */
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        File file = new File(fileName, fileSize);
+        treeLock.readLock().lock();
+        try {
+            Directory parent = getParentDirectory(parentDirName);
+            reserveName(file);
+            ReentrantLock stripe = stripeFor(parent);
+            stripe.lock();
+            try {
+                parent.addChild(file);
+            } finally {
+                stripe.unlock();
+            }
+            parent.subtreeFileAdded(file);
+            filesBySize.add(file);
+            indexLock.lock();
+            try {
+                sizeIndex.add(file);
+                subtreeFiles.add(file, parent);
+            } finally {
+                indexLock.unlock();
+            }
+            if (watchers.isWatched()) {
+                watchers.added(file);
+            }
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a directory to the file system.
+     * Runs in parallel with adds to other directories and with all reads.
+     * @param parentDirName
+     * @param dirName
+     * @throws FileSystemException
+     */
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        Directory dir = new Directory(dirName);
+        treeLock.readLock().lock();
+        try {
+            Directory parent = getParentDirectory(parentDirName);
+            // Indexed before its name is published, since an add under it may follow right away
+            indexLock.lock();
+            try {
+                subtreeFiles.add(dir, parent);
+            } finally {
+                indexLock.unlock();
+            }
+            try {
+                reserveName(dir);
+            } catch (NameAlreadyExistsException e) {
+                indexLock.lock();
+                try {
+                    subtreeFiles.remove(dir);
+                } finally {
+                    indexLock.unlock();
+                }
+                throw e;
+            }
+            ReentrantLock stripe = stripeFor(parent);
+            stripe.lock();
+            try {
+                parent.addChild(dir);
+            } finally {
+                stripe.unlock();
+            }
+            parent.subtreeDirectoryAdded();
+            if (watchers.isWatched()) {
+                watchers.added(dir);
+            }
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the name of the biggest file in the file system without blocking.
+     * Files of a subtree that is being deleted are skipped until the delete removed them from the set.
+     * @return String
+     */
+    public String getBiggestFile() throws FileSystemException {
+        for (File file : filesBySize) {
+            if (isAttached(file)) {
+                return file.getName();
+            }
+        }
+        throw new FileSystemException("No files found in the file system, can't get the biggest file.");
+    }
+
+    /**
+     * Returns the names of the k biggest files in the file system, from the biggest, without blocking.
+     * @param k
+     * @return List of up to k file names
+     */
+    public List<String> getBiggestFiles(int k) {
+        List<String> biggest = new ArrayList<>(Math.min(k, 1024));
+        for (File file : filesBySize) {
+            if (biggest.size() >= k) {
+                break;
+            }
+            if (isAttached(file)) {
+                biggest.add(file.getName());
+            }
+        }
+        return biggest;
+    }
+
+    /**
+     * Returns the names of the files whose size is within the given inclusive bounds, from the smallest.
+     * Unlike BasicFileSystemManager the names are copied under the index lock, so the returned iterator is not
+     * affected by later writes.
+     * @param minSize
+     * @param maxSize
+     * @return Iterator of file names
+     */
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        List<String> names = new ArrayList<>();
+        indexLock.lock();
+        try {
+            for (Iterator<File> files = sizeIndex.range(minSize, maxSize); files.hasNext(); ) {
+                names.add(files.next().getName());
+            }
+        } finally {
+            indexLock.unlock();
+        }
+        return names.iterator();
+    }
+
+    /**
+     * Returns the size of the file at the given rank when all the files are ordered by size.
+     * @param rank 0 for the smallest file up to the number of files - 1 for the biggest
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        indexLock.lock();
+        try {
+            if (rank < 0 || rank >= sizeIndex.size()) {
+                throw new FileSystemException(
+                        String.format("Rank %d is out of bounds, there are %d files", rank, sizeIndex.size()));
+            }
+            return sizeIndex.select((int) rank).getSize();
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the file size at the given percentile using the nearest rank method, e.g. 50 for the median.
+     * @param percentile Between 0 and 100
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new FileSystemException("Percentile must be between 0 and 100: %s", percentile);
+        }
+        indexLock.lock();
+        try {
+            if (sizeIndex.isEmpty()) {
+                throw new FileSystemException("No files found in the file system, can't get a percentile.");
+            }
+            return sizeIndex.select(FileSizeIndex.percentileRank(percentile, sizeIndex.size())).getSize();
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the name of the biggest file under a directory, recursively.
+     * Holds the index lock for the O(log N) range query, a directory deleted since it was found is answered as it was.
+     * @param dirName
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        Directory dir = getAttachedDirectory(dirName);
+        File biggest;
+        indexLock.lock();
+        try {
+            biggest = subtreeFiles.biggest(dir);
+        } finally {
+            indexLock.unlock();
+        }
+        if (biggest == null) {
+            throw new FileSystemException("No files found under %s, can't get the biggest file.", dirName);
+        }
+        return biggest.getName();
+    }
+
+    /**
+     * Returns the names of the k biggest files under a directory, recursively, from the biggest.
+     * Holds the index lock for the range query, see getBiggestFile(String).
+     * @param dirName
+     * @param k
+     * @return List of up to k file names
+     * @throws FileSystemException
+     */
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        Directory dir = getAttachedDirectory(dirName);
+        List<File> files;
+        indexLock.lock();
+        try {
+            files = subtreeFiles.biggest(dir, k);
+        } finally {
+            indexLock.unlock();
+        }
+        List<String> biggest = new ArrayList<>(files.size());
+        for (File file : files) {
+            biggest.add(file.getName());
+        }
+        return biggest;
+    }
+
+    /**
+     * Returns the size of a file in the file system without blocking.
+     * @param fileName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileSize(String fileName) throws FileSystemException {
+        FileSystemNode node = nameMap.get(fileName);
+        if (node == null || !isAttached(node)) {
+            throw new FileSystemException("Node not found: %s", fileName);
+        }
+        if (node instanceof File) {
+            return ((File) node).getSize();
+        }
+        throw new FileSystemException("Node is not a file: %s", fileName);
+    }
+
+    /**
+     * Returns the size of a file, or NO_SIZE if there is none with that name, without blocking or allocating.
+     * @param fileName
+     * @return long
+     */
+    public long tryGetFileSize(String fileName) {
+        FileSystemNode node = nameMap.get(fileName);
+        return node instanceof File && isAttached(node) ? ((File) node).getSize() : NO_SIZE;
+    }
+
+    /**
+     * Returns what the name designates without blocking or allocating.
+     * @param name
+     * @return NodeType
+     */
+    public NodeType nodeType(String name) {
+        FileSystemNode node = nameMap.get(name);
+        if (node == null || !isAttached(node)) {
+            return NodeType.NONE;
+        }
+        return node instanceof File ? NodeType.FILE : NodeType.DIRECTORY;
+    }
+
+    /**
+     * Returns the total size of all the files under a directory, recursively, without blocking.
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return getAttachedDirectory(dirName).getTotalSize();
+    }
+
+    /**
+     * Returns the number of files under a directory, recursively, without blocking.
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileCount(String dirName) throws FileSystemException {
+        return getAttachedDirectory(dirName).getFileCount();
+    }
+
+    /**
+     * Returns the number of directories under a directory, recursively, without blocking.
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return getAttachedDirectory(dirName).getDirectoryCount();
+    }
+
+    /**
+     * Lazily iterates the names starting with the given prefix, in lexicographic order, without blocking.
+     * The iterator is weakly consistent: names added or deleted while it is in use may or may not be returned.
+     * @param prefix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return nameIndex.byPrefix(prefix, after);
+    }
+
+    /**
+     * Lazily iterates the names ending with the given suffix, in the lexicographic order of the reversed names,
+     * without blocking. The iterator is weakly consistent.
+     * @param suffix
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return nameIndex.bySuffix(suffix, after);
+    }
+
+    /**
+     * Lazily iterates the names matching a glob pattern of * and ?, without blocking. The iterator is weakly
+     * consistent.
+     * @param pattern
+     * @param after The last name of the previous page, or null for the first page
+     * @return Iterator of names
+     */
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return nameIndex.byGlob(pattern, after);
+    }
+
+    /**
+     * Displays the file system structure.
+     * Holds the tree lock exclusively so the children maps are not modified while they are printed.
+     */
+    public void showFileSystem() {
+        treeLock.writeLock().lock();
+        try {
+            FileSystemPrinter.print(root, System.out);
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Streams the file system structure to the given destination.
+     * Holds the tree lock exclusively for the whole traversal, so writers wait for a slow destination.
+     * @param out The destination
+     * @param maxDepth Nodes deeper than this are not printed, the root is at depth 0
+     * @param maxNodes Maximum number of nodes to print
+     * @throws IOException if the destination fails to write
+     */
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        treeLock.writeLock().lock();
+        try {
+            FileSystemPrinter.print(root, out, maxDepth, maxNodes);
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes a file or directory from the file system.
+     * Holds the tree lock exclusively. Readers stop seeing the whole subtree as soon as it is unlinked from its parent.
+     * @param name
+     * @throws FileSystemException
+     */
+    public void delete(String name) throws FileSystemException {
+        treeLock.writeLock().lock();
+        try {
+            FileSystemNode nodeToDelete = nameMap.get(name);
+            if (nodeToDelete == null) {
+                throw new FileSystemException("Node not found: %s", name);
+            }
+            if (nodeToDelete == root) {
+                throw new FileSystemException("Cannot delete root directory");
+            }
+
+            // Unlinking is the point where the delete becomes visible to readers
+            Directory parent = (Directory) nodeToDelete.getParent();
+            parent.removeChild(nodeToDelete);
+
+            indexLock.lock();
+            try {
+                subtreeFiles.remove(nodeToDelete);
+                if (nodeToDelete instanceof Directory) {
+                    Directory dir = (Directory) nodeToDelete;
+                    parent.subtreeDirectoryRemoved(dir);
+                    deleteDirectoryContents(dir);
+                } else {
+                    parent.subtreeFileRemoved((File) nodeToDelete);
+                    filesBySize.remove(nodeToDelete);
+                    sizeIndex.remove((File) nodeToDelete);
+                }
+            } finally {
+                indexLock.unlock();
+            }
+            nameMap.remove(name);
+            nameIndex.remove(name);
+            if (watchers.isWatched()) {
+                watchers.removed(nodeToDelete, parent);
+            }
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves a file or a directory, with its whole subtree, under another directory.
+     * Holds the tree lock exclusively. The parent of the node changes in a single volatile write, so readers see the
+     * node attached either at its old place or at its new one. The aggregates of the old and new ancestors are adjusted
+     * around that write, a reader can see the node counted by both or by neither for a moment.
+     * @param name
+     * @param newParentDirName
+     * @throws FileSystemException if the node is the root or the new parent is in its subtree
+     */
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        treeLock.writeLock().lock();
+        try {
+            FileSystemNode node = nameMap.get(name);
+            if (node == null) {
+                throw new FileSystemException("Node not found: %s", name);
+            }
+            if (node == root) {
+                throw new FileSystemException("Cannot move root directory");
+            }
+            Directory newParent = getParentDirectory(newParentDirName);
+            for (FileSystemNode dir = newParent; dir != null; dir = dir.getParent()) {
+                if (dir == node) {
+                    throw new FileSystemException("Cannot move %s into its own subtree", name);
+                }
+            }
+
+            Directory formerParent = (Directory) node.getParent();
+            if (formerParent != newParent) {
+                Directory commonAncestor = Directory.commonAncestor(formerParent, newParent);
+                newParent.subtreeMovedIn(node, commonAncestor);
+                formerParent.moveChild(node, newParent);
+                formerParent.subtreeMovedOut(node, commonAncestor);
+                indexLock.lock();
+                try {
+                    subtreeFiles.move(node, newParent);
+                } finally {
+                    indexLock.unlock();
+                }
+                if (watchers.isWatched()) {
+                    watchers.moved(node, formerParent);
+                }
+            }
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Renames a file or a directory.
+     * Holds the tree lock exclusively. The new name is claimed before the node is rekeyed and the old one released
+     * after, so a reader finds the node under one of the two names during the rename.
+     * @param oldName
+     * @param newName Must be valid and unused
+     * @throws FileSystemException if the node is the root or the new name is invalid or taken
+     */
+    public void rename(String oldName, String newName) throws FileSystemException {
+        FileSystemNode.validateName(newName);
+        treeLock.writeLock().lock();
+        try {
+            FileSystemNode node = nameMap.get(oldName);
+            if (node == null) {
+                throw new FileSystemException("Node not found: %s", oldName);
+            }
+            if (node == root) {
+                throw new FileSystemException("Cannot rename root directory");
+            }
+            if (nameMap.putIfAbsent(newName, node) != null) {
+                throw new NameAlreadyExistsException("File already exists: %s", newName);
+            }
+            nameIndex.add(newName);
+
+            ((Directory) node.getParent()).renameChild(node, newName);
+            nameMap.remove(oldName);
+            nameIndex.remove(oldName);
+            if (watchers.isWatched()) {
+                watchers.renamed(node, oldName);
+            }
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Subscribes to the changes under a directory, see BasicFileSystemManager.watch. Adds to different directories
+     * offer their events concurrently, so events from different parents may be delivered in either order.
+     * Holds the tree lock in shared mode, so the directory can't be deleted before the subscription is registered.
+     * @param dirName
+     * @param recursive Whether the changes below the children are reported too
+     * @param options Queue capacity and batch size
+     * @param listener
+     * @return Subscription
+     * @throws FileSystemException if there is no such directory
+     */
+    public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        treeLock.readLock().lock();
+        try {
+            return watchers.subscribe(getAttachedDirectory(dirName), recursive, options, listener);
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists a page of the children of a directory, see BasicFileSystemManager.list.
+     * Holds the tree lock in shared mode and the stripe lock of the directory, so the page is consistent with the adds
+     * to the directory and waits for no other writer than deletes, moves and renames.
+     * @param dirName
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit Maximum number of names in the page
+     * @param sortKey
+     * @return ListingPage
+     * @throws FileSystemException if there is no such directory or the cursor was made for another order
+     */
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        ListingPage.validateLimit(limit);
+        ListingKey after = ListingKey.fromCursor(cursor, sortKey);
+        treeLock.readLock().lock();
+        try {
+            Directory dir = getAttachedDirectory(dirName);
+            ReentrantLock stripe = stripeFor(dir);
+            stripe.lock();
+            try {
+                return dir.list(after, limit, sortKey);
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the tree lock exclusively and the index lock.
+     */
+    private void deleteDirectoryContents(Directory directory) {
+        for (FileSystemNode child : directory.getChildren()) {
+            nameMap.remove(child.getName());
+            nameIndex.remove(child.getName());
+            if (child instanceof Directory) {
+                deleteDirectoryContents((Directory) child);
+            } else {
+                filesBySize.remove(child);
+                sizeIndex.remove((File) child);
+            }
+        }
+    }
+
+    /**
+     * Checks that a node is still part of the tree by walking its parent chain up to the root.
+     * A node of a deleted subtree reaches a detached ancestor whose parent is null.
+     */
+    private boolean isAttached(FileSystemNode node) {
+        FileSystemNode current = node;
+        while (current != root) {
+            current = current.getParent();
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Directory getAttachedDirectory(String dirName) throws DirectoryNotFoundException {
+        FileSystemNode dir = nameMap.get(dirName);
+        if (!(dir instanceof Directory) || !isAttached(dir)) {
+            throw new DirectoryNotFoundException("Directory not found: %s", dirName);
+        }
+        return (Directory) dir;
+    }
+
+    /**
+     * Must be called while holding the tree lock, so no delete is running and every name in the map is in the tree.
+     */
+    private Directory getParentDirectory(String parentDirName) throws DirectoryNotFoundException {
+        FileSystemNode parent = nameMap.get(parentDirName);
+        if (!(parent instanceof Directory)) {
+            throw new DirectoryNotFoundException("Parent directory not found: %s", parentDirName);
+        }
+        return (Directory) parent;
+    }
+
+    /**
+     * Atomically claims the node name, replaces the check-then-put of BasicFileSystemManager.
+     * Must be called while holding the tree lock, so the name can't be deleted before it is indexed.
+     */
+    private void reserveName(FileSystemNode node) throws NameAlreadyExistsException {
+        if (nameMap.putIfAbsent(node.getName(), node) != null) {
+            throw new NameAlreadyExistsException("File already exists: %s", node.getName());
+        }
+        nameIndex.add(node.getName());
+    }
+
+    private ReentrantLock stripeFor(Directory directory) {
+        int hash = System.identityHashCode(directory);
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+}
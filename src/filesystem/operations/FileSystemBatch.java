@@ -0,0 +1,70 @@
+package filesystem.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Operations applied together by FileSystemManager.apply: either all of them take effect or none does.
+ *
+ * The operations are validated in order, each against the tree as the previous ones leave it, so a batch can delete a
+ * node and reuse its name, or add a directory and then files into it. Recording an operation only appends it, nothing
+ * is checked before apply.
+ *
+ * Not thread safe, a batch is built by a single thread and must not change while it is applied.
+ */
+public final class FileSystemBatch {
+    enum Kind {
+        ADD_FILE,
+        ADD_DIR,
+        DELETE
+    }
+
+    /**
+     * One recorded operation, the parent and the size are only set for the adds and for ADD_FILE.
+     */
+    static final class Operation {
+        final Kind kind;
+        final String parentDirName;
+        final String name;
+        final int size;
+
+        private Operation(Kind kind, String parentDirName, String name, int size) {
+            this.kind = kind;
+            this.parentDirName = parentDirName;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    public FileSystemBatch addFile(String parentDirName, String fileName, int fileSize) {
+        operations.add(new Operation(Kind.ADD_FILE, parentDirName, fileName, fileSize));
+        return this;
+    }
+
+    public FileSystemBatch addDir(String parentDirName, String dirName) {
+        operations.add(new Operation(Kind.ADD_DIR, parentDirName, dirName, 0));
+        return this;
+    }
+
+    /**
+     * Deletes a file, or a directory and everything below it, including what the batch added there before.
+     */
+    public FileSystemBatch delete(String name) {
+        operations.add(new Operation(Kind.DELETE, null, name, 0));
+        return this;
+    }
+
+    /**
+     * @return The number of recorded operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    List<Operation> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+}
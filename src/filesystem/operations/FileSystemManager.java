@@ -1,8 +1,27 @@
 package filesystem.operations;
 
 import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.nodes.NodeType;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
 
 public interface FileSystemManager {
+    // No depth limit for showFileSystem
+    int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    // No node count limit for showFileSystem
+    long UNLIMITED_NODES = Long.MAX_VALUE;
+
+    // Size returned by tryGetFileSize when no file has the name
+    long NO_SIZE = -1;
+
     // Adds a file to the file system
     void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException;
 
@@ -12,9 +31,80 @@ public interface FileSystemManager {
     // Deletes a file or directory
     void delete(String name) throws FileSystemException;
 
+    // Moves a file or directory, with everything below it, under another directory
+    void move(String name, String newParentDirName) throws FileSystemException;
+
+    // Renames a file or directory, keeping its place, contents and creation date
+    void rename(String oldName, String newName) throws FileSystemException;
+
     // Shows the file system structure
     void showFileSystem();
 
+    // Streams the file system structure to the given destination, up to the given depth and amount of nodes
+    void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException;
+
     // Gets the size of a file
     long getFileSize(String name) throws FileSystemException;
+
+    // Gets the size of a file, or NO_SIZE if the name doesn't designate a single file, without throwing or allocating
+    long tryGetFileSize(String name);
+
+    // Gets whether the name designates a single file, directory or nothing, without throwing or allocating
+    NodeType nodeType(String name);
+
+    // Tells whether the name designates a single file or directory, without throwing or allocating
+    default boolean exists(String name) {
+        return nodeType(name) != NodeType.NONE;
+    }
+
+    // Gets the name of the biggest file
+    String getBiggestFile() throws FileSystemException;
+
+    // Gets the names of the k biggest files, from the biggest
+    List<String> getBiggestFiles(int k) throws FileSystemException;
+
+    // Iterates the names of the files whose size is within the given inclusive bounds, from the smallest
+    Iterator<String> getFilesInSizeRange(long minSize, long maxSize) throws FileSystemException;
+
+    // Gets the size of the file at the given rank, 0 being the smallest file
+    long getFileSizeAtRank(long rank) throws FileSystemException;
+
+    // Gets the file size at the given percentile (0-100) of all the file sizes
+    long getFileSizePercentile(double percentile) throws FileSystemException;
+
+    // Gets the name of the biggest file under a directory
+    String getBiggestFile(String dirName) throws FileSystemException;
+
+    // Gets the names of the k biggest files under a directory, from the biggest
+    List<String> getBiggestFiles(String dirName, int k) throws FileSystemException;
+
+    // Gets the total size of all the files under a directory
+    long getDirectorySize(String dirName) throws FileSystemException;
+
+    // Gets the number of files under a directory
+    long getFileCount(String dirName) throws FileSystemException;
+
+    // Gets the number of directories under a directory
+    long getDirectoryCount(String dirName) throws FileSystemException;
+
+    // Iterates the names starting with the given prefix, after the given name cursor (null for the first page)
+    Iterator<String> findByPrefix(String prefix, String after);
+
+    // Iterates the names ending with the given suffix, after the given name cursor (null for the first page)
+    Iterator<String> findBySuffix(String suffix, String after);
+
+    // Iterates the names matching a glob pattern of * and ?, after the given name cursor (null for the first page)
+    Iterator<String> findByGlob(String pattern, String after);
+
+    // Lists a page of up to limit children of a directory in the given order, after the cursor of the previous page
+    // (null for the first page). The cursor stays valid across inserts and deletes (see ListingKey)
+    default ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support listings");
+    }
+
+    // Subscribes to the adds and deletes under a directory, delivered asynchronously in batches (see Subscription)
+    default Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support watches");
+    }
 }
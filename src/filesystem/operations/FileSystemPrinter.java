@@ -0,0 +1,137 @@
+package filesystem.operations;
+
+import filesystem.nodes.Directory;
+import filesystem.nodes.FileSystemNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Streams a file system tree for display, shared by the file system managers.
+ * The traversal is an iterative DFS with an explicit stack holding one children iterator per open directory,
+ * so memory depends only on the height of the tree and every line is written as soon as it is visited.
+ */
+final class FileSystemPrinter {
+    static final int INDENT = 3;
+
+    private FileSystemPrinter() {
+    }
+
+    /**
+     * Prints the whole tree to the given print stream, e.g. the standard output.
+     */
+    static void print(FileSystemNode root, PrintStream stream) {
+        // Not closed on purpose, closing the writer would close the stream as well
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream));
+        try {
+            print(root, writer, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the tree rooted at the given node, one node per line, indented by its depth.
+     * Time complexity: O(N) for N printed nodes.
+     * Space complexity: O(h) where h is the height of the printed tree.
+     * @param root The node to start from, printed at depth 0
+     * @param out The destination
+     * @param maxDepth Nodes deeper than this are not printed, a directory with hidden children is followed by "..."
+     * @param maxNodes Maximum number of nodes to print, the output ends with "..." if the tree has more
+     * @throws IOException if the destination fails to write
+     */
+    static void print(FileSystemNode root, Appendable out, int maxDepth, long maxNodes) throws IOException {
+        print(root, FileSystemPrinter::childrenOf, FileSystemNode::appendTo, out, maxDepth, maxNodes);
+    }
+
+    /**
+     * Writes any tree in the same format, given how to list the children of a node and how to write its line.
+     * Time complexity: O(N) for N printed nodes.
+     * Space complexity: O(h) where h is the height of the printed tree.
+     * @param root The node to start from, printed at depth 0
+     * @param children Lists the children of a node, an empty iterator for a leaf
+     * @param line Writes the display line of a node, without the indentation and the line break
+     * @param out The destination
+     * @param maxDepth Nodes deeper than this are not printed, a directory with hidden children is followed by "..."
+     * @param maxNodes Maximum number of nodes to print, the output ends with "..." if the tree has more
+     * @throws IOException if the destination fails to write
+     */
+    static <T> void print(T root, Function<T, Iterator<T>> children, LineWriter<T> line, Appendable out,
+                          int maxDepth, long maxNodes) throws IOException {
+        if (maxNodes <= 0) {
+            return;
+        }
+        writeLine(root, line, 0, out);
+        long printed = 1;
+
+        ArrayDeque<Iterator<T>> stack = new ArrayDeque<>();
+        pushChildren(children.apply(root), 0, maxDepth, stack, out);
+        while (!stack.isEmpty()) {
+            Iterator<T> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            if (printed == maxNodes) {
+                writeEllipsis(stack.size(), out);
+                return;
+            }
+            T child = siblings.next();
+            int depth = stack.size();
+            writeLine(child, line, depth, out);
+            printed++;
+            pushChildren(children.apply(child), depth, maxDepth, stack, out);
+        }
+    }
+
+    private static Iterator<FileSystemNode> childrenOf(FileSystemNode node) {
+        if (!(node instanceof Directory)) {
+            return Collections.emptyIterator();
+        }
+        return ((Directory) node).getChildren().iterator();
+    }
+
+    private static <T> void pushChildren(Iterator<T> children, int depth, int maxDepth,
+                                         ArrayDeque<Iterator<T>> stack, Appendable out) throws IOException {
+        if (!children.hasNext()) {
+            return;
+        }
+        if (depth >= maxDepth) {
+            writeEllipsis(depth + 1, out);
+            return;
+        }
+        stack.push(children);
+    }
+
+    private static <T> void writeLine(T node, LineWriter<T> line, int depth, Appendable out) throws IOException {
+        indent(depth, out);
+        line.write(node, out);
+        out.append('\n');
+    }
+
+    static void writeEllipsis(int depth, Appendable out) throws IOException {
+        indent(depth, out);
+        out.append("...\n");
+    }
+
+    static void indent(int depth, Appendable out) throws IOException {
+        for (int i = depth * INDENT; i > 0; i--) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Writes the display line of a node.
+     */
+    interface LineWriter<T> {
+        void write(T node, Appendable out) throws IOException;
+    }
+}
@@ -0,0 +1,475 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.indexes.FileSizeIndex;
+import filesystem.indexes.NameIndex;
+import filesystem.indexes.PersistentHashMap;
+import filesystem.indexes.PersistentSizeIndex;
+import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeType;
+import filesystem.operations.VersionedTree.DirectoryVersion;
+import filesystem.operations.VersionedTree.FileVersion;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Read only view of a file system at the point in time it was taken, see BasicFileSystemManager.snapshot().
+ * It holds the versions of the tree, the names and the size index that were current then. They are immutable and
+ * shared with the manager and the other snapshots, so a snapshot never changes, never blocks the manager and can be
+ * read from any number of threads. Every mutator throws.
+ *
+ * Deletes pending at the time of the snapshot are not reclaimed for it: the names and the size index still hold the
+ * dead nodes, and the snapshot skips them itself. A version is dead if the parent chain of its live node ends at one of
+ * the deleted roots the snapshot was taken with. The nodes of a deleted subtree never change again, and a node deleted
+ * later ends at a root the snapshot doesn't know, so the check gives the answer of the time of the snapshot. It costs
+ * O(h) per entry while deletes are pending and nothing otherwise. A name shared with a dead node stays shared, and the
+ * ranks are approximate like those of the live manager, until the deletes are reclaimed.
+ *
+ * Method Signatures and Complexities Summary:
+ *
+ * 1. public long getFileSize(String name) / getDirectorySize / getFileCount / getDirectoryCount
+ *    - Time Complexity: O(log32 N) (Lookup in the persistent name map)
+ *
+ * 2. public String getBiggestFile()
+ *    - Time Complexity: O(log F) (Last entry of the persistent size index, plus O(h) per dead file skipped)
+ *
+ * 3. public List<String> getBiggestFiles(int k) / getFilesInSizeRange / getFileSizeAtRank / getFileSizePercentile
+ *    - Time Complexity: the same as BasicFileSystemManager, over the persistent size index
+ *
+ * 4. public String getBiggestFile(String dirName) / getBiggestFiles(String dirName, int k)
+ *    - Time Complexity: O(S log k) for a subtree of S nodes, the versions have no subtree file index
+ *    - Space Complexity: O(h + k)
+ *
+ * 5. public void showFileSystem(Appendable out, int maxDepth, long maxNodes)
+ *    - Time Complexity: O(min(N, maxNodes)), the children of a directory come in hash order
+ *    - Space Complexity: O(h)
+ *
+ * 6. public Iterator<String> findByPrefix(String prefix, String after) / findBySuffix / findByGlob
+ *    - Time Complexity: as BasicFileSystemManager, plus O(N log N) to build the name index on the first search
+ */
+public final class FileSystemSnapshot implements FileSystemManager {
+    // The reverse of File.BIGGEST_FIRST
+    private static final Comparator<FileVersion> SMALLEST_FIRST = Comparator.comparingLong(FileVersion::getSize)
+            .thenComparing(Comparator.comparingLong(FileVersion::getId).reversed());
+    private final DirectoryVersion root;
+    private final PersistentHashMap<String, Object> names;
+    private final PersistentSizeIndex<FileVersion> sizes;
+    // The roots of the deletes pending when the snapshot was taken
+    private final PersistentHashMap<FileSystemNode, Boolean> deadRoots;
+    // Built on the first name search, a snapshot never changes so the index never has to be maintained
+    private volatile NameIndex nameIndex;
+
+    FileSystemSnapshot(DirectoryVersion root, PersistentHashMap<String, Object> names,
+                       PersistentSizeIndex<FileVersion> sizes, PersistentHashMap<FileSystemNode, Boolean> deadRoots) {
+        this.root = root;
+        this.names = names;
+        this.sizes = sizes;
+        this.deadRoots = deadRoots;
+    }
+
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        throw readOnly();
+    }
+
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        throw readOnly();
+    }
+
+    public void delete(String name) throws FileSystemException {
+        throw readOnly();
+    }
+
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        throw readOnly();
+    }
+
+    public void rename(String oldName, String newName) throws FileSystemException {
+        throw readOnly();
+    }
+
+    /**
+     * Displays the structure of the snapshot on the standard output.
+     * Time complexity: O(N).
+     * Space complexity: O(h).
+     */
+    public void showFileSystem() {
+        // Not closed on purpose, closing the writer would close the stream as well
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            showFileSystem(writer, UNLIMITED_DEPTH, UNLIMITED_NODES);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Streams the structure of the snapshot in the format of the live manager.
+     * Time complexity: O(min(N, maxNodes)).
+     * Space complexity: O(h).
+     * @param out The destination, e.g. a Writer or a StringBuilder
+     * @param maxDepth Nodes deeper than this are not printed, the root is at depth 0
+     * @param maxNodes Maximum number of nodes to print
+     * @throws IOException if the destination fails to write
+     */
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        FileSystemPrinter.print((Object) root, FileSystemSnapshot::childrenOf, FileSystemSnapshot::appendTo,
+                out, maxDepth, maxNodes);
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param name
+     * @return long
+     * @throws FileSystemException if no file has that name
+     */
+    public long getFileSize(String name) throws FileSystemException {
+        Object node = lookup(name);
+        if (!(node instanceof FileVersion)) {
+            throw new FileSystemException("Node is not a file: %s", name);
+        }
+        return ((FileVersion) node).getSize();
+    }
+
+    /**
+     * Time complexity: O(log32 N), nothing is allocated.
+     * @param name
+     * @return long The size, or NO_SIZE if the name doesn't designate a single file
+     */
+    public long tryGetFileSize(String name) {
+        Object node = names.get(name);
+        return node instanceof FileVersion && isLive(node) ? ((FileVersion) node).getSize() : NO_SIZE;
+    }
+
+    /**
+     * Time complexity: O(log32 N), nothing is allocated.
+     * @param name
+     * @return NodeType
+     */
+    public NodeType nodeType(String name) {
+        Object node = names.get(name);
+        if (node == null || node == VersionedTree.SHARED || !isLive(node)) {
+            return NodeType.NONE;
+        }
+        return node instanceof FileVersion ? NodeType.FILE : NodeType.DIRECTORY;
+    }
+
+    /**
+     * Time complexity: O(log F), plus O(h) per dead file skipped.
+     * @return String
+     * @throws FileSystemException if the snapshot has no files
+     */
+    public String getBiggestFile() throws FileSystemException {
+        FileVersion biggest = sizes.last();
+        if (biggest != null && !isLive(biggest)) {
+            Iterator<FileVersion> files = live(sizes.descendingIterator());
+            biggest = files.hasNext() ? files.next() : null;
+        }
+        if (biggest == null) {
+            throw new FileSystemException("No files found in the file system, can't get the biggest file.");
+        }
+        return biggest.getName();
+    }
+
+    /**
+     * Time complexity: O(log F + k), plus O(h) per dead file skipped.
+     * @param k
+     * @return List of up to k file names, from the biggest
+     */
+    public List<String> getBiggestFiles(int k) {
+        List<String> biggest = new ArrayList<>(Math.max(0, Math.min(k, sizes.size())));
+        Iterator<FileVersion> files = live(sizes.descendingIterator());
+        while (biggest.size() < k && files.hasNext()) {
+            biggest.add(files.next().getName());
+        }
+        return biggest;
+    }
+
+    /**
+     * Time complexity: O(log F) to create the iterator and O(1) amortized for every returned file, plus O(h) per dead
+     * file skipped.
+     * @param minSize
+     * @param maxSize
+     * @return Iterator of file names, from the smallest
+     */
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        Iterator<FileVersion> files = live(sizes.range(minSize, maxSize));
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return files.next().getName();
+            }
+        };
+    }
+
+    /**
+     * Exact when no delete was pending, approximate otherwise, see BasicFileSystemManager.getFileSizeAtRank(long).
+     * Time complexity: O(log F), plus O(h) per dead file skipped.
+     * @param rank 0 for the smallest file up to the number of files - 1 for the biggest
+     * @return long
+     * @throws FileSystemException if the rank is out of bounds
+     */
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        if (rank < 0 || rank >= root.fileCount) {
+            throw new FileSystemException(
+                    String.format("Rank %d is out of bounds, there are %d files", rank, root.fileCount));
+        }
+        return sizeAtLiveRank(rank);
+    }
+
+    /**
+     * Time complexity: O(log F), plus O(h) per dead file skipped.
+     * @param percentile Between 0 and 100
+     * @return long
+     * @throws FileSystemException if the percentile is out of bounds or the snapshot has no files
+     */
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new FileSystemException("Percentile must be between 0 and 100: %s", percentile);
+        }
+        if (root.fileCount == 0) {
+            throw new FileSystemException("No files found in the file system, can't get a percentile.");
+        }
+        return sizeAtLiveRank(FileSizeIndex.percentileRank(percentile, (int) root.fileCount));
+    }
+
+    /**
+     * Maps the rank among the live files proportionally to a rank of the size index, and looks for the nearest live
+     * file from there, first towards the biggest files then towards the smallest.
+     */
+    private long sizeAtLiveRank(long rank) {
+        int indexed = sizes.size();
+        if (indexed == root.fileCount) {
+            return sizes.select((int) rank).getSize();
+        }
+        int scaled = root.fileCount == 1 ? 0 : (int) (rank * (indexed - 1) / (root.fileCount - 1));
+        long size = sizes.select(scaled).getSize();
+        Iterator<FileVersion> bigger = live(sizes.range(size, Long.MAX_VALUE));
+        if (bigger.hasNext()) {
+            return bigger.next().getSize();
+        }
+        // The dead files are all bigger, the nearest live one is the biggest
+        Iterator<FileVersion> smaller = live(sizes.descendingIterator());
+        return smaller.next().getSize();
+    }
+
+    /**
+     * Time complexity: O(S) for a subtree of S nodes.
+     * Space complexity: O(h).
+     * @param dirName
+     * @return String
+     * @throws FileSystemException
+     */
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        List<String> biggest = getBiggestFiles(dirName, 1);
+        if (biggest.isEmpty()) {
+            throw new FileSystemException("No files found under %s, can't get the biggest file.", dirName);
+        }
+        return biggest.get(0);
+    }
+
+    /**
+     * Scans the subtree of the directory and keeps its k biggest files in a min heap.
+     * Time complexity: O(S log k) for a subtree of S nodes.
+     * Space complexity: O(h + k).
+     * @param dirName
+     * @param k
+     * @return List of up to k file names, from the biggest
+     * @throws FileSystemException
+     */
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        DirectoryVersion dir = getDirectory(dirName);
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        // The smallest of the k biggest files so far is on top
+        PriorityQueue<FileVersion> biggest = new PriorityQueue<>(SMALLEST_FIRST);
+        ArrayDeque<Iterator<Object>> stack = new ArrayDeque<>();
+        stack.push(dir.children());
+        while (!stack.isEmpty()) {
+            Iterator<Object> children = stack.peek();
+            if (!children.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Object child = children.next();
+            if (child instanceof DirectoryVersion) {
+                stack.push(((DirectoryVersion) child).children());
+            } else {
+                biggest.add((FileVersion) child);
+                if (biggest.size() > k) {
+                    biggest.poll();
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(biggest.size());
+        while (!biggest.isEmpty()) {
+            result.add(biggest.poll().getName());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return getDirectory(dirName).totalSize;
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getFileCount(String dirName) throws FileSystemException {
+        return getDirectory(dirName).fileCount;
+    }
+
+    /**
+     * Time complexity: O(log32 N).
+     * @param dirName
+     * @return long
+     * @throws FileSystemException
+     */
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return getDirectory(dirName).directoryCount;
+    }
+
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return nameIndex().byPrefix(prefix, after);
+    }
+
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return nameIndex().bySuffix(suffix, after);
+    }
+
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return nameIndex().byGlob(pattern, after);
+    }
+
+    private NameIndex nameIndex() {
+        NameIndex index = nameIndex;
+        if (index == null) {
+            // Two threads may race to build it, both indexes are equal and either one wins
+            List<String> all = new ArrayList<>(names.size());
+            for (Iterator<String> keys = names.keys(); keys.hasNext(); ) {
+                String name = keys.next();
+                Object node = names.get(name);
+                if (node == VersionedTree.SHARED || isLive(node)) {
+                    all.add(name);
+                }
+            }
+            all.remove(root.getName());
+            index = new NameIndex();
+            index.addAll(all);
+            nameIndex = index;
+        }
+        return index;
+    }
+
+    private Object lookup(String name) throws FileSystemException {
+        Object node = names.get(name);
+        if (node == null || (node != VersionedTree.SHARED && !isLive(node))) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+        if (node == VersionedTree.SHARED) {
+            throw new FileSystemException("Name is shared by several nodes, use a path instead: %s", name);
+        }
+        return node;
+    }
+
+    private DirectoryVersion getDirectory(String dirName) throws FileSystemException {
+        Object node = names.get(dirName);
+        if (node == VersionedTree.SHARED) {
+            throw new FileSystemException(
+                    String.format("Name is shared by several nodes, use a path instead: %s", dirName));
+        }
+        if (!(node instanceof DirectoryVersion) || !isLive(node)) {
+            throw new DirectoryNotFoundException("Directory not found: %s", dirName);
+        }
+        return (DirectoryVersion) node;
+    }
+
+    /**
+     * A version is dead if its live node was in a subtree whose delete was pending when the snapshot was taken.
+     * Time complexity: O(1) if no delete was pending, O(h) otherwise.
+     * @param version The version of a file or of a directory
+     */
+    private boolean isLive(Object version) {
+        if (deadRoots.isEmpty()) {
+            return true;
+        }
+        FileSystemNode top = version instanceof FileVersion
+                ? ((FileVersion) version).file
+                : ((DirectoryVersion) version).dir;
+        for (FileSystemNode parent = top.getParent(); parent != null; parent = top.getParent()) {
+            top = parent;
+        }
+        return top == root.dir || deadRoots.get(top) == null;
+    }
+
+    private Iterator<FileVersion> live(Iterator<FileVersion> files) {
+        return new Iterator<>() {
+            private FileVersion next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && files.hasNext()) {
+                    FileVersion file = files.next();
+                    if (isLive(file)) {
+                        next = file;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public FileVersion next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                FileVersion file = next;
+                next = null;
+                return file;
+            }
+        };
+    }
+
+    private static Iterator<Object> childrenOf(Object node) {
+        return node instanceof DirectoryVersion ? ((DirectoryVersion) node).children() : Collections.emptyIterator();
+    }
+
+    private static void appendTo(Object node, Appendable out) throws IOException {
+        if (node instanceof DirectoryVersion) {
+            ((DirectoryVersion) node).appendTo(out);
+        } else {
+            ((FileVersion) node).appendTo(out);
+        }
+    }
+
+    private static FileSystemException readOnly() {
+        return new FileSystemException("A snapshot is read only");
+    }
+}
@@ -0,0 +1,665 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.metrics.FileSystemMetrics;
+import filesystem.metrics.FileSystemMetrics.Operation;
+import filesystem.metrics.SlowDeleteEvent;
+import filesystem.metrics.TraversalEvent;
+import filesystem.nodes.NodeType;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * File system manager that measures another one: every call is timed into a per operation latency histogram and every
+ * failure is counted by operation and by exception type (see FileSystemMetrics).
+ * Deletes and traversals also emit the SlowDeleteEvent and TraversalEvent JFR events, which cost a branch while no
+ * recording enables them.
+ *
+ * Gauges, read by FileSystemMetrics.readGauges():
+ * - nodes, files: O(1) from the aggregates of the root directory
+ * - maxDepth: O(N log h), walks the tree (see getMaxDepth)
+ * - heapUsedBytes: the used JVM heap
+ *
+ * Instrumentation can be turned off and on at any time with setEnabled. While it is off every call costs one volatile
+ * read on top of the measured manager, nothing is allocated or recorded.
+ * The optional capabilities, resizes (ResizableFileSystemManager), batches (BatchFileSystemManager) and creation time
+ * queries (TimeIndexedFileSystemManager), are forwarded to the measured manager and throw
+ * UnsupportedOperationException if it doesn't have them.
+ * The measured manager must not be used directly, or its calls are not measured. This class adds no thread safety, it
+ * is as thread safe as the measured manager.
+ */
+public class InstrumentedFileSystemManager implements ResizableFileSystemManager, BatchFileSystemManager,
+        TimeIndexedFileSystemManager {
+    private static final String ROOT_NAME = "root";
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final FileSystemManager delegate;
+    private final FileSystemMetrics metrics;
+    private volatile boolean enabled;
+
+
+    public InstrumentedFileSystemManager(FileSystemManager delegate) {
+        this.delegate = delegate;
+        this.metrics = new FileSystemMetrics();
+        this.enabled = true;
+        metrics.registerGauge("nodes", this::getNodeCount);
+        metrics.registerGauge("files", this::getTotalFileCount);
+        metrics.registerGauge("maxDepth", this::getMaxDepth);
+        metrics.registerGauge("heapUsedBytes", () -> MEMORY.getHeapMemoryUsage().getUsed());
+    }
+
+    public FileSystemMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the instrumentation on or off, the metrics recorded so far are kept.
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        if (!enabled) {
+            delegate.addFile(parentDirName, fileName, fileSize);
+            return;
+        }
+        run(Operation.ADD_FILE, () -> delegate.addFile(parentDirName, fileName, fileSize));
+    }
+
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        if (!enabled) {
+            delegate.addDir(parentDirName, dirName);
+            return;
+        }
+        run(Operation.ADD_DIR, () -> delegate.addDir(parentDirName, dirName));
+    }
+
+    /**
+     * Deletes a file or directory and counts the removed nodes, from the node count of the root before and after.
+     * The count is approximate when other threads mutate the tree at the same time.
+     * @param name
+     * @throws FileSystemException
+     */
+    public void delete(String name) throws FileSystemException {
+        if (!enabled) {
+            delegate.delete(name);
+            return;
+        }
+        SlowDeleteEvent event = new SlowDeleteEvent(name);
+        event.begin();
+        long nodesBefore = getNodeCount();
+        run(Operation.DELETE, () -> delegate.delete(name));
+        long removedNodes = nodesBefore - getNodeCount();
+        metrics.recordDeletedNodes(removedNodes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setRemovedNodes(removedNodes);
+            event.commit();
+        }
+    }
+
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        if (!enabled) {
+            delegate.move(name, newParentDirName);
+            return;
+        }
+        run(Operation.MOVE, () -> delegate.move(name, newParentDirName));
+    }
+
+    public void rename(String oldName, String newName) throws FileSystemException {
+        if (!enabled) {
+            delegate.rename(oldName, newName);
+            return;
+        }
+        run(Operation.RENAME, () -> delegate.rename(oldName, newName));
+    }
+
+    public void resize(String fileName, long newSize) throws FileSystemException {
+        ResizableFileSystemManager resizable = capability(ResizableFileSystemManager.class, "resizes");
+        if (!enabled) {
+            resizable.resize(fileName, newSize);
+            return;
+        }
+        run(Operation.RESIZE, () -> resizable.resize(fileName, newSize));
+    }
+
+    public void append(String fileName, long delta) throws FileSystemException {
+        ResizableFileSystemManager resizable = capability(ResizableFileSystemManager.class, "resizes");
+        if (!enabled) {
+            resizable.append(fileName, delta);
+            return;
+        }
+        run(Operation.RESIZE, () -> resizable.append(fileName, delta));
+    }
+
+    public void apply(FileSystemBatch batch) throws FileSystemException {
+        BatchFileSystemManager batches = capability(BatchFileSystemManager.class, "batches");
+        if (!enabled) {
+            batches.apply(batch);
+            return;
+        }
+        run(Operation.APPLY_BATCH, () -> batches.apply(batch));
+    }
+
+    /**
+     * Deletes the files created before the cutoff and counts them as deleted nodes, like delete.
+     * @param cutoffMillis
+     * @return The number of deleted files
+     * @throws FileSystemException
+     */
+    public int deleteOlderThan(long cutoffMillis) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.deleteOlderThan(cutoffMillis);
+        }
+        int deleted = call(Operation.DELETE_OLDER_THAN, () -> timeIndexed.deleteOlderThan(cutoffMillis));
+        metrics.recordDeletedNodes(deleted);
+        return deleted;
+    }
+
+    public void showFileSystem() {
+        if (!enabled) {
+            delegate.showFileSystem();
+            return;
+        }
+        TraversalEvent event = new TraversalEvent("showFileSystem", UNLIMITED_DEPTH, UNLIMITED_NODES);
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            delegate.showFileSystem();
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.SHOW_FILE_SYSTEM, e);
+            throw e;
+        } finally {
+            metrics.recordLatency(Operation.SHOW_FILE_SYSTEM, System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setVisitedNodes(getNodeCount());
+            event.commit();
+        }
+    }
+
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        if (!enabled) {
+            delegate.showFileSystem(out, maxDepth, maxNodes);
+            return;
+        }
+        TraversalEvent event = new TraversalEvent("showFileSystem", maxDepth, maxNodes);
+        // Lines are only counted while a recording wants the event
+        LineCounter lines = event.isEnabled() ? new LineCounter(out) : null;
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            delegate.showFileSystem(lines == null ? out : lines, maxDepth, maxNodes);
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(Operation.SHOW_FILE_SYSTEM, e);
+            throw e;
+        } finally {
+            metrics.recordLatency(Operation.SHOW_FILE_SYSTEM, System.nanoTime() - start);
+        }
+        event.end();
+        if (lines != null && event.shouldCommit()) {
+            event.setVisitedNodes(lines.count);
+            event.commit();
+        }
+    }
+
+    public long getFileSize(String name) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getFileSize(name);
+        }
+        return call(Operation.GET_FILE_SIZE, () -> delegate.getFileSize(name));
+    }
+
+    /**
+     * Measured as a LOOKUP without a lambda, so the call still allocates nothing. A miss is not a failure.
+     */
+    public long tryGetFileSize(String name) {
+        if (!enabled) {
+            return delegate.tryGetFileSize(name);
+        }
+        long start = System.nanoTime();
+        try {
+            return delegate.tryGetFileSize(name);
+        } finally {
+            metrics.recordLatency(Operation.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Measured as a LOOKUP, like tryGetFileSize.
+     */
+    public NodeType nodeType(String name) {
+        if (!enabled) {
+            return delegate.nodeType(name);
+        }
+        long start = System.nanoTime();
+        try {
+            return delegate.nodeType(name);
+        } finally {
+            metrics.recordLatency(Operation.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    public String getBiggestFile() throws FileSystemException {
+        if (!enabled) {
+            return delegate.getBiggestFile();
+        }
+        return call(Operation.GET_BIGGEST_FILE, delegate::getBiggestFile);
+    }
+
+    public List<String> getBiggestFiles(int k) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getBiggestFiles(k);
+        }
+        return call(Operation.GET_BIGGEST_FILES, () -> delegate.getBiggestFiles(k));
+    }
+
+    /**
+     * Only the creation of the iterator is measured, not the iteration.
+     */
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getFilesInSizeRange(minSize, maxSize);
+        }
+        return call(Operation.GET_FILES_IN_SIZE_RANGE, () -> delegate.getFilesInSizeRange(minSize, maxSize));
+    }
+
+    /**
+     * Only the creation of the iterator is measured, not the iteration.
+     */
+    public Iterator<String> getFilesCreatedBetween(long fromMillis, long toMillis) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.getFilesCreatedBetween(fromMillis, toMillis);
+        }
+        return call(Operation.GET_FILES_BY_TIME, () -> timeIndexed.getFilesCreatedBetween(fromMillis, toMillis));
+    }
+
+    public List<String> getOldestFiles(int k) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.getOldestFiles(k);
+        }
+        return call(Operation.GET_FILES_BY_TIME, () -> timeIndexed.getOldestFiles(k));
+    }
+
+    public List<String> getNewestFiles(int k) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.getNewestFiles(k);
+        }
+        return call(Operation.GET_FILES_BY_TIME, () -> timeIndexed.getNewestFiles(k));
+    }
+
+    public List<String> getOldestFiles(String dirName, int k) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.getOldestFiles(dirName, k);
+        }
+        return call(Operation.GET_FILES_BY_TIME, () -> timeIndexed.getOldestFiles(dirName, k));
+    }
+
+    public List<String> getNewestFiles(String dirName, int k) throws FileSystemException {
+        TimeIndexedFileSystemManager timeIndexed = timeIndexed();
+        if (!enabled) {
+            return timeIndexed.getNewestFiles(dirName, k);
+        }
+        return call(Operation.GET_FILES_BY_TIME, () -> timeIndexed.getNewestFiles(dirName, k));
+    }
+
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getFileSizeAtRank(rank);
+        }
+        return call(Operation.GET_FILE_SIZE_AT_RANK, () -> delegate.getFileSizeAtRank(rank));
+    }
+
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getFileSizePercentile(percentile);
+        }
+        return call(Operation.GET_FILE_SIZE_PERCENTILE, () -> delegate.getFileSizePercentile(percentile));
+    }
+
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getBiggestFile(dirName);
+        }
+        return call(Operation.GET_BIGGEST_FILE, () -> delegate.getBiggestFile(dirName));
+    }
+
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getBiggestFiles(dirName, k);
+        }
+        return call(Operation.GET_BIGGEST_FILES, () -> delegate.getBiggestFiles(dirName, k));
+    }
+
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getDirectorySize(dirName);
+        }
+        return call(Operation.GET_DIRECTORY_AGGREGATE, () -> delegate.getDirectorySize(dirName));
+    }
+
+    public long getFileCount(String dirName) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getFileCount(dirName);
+        }
+        return call(Operation.GET_DIRECTORY_AGGREGATE, () -> delegate.getFileCount(dirName));
+    }
+
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        if (!enabled) {
+            return delegate.getDirectoryCount(dirName);
+        }
+        return call(Operation.GET_DIRECTORY_AGGREGATE, () -> delegate.getDirectoryCount(dirName));
+    }
+
+    /**
+     * Only the creation of the iterator is measured, not the iteration.
+     */
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        if (!enabled) {
+            return delegate.findByPrefix(prefix, after);
+        }
+        return find(() -> delegate.findByPrefix(prefix, after));
+    }
+
+    /**
+     * Only the creation of the iterator is measured, not the iteration.
+     */
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        if (!enabled) {
+            return delegate.findBySuffix(suffix, after);
+        }
+        return find(() -> delegate.findBySuffix(suffix, after));
+    }
+
+    /**
+     * Only the creation of the iterator is measured, not the iteration.
+     */
+    public Iterator<String> findByGlob(String pattern, String after) {
+        if (!enabled) {
+            return delegate.findByGlob(pattern, after);
+        }
+        return find(() -> delegate.findByGlob(pattern, after));
+    }
+
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        if (!enabled) {
+            return delegate.list(dirName, cursor, limit, sortKey);
+        }
+        return call(Operation.LIST, () -> delegate.list(dirName, cursor, limit, sortKey));
+    }
+
+    /**
+     * Not measured, the events are delivered by the wrapped manager.
+     */
+    public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        return delegate.watch(dirName, recursive, options, listener);
+    }
+
+    /**
+     * Gauge of the number of nodes in the tree, the root included.
+     * Time complexity: O(1) for the managers keeping aggregates on every directory.
+     * @return long
+     */
+    public long getNodeCount() {
+        try {
+            return 1 + delegate.getFileCount(ROOT_NAME) + delegate.getDirectoryCount(ROOT_NAME);
+        } catch (FileSystemException e) {
+            // The root always exists
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gauge of the number of files in the tree.
+     * Time complexity: O(1) for the managers keeping aggregates on every directory.
+     * @return long
+     */
+    public long getTotalFileCount() {
+        try {
+            return delegate.getFileCount(ROOT_NAME);
+        } catch (FileSystemException e) {
+            // The root always exists
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gauge of the depth of the deepest node, the root being at depth 0.
+     * The managers only expose the tree through showFileSystem, which ends with "..." the lines of the directories
+     * whose children are deeper than the depth limit. The depth is found by an exponential then binary search on that
+     * limit, every probe stopping at the first "..." line, which no node line can be since a node line always has its
+     * attributes in brackets.
+     * Time complexity: O(N log h).
+     * Space complexity: O(h).
+     * @return int
+     */
+    public int getMaxDepth() {
+        TraversalEvent event = new TraversalEvent("maxDepth", UNLIMITED_DEPTH, UNLIMITED_NODES);
+        event.begin();
+        DepthProbe probe = new DepthProbe();
+        // Invariant: the tree is deeper than low and not deeper than high
+        int low = -1;
+        int high = 1;
+        while (probe.isDeeperThan(high)) {
+            low = high;
+            high = high > UNLIMITED_DEPTH / 2 ? UNLIMITED_DEPTH : high * 2;
+        }
+        while (high - low > 1) {
+            int middle = low + (high - low) / 2;
+            if (probe.isDeeperThan(middle)) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setVisitedNodes(probe.lines);
+            event.commit();
+        }
+        return high;
+    }
+
+    private TimeIndexedFileSystemManager timeIndexed() {
+        return capability(TimeIndexedFileSystemManager.class, "creation time queries");
+    }
+
+    /**
+     * @return The measured manager as the given capability
+     * @throws UnsupportedOperationException if the measured manager doesn't have it
+     */
+    private <T extends FileSystemManager> T capability(Class<T> type, String what) {
+        if (!type.isInstance(delegate)) {
+            throw new UnsupportedOperationException(
+                    delegate.getClass().getSimpleName() + " doesn't support " + what);
+        }
+        return type.cast(delegate);
+    }
+
+    private void run(Operation operation, MeasuredRun body) throws FileSystemException {
+        long start = System.nanoTime();
+        try {
+            body.run();
+        } catch (FileSystemException | RuntimeException e) {
+            metrics.recordFailure(operation, e);
+            throw e;
+        } finally {
+            metrics.recordLatency(operation, System.nanoTime() - start);
+        }
+    }
+
+    private <T> T call(Operation operation, MeasuredCall<T> body) throws FileSystemException {
+        long start = System.nanoTime();
+        try {
+            return body.call();
+        } catch (FileSystemException | RuntimeException e) {
+            metrics.recordFailure(operation, e);
+            throw e;
+        } finally {
+            metrics.recordLatency(operation, System.nanoTime() - start);
+        }
+    }
+
+    private Iterator<String> find(MeasuredSearch body) {
+        long start = System.nanoTime();
+        try {
+            return body.find();
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.FIND, e);
+            throw e;
+        } finally {
+            metrics.recordLatency(Operation.FIND, System.nanoTime() - start);
+        }
+    }
+
+    private interface MeasuredRun {
+        void run() throws FileSystemException;
+    }
+
+    private interface MeasuredCall<T> {
+        T call() throws FileSystemException;
+    }
+
+    private interface MeasuredSearch {
+        Iterator<String> find();
+    }
+
+    /**
+     * Counts the lines written to another destination.
+     */
+    private static final class LineCounter implements Appendable {
+        private final Appendable out;
+        private long count;
+
+        private LineCounter(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                if (csq.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            out.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c == '\n') {
+                count++;
+            }
+            out.append(c);
+            return this;
+        }
+    }
+
+    /**
+     * Prints the tree up to a depth limit to nowhere, and stops at the first "..." line.
+     */
+    private final class DepthProbe implements Appendable {
+        private static final String ELLIPSIS = "...";
+        // Characters of the current line after its indentation, as far as they match the ellipsis
+        private int matched;
+        private boolean indenting = true;
+        private boolean ellipsis = true;
+        private long lines;
+
+        private boolean isDeeperThan(int maxDepth) {
+            matched = 0;
+            indenting = true;
+            ellipsis = true;
+            try {
+                delegate.showFileSystem(this, maxDepth, UNLIMITED_NODES);
+            } catch (EllipsisFound e) {
+                return true;
+            } catch (IOException e) {
+                // Only EllipsisFound is ever thrown by this destination
+                throw new IllegalStateException(e);
+            }
+            return false;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c == '\n') {
+                lines++;
+                if (ellipsis && matched == ELLIPSIS.length()) {
+                    throw EllipsisFound.INSTANCE;
+                }
+                matched = 0;
+                indenting = true;
+                ellipsis = true;
+            } else if (indenting && c == ' ') {
+                return this;
+            } else {
+                indenting = false;
+                if (ellipsis && matched < ELLIPSIS.length() && c == ELLIPSIS.charAt(matched)) {
+                    matched++;
+                } else {
+                    ellipsis = false;
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Stops a probe traversal, preallocated and without a stack trace since it is only control flow.
+     */
+    private static final class EllipsisFound extends IOException {
+        private static final EllipsisFound INSTANCE = new EllipsisFound();
+
+        private EllipsisFound() {
+            super(null, null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
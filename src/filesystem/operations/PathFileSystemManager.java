@@ -0,0 +1,78 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * File system manager that also addresses nodes by absolute path, e.g. /Documents/Work/project.docx.
+ * Nodes added by path only need a unique name within their directory. The name based operations keep working for
+ * every name that is held by a single node, and fail for a name shared by several nodes.
+ */
+public interface PathFileSystemManager extends FileSystemManager {
+    // Adds a file at the given path, its parent directory must exist
+    void addFileByPath(String filePath, int fileSize) throws FileSystemException;
+
+    // Adds a directory at the given path, its parent directory must exist
+    void addDirByPath(String dirPath) throws FileSystemException;
+
+    // Deletes the file or directory at the given path
+    void deleteByPath(String path) throws FileSystemException;
+
+    // Moves the file or directory at the given path, with its whole subtree, under the directory at the other path
+    void moveByPath(String path, String newParentDirPath) throws FileSystemException;
+
+    // Renames the file or directory at the given path, the new name only has to be unique within its parent
+    void renameByPath(String path, String newName) throws FileSystemException;
+
+    // Changes the size of the file at the given path in place
+    void resizeByPath(String filePath, long newSize) throws FileSystemException;
+
+    // Grows the file at the given path by delta bytes in place, or shrinks it for a negative delta
+    void appendByPath(String filePath, long delta) throws FileSystemException;
+
+    // Streams the structure of the subtree at the given path, up to the given depth and amount of nodes
+    void showFileSystemByPath(String path, Appendable out, int maxDepth, long maxNodes)
+            throws FileSystemException, IOException;
+
+    // Gets the size of the file at the given path
+    long getFileSizeByPath(String filePath) throws FileSystemException;
+
+    // Gets the path of the biggest file
+    String getBiggestFilePath() throws FileSystemException;
+
+    // Gets the paths of the k biggest files, from the biggest
+    List<String> getBiggestFilePaths(int k) throws FileSystemException;
+
+    // Iterates the paths of the files whose size is within the given inclusive bounds, from the smallest
+    Iterator<String> getFilePathsInSizeRange(long minSize, long maxSize) throws FileSystemException;
+
+    // Gets the path of the biggest file under the directory at the given path
+    String getBiggestFilePath(String dirPath) throws FileSystemException;
+
+    // Gets the paths of the k biggest files under the directory at the given path, from the biggest
+    List<String> getBiggestFilePaths(String dirPath, int k) throws FileSystemException;
+
+    // Gets the total size of all the files under the directory at the given path
+    long getDirectorySizeByPath(String dirPath) throws FileSystemException;
+
+    // Gets the number of files under the directory at the given path
+    long getFileCountByPath(String dirPath) throws FileSystemException;
+
+    // Gets the number of directories under the directory at the given path
+    long getDirectoryCountByPath(String dirPath) throws FileSystemException;
+
+    // Lists a page of the children of the directory at the given path in the given order, after the given cursor
+    ListingPage listByPath(String dirPath, String cursor, int limit, SortKey sortKey) throws FileSystemException;
+
+    // Subscribes to the adds and deletes under the directory at the given path
+    Subscription watchByPath(String dirPath, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException;
+}
@@ -0,0 +1,142 @@
+package filesystem.operations;
+
+import filesystem.exceptions.manager.InvalidPathException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.FileSystemNode;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves absolute paths such as /a/b/c to nodes by walking the children maps from the root, with a bounded LRU cache
+ * of the latest resolved paths in front of the walk.
+ *
+ * A deleted file is detached from its parent, so a cached node that is detached is stale: every hit checks that the
+ * node is still attached and falls back to the walk otherwise. A hit costs one map lookup and one parent check.
+ * The nodes below a deleted directory keep their parent until they are reclaimed, so the manager clears the cache
+ * when it deletes a directory instead of searching it for the paths below the directory.
+ */
+final class PathResolver {
+    static final int DEFAULT_CACHE_CAPACITY = 4096;
+    private static final String ROOT_PATH = String.valueOf(FileSystemNode.PATH_SEPARATOR);
+    private static final String EMPTY_NAME = ROOT_PATH + ROOT_PATH;
+
+    private final Directory root;
+    private final LinkedHashMap<String, FileSystemNode> cache;
+
+    /**
+     * @param root The directory the path "/" resolves to
+     * @param capacity Maximum number of cached paths, the least recently used one is evicted first
+     */
+    PathResolver(Directory root, int capacity) {
+        this.root = root;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileSystemNode> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Finds the node at the given path.
+     * Time complexity: O(1) on a cache hit, O(L) otherwise where L is the length of the path.
+     * @param path An absolute path, "/" for the root
+     * @return The node or null if there is none at that path
+     * @throws InvalidPathException if the path is malformed
+     */
+    FileSystemNode resolve(String path) throws InvalidPathException {
+        FileSystemNode cached = cache.get(path);
+        if (cached != null) {
+            if (cached == root || cached.getParent() != null) {
+                return cached;
+            }
+            cache.remove(path);
+        }
+        FileSystemNode node = walk(path);
+        if (node != null) {
+            cache.put(path, node);
+        }
+        return node;
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return The path of the directory holding the node at the given path, "/" for the children of the root
+     */
+    static String parentPath(String path) throws InvalidPathException {
+        int last = lastSeparator(path);
+        return last == 0 ? ROOT_PATH : path.substring(0, last);
+    }
+
+    /**
+     * @return The last name of the given path
+     */
+    static String lastName(String path) throws InvalidPathException {
+        return path.substring(lastSeparator(path) + 1);
+    }
+
+    /**
+     * Builds the path of a node from its ancestors.
+     * Time complexity: O(h).
+     * @param node An attached node
+     * @return The absolute path of the node
+     */
+    static String pathOf(FileSystemNode node) {
+        if (node.getParent() == null) {
+            return ROOT_PATH;
+        }
+        ArrayDeque<String> names = new ArrayDeque<>();
+        for (FileSystemNode current = node; current.getParent() != null; current = current.getParent()) {
+            names.push(current.getName());
+        }
+        StringBuilder path = new StringBuilder();
+        for (String name : names) {
+            path.append(FileSystemNode.PATH_SEPARATOR).append(name);
+        }
+        return path.toString();
+    }
+
+    private FileSystemNode walk(String path) throws InvalidPathException {
+        checkAbsolute(path);
+        if (path.indexOf(EMPTY_NAME) >= 0 || (path.length() > 1 && path.endsWith(ROOT_PATH))) {
+            throw new InvalidPathException("Path has an empty name: %s", path);
+        }
+        FileSystemNode node = root;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf(FileSystemNode.PATH_SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (!(node instanceof Directory)) {
+                return null;
+            }
+            node = ((Directory) node).getChild(path.substring(start, end));
+            if (node == null) {
+                return null;
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    private static int lastSeparator(String path) throws InvalidPathException {
+        checkAbsolute(path);
+        int last = path.lastIndexOf(FileSystemNode.PATH_SEPARATOR);
+        if (last == path.length() - 1) {
+            throw new InvalidPathException("Path doesn't end with a name: %s", path);
+        }
+        return last;
+    }
+
+    private static void checkAbsolute(String path) throws InvalidPathException {
+        if (path == null || path.isEmpty() || path.charAt(0) != FileSystemNode.PATH_SEPARATOR) {
+            throw new InvalidPathException("Path must start with %c: %s", FileSystemNode.PATH_SEPARATOR, path);
+        }
+    }
+}
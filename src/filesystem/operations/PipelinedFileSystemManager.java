@@ -0,0 +1,459 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.nodes.NodeType;
+import filesystem.pipeline.MpscRingBuffer;
+import filesystem.pipeline.PipelineOptions;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+
+/**
+ * Thread safe file system manager where a single writer thread owns a BasicFileSystemManager and no lock is taken.
+ *
+ * - Mutations are command objects that producer threads put into a bounded lock free ring buffer (MpscRingBuffer).
+ *   The submit methods return a CompletableFuture at once, the FileSystemManager mutators wait for it.
+ * - The writer drains the commands in batches of up to PipelineOptions.getMaxBatchSize(), applies a whole batch to the
+ *   name map, the size index and the other indexes of its manager, and then publishes a new read view with
+ *   BasicFileSystemManager.snapshot(). The futures of a batch complete once its view is published, so a producer
+ *   reads its own writes after waiting for them, and readers see every batch entirely or not at all.
+ * - Reads go to the last published FileSystemSnapshot without any synchronization besides a volatile read.
+ *
+ * While the ring buffer is full producers block or are rejected, see PipelineOptions.Backpressure.
+ * The futures complete on the writer thread: dependent actions that call a mutator of this manager and wait for it
+ * must use the async variants of CompletableFuture, or they would wait for the writer from the writer.
+ *
+ * Method Signatures and Complexities Summary:
+ *
+ * 1. public CompletableFuture<Void> submitAddFile / submitAddDir / submitDelete / submitMove / submitRename /
+ *    submitResize / submitAppend / submitApply / submitDeleteOlderThan
+ *    - Time Complexity: O(1) for the producer, the command costs the writer as much as in BasicFileSystemManager.
+ *      submitApply copies the operations of the batch first, O(k) for k operations
+ *
+ * 2. Every read of FileSystemManager
+ *    - Time Complexity: as FileSystemSnapshot
+ *
+ * 3. public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey)
+ *    - Time Complexity: O(log n + limit) for the writer, after the commands submitted before it (see below)
+ *
+ * 4. public Iterator<String> getFilesCreatedBetween / getOldestFiles / getNewestFiles, and deleteOlderThan
+ *    - Time Complexity: as BasicFileSystemManager for the writer, after the commands submitted before it. The range
+ *      is copied by the writer, O(k) for k files
+ *
+ * After the first view every mutation also maintains the persistent mirror of the tree, O(h) more per mutation (see
+ * BasicFileSystemManager.snapshot()), and every batch costs O(1) to publish: a deleted directory is hidden from the
+ * view at once and its subtree is left to the reclaimer, a RECLAIM_BATCH of nodes per later mutation.
+ */
+public class PipelinedFileSystemManager implements ResizableFileSystemManager, BatchFileSystemManager,
+        TimeIndexedFileSystemManager, AutoCloseable {
+    // How long the writer sleeps between two looks at the ring buffer while it fills a batch
+    private static final long FILL_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    // How long a blocked producer sleeps between two attempts once spinning didn't free a slot
+    private static final long BLOCKED_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int BLOCKED_SPINS = 100;
+
+    private final BasicFileSystemManager manager;
+    private final PipelineOptions options;
+    private final MpscRingBuffer<Command> commands;
+    private final Thread writer;
+    // Producers between their check of closed and the end of their offer, the writer outlives them
+    private final AtomicInteger activeProducers;
+    private volatile FileSystemSnapshot view;
+    private volatile boolean writerWaiting;
+    private volatile boolean closed;
+
+
+    /**
+     * Starts the writer thread of the given manager, which must not be used directly from then on.
+     * @param manager An in memory or a durable manager
+     * @param options Ring buffer capacity, batching and backpressure
+     */
+    public PipelinedFileSystemManager(BasicFileSystemManager manager, PipelineOptions options) {
+        this.manager = manager;
+        this.options = options;
+        this.commands = new MpscRingBuffer<>(options.getCapacity());
+        this.activeProducers = new AtomicInteger();
+        this.view = manager.snapshot();
+        this.writer = new Thread(this::runWriter, "filesystem-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return The last published read view, for a consistent sequence of reads
+     */
+    public FileSystemSnapshot view() {
+        return view;
+    }
+
+    public CompletableFuture<Void> submitAddFile(String parentDirName, String fileName, int fileSize) {
+        return submit(new Command(target -> target.addFile(parentDirName, fileName, fileSize)));
+    }
+
+    public CompletableFuture<Void> submitAddDir(String parentDirName, String dirName) {
+        return submit(new Command(target -> target.addDir(parentDirName, dirName)));
+    }
+
+    public CompletableFuture<Void> submitDelete(String name) {
+        return submit(new Command(target -> target.delete(name)));
+    }
+
+    public CompletableFuture<Void> submitMove(String name, String newParentDirName) {
+        return submit(new Command(target -> target.move(name, newParentDirName)));
+    }
+
+    public CompletableFuture<Void> submitRename(String oldName, String newName) {
+        return submit(new Command(target -> target.rename(oldName, newName)));
+    }
+
+    public CompletableFuture<Void> submitResize(String fileName, long newSize) {
+        return submit(new Command(target -> target.resize(fileName, newSize)));
+    }
+
+    public CompletableFuture<Void> submitAppend(String fileName, long delta) {
+        return submit(new Command(target -> target.append(fileName, delta)));
+    }
+
+    public CompletableFuture<Void> submitDeleteOlderThan(long cutoffMillis) {
+        return submit(new Command(target -> target.deleteOlderThan(cutoffMillis)));
+    }
+
+    /**
+     * Submits a whole batch as a single command, so readers see all of it or none of it, like any other command.
+     * The operations are copied, the batch can be reused once this returns.
+     */
+    public CompletableFuture<Void> submitApply(FileSystemBatch batch) {
+        List<FileSystemBatch.Operation> operations = List.copyOf(batch.operations());
+        return submit(new Command(target -> target.apply(operations)));
+    }
+
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        await(submitAddFile(parentDirName, fileName, fileSize));
+    }
+
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        await(submitAddDir(parentDirName, dirName));
+    }
+
+    public void delete(String name) throws FileSystemException {
+        await(submitDelete(name));
+    }
+
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        await(submitMove(name, newParentDirName));
+    }
+
+    public void rename(String oldName, String newName) throws FileSystemException {
+        await(submitRename(oldName, newName));
+    }
+
+    public void resize(String fileName, long newSize) throws FileSystemException {
+        await(submitResize(fileName, newSize));
+    }
+
+    public void append(String fileName, long delta) throws FileSystemException {
+        await(submitAppend(fileName, delta));
+    }
+
+    public void apply(FileSystemBatch batch) throws FileSystemException {
+        await(submitApply(batch));
+    }
+
+    public void showFileSystem() {
+        view.showFileSystem();
+    }
+
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        view.showFileSystem(out, maxDepth, maxNodes);
+    }
+
+    public long getFileSize(String name) throws FileSystemException {
+        return view.getFileSize(name);
+    }
+
+    public long tryGetFileSize(String name) {
+        return view.tryGetFileSize(name);
+    }
+
+    public NodeType nodeType(String name) {
+        return view.nodeType(name);
+    }
+
+    public String getBiggestFile() throws FileSystemException {
+        return view.getBiggestFile();
+    }
+
+    public List<String> getBiggestFiles(int k) {
+        return view.getBiggestFiles(k);
+    }
+
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        return view.getFilesInSizeRange(minSize, maxSize);
+    }
+
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        return view.getFileSizeAtRank(rank);
+    }
+
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        return view.getFileSizePercentile(percentile);
+    }
+
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        return view.getBiggestFile(dirName);
+    }
+
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        return view.getBiggestFiles(dirName, k);
+    }
+
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return view.getDirectorySize(dirName);
+    }
+
+    public long getFileCount(String dirName) throws FileSystemException {
+        return view.getFileCount(dirName);
+    }
+
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return view.getDirectoryCount(dirName);
+    }
+
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return view.findByPrefix(prefix, after);
+    }
+
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return view.findBySuffix(suffix, after);
+    }
+
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return view.findByGlob(pattern, after);
+    }
+
+    /**
+     * Lists through the pipeline, since the snapshots keep no listing order: the writer reads the page from the
+     * listing order of its manager between two commands, so the page sees every write that was awaited before it.
+     */
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        ListingPage[] page = new ListingPage[1];
+        await(submit(new Command(target -> page[0] = target.list(dirName, cursor, limit, sortKey))));
+        return page[0];
+    }
+
+    /**
+     * Reads the range through the pipeline, since the snapshots keep no time index. The writer copies the names, an
+     * iterator over its index would fail as soon as the next command changes it.
+     */
+    public Iterator<String> getFilesCreatedBetween(long fromMillis, long toMillis) throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        await(submit(new Command(target -> target.getFilesCreatedBetween(fromMillis, toMillis)
+                .forEachRemaining(names::add))));
+        return names.iterator();
+    }
+
+    public List<String> getOldestFiles(int k) throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        await(submit(new Command(target -> names.addAll(target.getOldestFiles(k)))));
+        return names;
+    }
+
+    public List<String> getNewestFiles(int k) throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        await(submit(new Command(target -> names.addAll(target.getNewestFiles(k)))));
+        return names;
+    }
+
+    public List<String> getOldestFiles(String dirName, int k) throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        await(submit(new Command(target -> names.addAll(target.getOldestFiles(dirName, k)))));
+        return names;
+    }
+
+    public List<String> getNewestFiles(String dirName, int k) throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        await(submit(new Command(target -> names.addAll(target.getNewestFiles(dirName, k)))));
+        return names;
+    }
+
+    public int deleteOlderThan(long cutoffMillis) throws FileSystemException {
+        int[] deleted = new int[1];
+        await(submit(new Command(target -> deleted[0] = target.deleteOlderThan(cutoffMillis))));
+        return deleted[0];
+    }
+
+    /**
+     * Subscribes through the pipeline, so the writer registers the subscription between two commands. The events are
+     * offered by the writer as it applies the commands, a listener can receive an event before the view holding the
+     * change is published.
+     */
+    public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        Subscription[] subscription = new Subscription[1];
+        await(submit(new Command(target -> subscription[0] = target.watch(dirName, recursive, options, listener))));
+        return subscription[0];
+    }
+
+    /**
+     * Applies every command submitted so far and stops the writer thread. Commands submitted after that are rejected.
+     * The wrapped manager is left open, a durable one still has to be closed.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> submit(Command command) {
+        activeProducers.incrementAndGet();
+        try {
+            int spins = 0;
+            while (!closed) {
+                if (commands.offer(command)) {
+                    if (writerWaiting) {
+                        LockSupport.unpark(writer);
+                    }
+                    return command.future;
+                }
+                if (options.getBackpressure() == PipelineOptions.Backpressure.REJECT) {
+                    command.future.completeExceptionally(new RejectedExecutionException(
+                            String.format("The command queue is full, %d commands are waiting", commands.capacity())));
+                    return command.future;
+                }
+                // The writer may be waiting for a batch to fill while this producer waits for room
+                LockSupport.unpark(writer);
+                if (++spins < BLOCKED_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(BLOCKED_POLL_NANOS);
+                }
+            }
+            command.future.completeExceptionally(new RejectedExecutionException("The file system manager is closed"));
+            return command.future;
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws FileSystemException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileSystemException) {
+                throw (FileSystemException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void runWriter() {
+        int maxBatchSize = options.getMaxBatchSize();
+        long maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(options.getMaxBatchDelayMicros());
+        List<Command> batch = new ArrayList<>(Math.min(maxBatchSize, commands.capacity()));
+        Consumer<Command> collect = batch::add;
+        while (true) {
+            commands.drain(collect, maxBatchSize);
+            if (batch.isEmpty()) {
+                if (closed && activeProducers.get() == 0 && commands.isEmpty()) {
+                    return;
+                }
+                waitForCommands();
+                continue;
+            }
+            if (maxBatchDelayNanos > 0) {
+                fill(batch, collect, maxBatchSize, System.nanoTime() + maxBatchDelayNanos);
+            }
+            applyBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void waitForCommands() {
+        writerWaiting = true;
+        // Checked again after raising the flag, a producer that offered before it was raised didn't unpark
+        if (commands.isEmpty() && !closed) {
+            LockSupport.park(this);
+        }
+        writerWaiting = false;
+    }
+
+    private void fill(List<Command> batch, Consumer<Command> collect, int maxBatchSize, long deadline) {
+        while (batch.size() < maxBatchSize && !closed) {
+            if (commands.drain(collect, maxBatchSize - batch.size()) == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                LockSupport.parkNanos(Math.min(remaining, FILL_POLL_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Applies the commands in order, publishes the view holding all of them and only then completes their futures.
+     */
+    private void applyBatch(List<Command> batch) {
+        for (Command command : batch) {
+            try {
+                command.mutation.apply(manager);
+            } catch (FileSystemException | RuntimeException e) {
+                command.failure = e;
+            }
+        }
+        view = manager.snapshot();
+        for (Command command : batch) {
+            if (command.failure == null) {
+                command.future.complete(null);
+            } else {
+                command.future.completeExceptionally(command.failure);
+            }
+        }
+    }
+
+    /**
+     * A mutation waiting for the writer, and the future of its outcome.
+     */
+    private static final class Command {
+        private final Mutation mutation;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        // Only touched by the writer thread
+        private Throwable failure;
+
+        private Command(Mutation mutation) {
+            this.mutation = mutation;
+        }
+    }
+
+    private interface Mutation {
+        void apply(BasicFileSystemManager target) throws FileSystemException;
+    }
+}
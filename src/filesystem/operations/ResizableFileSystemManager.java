@@ -0,0 +1,15 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+
+/**
+ * File system manager whose files can change size in place, keeping their identity, name and creation date, instead of
+ * being deleted and added again. Every index that depends on the size is updated with the file.
+ */
+public interface ResizableFileSystemManager extends FileSystemManager {
+    // Changes the size of a file in place, keeping its identity and creation date
+    void resize(String fileName, long newSize) throws FileSystemException;
+
+    // Grows a file by delta bytes in place, or shrinks it for a negative delta
+    void append(String fileName, long delta) throws FileSystemException;
+}
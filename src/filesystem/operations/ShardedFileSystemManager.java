@@ -0,0 +1,1097 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.indexes.FileSizeIndex;
+import filesystem.indexes.NameIndex;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.nodes.NodeType;
+import filesystem.watch.ChangeBatch;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * File system manager splitting the tree across N independent shard managers, each driven by its own single thread
+ * executor, so the shards use N cores and, with RemoteShard, N heaps in N processes.
+ *
+ * - Every top level node, a child of the root, is placed on the shard its name hashes to, and the whole subtree below
+ *   it stays on that shard. Every shard holds its own root with the top level subtrees it owns.
+ * - A routing map from every name to its shard sends point operations (adds, deletes, lookups, the queries of a
+ *   directory other than the root) to a single shard. Names are unique across the shards, the map enforces it.
+ * - Queries over the whole tree are scattered to every shard in parallel and their results gathered: the aggregates
+ *   of the root are summed, the biggest files and the size and name iterators are merged, and ranks and percentiles
+ *   are found by a binary search on the size, counting the smaller files of every shard.
+ * - showFileSystem prints the root and then the top level subtrees of every shard, shard after shard.
+ *
+ * The shard managers are given empty and must not be used directly afterwards. Each one is only ever called from its
+ * own executor thread, so a BasicFileSystemManager needs no locking.
+ *
+ * Deleting a directory leaves the routes of its subtree behind: they are checked against their shard before being
+ * trusted, and swept once they outnumber half of the live routes, so the sweep costs O(1) amortized per deleted node.
+ *
+ * Moving a file to a directory of another shard deletes it from one and adds it to the other, which gives it a new
+ * creation date. Moving a directory to another shard is rejected, its subtree would have to be copied node by node.
+ *
+ * Method Signatures and Complexities Summary, for S shards:
+ *
+ * 1. Point operations: addFile, addDir, delete, rename, move within a shard, getFileSize, the queries of a directory
+ *    - Time Complexity: as the shard manager, plus a hop to its executor
+ *
+ * 2. public long getDirectorySize("root") / getFileCount("root") / getDirectoryCount("root")
+ *    - Time Complexity: as the shard manager, S calls in parallel
+ *
+ * 3. public String getBiggestFile() / List<String> getBiggestFiles(int k)
+ *    - Time Complexity: O(k) calls per shard in parallel, then O(S * k log S) to merge
+ *
+ * 4. public Iterator<String> getFilesInSizeRange / findByPrefix / findBySuffix / findByGlob
+ *    - Time Complexity: O(log S) per returned name, the shard iterators are read a page at a time
+ *
+ * 5. public long getFileSizeAtRank(long rank) / getFileSizePercentile(double percentile)
+ *    - Time Complexity: O(64) rounds of S parallel calls, each costing O(log F) queries of its shard
+ *
+ * 6. public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+ *    - Time Complexity: as the shard manager, S subscriptions for the root
+ *
+ * 7. public ListingPage list("root", String cursor, int limit, SortKey sortKey)
+ *    - Time Complexity: as the shard manager, S calls in parallel, then O(limit * log S) to merge their pages
+ */
+public class ShardedFileSystemManager implements FileSystemManager, AutoCloseable {
+    private static final String ROOT_NAME = "root";
+    // Names read from a shard iterator per hop to its executor
+    private static final int PAGE_SIZE = 256;
+    // Stale routes are not swept before there are this many
+    private static final int MIN_SWEEP = 1024;
+
+    private final Shard[] shards;
+    private final LocalDateTime creationDate;
+    private final ConcurrentHashMap<String, Shard> routes;
+    // Names being added or renamed to, a stale route can only be taken over by one of them at a time
+    private final Set<String> reserved;
+    // Mutations hold the read lock, the sweep of the stale routes holds the write lock
+    private final ReentrantReadWriteLock routesLock;
+    // Routes left behind by deleted directories, an upper bound
+    private final AtomicLong staleRoutes;
+
+    /**
+     * @param shardManagers Empty managers, in memory or remote, each gets its own executor thread
+     */
+    public ShardedFileSystemManager(List<? extends FileSystemManager> shardManagers) {
+        if (shardManagers.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = new Shard[shardManagers.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, shardManagers.get(i));
+        }
+        this.creationDate = LocalDateTime.now();
+        this.routes = new ConcurrentHashMap<>();
+        this.reserved = ConcurrentHashMap.newKeySet();
+        this.routesLock = new ReentrantReadWriteLock();
+        this.staleRoutes = new AtomicLong();
+    }
+
+    /**
+     * @param shardCount Number of in memory BasicFileSystemManager shards
+     * @return ShardedFileSystemManager
+     */
+    public static ShardedFileSystemManager inMemory(int shardCount) throws FileSystemException {
+        List<FileSystemManager> managers = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            managers.add(new BasicFileSystemManager());
+        }
+        return new ShardedFileSystemManager(managers);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param name
+     * @return The index of the shard holding the node, -1 if there is no such node
+     */
+    public int shardOf(String name) {
+        Shard shard = routes.get(name);
+        return shard == null ? -1 : shard.index;
+    }
+
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        add(parentDirName, fileName, (manager) -> {
+            manager.addFile(parentDirName, fileName, fileSize);
+            return null;
+        });
+    }
+
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        add(parentDirName, dirName, (manager) -> {
+            manager.addDir(parentDirName, dirName);
+            return null;
+        });
+    }
+
+    /**
+     * Reserves the name in the routing map and adds the node to the shard of its parent, or to the shard its name
+     * hashes to for a top level node.
+     */
+    private void add(String parentDirName, String name, ShardCall<Void> add) throws FileSystemException {
+        routesLock.readLock().lock();
+        try {
+            Shard shard;
+            if (ROOT_NAME.equals(parentDirName)) {
+                shard = shards[Math.floorMod(name.hashCode(), shards.length)];
+            } else {
+                shard = routes.get(parentDirName);
+                if (shard == null) {
+                    throw new DirectoryNotFoundException("Parent directory not found: %s", parentDirName);
+                }
+            }
+            reserve(name, shard);
+            try {
+                call(shard, add);
+            } catch (FileSystemException | RuntimeException e) {
+                routes.remove(name, shard);
+                throw e;
+            } finally {
+                reserved.remove(name);
+            }
+        } finally {
+            routesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Routes a name that is about to be added to the given shard, the caller releases the reservation once the node
+     * is added or not.
+     * @throws NameAlreadyExistsException if a live node already has the name, or is being added with it
+     */
+    private void reserve(String name, Shard shard) throws FileSystemException {
+        if (!reserved.add(name)) {
+            throw new NameAlreadyExistsException("File already exists: %s", name);
+        }
+        try {
+            Shard holder = routes.putIfAbsent(name, shard);
+            if (holder == null) {
+                return;
+            }
+            // The route may be left behind by a deleted directory
+            if (call(holder, (manager) -> manager.exists(name))) {
+                throw new NameAlreadyExistsException("File already exists: %s", name);
+            }
+            routes.put(name, shard);
+            staleRoutes.decrementAndGet();
+        } catch (FileSystemException | RuntimeException e) {
+            reserved.remove(name);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the node from its shard. The routes of the subtree of a directory are left for the sweep.
+     */
+    public void delete(String name) throws FileSystemException {
+        routesLock.readLock().lock();
+        long removedBelow;
+        try {
+            Shard shard = pointOwner(name);
+            removedBelow = call(shard, (manager) -> {
+                long below = manager.nodeType(name) == NodeType.DIRECTORY
+                        ? manager.getFileCount(name) + manager.getDirectoryCount(name) : 0;
+                manager.delete(name);
+                return below;
+            });
+            routes.remove(name, shard);
+        } finally {
+            routesLock.readLock().unlock();
+        }
+        if (staleRoutes.addAndGet(removedBelow) > Math.max(MIN_SWEEP, routes.size() / 2)) {
+            sweepStaleRoutes();
+        }
+    }
+
+    /**
+     * Moves within a shard, or moves a file to another shard by adding it there first and then deleting the original.
+     * @throws FileSystemException if a directory would have to move to another shard
+     */
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        routesLock.readLock().lock();
+        try {
+            Shard source = pointOwner(name);
+            Shard target = ROOT_NAME.equals(newParentDirName) || ROOT_NAME.equals(name)
+                    ? source : routes.get(newParentDirName);
+            if (target == null) {
+                throw new DirectoryNotFoundException("Directory not found: %s", newParentDirName);
+            }
+            if (target == source) {
+                call(source, (manager) -> {
+                    manager.move(name, newParentDirName);
+                    return null;
+                });
+                return;
+            }
+            long size = call(source, (manager) -> manager.tryGetFileSize(name));
+            if (size == NO_SIZE) {
+                if (call(source, (manager) -> manager.exists(name))) {
+                    throw new FileSystemException("Cannot move directory %s to another shard", name);
+                }
+                throw new FileSystemException("Node not found: %s", name);
+            }
+            call(target, (manager) -> {
+                manager.addFile(newParentDirName, name, (int) size);
+                return null;
+            });
+            try {
+                call(source, (manager) -> {
+                    manager.delete(name);
+                    return null;
+                });
+            } catch (FileSystemException | RuntimeException e) {
+                call(target, (manager) -> {
+                    manager.delete(name);
+                    return null;
+                });
+                throw e;
+            }
+            routes.put(name, target);
+        } finally {
+            routesLock.readLock().unlock();
+        }
+    }
+
+    public void rename(String oldName, String newName) throws FileSystemException {
+        routesLock.readLock().lock();
+        try {
+            Shard shard = pointOwner(oldName);
+            reserve(newName, shard);
+            try {
+                call(shard, (manager) -> {
+                    manager.rename(oldName, newName);
+                    return null;
+                });
+            } catch (FileSystemException | RuntimeException e) {
+                routes.remove(newName, shard);
+                throw e;
+            } finally {
+                reserved.remove(newName);
+            }
+            routes.remove(oldName, shard);
+        } finally {
+            routesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the routes whose node was deleted with its directory.
+     * Time complexity: O(R) for R routes, a lookup in its shard per route.
+     */
+    private void sweepStaleRoutes() throws FileSystemException {
+        routesLock.writeLock().lock();
+        try {
+            List<List<String>> names = new ArrayList<>();
+            for (int i = 0; i < shards.length; i++) {
+                names.add(new ArrayList<>());
+            }
+            routes.forEach((name, shard) -> names.get(shard.index).add(name));
+            List<CompletableFuture<List<String>>> stale = new ArrayList<>();
+            for (Shard shard : shards) {
+                stale.add(submit(shard, (manager) -> {
+                    List<String> dead = new ArrayList<>();
+                    for (String name : names.get(shard.index)) {
+                        if (!manager.exists(name)) {
+                            dead.add(name);
+                        }
+                    }
+                    return dead;
+                }));
+            }
+            for (int i = 0; i < shards.length; i++) {
+                for (String name : await(stale.get(i))) {
+                    routes.remove(name, shards[i]);
+                }
+            }
+            staleRoutes.set(0);
+        } finally {
+            routesLock.writeLock().unlock();
+        }
+    }
+
+    public void showFileSystem() {
+        // Not closed on purpose, closing the writer would close the standard output as well
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            showFileSystem(writer, UNLIMITED_DEPTH, UNLIMITED_NODES);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Prints the root with the aggregates of the whole tree, then the top level subtrees of every shard in shard
+     * order, each shard printing with the depth limit and the nodes left.
+     * Time complexity: O(min(N, maxNodes)).
+     * @param out The destination
+     * @param maxDepth Nodes deeper than this are not printed, the root is at depth 0
+     * @param maxNodes Maximum number of nodes to print
+     * @throws IOException if the destination or a shard fails
+     */
+    public void showFileSystem(Appendable out, int maxDepth, long maxNodes) throws IOException {
+        if (maxNodes <= 0) {
+            return;
+        }
+        List<long[]> perShard;
+        try {
+            perShard = gather((manager) -> new long[] {
+                    manager.getFileCount(ROOT_NAME), manager.getDirectoryCount(ROOT_NAME),
+                    manager.getDirectorySize(ROOT_NAME)});
+        } catch (FileSystemException e) {
+            throw new IOException("Can't read the aggregates of the shards", e);
+        }
+        long[] totals = new long[3];
+        // Nodes of the shards after each one, to know whether a "..." is due when the node limit is reached
+        long[] nodesAfter = new long[shards.length];
+        for (int i = shards.length - 1; i >= 0; i--) {
+            long[] shardTotals = perShard.get(i);
+            for (int t = 0; t < totals.length; t++) {
+                totals[t] += shardTotals[t];
+            }
+            if (i > 0) {
+                nodesAfter[i - 1] = nodesAfter[i] + shardTotals[0] + shardTotals[1];
+            }
+        }
+        // The line of Directory.appendTo, with the aggregates of every shard
+        out.append(ROOT_NAME).append(" [created=").append(creationDate.toString())
+                .append("] [files=").append(Long.toString(totals[0]))
+                .append(", dirs=").append(Long.toString(totals[1]))
+                .append(", size=").append(Long.toString(totals[2])).append(" bytes]\n");
+        if (totals[0] + totals[1] == 0) {
+            return;
+        }
+        if (maxDepth <= 0) {
+            FileSystemPrinter.writeEllipsis(1, out);
+            return;
+        }
+        long printed = 1;
+        for (Shard shard : shards) {
+            ShardOutput shardOutput = new ShardOutput(out, maxDepth);
+            long budget = maxNodes - printed + 1;
+            try {
+                call(shard, (manager) -> {
+                    try {
+                        manager.showFileSystem(shardOutput, maxDepth, budget);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                });
+            } catch (FileSystemException e) {
+                throw new IOException(e.getMessage(), e);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            printed += shardOutput.nodes;
+            if (shardOutput.truncated) {
+                return;
+            }
+            if (printed == maxNodes) {
+                if (nodesAfter[shard.index] > 0) {
+                    FileSystemPrinter.writeEllipsis(1, out);
+                }
+                return;
+            }
+        }
+    }
+
+    public long getFileSize(String name) throws FileSystemException {
+        return call(pointOwner(name), (manager) -> manager.getFileSize(name));
+    }
+
+    public long tryGetFileSize(String name) {
+        Shard shard = routes.get(name);
+        if (shard == null) {
+            return NO_SIZE;
+        }
+        try {
+            return call(shard, (manager) -> manager.tryGetFileSize(name));
+        } catch (FileSystemException e) {
+            return NO_SIZE;
+        }
+    }
+
+    public NodeType nodeType(String name) {
+        if (ROOT_NAME.equals(name)) {
+            return NodeType.DIRECTORY;
+        }
+        Shard shard = routes.get(name);
+        if (shard == null) {
+            return NodeType.NONE;
+        }
+        try {
+            return call(shard, (manager) -> manager.nodeType(name));
+        } catch (FileSystemException e) {
+            return NodeType.NONE;
+        }
+    }
+
+    public String getBiggestFile() throws FileSystemException {
+        List<String> biggest = getBiggestFiles(1);
+        if (biggest.isEmpty()) {
+            throw new FileSystemException("No files found in the file system, can't get the biggest file.");
+        }
+        return biggest.get(0);
+    }
+
+    public List<String> getBiggestFiles(int k) throws FileSystemException {
+        return biggestFiles(ROOT_NAME, k);
+    }
+
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        if (!ROOT_NAME.equals(dirName)) {
+            return call(owner(dirName), (manager) -> manager.getBiggestFile(dirName));
+        }
+        List<String> biggest = biggestFiles(ROOT_NAME, 1);
+        if (biggest.isEmpty()) {
+            throw new FileSystemException("No files found under %s, can't get the biggest file.", dirName);
+        }
+        return biggest.get(0);
+    }
+
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        if (!ROOT_NAME.equals(dirName)) {
+            return call(owner(dirName), (manager) -> manager.getBiggestFiles(dirName, k));
+        }
+        return biggestFiles(dirName, k);
+    }
+
+    /**
+     * Merges the k biggest files of every shard, equal sizes in shard order.
+     */
+    private List<String> biggestFiles(String dirName, int k) throws FileSystemException {
+        List<List<SizedName>> perShard = gather((manager) -> {
+            List<SizedName> biggest = new ArrayList<>();
+            for (String name : manager.getBiggestFiles(dirName, k)) {
+                biggest.add(new SizedName(name, manager.tryGetFileSize(name)));
+            }
+            return biggest;
+        });
+        List<Iterator<SizedName>> sources = new ArrayList<>();
+        for (List<SizedName> biggest : perShard) {
+            sources.add(biggest.iterator());
+        }
+        Iterator<SizedName> merged = new MergeIterator<>(sources, SizedName.BIGGEST_FIRST);
+        List<String> biggest = new ArrayList<>(Math.max(0, Math.min(k, 1024)));
+        while (biggest.size() < k && merged.hasNext()) {
+            biggest.add(merged.next().name);
+        }
+        return biggest;
+    }
+
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) {
+        List<Iterator<SizedName>> sources = new ArrayList<>();
+        for (Shard shard : shards) {
+            sources.add(new PagedIterator<>(shard, (manager) -> {
+                Iterator<String> names = manager.getFilesInSizeRange(minSize, maxSize);
+                return () -> {
+                    // A name may be reclaimed by the shard between the page and its size, it is then skipped
+                    while (names.hasNext()) {
+                        String name = names.next();
+                        long size = manager.tryGetFileSize(name);
+                        if (size != NO_SIZE) {
+                            return new SizedName(name, size);
+                        }
+                    }
+                    return null;
+                };
+            }));
+        }
+        Iterator<SizedName> merged = new MergeIterator<>(sources, SizedName.BIGGEST_FIRST.reversed());
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return merged.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return merged.next().name;
+            }
+        };
+    }
+
+    /**
+     * Binary search on the size: the file at the given rank has the smallest size that more than rank files don't
+     * exceed, the files of every shard being counted by a binary search on its own ranks.
+     */
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        long fileCount = 0;
+        for (long[] shardTotals : gather((manager) -> new long[] {manager.getFileCount(ROOT_NAME)})) {
+            fileCount += shardTotals[0];
+        }
+        if (rank < 0 || rank >= fileCount) {
+            throw new FileSystemException("Rank %d is out of bounds, there are %d files", rank, fileCount);
+        }
+        long low = 1;
+        long high = Long.MAX_VALUE;
+        while (low < high) {
+            long size = low + (high - low) / 2;
+            long notBigger = 0;
+            for (long count : gather((manager) -> countNotBiggerThan(manager, size))) {
+                notBigger += count;
+            }
+            if (notBigger > rank) {
+                high = size;
+            } else {
+                low = size + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Time complexity: O(log F) rank lookups in the shard.
+     * @return How many files of the shard are not bigger than the given size
+     */
+    private static long countNotBiggerThan(FileSystemManager manager, long size) throws FileSystemException {
+        long low = 0;
+        long high = manager.getFileCount(ROOT_NAME);
+        while (low < high) {
+            long rank = low + (high - low) / 2;
+            if (manager.getFileSizeAtRank(rank) <= size) {
+                low = rank + 1;
+            } else {
+                high = rank;
+            }
+        }
+        return low;
+    }
+
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new FileSystemException("Percentile must be between 0 and 100: %s", percentile);
+        }
+        long fileCount = getFileCount(ROOT_NAME);
+        if (fileCount == 0) {
+            throw new FileSystemException("No files found in the file system, can't get a percentile.");
+        }
+        return getFileSizeAtRank(FileSizeIndex.percentileRank(percentile, (int) Math.min(Integer.MAX_VALUE, fileCount)));
+    }
+
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return directoryAggregate(dirName, (manager) -> manager.getDirectorySize(dirName));
+    }
+
+    public long getFileCount(String dirName) throws FileSystemException {
+        return directoryAggregate(dirName, (manager) -> manager.getFileCount(dirName));
+    }
+
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return directoryAggregate(dirName, (manager) -> manager.getDirectoryCount(dirName));
+    }
+
+    private long directoryAggregate(String dirName, ShardCall<Long> aggregate) throws FileSystemException {
+        if (!ROOT_NAME.equals(dirName)) {
+            return call(owner(dirName), aggregate);
+        }
+        long total = 0;
+        for (long value : gather(aggregate)) {
+            total += value;
+        }
+        return total;
+    }
+
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return find((manager) -> manager.findByPrefix(prefix, after), Comparator.naturalOrder());
+    }
+
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return find((manager) -> manager.findBySuffix(suffix, after), NameIndex.SUFFIX_ORDER);
+    }
+
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return find((manager) -> manager.findByGlob(pattern, after), NameIndex.globOrder(pattern));
+    }
+
+    /**
+     * Merges the search of every shard, each one returning its names in the given order.
+     */
+    private Iterator<String> find(ShardSearch search, Comparator<String> order) {
+        List<Iterator<String>> sources = new ArrayList<>();
+        for (Shard shard : shards) {
+            sources.add(new PagedIterator<>(shard, (manager) -> {
+                Iterator<String> names = search.find(manager);
+                return () -> names.hasNext() ? names.next() : null;
+            }));
+        }
+        return new MergeIterator<>(sources, order);
+    }
+
+    /**
+     * Lists a page of the children of a directory on its shard. The children of the root are spread over every shard,
+     * so a page of the root merges a page of every shard: listing keys hold the value they are ordered by, which every
+     * shard computes the same way, so the same cursor resumes every shard after the last child of the merged page.
+     * @param dirName
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit Maximum number of names in the page
+     * @param sortKey
+     * @return ListingPage
+     * @throws FileSystemException if there is no such directory or the cursor was made for another order
+     */
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        if (!ROOT_NAME.equals(dirName)) {
+            return call(owner(dirName), (manager) -> manager.list(dirName, cursor, limit, sortKey));
+        }
+        ListingPage.validateLimit(limit);
+        List<Iterator<ListingKey>> sources = new ArrayList<>(shards.length);
+        boolean more = false;
+        for (ListingPage page : gather((manager) -> manager.list(ROOT_NAME, cursor, limit, sortKey))) {
+            sources.add(page.getKeys().iterator());
+            more |= page.hasNext();
+        }
+        Iterator<ListingKey> merged = new MergeIterator<>(sources, Comparator.naturalOrder());
+        List<ListingKey> keys = new ArrayList<>(limit);
+        while (keys.size() < limit && merged.hasNext()) {
+            keys.add(merged.next());
+        }
+        // A shard with more children returned a full page, so the merged page is full too
+        more |= merged.hasNext();
+        return new ListingPage(keys, more ? keys.get(keys.size() - 1).toCursor(sortKey) : null);
+    }
+
+    /**
+     * Watches a directory on its shard. The root is on every shard, so a watch of the root subscribes on all of them
+     * and passes the batches of the shards to the listener one at a time. The events of different shards are not
+     * ordered with each other: a file moved to another shard is reported as ADDED to its new parent by one shard and
+     * REMOVED from its old parent by the other, in either order.
+     * @param dirName
+     * @param recursive Whether the changes below the children are reported too
+     * @param options Queue capacity and batch size, per shard for the root
+     * @param listener
+     * @return Subscription
+     * @throws FileSystemException if there is no such directory
+     * @throws UnsupportedOperationException if a shard manager doesn't support watches, e.g. a remote one
+     */
+    public Subscription watch(String dirName, boolean recursive, WatchOptions options, ChangeListener listener)
+            throws FileSystemException {
+        if (!ROOT_NAME.equals(dirName)) {
+            return call(owner(dirName), (manager) -> manager.watch(dirName, recursive, options, listener));
+        }
+        ChangeListener serialized = new ChangeListener() {
+            @Override
+            public synchronized void onChanges(ChangeBatch batch) {
+                listener.onChanges(batch);
+            }
+        };
+        List<CompletableFuture<Subscription>> futures = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            futures.add(submit(shard, (manager) -> manager.watch(ROOT_NAME, recursive, options, serialized)));
+        }
+        List<Subscription> parts = new ArrayList<>(shards.length);
+        try {
+            for (CompletableFuture<Subscription> future : futures) {
+                parts.add(await(future));
+            }
+        } catch (FileSystemException | RuntimeException e) {
+            // The shards that subscribed are released, the others are still awaited so none is left behind
+            for (CompletableFuture<Subscription> future : futures) {
+                future.thenAccept(Subscription::close);
+            }
+            throw e;
+        }
+        return new MergedSubscription(parts);
+    }
+
+    /**
+     * Stops the executors of the shards and closes the shards that can be closed, e.g. remote ones. An interrupt while
+     * waiting for an executor doesn't stop the closing of the other shards, the interrupt flag is restored at the end.
+     * @throws IOException the first failure to close a shard, the others are suppressed by it
+     */
+    public void close() throws IOException {
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            try {
+                if (shard.manager instanceof AutoCloseable) {
+                    ((AutoCloseable) shard.manager).close();
+                }
+            } catch (Throwable e) {
+                if (e instanceof InterruptedException) {
+                    interrupted = true;
+                    continue;
+                }
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+                IOException closeFailure = e instanceof IOException ? (IOException) e
+                        : new IOException(String.format("Shard %d failed to close", shard.index), e);
+                if (failure == null) {
+                    failure = closeFailure;
+                } else {
+                    failure.addSuppressed(closeFailure);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @throws FileSystemException if no node has the name
+     */
+    private Shard owner(String name) throws FileSystemException {
+        Shard shard = routes.get(name);
+        if (shard == null) {
+            throw new FileSystemException("Node not found: %s", name);
+        }
+        return shard;
+    }
+
+    /**
+     * The root is on every shard, any of them answers the point queries about it the same way.
+     */
+    private Shard pointOwner(String name) throws FileSystemException {
+        return ROOT_NAME.equals(name) ? shards[0] : owner(name);
+    }
+
+    private <T> T call(Shard shard, ShardCall<T> call) throws FileSystemException {
+        return await(submit(shard, call));
+    }
+
+    /**
+     * Runs the call on every shard in parallel.
+     * @return The results in shard order
+     */
+    private <T> List<T> gather(ShardCall<T> call) throws FileSystemException {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            futures.add(submit(shard, call));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private static <T> CompletableFuture<T> submit(Shard shard, ShardCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        shard.executor.execute(() -> {
+            try {
+                future.complete(call.apply(shard.manager));
+            } catch (FileSystemException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws FileSystemException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileSystemException) {
+                throw (FileSystemException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static RuntimeException unchecked(FileSystemException e) {
+        return new IllegalStateException(e.getMessage(), e);
+    }
+
+    private static final class Shard {
+        private final int index;
+        private final FileSystemManager manager;
+        private final ExecutorService executor;
+
+        private Shard(int index, FileSystemManager manager) {
+            this.index = index;
+            this.manager = manager;
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "filesystem-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private interface ShardCall<T> {
+        T apply(FileSystemManager manager) throws FileSystemException;
+    }
+
+    private interface ShardSearch {
+        Iterator<String> find(FileSystemManager manager) throws FileSystemException;
+    }
+
+    /**
+     * Reads an iterator of a shard a page at a time on the executor of the shard, the shard iterators are never touched
+     * by another thread.
+     */
+    private static final class PagedIterator<T> implements Iterator<T> {
+        private final Shard shard;
+        private final ShardCall<Source<T>> open;
+        private final ArrayDeque<T> page;
+        private Source<T> source;
+        private boolean exhausted;
+
+        private PagedIterator(Shard shard, ShardCall<Source<T>> open) {
+            this.shard = shard;
+            this.open = open;
+            this.page = new ArrayDeque<>();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page.isEmpty() && !exhausted) {
+                try {
+                    call();
+                } catch (FileSystemException e) {
+                    throw unchecked(e);
+                }
+            }
+            return !page.isEmpty();
+        }
+
+        private void call() throws FileSystemException {
+            List<T> next = await(submit(shard, (manager) -> {
+                if (source == null) {
+                    source = open.apply(manager);
+                }
+                List<T> read = new ArrayList<>(PAGE_SIZE);
+                T item;
+                while (read.size() < PAGE_SIZE && (item = source.next()) != null) {
+                    read.add(item);
+                }
+                return read;
+            }));
+            exhausted = next.size() < PAGE_SIZE;
+            page.addAll(next);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.poll();
+        }
+    }
+
+    /**
+     * Next item of a shard iterator, null at the end.
+     */
+    private interface Source<T> {
+        T next();
+    }
+
+    /**
+     * K-way merge of iterators that are each sorted in the given order, ties in the order of the iterators.
+     */
+    private static final class MergeIterator<T> implements Iterator<T> {
+        private final PriorityQueue<Head<T>> heads;
+
+        private MergeIterator(List<? extends Iterator<T>> sources, Comparator<? super T> order) {
+            Comparator<Head<T>> byItem = (a, b) -> order.compare(a.item, b.item);
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                    byItem.thenComparingInt(head -> head.source));
+            for (int i = 0; i < sources.size(); i++) {
+                advance(new Head<>(i, sources.get(i)));
+            }
+        }
+
+        private void advance(Head<T> head) {
+            if (head.iterator.hasNext()) {
+                head.item = head.iterator.next();
+                heads.add(head);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            T item = head.item;
+            advance(head);
+            return item;
+        }
+
+        private static final class Head<T> {
+            private final int source;
+            private final Iterator<T> iterator;
+            private T item;
+
+            private Head(int source, Iterator<T> iterator) {
+                this.source = source;
+                this.iterator = iterator;
+            }
+        }
+    }
+
+    /**
+     * The subscriptions of the root on every shard.
+     */
+    private static final class MergedSubscription implements Subscription {
+        private final List<Subscription> parts;
+
+        private MergedSubscription(List<Subscription> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean isRecursive() {
+            return parts.get(0).isRecursive();
+        }
+
+        @Override
+        public boolean isActive() {
+            for (Subscription part : parts) {
+                if (part.isActive()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long getDroppedEvents() {
+            long dropped = 0;
+            for (Subscription part : parts) {
+                dropped += part.getDroppedEvents();
+            }
+            return dropped;
+        }
+
+        @Override
+        public void close() {
+            for (Subscription part : parts) {
+                part.close();
+            }
+        }
+    }
+
+    private static final class SizedName {
+        private static final Comparator<SizedName> BIGGEST_FIRST = (a, b) -> Long.compare(b.size, a.size);
+
+        private final String name;
+        private final long size;
+
+        private SizedName(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Forwards the output of a shard without its root line, counting the node lines and noticing the "..." a shard
+     * writes when it reaches its node limit. That one is never deeper than maxDepth, unlike the "..." of a directory
+     * whose children are past the depth limit.
+     */
+    private static final class ShardOutput implements Appendable {
+        private final Appendable out;
+        private final int maxDepth;
+        private boolean rootLine = true;
+        private boolean lineStart = true;
+        // Whether the current line is spaces followed by dots so far, with how many of each
+        private boolean ellipsis;
+        private int spaces;
+        private int dots;
+        private long nodes;
+        private boolean truncated;
+
+        private ShardOutput(Appendable out, int maxDepth) {
+            this.out = out;
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (rootLine) {
+                rootLine = c != '\n';
+                return this;
+            }
+            out.append(c);
+            if (lineStart) {
+                lineStart = false;
+                ellipsis = true;
+                spaces = 0;
+                dots = 0;
+            }
+            if (c == '\n') {
+                if (!ellipsis || dots != 3) {
+                    nodes++;
+                } else if (spaces / FileSystemPrinter.INDENT <= maxDepth) {
+                    truncated = true;
+                }
+                lineStart = true;
+            } else if (c == '.') {
+                dots++;
+            } else if (c == ' ' && dots == 0) {
+                spaces++;
+            } else {
+                ellipsis = false;
+            }
+            return this;
+        }
+    }
+}
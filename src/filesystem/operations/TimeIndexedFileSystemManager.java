@@ -0,0 +1,32 @@
+package filesystem.operations;
+
+import filesystem.exceptions.FileSystemException;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * File system manager that indexes its files by creation time, so the oldest and newest files, the files created within
+ * a period and the expired ones are found without walking the tree.
+ */
+public interface TimeIndexedFileSystemManager extends FileSystemManager {
+    // Iterates the names of the files created within the given inclusive bounds, in milliseconds since the epoch, from
+    // the oldest
+    Iterator<String> getFilesCreatedBetween(long fromMillis, long toMillis) throws FileSystemException;
+
+    // Gets the names of the k oldest files, from the oldest
+    List<String> getOldestFiles(int k) throws FileSystemException;
+
+    // Gets the names of the k newest files, from the newest
+    List<String> getNewestFiles(int k) throws FileSystemException;
+
+    // Gets the names of the k oldest files under a directory, from the oldest
+    List<String> getOldestFiles(String dirName, int k) throws FileSystemException;
+
+    // Gets the names of the k newest files under a directory, from the newest
+    List<String> getNewestFiles(String dirName, int k) throws FileSystemException;
+
+    // Deletes every file created before the cutoff, in milliseconds since the epoch, and returns how many were deleted.
+    // The directories are kept
+    int deleteOlderThan(long cutoffMillis) throws FileSystemException;
+}
@@ -0,0 +1,392 @@
+package filesystem.operations;
+
+import filesystem.indexes.PersistentHashMap;
+import filesystem.indexes.PersistentSizeIndex;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent mirror of a live tree, kept in step with every mutation so that a point in time view can be taken in O(1).
+ *
+ * Every directory has an immutable version holding a persistent map of its children, and every file an immutable record
+ * of its name and size, since a live node can be renamed. A mutation copies the versions of the changed directory and
+ * of its ancestors, O(h) map updates, and shares every other version with the previous state. The names and the files
+ * ordered by size are persistent as well, so a snapshot is three references and never sees a later mutation.
+ *
+ * Only the live manager calls the mirror, after it has applied a mutation: the live aggregates of the changed
+ * directories are final by then and are copied into their new versions.
+ *
+ * A deleted directory leaves the tree at once, but the names and the files of its subtree only leave the name map and
+ * the size index when the live manager reclaims them. The mirror keeps the roots of the deletes still pending in a
+ * persistent set instead of reclaiming them, and every snapshot carries the set of its time to skip the dead entries.
+ */
+final class VersionedTree {
+    // Value of a name held by several nodes, which the name based operations reject
+    static final Object SHARED = new Object();
+
+    private DirectoryVersion root;
+    // Every registered name to its file, to the version of its directory or to SHARED
+    private PersistentHashMap<String, Object> names;
+    private PersistentSizeIndex<FileVersion> sizes;
+    // The roots of the deleted directories whose subtree is not reclaimed yet
+    private PersistentHashMap<FileSystemNode, Boolean> deadRoots;
+
+    /**
+     * Mirrors the current state of a live tree, which must have no pending deletes.
+     * Time complexity: O(N) for the versions and the names, the files come already sorted.
+     * @param liveRoot
+     * @param nameMap The names held by a single node
+     * @param sharedNames The names held by several nodes
+     * @param filesBySize All the files, by ascending size and then id
+     */
+    VersionedTree(Directory liveRoot, Map<String, FileSystemNode> nameMap, Iterable<String> sharedNames,
+                  List<File> filesBySize) {
+        this.names = PersistentHashMap.empty();
+        for (String name : sharedNames) {
+            names = names.put(name, SHARED);
+        }
+        // The same records go to the tree and to the size index
+        Map<File, FileVersion> fileVersions = new IdentityHashMap<>(filesBySize.size());
+        List<FileVersion> versionsBySize = new ArrayList<>(filesBySize.size());
+        for (File file : filesBySize) {
+            FileVersion version = new FileVersion(file);
+            fileVersions.put(file, version);
+            versionsBySize.add(version);
+        }
+        this.root = mirror(liveRoot, nameMap, fileVersions);
+        this.sizes = PersistentSizeIndex.fromSorted(versionsBySize, FileVersion::getSize, FileVersion::getId);
+        this.deadRoots = PersistentHashMap.empty();
+    }
+
+    /**
+     * Time complexity: O(1).
+     * @return A read only view of the current state
+     */
+    FileSystemSnapshot snapshot() {
+        return new FileSystemSnapshot(root, names, sizes, deadRoots);
+    }
+
+    /**
+     * Mirrors a file or an empty directory just linked to its live parent.
+     * Time complexity: O(h log32 N + log F).
+     */
+    void linked(FileSystemNode node) {
+        Object child = node instanceof File ? new FileVersion((File) node) : new DirectoryVersion((Directory) node);
+        replaceChild((Directory) node.getParent(), node.getName(), child);
+        if (node instanceof File) {
+            sizes = sizes.add((FileVersion) child);
+        }
+    }
+
+    /**
+     * Mirrors a node just removed from its live parent. A directory only leaves the tree and becomes a dead root, the
+     * names and the files of its subtree stay until the live manager reclaims them.
+     * Time complexity: O(h log32 N + log F).
+     */
+    void unlinked(FileSystemNode node, Directory formerParent) {
+        replaceChild(formerParent, node.getName(), null);
+        if (node instanceof File) {
+            sizes = sizes.remove(new FileVersion((File) node));
+        } else {
+            deadRoots = deadRoots.put(node, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Mirrors a node just moved from its former live parent to its current one. The version of the node is unchanged,
+     * it is taken out of the former parent and put under the new one, and the sizes don't change.
+     * Time complexity: O(h log32 N).
+     */
+    void moved(FileSystemNode node, Directory formerParent) {
+        DirectoryVersion formerParentVersion = (DirectoryVersion) versionOf(formerParent);
+        Object version = formerParentVersion.children.get(node.getName());
+        replaceChild(formerParent, node.getName(), null);
+        replaceChild((Directory) node.getParent(), node.getName(), version);
+    }
+
+    /**
+     * Mirrors a node just renamed in its live parent. The names themselves are mirrored by nameHeld and nameShared.
+     * Time complexity: O(h log32 N), plus O(log F) to replace the record of a file in the size index.
+     */
+    void renamed(FileSystemNode node, String oldName) {
+        Directory parent = (Directory) node.getParent();
+        DirectoryVersion parentVersion = (DirectoryVersion) versionOf(parent);
+        Object version = parentVersion.children.get(oldName);
+        Object renamed = version instanceof FileVersion
+                ? ((FileVersion) version).named(node.getName())
+                : ((DirectoryVersion) version).named(node.getName());
+        replaceChild(parent, oldName, null, node.getName(), renamed);
+        if (version instanceof FileVersion) {
+            // The size index answers with the names of its records, the old one must not outlive the rename
+            sizes = sizes.remove((FileVersion) version).add((FileVersion) renamed);
+        }
+    }
+
+    /**
+     * Mirrors a live file just resized in place: a new version replaces the old one in the tree, in the size index
+     * and, if it holds its name alone, in the name map.
+     * Time complexity: O(h log32 N + log F).
+     */
+    void resized(File file) {
+        Directory parent = (Directory) file.getParent();
+        Object previous = ((DirectoryVersion) versionOf(parent)).children.get(file.getName());
+        FileVersion version = new FileVersion(file);
+        replaceChild(parent, file.getName(), version);
+        sizes = sizes.remove((FileVersion) previous).add(version);
+        if (names.get(file.getName()) == previous) {
+            names = names.put(file.getName(), version);
+        }
+    }
+
+    /**
+     * Mirrors a file of a deleted directory leaving the indexes.
+     * Time complexity: O(log F).
+     */
+    void reclaimed(File file) {
+        sizes = sizes.remove(new FileVersion(file));
+    }
+
+    /**
+     * Forgets a deleted directory once the live manager has reclaimed its whole subtree, none of its names and files is
+     * left in the mirror.
+     * Time complexity: O(log32 D) for D pending deletes.
+     */
+    void purged(Directory deleted) {
+        deadRoots = deadRoots.remove(deleted);
+    }
+
+    /**
+     * Mirrors a name now held by a single node, or by none if the holder is null.
+     * Time complexity: O(log32 N), plus O(h) to find the version of a directory.
+     */
+    void nameHeld(String name, FileSystemNode holder) {
+        Object version = holder == null ? null : versionOf(holder);
+        names = version == null ? names.remove(name) : names.put(name, version);
+    }
+
+    /**
+     * Mirrors a name now held by several nodes.
+     * Time complexity: O(log32 N).
+     */
+    void nameShared(String name) {
+        names = names.put(name, SHARED);
+    }
+
+    /**
+     * Copies the versions from the parent up to the root, with the child of the parent replaced or removed.
+     */
+    private void replaceChild(Directory parent, String childName, Object child) {
+        replaceChild(parent, childName, child, null, null);
+    }
+
+    /**
+     * Copies the versions from the parent up to the root, with one or two children of the parent replaced or removed.
+     */
+    private void replaceChild(Directory parent, String childName, Object child, String otherName, Object other) {
+        List<Directory> chain = new ArrayList<>();
+        for (Directory dir = parent; dir != null; dir = (Directory) dir.getParent()) {
+            chain.add(dir);
+        }
+        // The versions of the parent and of its ancestors, from the parent
+        DirectoryVersion[] versions = new DirectoryVersion[chain.size()];
+        versions[chain.size() - 1] = root;
+        for (int i = chain.size() - 2; i >= 0; i--) {
+            versions[i] = (DirectoryVersion) versions[i + 1].children.get(chain.get(i).getName());
+        }
+
+        DirectoryVersion updated = versions[0].with(childName, child);
+        if (otherName != null) {
+            updated = updated.with(otherName, other);
+        }
+        refreshName(versions[0], updated);
+        for (int i = 1; i < versions.length; i++) {
+            DirectoryVersion ancestor = versions[i].with(chain.get(i - 1).getName(), updated);
+            refreshName(versions[i], ancestor);
+            updated = ancestor;
+        }
+        root = updated;
+    }
+
+    /**
+     * Points the name of a directory to its new version, unless another node holds the name.
+     */
+    private void refreshName(DirectoryVersion previous, DirectoryVersion updated) {
+        if (names.get(previous.name) == previous) {
+            names = names.put(previous.name, updated);
+        }
+    }
+
+    /**
+     * Finds the current version of a live node by following its live ancestors from the root.
+     * Time complexity: O(h log32 N).
+     * @return The version of the file or of the directory, or null if the node is not attached
+     */
+    private Object versionOf(FileSystemNode node) {
+        List<FileSystemNode> chain = new ArrayList<>();
+        FileSystemNode current = node;
+        while (current.getParent() != null) {
+            chain.add(current);
+            current = current.getParent();
+        }
+        if (current != root.dir) {
+            return null;
+        }
+        Object version = root;
+        for (int i = chain.size() - 1; i >= 0 && version != null; i--) {
+            version = ((DirectoryVersion) version).children.get(chain.get(i).getName());
+        }
+        return version;
+    }
+
+    /**
+     * Versions a live tree with a post order DFS, a directory being versioned once all its children are, and names
+     * every node that holds its name alone.
+     */
+    private DirectoryVersion mirror(Directory liveRoot, Map<String, FileSystemNode> nameMap,
+                                    Map<File, FileVersion> fileVersions) {
+        ArrayDeque<Directory> dirs = new ArrayDeque<>();
+        ArrayDeque<Iterator<FileSystemNode>> levels = new ArrayDeque<>();
+        ArrayList<PersistentHashMap<String, Object>> children = new ArrayList<>();
+        dirs.push(liveRoot);
+        levels.push(liveRoot.getChildren().iterator());
+        children.add(PersistentHashMap.empty());
+        while (true) {
+            int top = children.size() - 1;
+            Iterator<FileSystemNode> level = levels.peek();
+            if (level.hasNext()) {
+                FileSystemNode child = level.next();
+                if (child instanceof File) {
+                    FileVersion version = fileVersions.get(child);
+                    children.set(top, children.get(top).put(child.getName(), version));
+                    nameIfHolder(child, version, nameMap);
+                } else {
+                    dirs.push((Directory) child);
+                    levels.push(((Directory) child).getChildren().iterator());
+                    children.add(PersistentHashMap.empty());
+                }
+                continue;
+            }
+            Directory dir = dirs.pop();
+            levels.pop();
+            DirectoryVersion version = new DirectoryVersion(dir, children.remove(top));
+            nameIfHolder(dir, version, nameMap);
+            if (dirs.isEmpty()) {
+                return version;
+            }
+            children.set(top - 1, children.get(top - 1).put(dir.getName(), version));
+        }
+    }
+
+    private void nameIfHolder(FileSystemNode node, Object version, Map<String, FileSystemNode> nameMap) {
+        if (nameMap.get(node.getName()) == node) {
+            names = names.put(node.getName(), version);
+        }
+    }
+
+    /**
+     * Immutable state of a file: its name and size at the time the version was made.
+     */
+    static final class FileVersion {
+        // The live file, only used for its id, its creation time and to tell whether it was deleted
+        final File file;
+        private final String name;
+        private final long size;
+
+        private FileVersion(File file) {
+            this(file, file.getName(), file.getSize());
+        }
+
+        private FileVersion(File file, String name, long size) {
+            this.file = file;
+            this.name = name;
+            this.size = size;
+        }
+
+        private FileVersion named(String newName) {
+            return new FileVersion(file, newName, size);
+        }
+
+        long getId() {
+            return file.getId();
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        void appendTo(Appendable out) throws IOException {
+            out.append(name).append(" [size=").append(Long.toString(size))
+                    .append(" bytes, created=").append(FileSystemNode.toDate(file.getCreationMillis()).toString()).append(']');
+        }
+    }
+
+    /**
+     * Immutable state of a directory: its name, its children and its aggregates at the time the version was made.
+     */
+    static final class DirectoryVersion {
+        // The live directory, only used to find the version of a live node and to tell whether it was deleted
+        final Directory dir;
+        final String name;
+        // Child names to versions of files and of directories
+        final PersistentHashMap<String, Object> children;
+        final long totalSize;
+        final long fileCount;
+        final long directoryCount;
+
+        private DirectoryVersion(Directory dir) {
+            this(dir, PersistentHashMap.empty());
+        }
+
+        private DirectoryVersion(Directory dir, PersistentHashMap<String, Object> children) {
+            this(dir, dir.getName(), children, dir.getTotalSize(), dir.getFileCount(), dir.getDirectoryCount());
+        }
+
+        private DirectoryVersion(Directory dir, String name, PersistentHashMap<String, Object> children,
+                                 long totalSize, long fileCount, long directoryCount) {
+            this.dir = dir;
+            this.name = name;
+            this.children = children;
+            this.totalSize = totalSize;
+            this.fileCount = fileCount;
+            this.directoryCount = directoryCount;
+        }
+
+        private DirectoryVersion with(String childName, Object child) {
+            return new DirectoryVersion(dir, name,
+                    child == null ? children.remove(childName) : children.put(childName, child),
+                    dir.getTotalSize(), dir.getFileCount(), dir.getDirectoryCount());
+        }
+
+        private DirectoryVersion named(String newName) {
+            return new DirectoryVersion(dir, newName, children, totalSize, fileCount, directoryCount);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Iterator<Object> children() {
+            return children.values();
+        }
+
+        void appendTo(Appendable out) throws IOException {
+            out.append(name).append(" [created=").append(dir.getCreationDate().toString())
+                    .append("] [files=").append(Long.toString(fileCount))
+                    .append(", dirs=").append(Long.toString(directoryCount))
+                    .append(", size=").append(Long.toString(totalSize)).append(" bytes]");
+        }
+    }
+}
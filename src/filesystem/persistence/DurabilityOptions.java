@@ -0,0 +1,70 @@
+package filesystem.persistence;
+
+import java.nio.file.Path;
+
+/**
+ * Settings of the durable mode of a file system manager.
+ * Every mutation is appended to a write ahead log in the given directory, and a snapshot of the whole tree is written
+ * next to it every snapshotEveryOps mutations, after which the log is truncated.
+ */
+public class DurabilityOptions {
+    private static final String LOG_FILE_NAME = "filesystem.wal";
+    private static final String SNAPSHOT_FILE_NAME = "filesystem.snapshot";
+
+    private final Path directory;
+    private final int syncEveryOps;
+    private final long syncIntervalMillis;
+    private final long snapshotEveryOps;
+
+    /**
+     * @param directory Where the log and the snapshot are kept, created if missing
+     * @param syncEveryOps Number of logged mutations that are committed together with one fsync, 1 syncs every mutation
+     * @param syncIntervalMillis Maximum time a logged mutation waits for its fsync, 0 to only sync by count
+     * @param snapshotEveryOps Number of logged mutations between two snapshots, 0 to only snapshot on checkpoint()
+     */
+    public DurabilityOptions(Path directory, int syncEveryOps, long syncIntervalMillis, long snapshotEveryOps) {
+        if (syncEveryOps <= 0) {
+            throw new IllegalArgumentException(String.format("syncEveryOps must be positive: %d", syncEveryOps));
+        }
+        if (syncIntervalMillis < 0 || snapshotEveryOps < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis and snapshotEveryOps can't be negative");
+        }
+        this.directory = directory;
+        this.syncEveryOps = syncEveryOps;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.snapshotEveryOps = snapshotEveryOps;
+    }
+
+    /**
+     * Group commits of up to 256 mutations or 10ms, and a snapshot every million mutations.
+     * @param directory Where the log and the snapshot are kept
+     * @return DurabilityOptions
+     */
+    public static DurabilityOptions defaults(Path directory) {
+        return new DurabilityOptions(directory, 256, 10, 1_000_000);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path getLogFile() {
+        return directory.resolve(LOG_FILE_NAME);
+    }
+
+    public Path getSnapshotFile() {
+        return directory.resolve(SNAPSHOT_FILE_NAME);
+    }
+
+    public int getSyncEveryOps() {
+        return syncEveryOps;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public long getSnapshotEveryOps() {
+        return snapshotEveryOps;
+    }
+}
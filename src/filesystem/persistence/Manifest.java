@@ -0,0 +1,226 @@
+package filesystem.persistence;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.persistence.PersistenceException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Inventory of a file system tree to bulk load, one entry per file or directory holding the name of its parent
+ * directory, its own name and the size of a file. Entries may come in any order, a parent can be listed after its
+ * children.
+ *
+ * Two formats are read:
+ * - CSV, one "parent,name,size" line per entry with an empty size for a directory. A field holding a comma or a quote
+ *   is quoted with double quotes and its quotes doubled. Empty lines and lines starting with # are skipped.
+ * - Binary, an 8 bytes header (magic, version) followed by records of [byte type][short parent length][UTF-8 parent]
+ *   [short name length][UTF-8 name][long size, files only] up to the end of the file. See BinaryWriter.
+ */
+public final class Manifest {
+    private static final int MAGIC = 0x46534D46; // "FSMF"
+    private static final int VERSION = 1;
+    private static final byte DIRECTORY = 0;
+    private static final byte FILE = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Receives the entries of a manifest in the order they are read.
+     */
+    public interface Sink {
+        void file(String parentDirName, String fileName, long fileSize) throws FileSystemException;
+
+        void directory(String parentDirName, String dirName) throws FileSystemException;
+    }
+
+    private Manifest() {
+    }
+
+    /**
+     * Reads a CSV manifest.
+     * Time complexity: O(size of the file).
+     * @param path
+     * @param sink Receives every entry
+     * @throws PersistenceException if the file can't be read or a line is malformed
+     * @throws FileSystemException if the sink rejects an entry
+     */
+    public static void readCsv(Path path, Sink sink) throws FileSystemException {
+        try (BufferedReader reader = new BufferedReader(Files.newBufferedReader(path, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String[] fields = new String[3];
+            StringBuilder field = new StringBuilder();
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                if (splitCsv(line, fields, field) != 3) {
+                    throw new PersistenceException(String.format(
+                            "Line %d of %s must have 3 fields, parent,name,size: %s", lineNumber, path, line));
+                }
+                if (fields[2].isEmpty()) {
+                    sink.directory(fields[0], fields[1]);
+                } else {
+                    sink.file(fields[0], fields[1], parseSize(fields[2], lineNumber, path));
+                }
+            }
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't read the manifest: %s", path), e);
+        }
+    }
+
+    /**
+     * Reads a binary manifest, see BinaryWriter.
+     * Time complexity: O(size of the file).
+     * @param path
+     * @param sink Receives every entry
+     * @throws PersistenceException if the file can't be read or is corrupted
+     * @throws FileSystemException if the sink rejects an entry
+     */
+    public static void readBinary(Path path, Sink sink) throws FileSystemException {
+        try (InputStream stream = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new PersistenceException("Not a file system manifest: %s", path);
+            }
+            byte[] name = new byte[Short.MAX_VALUE];
+            // Consecutive entries usually share their parent, its name is decoded once
+            byte[] parent = new byte[Short.MAX_VALUE];
+            int parentLength = -1;
+            String parentName = null;
+            int type;
+            while ((type = in.read()) >= 0) {
+                int length = in.readShort();
+                in.readFully(name, 0, length);
+                if (length != parentLength || !Arrays.equals(name, 0, length, parent, 0, length)) {
+                    System.arraycopy(name, 0, parent, 0, length);
+                    parentLength = length;
+                    parentName = new String(name, 0, length, StandardCharsets.UTF_8);
+                }
+                length = in.readShort();
+                in.readFully(name, 0, length);
+                String nodeName = new String(name, 0, length, StandardCharsets.UTF_8);
+                if (type == FILE) {
+                    sink.file(parentName, nodeName, in.readLong());
+                } else if (type == DIRECTORY) {
+                    sink.directory(parentName, nodeName);
+                } else {
+                    throw new PersistenceException("Unknown entry type %d in the manifest: %s", type, path);
+                }
+            }
+        } catch (EOFException e) {
+            throw new PersistenceException(String.format("Manifest ends in the middle of an entry: %s", path), e);
+        } catch (IOException | RuntimeException e) {
+            throw new PersistenceException(String.format("Can't read the manifest: %s", path), e);
+        }
+    }
+
+    /**
+     * Splits a CSV line into the given array.
+     * @return The number of fields of the line, only the first fields.length are kept
+     */
+    private static int splitCsv(String line, String[] fields, StringBuilder field) {
+        int count = 0;
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (i < line.length()) {
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            while (i < line.length() && line.charAt(i) != ',') {
+                field.append(line.charAt(i++));
+            }
+            if (count < fields.length) {
+                fields[count] = field.toString();
+            }
+            count++;
+            if (i == line.length()) {
+                return count;
+            }
+            // Skip the comma
+            i++;
+        }
+    }
+
+    private static long parseSize(String size, long lineNumber, Path path) throws PersistenceException {
+        try {
+            return Long.parseLong(size.trim());
+        } catch (NumberFormatException e) {
+            throw new PersistenceException("Line %d of %s has an invalid size: %s", lineNumber, path, size);
+        }
+    }
+
+    /**
+     * Writes a binary manifest, entry by entry. Nothing is validated, the loader does it.
+     */
+    public static final class BinaryWriter implements Sink, Closeable {
+        private final DataOutputStream out;
+
+        public BinaryWriter(Path path) throws PersistenceException {
+            try {
+                this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            } catch (IOException e) {
+                throw new PersistenceException(String.format("Can't create the manifest: %s", path), e);
+            }
+        }
+
+        @Override
+        public void file(String parentDirName, String fileName, long fileSize) throws PersistenceException {
+            try {
+                out.writeByte(FILE);
+                writeName(parentDirName);
+                writeName(fileName);
+                out.writeLong(fileSize);
+            } catch (IOException e) {
+                throw new PersistenceException("Can't write to the manifest", e);
+            }
+        }
+
+        @Override
+        public void directory(String parentDirName, String dirName) throws PersistenceException {
+            try {
+                out.writeByte(DIRECTORY);
+                writeName(parentDirName);
+                writeName(dirName);
+            } catch (IOException e) {
+                throw new PersistenceException("Can't write to the manifest", e);
+            }
+        }
+
+        private void writeName(String name) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package filesystem.persistence;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.persistence.PersistenceException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compact binary image of a whole file system tree.
+ *
+ * Layout: a header (magic, version, LSN of the last log record included, node count) followed by one record per
+ * node in DFS pre order: [byte type][int parent index][long creation seconds][int creation nanos][long size, files
+ * only][short name length][UTF-8 name]. Since a parent always comes before its children, the tree is rebuilt in a
+ * single sequential pass over the memory mapped file.
+ * The nodes are followed by [int file count][int node index] * file count, the files ordered by ascending size and
+ * then by position, which is their id order once read back. The size indexes are then built without sorting.
+ */
+public final class SnapshotFile {
+    private static final int MAGIC = 0x46534E50; // "FSNP"
+    private static final int VERSION = 2;
+    private static final byte DIRECTORY = 0;
+    private static final byte FILE = 1;
+
+    /**
+     * A tree read back from a snapshot, with all the parent and children links in place but no indexes.
+     */
+    public static final class Contents {
+        private final Directory root;
+        private final FileSystemNode[] nodes;
+        private final List<File> filesBySize;
+        private final long lastLsn;
+
+        private Contents(Directory root, FileSystemNode[] nodes, List<File> filesBySize, long lastLsn) {
+            this.root = root;
+            this.nodes = nodes;
+            this.filesBySize = filesBySize;
+            this.lastLsn = lastLsn;
+        }
+
+        public Directory getRoot() {
+            return root;
+        }
+
+        /**
+         * @return All the nodes in DFS pre order, starting with the root
+         */
+        public FileSystemNode[] getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return All the files ordered by ascending size and then by ascending id
+         */
+        public List<File> getFilesBySize() {
+            return filesBySize;
+        }
+
+        public long getLastLsn() {
+            return lastLsn;
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes the tree to a temporary file, syncs it and atomically moves it over the given path, so a crash never
+     * leaves a partial snapshot behind.
+     * Time complexity: O(N + F log F). Space complexity: O(h + F).
+     * @param path The snapshot file
+     * @param root The root of the tree
+     * @param nodeCount The number of nodes in the tree, including the root
+     * @param lastLsn The LSN of the last log record reflected in the tree
+     * @throws PersistenceException if the snapshot can't be written
+     */
+    public static void write(Path path, Directory root, long nodeCount, long lastLsn) throws PersistenceException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastLsn);
+            out.writeInt((int) nodeCount);
+
+            int nextIndex = 0;
+            // Files and their node indexes in pre order, sorted by size at the end
+            List<File> files = new ArrayList<>();
+            List<Integer> fileIndexes = new ArrayList<>();
+            writeNode(out, root, -1);
+            // One children iterator and the index of its directory per open directory
+            ArrayDeque<Iterator<FileSystemNode>> iterators = new ArrayDeque<>();
+            ArrayDeque<Integer> parents = new ArrayDeque<>();
+            iterators.push(root.getChildren().iterator());
+            parents.push(nextIndex++);
+            while (!iterators.isEmpty()) {
+                Iterator<FileSystemNode> children = iterators.peek();
+                if (!children.hasNext()) {
+                    iterators.pop();
+                    parents.pop();
+                    continue;
+                }
+                FileSystemNode child = children.next();
+                writeNode(out, child, parents.peek());
+                int index = nextIndex++;
+                if (child instanceof Directory) {
+                    iterators.push(((Directory) child).getChildren().iterator());
+                    parents.push(index);
+                } else {
+                    files.add((File) child);
+                    fileIndexes.add(index);
+                }
+            }
+            if (nextIndex != nodeCount) {
+                throw new PersistenceException(
+                        String.format("Snapshot expected %d nodes but the tree has %d", nodeCount, nextIndex));
+            }
+            writeFileOrder(out, files, fileIndexes);
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't write the snapshot: %s", path), e);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't replace the snapshot: %s", path), e);
+        }
+    }
+
+    /**
+     * Memory maps a snapshot and rebuilds its tree.
+     * Time complexity: O(N). Space complexity: O(N) for the returned nodes.
+     * @param path The snapshot file
+     * @return Contents
+     * @throws FileSystemException if the snapshot can't be read or is corrupted
+     */
+    public static Contents read(Path path) throws FileSystemException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new PersistenceException("Not a file system snapshot: %s", path);
+            }
+            long lastLsn = buffer.getLong();
+            FileSystemNode[] nodes = new FileSystemNode[buffer.getInt()];
+            byte[] name = new byte[Short.MAX_VALUE];
+            for (int i = 0; i < nodes.length; i++) {
+                byte type = buffer.get();
+                int parentIndex = buffer.getInt();
+                long creationMillis = WriteAheadLog.toMillis(buffer.getLong(), buffer.getInt());
+                long size = type == FILE ? buffer.getLong() : 0;
+                int nameLength = buffer.getShort();
+                buffer.get(name, 0, nameLength);
+                String nodeName = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+
+                FileSystemNode node = type == FILE
+                        ? new File(nodeName, size, creationMillis)
+                        : new Directory(nodeName, creationMillis);
+                if (parentIndex >= 0) {
+                    ((Directory) nodes[parentIndex]).addChild(node);
+                }
+                nodes[i] = node;
+            }
+            if (nodes.length == 0 || !(nodes[0] instanceof Directory)) {
+                throw new PersistenceException("Snapshot has no root directory: %s", path);
+            }
+            int fileCount = buffer.getInt();
+            List<File> filesBySize = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                filesBySize.add((File) nodes[buffer.getInt()]);
+            }
+            return new Contents((Directory) nodes[0], nodes, filesBySize, lastLsn);
+        } catch (IOException | RuntimeException e) {
+            throw new PersistenceException(String.format("Can't read the snapshot: %s", path), e);
+        }
+    }
+
+    private static void writeFileOrder(DataOutputStream out, List<File> files, List<Integer> fileIndexes)
+            throws IOException {
+        Integer[] order = new Integer[files.size()];
+        Arrays.setAll(order, i -> i);
+        // Stable, so files of equal size stay in pre order, which is the order of the ids they get when read back
+        Arrays.sort(order, Comparator.comparingLong(i -> files.get(i).getSize()));
+        out.writeInt(order.length);
+        for (Integer i : order) {
+            out.writeInt(fileIndexes.get(i));
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, FileSystemNode node, int parentIndex) throws IOException {
+        boolean isFile = node instanceof File;
+        out.writeByte(isFile ? FILE : DIRECTORY);
+        out.writeInt(parentIndex);
+        out.writeLong(Math.floorDiv(node.getCreationMillis(), 1000));
+        out.writeInt(Math.floorMod(node.getCreationMillis(), 1000) * 1_000_000);
+        if (isFile) {
+            out.writeLong(((File) node).getSize());
+        }
+        byte[] name = node.getName().getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+    }
+}
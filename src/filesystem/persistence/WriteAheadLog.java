@@ -0,0 +1,522 @@
+package filesystem.persistence;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.persistence.PersistenceException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the mutations of a file system manager.
+ *
+ * Layout: an 8 bytes header (magic, version) followed by records of
+ * [int payload length][int CRC32 of the payload][payload], where the payload starts with the operation code and the
+ * log sequence number (LSN) of the record. A record whose length or checksum doesn't match is a torn write from a
+ * crash, replay stops there and cuts it off.
+ *
+ * Batches: a BEGIN_BATCH record holding a count of records is followed by that many records, which replay only
+ * applies once all of them were read. A batch cut short by a crash is cut off like a torn record, so a batch is
+ * restored entirely or not at all.
+ *
+ * Group commit: records are encoded into an in memory buffer and written with a single fsync once syncEveryOps
+ * records are pending, or after syncIntervalMillis by a background thread, whichever comes first.
+ *
+ * Replay streams the log through a fixed buffer, so its memory doesn't depend on the size of the log.
+ */
+public class WriteAheadLog {
+    private static final int MAGIC = 0x46534C47; // "FSLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Room for a parent path a few hundred levels deep, and always fits in the pending buffer
+    private static final int MAX_RECORD_SIZE = 16 * 1024;
+
+    private static final byte ADD_FILE = 1;
+    private static final byte ADD_DIR = 2;
+    private static final byte DELETE = 3;
+    private static final byte MOVE = 4;
+    private static final byte RENAME = 5;
+    private static final byte BEGIN_BATCH = 6;
+    private static final byte DELETE_OLDER_THAN = 7;
+    private static final byte RESIZE = 8;
+
+    /**
+     * Receives the logged mutations in order during replay.
+     */
+    public interface Replayer {
+        void addFile(String parentDirName, String fileName, long fileSize, long creationMillis) throws FileSystemException;
+
+        void addDir(String parentDirName, String dirName, long creationMillis) throws FileSystemException;
+
+        void delete(String name) throws FileSystemException;
+
+        void move(String name, String newParentDirName) throws FileSystemException;
+
+        void rename(String oldName, String newName) throws FileSystemException;
+
+        void deleteOlderThan(long cutoffMillis) throws FileSystemException;
+
+        void resize(String fileName, long newSize) throws FileSystemException;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer pending;
+    private final ByteBuffer record;
+    private final CRC32 crc;
+    private final int syncEveryOps;
+    private final ScheduledExecutorService syncer;
+    private long nextLsn;
+    private int unsyncedOps;
+    private PersistenceException failure;
+
+    private WriteAheadLog(FileChannel channel, DurabilityOptions options, long nextLsn) {
+        this.channel = channel;
+        this.pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+        this.crc = new CRC32();
+        this.syncEveryOps = options.getSyncEveryOps();
+        this.nextLsn = nextLsn;
+        if (options.getSyncIntervalMillis() > 0) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-syncer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = options.getSyncIntervalMillis();
+            syncer.scheduleWithFixedDelay(this::backgroundSync, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Opens the log for appending, creating it if needed. Replay it first, appending to a torn log corrupts it.
+     * @param options The durability settings
+     * @param nextLsn The LSN of the next record, one after the last replayed or snapshotted one
+     * @return WriteAheadLog
+     * @throws PersistenceException if the log can't be opened
+     */
+    public static WriteAheadLog open(DurabilityOptions options, long nextLsn) throws PersistenceException {
+        try {
+            FileChannel channel = FileChannel.open(options.getLogFile(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader(channel);
+            }
+            channel.position(channel.size());
+            return new WriteAheadLog(channel, options, nextLsn);
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't open the log: %s", options.getLogFile()), e);
+        }
+    }
+
+    /**
+     * Applies all the records of the log with an LSN greater than afterLsn, then cuts off a torn tail if there is one.
+     * The log is streamed through a buffer of BUFFER_SIZE bytes, whatever its size: a record is only checked and
+     * applied once it is whole in the buffer, and a length past MAX_RECORD_SIZE or past the end of the file is a torn
+     * record. The records of a batch are copied aside until the batch is complete.
+     * Time complexity: O(L) for a log of L bytes.
+     * Space complexity: O(BUFFER_SIZE), plus the records of the batch being read.
+     * @param logFile The log to replay, a missing log has nothing to replay
+     * @param afterLsn The last LSN that is already part of the restored state, e.g. from the snapshot
+     * @param replayer Receives the records
+     * @return The last LSN that is now part of the restored state
+     * @throws FileSystemException if the log can't be read or a record can't be applied
+     */
+    public static long replay(Path logFile, long afterLsn, Replayer replayer) throws FileSystemException {
+        if (!Files.exists(logFile)) {
+            return afterLsn;
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                channel.truncate(0);
+                return afterLsn;
+            }
+            ByteBuffer log = ByteBuffer.allocate(BUFFER_SIZE).flip();
+            if (!fill(channel, log, HEADER_SIZE) || log.getInt() != MAGIC || log.getInt() != VERSION) {
+                throw new PersistenceException("Not a file system log: %s", logFile);
+            }
+
+            long lastLsn = afterLsn;
+            CRC32 crc = new CRC32();
+            // Offset in the file of the next record, the end of the valid log once the loop stops
+            long position = HEADER_SIZE;
+            // The records of the batch being read, and where it starts to cut it off if it is incomplete
+            List<ByteBuffer> batch = new ArrayList<>();
+            long batchStart = -1;
+            int batchRemaining = 0;
+            while (fill(channel, log, RECORD_HEADER_SIZE)) {
+                int length = log.getInt(log.position());
+                int checksum = log.getInt(log.position() + Integer.BYTES);
+                if (length <= 0 || length > MAX_RECORD_SIZE || length > fileSize - position - RECORD_HEADER_SIZE
+                        || !fill(channel, log, RECORD_HEADER_SIZE + length)) {
+                    break;
+                }
+                ByteBuffer payload = log.slice(log.position() + RECORD_HEADER_SIZE, length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                log.position(log.position() + RECORD_HEADER_SIZE + length);
+                long start = position;
+                position += RECORD_HEADER_SIZE + length;
+                if (batchRemaining > 0) {
+                    // The buffer is refilled before the batch is complete, its records are kept in copies
+                    batch.add(ByteBuffer.allocate(length).put(payload).flip());
+                    if (--batchRemaining == 0) {
+                        for (ByteBuffer record : batch) {
+                            lastLsn = Math.max(lastLsn, apply(record, afterLsn, replayer));
+                        }
+                        batch.clear();
+                    }
+                } else if (payload.get(0) == BEGIN_BATCH) {
+                    batchStart = start;
+                    batchRemaining = payload.getInt(1 + Long.BYTES);
+                    if (batchRemaining == 0) {
+                        lastLsn = Math.max(lastLsn, payload.getLong(1));
+                    }
+                } else {
+                    lastLsn = Math.max(lastLsn, apply(payload, afterLsn, replayer));
+                }
+            }
+            if (batchRemaining > 0) {
+                // Batch cut short by a crash, none of its records is applied
+                position = batchStart;
+            }
+            if (position < fileSize) {
+                // Torn write of the last group commit
+                channel.truncate(position);
+                channel.force(true);
+            }
+            return lastLsn;
+        } catch (IOException e) {
+            throw new PersistenceException(String.format("Can't replay the log: %s", logFile), e);
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of unread bytes, moving the unread ones to its start and
+     * reading the channel after them if needed.
+     * @param log A buffer ready to be read, at least as large as needed
+     * @return false if the channel ends before
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer log, int needed) throws IOException {
+        if (log.remaining() >= needed) {
+            return true;
+        }
+        log.compact();
+        while (log.hasRemaining() && channel.read(log) >= 0) {
+            // Read up to a full buffer, or up to the end of the log
+        }
+        log.flip();
+        return log.remaining() >= needed;
+    }
+
+    /**
+     * @param parentDirName The name or the path of the parent directory
+     */
+    public synchronized void logAddFile(String parentDirName, File file) throws PersistenceException {
+        ByteBuffer payload = startRecord(ADD_FILE);
+        try {
+            putString(payload, parentDirName);
+            putString(payload, file.getName());
+            payload.putLong(file.getSize());
+            putMillis(payload, file.getCreationMillis());
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(parentDirName);
+        }
+        append(payload);
+    }
+
+    /**
+     * @param parentDirName The name or the path of the parent directory
+     */
+    public synchronized void logAddDir(String parentDirName, Directory dir) throws PersistenceException {
+        ByteBuffer payload = startRecord(ADD_DIR);
+        try {
+            putString(payload, parentDirName);
+            putString(payload, dir.getName());
+            putMillis(payload, dir.getCreationMillis());
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(parentDirName);
+        }
+        append(payload);
+    }
+
+    /**
+     * @param name The name or the path of the deleted node
+     */
+    public synchronized void logDelete(String name) throws PersistenceException {
+        ByteBuffer payload = startRecord(DELETE);
+        try {
+            putString(payload, name);
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(name);
+        }
+        append(payload);
+    }
+
+    /**
+     * @param name The name or the path of the moved node
+     * @param newParentDirName The name or the path of its new parent directory
+     */
+    public synchronized void logMove(String name, String newParentDirName) throws PersistenceException {
+        ByteBuffer payload = startRecord(MOVE);
+        try {
+            putString(payload, name);
+            putString(payload, newParentDirName);
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(name.length() >= newParentDirName.length() ? name : newParentDirName);
+        }
+        append(payload);
+    }
+
+    /**
+     * @param oldName The name or the path of the renamed node
+     * @param newName Its new name
+     */
+    public synchronized void logRename(String oldName, String newName) throws PersistenceException {
+        ByteBuffer payload = startRecord(RENAME);
+        try {
+            putString(payload, oldName);
+            putString(payload, newName);
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(oldName);
+        }
+        append(payload);
+    }
+
+    /**
+     * Logs a retention delete as its cutoff only, replay finds the same files since their creation times are logged.
+     * @param cutoffMillis The files created before this time were deleted
+     */
+    public synchronized void logDeleteOlderThan(long cutoffMillis) throws PersistenceException {
+        ByteBuffer payload = startRecord(DELETE_OLDER_THAN);
+        payload.putLong(cutoffMillis);
+        append(payload);
+    }
+
+    /**
+     * Logs a resize or an append as the size it left the file with, so replaying it twice changes nothing.
+     * @param fileName The name or the path of the resized file
+     * @param newSize Its new size
+     */
+    public synchronized void logResize(String fileName, long newSize) throws PersistenceException {
+        ByteBuffer payload = startRecord(RESIZE);
+        try {
+            putString(payload, fileName);
+            payload.putLong(newSize);
+        } catch (BufferOverflowException e) {
+            throw recordTooLarge(fileName);
+        }
+        append(payload);
+    }
+
+    /**
+     * Starts a batch, the next records are replayed together once all of them are in the log.
+     * @param records The number of records of the batch, logged right after this one
+     */
+    public synchronized void logBeginBatch(int records) throws PersistenceException {
+        ByteBuffer payload = startRecord(BEGIN_BATCH);
+        payload.putInt(records);
+        append(payload);
+    }
+
+    /**
+     * @return The LSN of the last appended record, 0 if nothing was ever logged
+     */
+    public synchronized long getLastLsn() {
+        return nextLsn - 1;
+    }
+
+    /**
+     * Writes all the pending records and waits until they are on disk.
+     * @throws PersistenceException if the write fails
+     */
+    public synchronized void sync() throws PersistenceException {
+        checkFailure();
+        try {
+            writePending();
+            channel.force(false);
+            unsyncedOps = 0;
+        } catch (IOException e) {
+            failure = new PersistenceException("Can't sync the log", e);
+            throw failure;
+        }
+    }
+
+    /**
+     * Drops every record, called once a snapshot that covers all of them is safely on disk.
+     * LSNs keep increasing, so a crash between the snapshot and the truncation only replays records the snapshot skips.
+     * @throws PersistenceException if the truncation fails
+     */
+    public synchronized void truncate() throws PersistenceException {
+        sync();
+        try {
+            channel.truncate(HEADER_SIZE);
+            channel.position(HEADER_SIZE);
+            channel.force(true);
+        } catch (IOException e) {
+            failure = new PersistenceException("Can't truncate the log", e);
+            throw failure;
+        }
+    }
+
+    /**
+     * Syncs the pending records and releases the log.
+     * @throws PersistenceException if the last sync fails
+     */
+    public synchronized void close() throws PersistenceException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        try {
+            sync();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new PersistenceException("Can't close the log", e);
+            }
+        }
+    }
+
+    private ByteBuffer startRecord(byte operation) throws PersistenceException {
+        checkFailure();
+        record.clear();
+        record.put(operation).putLong(nextLsn);
+        return record;
+    }
+
+    private void append(ByteBuffer payload) throws PersistenceException {
+        payload.flip();
+        crc.reset();
+        crc.update(payload.duplicate());
+        try {
+            if (pending.remaining() < RECORD_HEADER_SIZE + payload.remaining()) {
+                writePending();
+            }
+        } catch (IOException e) {
+            failure = new PersistenceException("Can't write to the log", e);
+            throw failure;
+        }
+        pending.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload);
+        nextLsn++;
+        if (++unsyncedOps >= syncEveryOps) {
+            sync();
+        }
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    private synchronized void backgroundSync() {
+        if (unsyncedOps > 0 && failure == null) {
+            try {
+                sync();
+            } catch (PersistenceException e) {
+                // Kept in failure and thrown to the next writer
+            }
+        }
+    }
+
+    private static PersistenceException recordTooLarge(String path) {
+        return new PersistenceException("Path is too long to be logged: %s", path);
+    }
+
+    private void checkFailure() throws PersistenceException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static long apply(ByteBuffer payload, long afterLsn, Replayer replayer) throws FileSystemException {
+        byte operation = payload.get();
+        long lsn = payload.getLong();
+        if (lsn <= afterLsn) {
+            return lsn;
+        }
+        switch (operation) {
+            case ADD_FILE:
+                replayer.addFile(getString(payload), getString(payload), payload.getLong(), getMillis(payload));
+                break;
+            case ADD_DIR:
+                replayer.addDir(getString(payload), getString(payload), getMillis(payload));
+                break;
+            case DELETE:
+                replayer.delete(getString(payload));
+                break;
+            case MOVE:
+                replayer.move(getString(payload), getString(payload));
+                break;
+            case RENAME:
+                replayer.rename(getString(payload), getString(payload));
+                break;
+            case DELETE_OLDER_THAN:
+                replayer.deleteOlderThan(payload.getLong());
+                break;
+            case RESIZE:
+                replayer.resize(getString(payload), payload.getLong());
+                break;
+            default:
+                throw new PersistenceException("Unknown log operation %d at LSN %d", operation, lsn);
+        }
+        return lsn;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.force(true);
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a creation time as epoch seconds and nanoseconds, the layout dates always had in the log and the snapshots.
+     */
+    static void putMillis(ByteBuffer buffer, long epochMillis) {
+        buffer.putLong(Math.floorDiv(epochMillis, 1000)).putInt(Math.floorMod(epochMillis, 1000) * 1_000_000);
+    }
+
+    static long getMillis(ByteBuffer buffer) {
+        long seconds = buffer.getLong();
+        return toMillis(seconds, buffer.getInt());
+    }
+
+    static long toMillis(long epochSeconds, int nanos) {
+        return epochSeconds * 1000 + nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,99 @@
+package filesystem.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock free queue for many producer threads and a single consumer thread.
+ * Every slot has a sequence number telling whose turn it is: a producer claims the tail with a CAS, writes the element
+ * and publishes it by advancing the sequence of the slot, which the consumer waits for before reading the slot. The
+ * consumer frees a slot by moving its sequence one lap ahead, for the producer that will wrap around to it.
+ * Producers never wait for each other, only a producer that claimed a slot and was descheduled before publishing it
+ * holds back the consumer.
+ */
+public class MpscRingBuffer<E> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    // Only read and written by the consumer
+    private long head;
+
+    /**
+     * @param capacity Rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Adds an element if there is room. Safe to call from any number of threads.
+     * Time complexity: O(1) amortized, a CAS retried while other producers win it.
+     * @param element Not null
+     * @return false if the buffer is full
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long turn = sequences.get(index) - position;
+            if (turn == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = element;
+                    // Release: the element is visible to the consumer once it sees the new sequence
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (turn < 0) {
+                // The consumer hasn't freed the slot of the previous lap yet
+                return false;
+            }
+            // Another producer claimed the position, try the next one
+        }
+    }
+
+    /**
+     * Removes up to maxElements elements in order. Must only be called by the consumer thread.
+     * Time complexity: O(removed elements).
+     * @param consumer Receives every removed element
+     * @param maxElements
+     * @return The number of removed elements
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<E> consumer, int maxElements) {
+        int drained = 0;
+        while (drained < maxElements) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                // Empty, or the producer of the next slot hasn't published it yet
+                break;
+            }
+            E element = (E) slots[index];
+            slots[index] = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    /**
+     * @return true if no element was claimed and not yet removed, exact only when called by the consumer thread
+     */
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+}
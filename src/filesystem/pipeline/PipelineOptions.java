@@ -0,0 +1,75 @@
+package filesystem.pipeline;
+
+/**
+ * Settings of the single writer command pipeline of a file system manager.
+ * Mutations wait in a bounded ring buffer of the given capacity, and the writer applies them in batches of up to
+ * maxBatchSize commands. A new read view is published after every batch, so bigger batches mean fewer views and more
+ * throughput, at the cost of the latency of the first commands of every batch.
+ */
+public class PipelineOptions {
+    /**
+     * What a producer does when the ring buffer is full.
+     */
+    public enum Backpressure {
+        // Wait until the writer frees a slot
+        BLOCK,
+        // Fail the command at once with a RejectedExecutionException
+        REJECT
+    }
+
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMicros;
+    private final Backpressure backpressure;
+
+    /**
+     * @param capacity Number of commands the ring buffer holds, rounded up to a power of two
+     * @param maxBatchSize Maximum number of commands applied before a new read view is published
+     * @param maxBatchDelayMicros How long the writer waits for more commands to fill a batch once it has some, 0 to
+     *                            publish as soon as no command is waiting
+     * @param backpressure What producers do while the ring buffer is full
+     */
+    public PipelineOptions(int capacity, int maxBatchSize, long maxBatchDelayMicros, Backpressure backpressure) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(String.format("capacity must be between 1 and 2^30: %d", capacity));
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException(String.format("maxBatchSize must be positive: %d", maxBatchSize));
+        }
+        if (maxBatchDelayMicros < 0) {
+            throw new IllegalArgumentException("maxBatchDelayMicros can't be negative");
+        }
+        if (backpressure == null) {
+            throw new IllegalArgumentException("backpressure can't be null");
+        }
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMicros = maxBatchDelayMicros;
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * 64K waiting commands, batches of up to 1024 commands published as soon as the queue is drained, producers block
+     * while the queue is full.
+     * @return PipelineOptions
+     */
+    public static PipelineOptions defaults() {
+        return new PipelineOptions(64 * 1024, 1024, 0, Backpressure.BLOCK);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxBatchDelayMicros() {
+        return maxBatchDelayMicros;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+}
@@ -0,0 +1,438 @@
+package filesystem.sharding;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.nodes.NodeType;
+import filesystem.operations.FileSystemManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FileSystemManager served by a ShardServer, in another process or in this one, over a loopback connection.
+ *
+ * - Every call is a blocking request and response, calls from several threads are serialized on the connection.
+ * - Failures of the remote manager are thrown as the same exceptions as a local one, see ShardProtocol. A broken
+ *   connection is thrown as a FileSystemException by the methods which declare it, as an UncheckedIOException by
+ *   the others.
+ * - Iterators fetch their names a page at a time.
+ */
+public class RemoteShard implements FileSystemManager, AutoCloseable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // The server process started by spawn(), null for a connected server
+    private final Process process;
+
+    private RemoteShard(Socket socket, Process process) throws IOException {
+        this.socket = socket;
+        this.process = process;
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Connects to a running ShardServer on this host. Closing the shard leaves the server running.
+     * @param port
+     * @return RemoteShard
+     * @throws IOException if the server can't be reached
+     */
+    public static RemoteShard connect(int port) throws IOException {
+        return new RemoteShard(new Socket(InetAddress.getLoopbackAddress(), port), null);
+    }
+
+    /**
+     * Starts a ShardServer process with the class path of this JVM and connects to it. Closing the shard stops the
+     * process, which also stops by itself if this JVM dies.
+     * @return RemoteShard
+     * @throws IOException if the process can't be started or doesn't report its port
+     */
+    public static RemoteShard spawn() throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShardServer.class.getName())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(ShardProtocol.READY)) {
+                throw new IOException("Shard server didn't start: " + line);
+            }
+            int port = Integer.parseInt(line.substring(ShardProtocol.READY.length()).trim());
+            return new RemoteShard(new Socket(InetAddress.getLoopbackAddress(), port), process);
+        } catch (IOException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    @Override
+    public void addFile(String parentDirName, String fileName, int fileSize) throws FileSystemException {
+        call(ShardProtocol.ADD_FILE, out -> {
+            out.writeUTF(parentDirName);
+            out.writeUTF(fileName);
+            out.writeInt(fileSize);
+        }, in -> null);
+    }
+
+    @Override
+    public void addDir(String parentDirName, String dirName) throws FileSystemException {
+        call(ShardProtocol.ADD_DIR, out -> {
+            out.writeUTF(parentDirName);
+            out.writeUTF(dirName);
+        }, in -> null);
+    }
+
+    @Override
+    public void delete(String name) throws FileSystemException {
+        call(ShardProtocol.DELETE, out -> out.writeUTF(name), in -> null);
+    }
+
+    @Override
+    public void move(String name, String newParentDirName) throws FileSystemException {
+        call(ShardProtocol.MOVE, out -> {
+            out.writeUTF(name);
+            out.writeUTF(newParentDirName);
+        }, in -> null);
+    }
+
+    @Override
+    public void rename(String oldName, String newName) throws FileSystemException {
+        call(ShardProtocol.RENAME, out -> {
+            out.writeUTF(oldName);
+            out.writeUTF(newName);
+        }, in -> null);
+    }
+
+    @Override
+    public void showFileSystem() {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            showFileSystem(writer, UNLIMITED_DEPTH, UNLIMITED_NODES);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Streams the output of the remote manager to the given destination as it arrives.
+     * Time complexity: O(N) for the remote manager, where N is the number of printed nodes.
+     */
+    @Override
+    public synchronized void showFileSystem(Appendable destination, int maxDepth, long maxNodes) throws IOException {
+        out.writeByte(ShardProtocol.SHOW);
+        out.writeInt(maxDepth);
+        out.writeLong(maxNodes);
+        out.flush();
+        // The whole output is read even if the destination fails, so the connection stays usable
+        IOException destinationFailure = null;
+        byte[] chunk = new byte[0];
+        int length;
+        while ((length = in.readInt()) > 0) {
+            if (chunk.length < length) {
+                chunk = new byte[length];
+            }
+            in.readFully(chunk, 0, length);
+            if (destinationFailure == null) {
+                try {
+                    destination.append(new String(chunk, 0, length, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    destinationFailure = e;
+                }
+            }
+        }
+        try {
+            readStatus();
+        } catch (FileSystemException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (destinationFailure != null) {
+            throw destinationFailure;
+        }
+    }
+
+    @Override
+    public long getFileSize(String name) throws FileSystemException {
+        return call(ShardProtocol.GET_FILE_SIZE, out -> out.writeUTF(name), DataInputStream::readLong);
+    }
+
+    @Override
+    public long tryGetFileSize(String name) {
+        return uncheckedCall(ShardProtocol.TRY_GET_FILE_SIZE, out -> out.writeUTF(name), DataInputStream::readLong);
+    }
+
+    @Override
+    public NodeType nodeType(String name) {
+        return uncheckedCall(ShardProtocol.NODE_TYPE, out -> out.writeUTF(name),
+                in -> NodeType.values()[in.readByte()]);
+    }
+
+    @Override
+    public String getBiggestFile() throws FileSystemException {
+        return getBiggestFile(null);
+    }
+
+    @Override
+    public List<String> getBiggestFiles(int k) throws FileSystemException {
+        return getBiggestFiles(null, k);
+    }
+
+    @Override
+    public Iterator<String> getFilesInSizeRange(long minSize, long maxSize) throws FileSystemException {
+        return call(ShardProtocol.GET_FILES_IN_SIZE_RANGE, out -> {
+            out.writeLong(minSize);
+            out.writeLong(maxSize);
+        }, this::readPage);
+    }
+
+    @Override
+    public long getFileSizeAtRank(long rank) throws FileSystemException {
+        return call(ShardProtocol.GET_FILE_SIZE_AT_RANK, out -> out.writeLong(rank), DataInputStream::readLong);
+    }
+
+    @Override
+    public long getFileSizePercentile(double percentile) throws FileSystemException {
+        return call(ShardProtocol.GET_FILE_SIZE_PERCENTILE, out -> out.writeDouble(percentile),
+                DataInputStream::readLong);
+    }
+
+    @Override
+    public String getBiggestFile(String dirName) throws FileSystemException {
+        return call(ShardProtocol.GET_BIGGEST_FILE, out -> ShardProtocol.writeNullable(out, dirName),
+                DataInput::readUTF);
+    }
+
+    @Override
+    public List<String> getBiggestFiles(String dirName, int k) throws FileSystemException {
+        return call(ShardProtocol.GET_BIGGEST_FILES, out -> {
+            ShardProtocol.writeNullable(out, dirName);
+            out.writeInt(k);
+        }, in -> {
+            int count = in.readInt();
+            List<String> names = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                names.add(in.readUTF());
+            }
+            return names;
+        });
+    }
+
+    @Override
+    public long getDirectorySize(String dirName) throws FileSystemException {
+        return call(ShardProtocol.GET_DIRECTORY_SIZE, out -> out.writeUTF(dirName), DataInputStream::readLong);
+    }
+
+    @Override
+    public long getFileCount(String dirName) throws FileSystemException {
+        return call(ShardProtocol.GET_FILE_COUNT, out -> out.writeUTF(dirName), DataInputStream::readLong);
+    }
+
+    @Override
+    public long getDirectoryCount(String dirName) throws FileSystemException {
+        return call(ShardProtocol.GET_DIRECTORY_COUNT, out -> out.writeUTF(dirName), DataInputStream::readLong);
+    }
+
+    @Override
+    public Iterator<String> findByPrefix(String prefix, String after) {
+        return find(ShardProtocol.FIND_BY_PREFIX, prefix, after);
+    }
+
+    @Override
+    public Iterator<String> findBySuffix(String suffix, String after) {
+        return find(ShardProtocol.FIND_BY_SUFFIX, suffix, after);
+    }
+
+    @Override
+    public Iterator<String> findByGlob(String pattern, String after) {
+        return find(ShardProtocol.FIND_BY_GLOB, pattern, after);
+    }
+
+    private Iterator<String> find(byte operation, String pattern, String after) {
+        return uncheckedCall(operation, out -> {
+            out.writeUTF(pattern);
+            ShardProtocol.writeNullable(out, after);
+        }, this::readPage);
+    }
+
+    @Override
+    public ListingPage list(String dirName, String cursor, int limit, SortKey sortKey) throws FileSystemException {
+        return call(ShardProtocol.LIST, out -> {
+            out.writeUTF(dirName);
+            ShardProtocol.writeNullable(out, cursor);
+            out.writeInt(limit);
+            out.writeByte(sortKey.ordinal());
+        }, in -> {
+            int count = in.readInt();
+            List<ListingKey> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long rank = in.readLong();
+                keys.add(new ListingKey(rank, in.readUTF()));
+            }
+            return new ListingPage(keys, ShardProtocol.readNullable(in));
+        });
+    }
+
+    /**
+     * Closes the connection, after stopping the server process if this shard started it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (process != null && !socket.isClosed()) {
+                try {
+                    out.writeByte(ShardProtocol.SHUTDOWN);
+                    out.flush();
+                    in.readByte();
+                } catch (IOException e) {
+                    // The process is stopped below anyway
+                }
+            }
+        } finally {
+            socket.close();
+            if (process != null) {
+                stop(process);
+            }
+        }
+    }
+
+    private static void stop(Process process) throws IOException {
+        process.getOutputStream().close();
+        try {
+            if (!process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized <T> T call(byte operation, Arguments arguments, Result<T> result)
+            throws FileSystemException {
+        try {
+            return exchange(operation, arguments, result);
+        } catch (IOException e) {
+            throw new FileSystemException("Shard connection failed: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized <T> T uncheckedCall(byte operation, Arguments arguments, Result<T> result) {
+        try {
+            return exchange(operation, arguments, result);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Shard connection failed", e);
+        } catch (FileSystemException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private <T> T exchange(byte operation, Arguments arguments, Result<T> result)
+            throws IOException, FileSystemException {
+        out.writeByte(operation);
+        arguments.write(out);
+        out.flush();
+        readStatus();
+        return result.read(in);
+    }
+
+    /**
+     * Reads the status of a response and throws the exception it carries.
+     */
+    private void readStatus() throws IOException, FileSystemException {
+        byte status = in.readByte();
+        if (status == ShardProtocol.OK) {
+            return;
+        }
+        byte kind = in.readByte();
+        String type = in.readUTF();
+        String message = ShardProtocol.readNullable(in);
+        if (kind == ShardProtocol.FILE_SYSTEM_FAILURE) {
+            throw ShardProtocol.fileSystemException(type, message);
+        }
+        throw ShardProtocol.runtimeException(type, message);
+    }
+
+    private Iterator<String> readPage(DataInputStream in) throws IOException {
+        RemoteIterator names = new RemoteIterator();
+        names.fill(in);
+        return names;
+    }
+
+    private interface Arguments {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Result<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Iterates the names of a remote iterator, fetching the next page once the current one is consumed.
+     */
+    private final class RemoteIterator implements Iterator<String> {
+        private int cursor;
+        private String[] page = new String[0];
+        private int count;
+        private int index;
+        private boolean more;
+
+        void fill(DataInputStream in) throws IOException {
+            cursor = in.readInt();
+            count = in.readInt();
+            if (page.length < count) {
+                page = new String[count];
+            }
+            for (int i = 0; i < count; i++) {
+                page[i] = in.readUTF();
+            }
+            index = 0;
+            more = in.readBoolean();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (index == count && more) {
+                uncheckedCall(ShardProtocol.NEXT_PAGE, out -> out.writeInt(cursor), in -> {
+                    fill(in);
+                    return null;
+                });
+            }
+            return index < count;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page[index++];
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package filesystem.sharding;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.InvalidCursorException;
+import filesystem.exceptions.manager.InvalidPathException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidFileSizeException;
+import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.exceptions.persistence.PersistenceException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format between a RemoteShard and a ShardServer, over a single connection with one request at a time.
+ *
+ * A request is an operation byte followed by its arguments, written with DataOutputStream: names as modified UTF-8,
+ * sizes, ranks and counts as int or long, and a nullable string as a boolean presence flag then the string.
+ * A response is a status byte, OK followed by the result, or FAILED followed by the kind of the failure, the simple
+ * class name of the exception and its message, so the client throws the same exception as a local manager.
+ * - Iterating operations return a page: [int cursor][int count][count names][boolean more]. The server keeps the
+ *   iterator while more pages are left, NEXT_PAGE with the cursor reads the next one.
+ * - LIST returns a whole listing page: [int count][count (long rank, name) keys][nullable next cursor].
+ * - SHOW streams the output before its status as chunks of [int length][UTF-8 bytes], ended by an empty chunk.
+ */
+final class ShardProtocol {
+    static final byte ADD_FILE = 1;
+    static final byte ADD_DIR = 2;
+    static final byte DELETE = 3;
+    static final byte MOVE = 4;
+    static final byte RENAME = 5;
+    static final byte SHOW = 6;
+    static final byte GET_FILE_SIZE = 7;
+    static final byte TRY_GET_FILE_SIZE = 8;
+    static final byte NODE_TYPE = 9;
+    static final byte GET_BIGGEST_FILE = 10;
+    static final byte GET_BIGGEST_FILES = 11;
+    static final byte GET_FILES_IN_SIZE_RANGE = 12;
+    static final byte GET_FILE_SIZE_AT_RANK = 13;
+    static final byte GET_FILE_SIZE_PERCENTILE = 14;
+    static final byte GET_DIRECTORY_SIZE = 15;
+    static final byte GET_FILE_COUNT = 16;
+    static final byte GET_DIRECTORY_COUNT = 17;
+    static final byte FIND_BY_PREFIX = 18;
+    static final byte FIND_BY_SUFFIX = 19;
+    static final byte FIND_BY_GLOB = 20;
+    static final byte NEXT_PAGE = 21;
+    static final byte SHUTDOWN = 22;
+    static final byte LIST = 23;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    // Kinds of failure, the client rebuilds a FileSystemException or an unchecked exception
+    static final byte FILE_SYSTEM_FAILURE = 0;
+    static final byte RUNTIME_FAILURE = 1;
+
+    static final int PAGE_SIZE = 1024;
+    static final int CHUNK_SIZE = 1 << 15;
+
+    // Printed by a ShardServer process on its standard output once it accepts connections, followed by the port
+    static final String READY = "LISTENING ";
+
+    private ShardProtocol() {
+    }
+
+    static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return A FileSystemException of the given simple class name, the base class for an unknown one
+     */
+    static FileSystemException fileSystemException(String type, String message) {
+        switch (type) {
+            case "DirectoryNotFoundException":
+                return new DirectoryNotFoundException(message);
+            case "NameAlreadyExistsException":
+                return new NameAlreadyExistsException(message);
+            case "InvalidCursorException":
+                return new InvalidCursorException(message);
+            case "InvalidPathException":
+                return new InvalidPathException(message);
+            case "InvalidNameException":
+                return new InvalidNameException(message);
+            case "InvalidFileSizeException":
+                return new InvalidFileSizeException(message);
+            case "PersistenceException":
+                return new PersistenceException(message);
+            default:
+                return new FileSystemException(message);
+        }
+    }
+
+    /**
+     * @return An unchecked exception of the given simple class name when it is a common one
+     */
+    static RuntimeException runtimeException(String type, String message) {
+        switch (type) {
+            case "IllegalArgumentException":
+                return new IllegalArgumentException(message);
+            case "IllegalStateException":
+                return new IllegalStateException(message);
+            case "IndexOutOfBoundsException":
+                return new IndexOutOfBoundsException(message);
+            case "UnsupportedOperationException":
+                return new UnsupportedOperationException(message);
+            default:
+                return new RuntimeException(type + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package filesystem.sharding;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.listing.ListingKey;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves a FileSystemManager to RemoteShard clients on a loopback port, see ShardProtocol.
+ *
+ * - Every connection is served by its own thread, and the requests of all the connections are applied one at a time
+ *   by synchronizing on the manager, since BasicFileSystemManager isn't thread safe.
+ * - Iterators are kept per connection while they have pages left and dropped with the connection.
+ * - Run as a process, the server prints its port on its standard output and stops on a SHUTDOWN request or once its
+ *   standard input is closed, so it doesn't outlive the process which spawned it.
+ */
+public class ShardServer implements Closeable {
+    private final FileSystemManager fileSystemManager;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Binds the loopback port and starts accepting connections.
+     * @param fileSystemManager The served manager
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    public ShardServer(FileSystemManager fileSystemManager, int port) throws IOException {
+        this.fileSystemManager = fileSystemManager;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "shard-server-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Usage: ShardServer [port]
+     * Serves an empty BasicFileSystemManager and prints "LISTENING <port>" once it accepts connections.
+     */
+    public static void main(String[] args) throws Throwable {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        ShardServer server = new ShardServer(new BasicFileSystemManager(), port);
+        System.out.println(ShardProtocol.READY + server.getPort());
+        System.out.flush();
+
+        Thread stdinWatcher = new Thread(() -> {
+            try {
+                InputStream in = System.in;
+                while (in.read() >= 0) {
+                    // Nothing is expected on stdin, it only tells when the parent process is gone
+                }
+            } catch (IOException e) {
+                // Same as the end of the input
+            }
+            server.close();
+        }, "shard-server-stdin");
+        stdinWatcher.setDaemon(true);
+        stdinWatcher.start();
+
+        server.acceptor.join();
+        System.exit(0);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // Closed, or a failed connection which the client sees
+                continue;
+            }
+            connections.add(socket);
+            Thread thread = new Thread(() -> serve(socket), "shard-connection-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        Map<Integer, Iterator<String>> cursors = new HashMap<>();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int[] nextCursor = {1};
+            while (!closed) {
+                byte operation = in.readByte();
+                if (operation == ShardProtocol.SHUTDOWN) {
+                    out.writeByte(ShardProtocol.OK);
+                    out.flush();
+                    close();
+                    return;
+                }
+                try {
+                    synchronized (fileSystemManager) {
+                        apply(operation, in, out, cursors, nextCursor);
+                    }
+                } catch (FileSystemException e) {
+                    fail(out, ShardProtocol.FILE_SYSTEM_FAILURE, e);
+                } catch (RuntimeException e) {
+                    fail(out, ShardProtocol.RUNTIME_FAILURE, e);
+                }
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // The client is gone
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Shard connection failed: " + e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the arguments of the operation, applies it and writes the OK response. Every argument is read before the
+     * manager is called, so a failure leaves the stream at the next request.
+     */
+    private void apply(byte operation, DataInputStream in, DataOutputStream out, Map<Integer, Iterator<String>> cursors,
+                       int[] nextCursor) throws IOException, FileSystemException {
+        FileSystemManager manager = fileSystemManager;
+        switch (operation) {
+            case ShardProtocol.ADD_FILE: {
+                String parent = in.readUTF();
+                String name = in.readUTF();
+                int size = in.readInt();
+                manager.addFile(parent, name, size);
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.ADD_DIR: {
+                String parent = in.readUTF();
+                String name = in.readUTF();
+                manager.addDir(parent, name);
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.DELETE: {
+                manager.delete(in.readUTF());
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.MOVE: {
+                String name = in.readUTF();
+                String parent = in.readUTF();
+                manager.move(name, parent);
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.RENAME: {
+                String oldName = in.readUTF();
+                String newName = in.readUTF();
+                manager.rename(oldName, newName);
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.SHOW: {
+                int maxDepth = in.readInt();
+                long maxNodes = in.readLong();
+                ChunkedOutput chunks = new ChunkedOutput(out);
+                try {
+                    manager.showFileSystem(chunks, maxDepth, maxNodes);
+                } finally {
+                    // The client reads the chunks up to the empty one before the status, even on a failure
+                    chunks.finish();
+                }
+                out.writeByte(ShardProtocol.OK);
+                break;
+            }
+            case ShardProtocol.GET_FILE_SIZE: {
+                long size = manager.getFileSize(in.readUTF());
+                out.writeByte(ShardProtocol.OK);
+                out.writeLong(size);
+                break;
+            }
+            case ShardProtocol.TRY_GET_FILE_SIZE: {
+                long size = manager.tryGetFileSize(in.readUTF());
+                out.writeByte(ShardProtocol.OK);
+                out.writeLong(size);
+                break;
+            }
+            case ShardProtocol.NODE_TYPE: {
+                int type = manager.nodeType(in.readUTF()).ordinal();
+                out.writeByte(ShardProtocol.OK);
+                out.writeByte(type);
+                break;
+            }
+            case ShardProtocol.GET_BIGGEST_FILE: {
+                String dirName = ShardProtocol.readNullable(in);
+                String name = dirName == null ? manager.getBiggestFile() : manager.getBiggestFile(dirName);
+                out.writeByte(ShardProtocol.OK);
+                out.writeUTF(name);
+                break;
+            }
+            case ShardProtocol.GET_BIGGEST_FILES: {
+                String dirName = ShardProtocol.readNullable(in);
+                int k = in.readInt();
+                List<String> names = dirName == null ? manager.getBiggestFiles(k) : manager.getBiggestFiles(dirName, k);
+                out.writeByte(ShardProtocol.OK);
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeUTF(name);
+                }
+                break;
+            }
+            case ShardProtocol.GET_FILES_IN_SIZE_RANGE: {
+                long minSize = in.readLong();
+                long maxSize = in.readLong();
+                Iterator<String> names = manager.getFilesInSizeRange(minSize, maxSize);
+                writePage(out, nextCursor[0]++, names, cursors);
+                break;
+            }
+            case ShardProtocol.GET_FILE_SIZE_AT_RANK: {
+                long size = manager.getFileSizeAtRank(in.readLong());
+                out.writeByte(ShardProtocol.OK);
+                out.writeLong(size);
+                break;
+            }
+            case ShardProtocol.GET_FILE_SIZE_PERCENTILE: {
+                long size = manager.getFileSizePercentile(in.readDouble());
+                out.writeByte(ShardProtocol.OK);
+                out.writeLong(size);
+                break;
+            }
+            case ShardProtocol.GET_DIRECTORY_SIZE:
+            case ShardProtocol.GET_FILE_COUNT:
+            case ShardProtocol.GET_DIRECTORY_COUNT: {
+                String dirName = in.readUTF();
+                long value = operation == ShardProtocol.GET_DIRECTORY_SIZE ? manager.getDirectorySize(dirName)
+                        : operation == ShardProtocol.GET_FILE_COUNT ? manager.getFileCount(dirName)
+                        : manager.getDirectoryCount(dirName);
+                out.writeByte(ShardProtocol.OK);
+                out.writeLong(value);
+                break;
+            }
+            case ShardProtocol.FIND_BY_PREFIX:
+            case ShardProtocol.FIND_BY_SUFFIX:
+            case ShardProtocol.FIND_BY_GLOB: {
+                String pattern = in.readUTF();
+                String after = ShardProtocol.readNullable(in);
+                Iterator<String> names = operation == ShardProtocol.FIND_BY_PREFIX ? manager.findByPrefix(pattern, after)
+                        : operation == ShardProtocol.FIND_BY_SUFFIX ? manager.findBySuffix(pattern, after)
+                        : manager.findByGlob(pattern, after);
+                writePage(out, nextCursor[0]++, names, cursors);
+                break;
+            }
+            case ShardProtocol.LIST: {
+                String dirName = in.readUTF();
+                String cursor = ShardProtocol.readNullable(in);
+                int limit = in.readInt();
+                SortKey sortKey = SortKey.values()[in.readByte()];
+                ListingPage page = manager.list(dirName, cursor, limit, sortKey);
+                out.writeByte(ShardProtocol.OK);
+                out.writeInt(page.getKeys().size());
+                for (ListingKey key : page.getKeys()) {
+                    out.writeLong(key.getRank());
+                    out.writeUTF(key.getName());
+                }
+                ShardProtocol.writeNullable(out, page.getNextCursor());
+                break;
+            }
+            case ShardProtocol.NEXT_PAGE: {
+                int cursor = in.readInt();
+                Iterator<String> names = cursors.remove(cursor);
+                if (names == null) {
+                    throw new IllegalStateException("Unknown or exhausted cursor: " + cursor);
+                }
+                writePage(out, cursor, names, cursors);
+                break;
+            }
+            default:
+                // The arguments of an unknown operation can't be skipped, the connection is dropped
+                throw new IOException("Unknown shard operation: " + operation);
+        }
+    }
+
+    /**
+     * Writes the next page of the iterator and keeps the iterator under its cursor if more pages are left.
+     */
+    private static void writePage(DataOutputStream out, int cursor, Iterator<String> names,
+                                  Map<Integer, Iterator<String>> cursors) throws IOException {
+        String[] page = new String[ShardProtocol.PAGE_SIZE];
+        int count = 0;
+        while (count < page.length && names.hasNext()) {
+            page[count++] = names.next();
+        }
+        boolean more = names.hasNext();
+        if (more) {
+            cursors.put(cursor, names);
+        }
+        out.writeByte(ShardProtocol.OK);
+        out.writeInt(cursor);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeUTF(page[i]);
+        }
+        out.writeBoolean(more);
+    }
+
+    private static void fail(DataOutputStream out, byte kind, Throwable e) throws IOException {
+        out.writeByte(ShardProtocol.FAILED);
+        out.writeByte(kind);
+        out.writeUTF(e.getClass().getSimpleName());
+        ShardProtocol.writeNullable(out, e.getMessage());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    /**
+     * Streams the printed text as chunks of at most CHUNK_SIZE chars, see ShardProtocol.
+     */
+    private static final class ChunkedOutput implements Appendable {
+        private final DataOutputStream out;
+        private final StringBuilder chunk = new StringBuilder();
+
+        ChunkedOutput(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            chunk.append(csq, start, end);
+            flushIfFull();
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            chunk.append(c);
+            flushIfFull();
+            return this;
+        }
+
+        private void flushIfFull() throws IOException {
+            if (chunk.length() >= ShardProtocol.CHUNK_SIZE) {
+                writeChunk();
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            chunk.setLength(0);
+        }
+
+        void finish() throws IOException {
+            if (chunk.length() > 0) {
+                writeChunk();
+            }
+            out.writeInt(0);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package filesystem.watch;
+
+import java.util.List;
+
+/**
+ * Events of a subscription delivered together, in the order they happened.
+ *
+ * - droppedEvents counts the events lost since the previous batch because the queue of the subscription was full.
+ *   Once it is not 0 the subscriber can't rebuild the state of the directory from the events alone and has to read it
+ *   again, the events of this batch came after the lost ones.
+ * - The last batch of a subscription ended by the removal of its directory has isLast() set, nothing follows it.
+ */
+public final class ChangeBatch {
+    private final List<ChangeEvent> events;
+    private final long droppedEvents;
+    private final boolean last;
+
+    public ChangeBatch(List<ChangeEvent> events, long droppedEvents, boolean last) {
+        this.events = events;
+        this.droppedEvents = droppedEvents;
+        this.last = last;
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public boolean isOverflowed() {
+        return droppedEvents > 0;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+}
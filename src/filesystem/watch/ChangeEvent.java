@@ -0,0 +1,92 @@
+package filesystem.watch;
+
+import filesystem.nodes.NodeType;
+
+/**
+ * A change under a watched directory. Moving a node is reported as its removal from the old parent followed by its
+ * addition to the new one, each to the subscriptions watching that place.
+ */
+public final class ChangeEvent {
+    public enum Kind {
+        // A file or a directory was added, or moved in with everything below it
+        ADDED,
+        // A file was deleted or moved out
+        REMOVED,
+        // A directory was deleted or moved out with everything below it, reported once for the whole subtree
+        SUBTREE_REMOVED,
+        // A file or a directory was renamed in place
+        RENAMED,
+        // A file was resized or appended to in place, the event carries its new size
+        RESIZED
+    }
+
+    private final Kind kind;
+    private final NodeType type;
+    private final String name;
+    private final String parentName;
+    private final String oldName;
+    private final long size;
+    private final long fileCount;
+    private final long directoryCount;
+
+    /**
+     * @param kind
+     * @param type FILE or DIRECTORY
+     * @param name The name of the node, its new name for RENAMED
+     * @param parentName The name of the directory the node is added to, removed from, renamed or resized in
+     * @param oldName The former name for RENAMED, null otherwise
+     * @param size The size of a file, its new size for RESIZED, the total size of the subtree of a directory
+     * @param fileCount The files of the subtree of a directory, 0 for a file
+     * @param directoryCount The directories below a directory, 0 for a file
+     */
+    public ChangeEvent(Kind kind, NodeType type, String name, String parentName, String oldName, long size,
+                       long fileCount, long directoryCount) {
+        this.kind = kind;
+        this.type = type;
+        this.name = name;
+        this.parentName = parentName;
+        this.oldName = oldName;
+        this.size = size;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public NodeType getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParentName() {
+        return parentName;
+    }
+
+    public String getOldName() {
+        return oldName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+
+    @Override
+    public String toString() {
+        String label = kind == Kind.RENAMED ? oldName + " -> " + name : name;
+        return String.format("%s %s %s in %s [size=%d, files=%d, dirs=%d]", kind, type, label, parentName, size,
+                fileCount, directoryCount);
+    }
+}
@@ -0,0 +1,10 @@
+package filesystem.watch;
+
+/**
+ * Receives the batches of a subscription, one at a time and never from a thread changing the file system.
+ * A listener that throws still receives the next batches.
+ */
+@FunctionalInterface
+public interface ChangeListener {
+    void onChanges(ChangeBatch batch);
+}
@@ -0,0 +1,189 @@
+package filesystem.watch;
+
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes the changes of a tree of Directory nodes to the subscriptions watching them. Managers call it after every
+ * mutation, from any number of threads.
+ *
+ * Subscriptions are kept by directory node, so they follow their directory through moves and renames. An event at a
+ * parent directory goes to the subscriptions of that directory and to the recursive ones of its ancestors, found by
+ * walking up the parent chain. Nothing is built or walked while no subscription exists.
+ *
+ * Listeners are called by a cached pool of daemon threads, created with the first subscription.
+ *
+ * Time complexity: O(1) per mutation without subscriptions, O(h) with some, plus O(S * h) for S subscribed
+ * directories when a directory is removed, to end the subscriptions of its subtree.
+ */
+public final class ChangeNotifier {
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final Map<Directory, List<QueuedSubscription>> subscriptions;
+    private final AtomicInteger subscriptionCount;
+    private volatile ExecutorService executor;
+
+    public ChangeNotifier() {
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.subscriptionCount = new AtomicInteger();
+    }
+
+    /**
+     * @return true if a change can reach some subscription, managers skip the notifications otherwise
+     */
+    public boolean isWatched() {
+        return subscriptionCount.get() > 0;
+    }
+
+    /**
+     * Watches the children of a directory, or its whole subtree.
+     * @param directory A live directory of the tree
+     * @param recursive Whether the changes below the children are reported too
+     * @param options
+     * @param listener
+     * @return Subscription
+     */
+    public Subscription subscribe(Directory directory, boolean recursive, WatchOptions options,
+                                  ChangeListener listener) {
+        QueuedSubscription subscription = new QueuedSubscription(this, directory, recursive, options, listener, executor());
+        subscriptions.computeIfAbsent(directory, dir -> new CopyOnWriteArrayList<>()).add(subscription);
+        subscriptionCount.incrementAndGet();
+        return subscription;
+    }
+
+    void unsubscribe(QueuedSubscription subscription) {
+        List<QueuedSubscription> watching = subscriptions.get(subscription.getDirectory());
+        if (watching != null && watching.remove(subscription)) {
+            subscriptionCount.decrementAndGet();
+            if (watching.isEmpty()) {
+                subscriptions.remove(subscription.getDirectory(), watching);
+            }
+        }
+    }
+
+    /**
+     * Reports a node that was just linked to its parent, by an add or a move.
+     */
+    public void added(FileSystemNode node) {
+        Directory parent = (Directory) node.getParent();
+        publish(parent, event(ChangeEvent.Kind.ADDED, node, parent, null));
+    }
+
+    /**
+     * Reports a deleted node, already unlinked. A directory is reported once with the aggregates of its subtree, and
+     * the subscriptions of the directory and of its subtree end with that event.
+     * @param node
+     * @param formerParent The directory it was deleted from
+     */
+    public void removed(FileSystemNode node, Directory formerParent) {
+        ChangeEvent event = removal(node, formerParent);
+        publish(formerParent, event);
+        if (node instanceof Directory) {
+            endSubscriptionsBelow((Directory) node, event);
+        }
+    }
+
+    /**
+     * Reports a node that was just moved, as its removal from its former parent followed by its addition to the new
+     * one. The subscriptions of a moved directory keep watching it.
+     * @param node
+     * @param formerParent
+     */
+    public void moved(FileSystemNode node, Directory formerParent) {
+        publish(formerParent, removal(node, formerParent));
+        added(node);
+    }
+
+    /**
+     * Reports a node that was just renamed in place.
+     */
+    public void renamed(FileSystemNode node, String oldName) {
+        Directory parent = (Directory) node.getParent();
+        publish(parent, event(ChangeEvent.Kind.RENAMED, node, parent, oldName));
+    }
+
+    /**
+     * Reports a file that was just resized in place.
+     */
+    public void resized(File file) {
+        Directory parent = (Directory) file.getParent();
+        publish(parent, event(ChangeEvent.Kind.RESIZED, file, parent, null));
+    }
+
+    private void publish(Directory parent, ChangeEvent event) {
+        for (FileSystemNode dir = parent; dir != null; dir = dir.getParent()) {
+            List<QueuedSubscription> watching = subscriptions.get(dir);
+            if (watching != null) {
+                for (QueuedSubscription subscription : watching) {
+                    if (dir == parent || subscription.isRecursive()) {
+                        subscription.offer(event);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends the subscriptions of a removed directory and of the directories below it, whose parent chain now stops at
+     * the removed directory instead of reaching the root.
+     */
+    private void endSubscriptionsBelow(Directory removed, ChangeEvent event) {
+        List<QueuedSubscription> ended = new ArrayList<>();
+        for (Map.Entry<Directory, List<QueuedSubscription>> entry : subscriptions.entrySet()) {
+            for (FileSystemNode dir = entry.getKey(); dir != null; dir = dir.getParent()) {
+                if (dir == removed) {
+                    ended.addAll(entry.getValue());
+                    break;
+                }
+            }
+        }
+        for (QueuedSubscription subscription : ended) {
+            unsubscribe(subscription);
+            subscription.end(event);
+        }
+    }
+
+    private static ChangeEvent removal(FileSystemNode node, Directory formerParent) {
+        ChangeEvent.Kind kind = node instanceof Directory ? ChangeEvent.Kind.SUBTREE_REMOVED : ChangeEvent.Kind.REMOVED;
+        return event(kind, node, formerParent, null);
+    }
+
+    private static ChangeEvent event(ChangeEvent.Kind kind, FileSystemNode node, Directory parent, String oldName) {
+        if (node instanceof File) {
+            return new ChangeEvent(kind, NodeType.FILE, node.getName(), parent.getName(), oldName,
+                    ((File) node).getSize(), 0, 0);
+        }
+        Directory dir = (Directory) node;
+        return new ChangeEvent(kind, NodeType.DIRECTORY, dir.getName(), parent.getName(), oldName,
+                dir.getTotalSize(), dir.getFileCount(), dir.getDirectoryCount());
+    }
+
+    private ExecutorService executor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    current = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "filesystem-watch-" + THREAD_IDS.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+}
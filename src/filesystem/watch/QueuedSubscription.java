@@ -0,0 +1,140 @@
+package filesystem.watch;
+
+import filesystem.nodes.Directory;
+import filesystem.pipeline.MpscRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription of a ChangeNotifier.
+ *
+ * Mutating threads only offer events to a bounded lock free queue and never wait: an event that finds the queue full
+ * is dropped and counted. A delivery task, scheduled on the executor of the notifier when the first event arrives,
+ * drains the queue in batches and calls the listener, so at most one thread calls the listener at a time and events
+ * that arrive while it runs are delivered together in the next batch.
+ */
+final class QueuedSubscription implements Subscription {
+    private final ChangeNotifier notifier;
+    private final Directory directory;
+    private final boolean recursive;
+    private final ChangeListener listener;
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final MpscRingBuffer<ChangeEvent> queue;
+    // Dropped since the last batch, and since the subscription started
+    private final AtomicLong dropped;
+    private final AtomicLong droppedTotal;
+    // Whether a delivery task is queued or running, it is the only consumer of the queue
+    private final AtomicBoolean scheduled;
+    // Set once the directory is removed, the events already queued are still delivered
+    private volatile boolean ended;
+    private volatile boolean closed;
+
+    QueuedSubscription(ChangeNotifier notifier, Directory directory, boolean recursive, WatchOptions options,
+                 ChangeListener listener, Executor executor) {
+        this.notifier = notifier;
+        this.directory = directory;
+        this.recursive = recursive;
+        this.listener = listener;
+        this.maxBatchSize = options.getMaxBatchSize();
+        this.executor = executor;
+        this.queue = new MpscRingBuffer<>(options.getQueueCapacity());
+        this.dropped = new AtomicLong();
+        this.droppedTotal = new AtomicLong();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    Directory getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    @Override
+    public boolean isActive() {
+        return !closed;
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return droppedTotal.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        notifier.unsubscribe(this);
+    }
+
+    /**
+     * Queues an event without ever blocking.
+     * Time complexity: O(1).
+     */
+    void offer(ChangeEvent event) {
+        if (closed || ended) {
+            return;
+        }
+        if (!queue.offer(event)) {
+            dropped.incrementAndGet();
+            droppedTotal.incrementAndGet();
+        }
+        schedule();
+    }
+
+    /**
+     * Queues the removal of the watched directory, the last event of the subscription.
+     */
+    void end(ChangeEvent event) {
+        offer(event);
+        ended = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        try {
+            while (!closed) {
+                List<ChangeEvent> events = new ArrayList<>();
+                queue.drain(events::add, maxBatchSize);
+                long lost = dropped.getAndSet(0);
+                // Nothing is queued after the end, so an empty queue past it means this is the last batch
+                boolean last = ended && queue.isEmpty();
+                if (events.isEmpty() && lost == 0 && !last) {
+                    break;
+                }
+                if (last) {
+                    // Inactive by the time the listener sees the last batch
+                    closed = true;
+                }
+                call(new ChangeBatch(events, lost, last));
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // An event offered after the queue was found empty but before the flag was cleared would be stranded
+        if (!closed && (!queue.isEmpty() || dropped.get() > 0 || ended)) {
+            schedule();
+        }
+    }
+
+    private void call(ChangeBatch batch) {
+        try {
+            listener.onChanges(batch);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package filesystem.watch;
+
+/**
+ * A watch of a directory, created by FileSystemManager.watch.
+ *
+ * Mutating threads never wait for the listener: events are queued and delivered asynchronously in batches, an event
+ * that finds the queue full is dropped and reported by the next batch (see ChangeBatch). The listener is called by one
+ * thread at a time.
+ *
+ * The subscription follows its directory when it is moved or renamed, and ends by itself once the directory is
+ * deleted, after a last batch holding the SUBTREE_REMOVED event of the directory or of its deleted ancestor.
+ */
+public interface Subscription extends AutoCloseable {
+    boolean isRecursive();
+
+    /**
+     * @return false once closed, or once the last batch of an ended subscription is being delivered
+     */
+    boolean isActive();
+
+    /**
+     * @return The events dropped since the subscription started because its queue was full
+     */
+    long getDroppedEvents();
+
+    /**
+     * Stops the deliveries, the events still queued are discarded. A batch being delivered completes.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,43 @@
+package filesystem.watch;
+
+/**
+ * Settings of a subscription. Events wait for the listener in a queue of the given capacity, an event that finds the
+ * queue full is dropped and counted instead of blocking the mutation, and the listener receives up to maxBatchSize
+ * events per batch.
+ */
+public class WatchOptions {
+    private final int queueCapacity;
+    private final int maxBatchSize;
+
+    /**
+     * @param queueCapacity Number of events waiting for the listener before new ones are dropped, rounded up to a
+     *                      power of two
+     * @param maxBatchSize Maximum number of events passed to the listener at once
+     */
+    public WatchOptions(int queueCapacity, int maxBatchSize) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException(String.format("queueCapacity must be positive: %d", queueCapacity));
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException(String.format("maxBatchSize must be positive: %d", maxBatchSize));
+        }
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 16K waiting events, batches of up to 512 events.
+     * @return WatchOptions
+     */
+    public static WatchOptions defaults() {
+        return new WatchOptions(16 * 1024, 512);
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+}
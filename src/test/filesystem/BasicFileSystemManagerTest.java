@@ -3,9 +3,24 @@ package test.filesystem;
 import filesystem.exceptions.FileSystemException;
 import filesystem.exceptions.manager.DirectoryNotFoundException;
 import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.nodes.NodeType;
 import org.junit.Before;
 import org.junit.Test;
 import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import filesystem.operations.FileSystemSnapshot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
 import static org.junit.Assert.*;
 
 public class BasicFileSystemManagerTest {
@@ -70,6 +85,35 @@ public class BasicFileSystemManagerTest {
         assertEquals("large.jpg", fileSystemManager.getBiggestFile());
     }
 
+    @Test
+    public void testBiggestFileAfterDelete() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+
+        fileSystemManager.addFile("Documents", "small.txt", 100);
+        fileSystemManager.addFile("Work", "large.jpg", 6400);
+        fileSystemManager.addFile("Documents", "medium.doc", 1000);
+        fileSystemManager.addFile("Work", "tiny.txt", 10);
+
+        fileSystemManager.delete("large.jpg");
+        assertEquals("medium.doc", fileSystemManager.getBiggestFile());
+
+        fileSystemManager.addFile("Work", "huge.iso", 9000);
+        assertEquals("huge.iso", fileSystemManager.getBiggestFile());
+
+        // Deleting a directory hides all of its files from the size index
+        fileSystemManager.delete("Work");
+        assertEquals("medium.doc", fileSystemManager.getBiggestFile());
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testGetBiggestFileEmpty() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "small.txt", 100);
+        fileSystemManager.delete("Documents");
+        fileSystemManager.getBiggestFile(); // Should throw exception
+    }
+
     @Test
     public void testFileDelete() throws FileSystemException {
         // Set up directory structure
@@ -180,6 +224,173 @@ public class BasicFileSystemManagerTest {
         fileSystemManager.showFileSystem();
     }
 
+    @Test
+    public void testDirectoryAggregates() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addDir("Work", "Old");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("Old", "archive.zip", 2000);
+
+        assertEquals(3300, fileSystemManager.getDirectorySize("root"));
+        assertEquals(3300, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(2800, fileSystemManager.getDirectorySize("Work"));
+        assertEquals(3, fileSystemManager.getFileCount("Documents"));
+        assertEquals(2, fileSystemManager.getDirectoryCount("Documents"));
+        assertEquals(3, fileSystemManager.getDirectoryCount("root"));
+
+        fileSystemManager.delete("project.docx");
+        assertEquals(2500, fileSystemManager.getDirectorySize("root"));
+        assertEquals(2, fileSystemManager.getFileCount("root"));
+
+        fileSystemManager.delete("Work");
+        assertEquals(500, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getFileCount("Documents"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("Documents"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("root"));
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testDirectorySizeOfFile() throws FileSystemException {
+        fileSystemManager.addFile("root", "resume.docx", 500);
+        fileSystemManager.getDirectorySize("resume.docx"); // Should throw exception
+    }
+
+    @Test
+    public void testBiggestFileUnderDirectory() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addDir("root", "Pictures");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("Work", "notes.txt", 20);
+        fileSystemManager.addFile("Pictures", "vacation.jpg", 6400);
+
+        assertEquals("vacation.jpg", fileSystemManager.getBiggestFile("root"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile("Documents"));
+        assertEquals(List.of("project.docx", "resume.docx", "notes.txt"),
+                fileSystemManager.getBiggestFiles("Documents", 5));
+        assertEquals(List.of("vacation.jpg", "project.docx"), fileSystemManager.getBiggestFiles("root", 2));
+
+        fileSystemManager.delete("project.docx");
+        assertEquals("resume.docx", fileSystemManager.getBiggestFile("Documents"));
+        assertEquals("notes.txt", fileSystemManager.getBiggestFile("Work"));
+
+        fileSystemManager.delete("Work");
+        assertEquals(List.of("vacation.jpg", "resume.docx"), fileSystemManager.getBiggestFiles("root", 5));
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testBiggestFileUnderEmptyDirectory() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("root", "resume.docx", 500);
+        fileSystemManager.getBiggestFile("Documents"); // Should throw exception
+    }
+
+    @Test
+    public void testSizeQueries() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "a.txt", 100);
+        fileSystemManager.addFile("Documents", "b.txt", 400);
+        fileSystemManager.addFile("root", "c.txt", 300);
+        fileSystemManager.addFile("root", "d.txt", 200);
+
+        assertEquals(List.of("b.txt", "c.txt"), fileSystemManager.getBiggestFiles(2));
+        assertEquals(100, fileSystemManager.getFileSizeAtRank(0));
+        assertEquals(400, fileSystemManager.getFileSizeAtRank(3));
+        assertEquals(200, fileSystemManager.getFileSizePercentile(50));
+        assertEquals(400, fileSystemManager.getFileSizePercentile(99));
+        assertEquals(100, fileSystemManager.getFileSizePercentile(0));
+
+        List<String> inRange = new ArrayList<>();
+        fileSystemManager.getFilesInSizeRange(200, 300).forEachRemaining(inRange::add);
+        assertEquals(List.of("d.txt", "c.txt"), inRange);
+
+        fileSystemManager.delete("Documents");
+        assertEquals(List.of("c.txt", "d.txt"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(300, fileSystemManager.getFileSizeAtRank(1));
+    }
+
+    @Test
+    public void testSizeQueriesMatchSortedSizes() throws FileSystemException {
+        Random random = new Random(42);
+        int files = 2_000;
+        long[] sizes = new long[files];
+        for (int i = 0; i < files; i++) {
+            sizes[i] = 1 + random.nextInt(500);
+            fileSystemManager.addFile("root", "f" + i, (int) sizes[i]);
+        }
+        // Delete every third file
+        List<Long> remaining = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            if (i % 3 == 0) {
+                fileSystemManager.delete("f" + i);
+            } else {
+                remaining.add(sizes[i]);
+            }
+        }
+        long[] sorted = remaining.stream().mapToLong(Long::longValue).sorted().toArray();
+
+        for (int rank = 0; rank < sorted.length; rank += 17) {
+            assertEquals(sorted[rank], fileSystemManager.getFileSizeAtRank(rank));
+        }
+        long expectedInRange = Arrays.stream(sorted).filter(size -> size >= 100 && size <= 200).count();
+        long inRange = 0;
+        long previous = 0;
+        for (Iterator<String> names = fileSystemManager.getFilesInSizeRange(100, 200); names.hasNext(); inRange++) {
+            long size = fileSystemManager.getFileSize(names.next());
+            assertTrue(size >= previous && size >= 100 && size <= 200);
+            previous = size;
+        }
+        assertEquals(expectedInRange, inRange);
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testFileSizeAtRankOutOfBounds() throws FileSystemException {
+        fileSystemManager.addFile("root", "a.txt", 100);
+        fileSystemManager.getFileSizeAtRank(1); // Should throw exception
+    }
+
+    @Test
+    public void testShowFileSystemToAppendable() throws FileSystemException, IOException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+
+        StringBuilder out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, BasicFileSystemManager.UNLIMITED_DEPTH, BasicFileSystemManager.UNLIMITED_NODES);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("root ["));
+        assertTrue(lines[1].startsWith("   Documents ["));
+        assertTrue(lines[2].startsWith("      Work ["));
+        assertTrue(lines[3].startsWith("         project.docx [size=800 bytes"));
+    }
+
+    @Test
+    public void testShowFileSystemLimits() throws FileSystemException, IOException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+
+        // Depth limit: children of Work are hidden behind an ellipsis
+        StringBuilder out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, 2, BasicFileSystemManager.UNLIMITED_NODES);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("         ...", lines[3]);
+
+        // Node limit: only the root and Documents are printed
+        out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, BasicFileSystemManager.UNLIMITED_DEPTH, 2);
+        lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("   Documents ["));
+        assertEquals("      ...", lines[2]);
+    }
+
     @Test
     public void testGetFileSize() throws FileSystemException {
         fileSystemManager.addDir("root", "Documents");
@@ -204,4 +415,607 @@ public class BasicFileSystemManagerTest {
         String fileName = "a".repeat(32);
         fileSystemManager.addFile("root", fileName, -123);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNameSearch() throws FileSystemException {
+        fileSystemManager.addDir("root", "logs");
+        fileSystemManager.addDir("root", "tmp_dir");
+        fileSystemManager.addFile("logs", "app.log", 10);
+        fileSystemManager.addFile("logs", "db.log", 20);
+        fileSystemManager.addFile("tmp_dir", "tmp_1.log", 30);
+        fileSystemManager.addFile("tmp_dir", "tmp_2.txt", 40);
+        fileSystemManager.addFile("root", "log.txt", 50);
+
+        assertEquals(List.of("tmp_1.log", "tmp_2.txt", "tmp_dir"), toList(fileSystemManager.findByPrefix("tmp_", null)));
+        assertEquals(List.of("tmp_1.log", "db.log", "app.log"), toList(fileSystemManager.findBySuffix(".log", null)));
+        assertEquals(List.of("tmp_1.log"), toList(fileSystemManager.findByGlob("tmp_*.log", null)));
+        assertEquals(List.of("tmp_1.log", "tmp_2.txt"), toList(fileSystemManager.findByGlob("tmp_?.*", null)));
+        assertEquals(List.of("log.txt", "logs"), toList(fileSystemManager.findByGlob("*log*", null)).subList(2, 4));
+        assertEquals(List.of("log.txt"), toList(fileSystemManager.findByGlob("log.txt", null)));
+        assertFalse(fileSystemManager.findByPrefix("root", null).hasNext());
+
+        // Deleted names leave the index, including the whole subtree of a deleted directory
+        fileSystemManager.delete("tmp_dir");
+        fileSystemManager.delete("db.log");
+        assertFalse(fileSystemManager.findByPrefix("tmp_", null).hasNext());
+        assertEquals(List.of("app.log"), toList(fileSystemManager.findBySuffix(".log", null)));
+    }
+
+    @Test
+    public void testNameSearchPages() throws FileSystemException {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            String name = String.format("file_%03d.dat", i);
+            fileSystemManager.addFile("root", name, i + 1);
+            fileSystemManager.addFile("root", String.format("other_%03d.dat", i), i + 1);
+            expected.add(name);
+        }
+
+        for (String pattern : List.of("file_*", "*.dat", "f*_?2?.dat")) {
+            List<String> pages = new ArrayList<>();
+            String cursor = null;
+            while (true) {
+                Iterator<String> page = fileSystemManager.findByGlob(pattern, cursor);
+                int taken = 0;
+                while (taken < 32 && page.hasNext()) {
+                    cursor = page.next();
+                    pages.add(cursor);
+                    taken++;
+                }
+                if (taken < 32) {
+                    break;
+                }
+            }
+            assertEquals(toList(fileSystemManager.findByGlob(pattern, null)), pages);
+        }
+        List<String> pages = new ArrayList<>();
+        String cursor = null;
+        do {
+            Iterator<String> page = fileSystemManager.findBySuffix("9.dat", cursor);
+            cursor = null;
+            for (int taken = 0; taken < 10 && page.hasNext(); taken++) {
+                cursor = page.next();
+                pages.add(cursor);
+            }
+        } while (cursor != null);
+        assertEquals(50, pages.size());
+        assertEquals(expected, toList(fileSystemManager.findByPrefix("file_", null)));
+        assertEquals(expected.subList(100, 250), toList(fileSystemManager.findByPrefix("file_", "file_099.dat")));
+    }
+
+    @Test
+    public void testLazyDirectoryDelete() throws FileSystemException {
+        fileSystemManager.addDir("root", "keep");
+        fileSystemManager.addFile("keep", "kept.txt", 10);
+        fileSystemManager.addDir("root", "big");
+        fileSystemManager.addDir("big", "inner");
+        for (int i = 0; i < 5_000; i++) {
+            fileSystemManager.addFile(i % 2 == 0 ? "big" : "inner", "big_" + i, 100 + i);
+        }
+
+        fileSystemManager.delete("big");
+        // Only the first batch of the subtree is reclaimed so far, the rest is hidden
+        assertTrue(fileSystemManager.reclaimDeleted(0));
+        assertEquals("kept.txt", fileSystemManager.getBiggestFile());
+        assertEquals(List.of("kept.txt"), fileSystemManager.getBiggestFiles(3));
+        assertEquals(List.of("kept.txt"), fileSystemManager.getBiggestFiles("root", 3));
+        assertEquals("kept.txt", fileSystemManager.getBiggestFile("root"));
+        assertFalse(fileSystemManager.getFilesInSizeRange(100, 10_000).hasNext());
+        assertFalse(fileSystemManager.findByPrefix("big_", null).hasNext());
+        assertEquals(10, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getFileCount("root"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("root"));
+        for (String name : List.of("big", "inner", "big_1", "big_4999")) {
+            try {
+                fileSystemManager.getFileSize(name);
+                fail("Expected FileSystemException was not thrown for " + name);
+            } catch (FileSystemException e) {
+                // Expected
+            }
+        }
+
+        // Deleted names can be used again before they are reclaimed
+        fileSystemManager.addDir("root", "inner");
+        fileSystemManager.addFile("inner", "big_7", 7);
+        assertEquals(7, fileSystemManager.getFileSize("big_7"));
+        assertEquals(List.of("big_7"), toList(fileSystemManager.findByPrefix("big_", null)));
+        assertTrue(fileSystemManager.reclaimDeleted(0));
+
+        // Ranks are bounded by the live files and never reclaim, the smallest and biggest are exact
+        assertEquals(7, fileSystemManager.getFileSizeAtRank(0));
+        assertEquals(10, fileSystemManager.getFileSizeAtRank(1));
+        assertEquals(7, fileSystemManager.getFileSizePercentile(50));
+        assertEquals(10, fileSystemManager.getFileSizePercentile(100));
+        try {
+            fileSystemManager.getFileSizeAtRank(2);
+            fail("Expected FileSystemException was not thrown");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        assertTrue(fileSystemManager.reclaimDeleted(0));
+
+        while (fileSystemManager.reclaimDeleted(1_000)) {
+            // Reclaim everything
+        }
+        assertEquals(7, fileSystemManager.getFileSizeAtRank(0));
+        assertEquals(List.of("kept.txt", "big_7"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(7, fileSystemManager.getFileSize("big_7"));
+        assertEquals(List.of("big_7"), fileSystemManager.getBiggestFiles("inner", 5));
+    }
+
+    @Test
+    public void testLazyDeleteIsReclaimedByMutations() throws FileSystemException {
+        fileSystemManager.addDir("root", "big");
+        for (int i = 0; i < 1_000; i++) {
+            fileSystemManager.addFile("big", "f" + i, i + 1);
+        }
+        fileSystemManager.delete("big");
+        int mutations = 0;
+        while (fileSystemManager.reclaimDeleted(0)) {
+            fileSystemManager.addFile("root", "g" + mutations, 1);
+            mutations++;
+        }
+        // Every mutation frees a bounded batch
+        assertTrue(mutations > 1);
+        assertEquals(mutations, fileSystemManager.getFileCount("root"));
+        assertEquals(1, fileSystemManager.getFileSize(fileSystemManager.getBiggestFile()));
+    }
+
+    @Test
+    public void testSnapshotIsUnchangedByLaterMutations() throws FileSystemException, IOException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addFile("docs", "a.txt", 100);
+        fileSystemManager.addDir("docs", "old");
+        fileSystemManager.addFile("old", "b.txt", 300);
+        fileSystemManager.addFileByPath("/c.txt", 50);
+        fileSystemManager.addFileByPath("/docs/old/c.txt", 60);
+
+        FileSystemSnapshot snapshot = fileSystemManager.snapshot();
+        String printed = print(snapshot);
+
+        fileSystemManager.addFile("docs", "huge.bin", 1_000);
+        fileSystemManager.delete("old");
+        fileSystemManager.delete("a.txt");
+        fileSystemManager.addDir("root", "old");
+
+        assertEquals(printed, print(snapshot));
+        assertEquals("b.txt", snapshot.getBiggestFile());
+        assertEquals(List.of("b.txt", "a.txt", "c.txt"), snapshot.getBiggestFiles(3));
+        assertEquals(List.of("b.txt", "a.txt"), snapshot.getBiggestFiles("docs", 2));
+        assertEquals("b.txt", snapshot.getBiggestFile("old"));
+        assertEquals(100, snapshot.getFileSize("a.txt"));
+        assertEquals(460, snapshot.getDirectorySize("docs"));
+        assertEquals(3, snapshot.getFileCount("docs"));
+        assertEquals(1, snapshot.getDirectoryCount("docs"));
+        assertEquals(510, snapshot.getDirectorySize("root"));
+        assertEquals(60, snapshot.getFileSizeAtRank(1));
+        assertEquals(List.of("a.txt", "b.txt"), toList(snapshot.getFilesInSizeRange(100, 300)));
+        assertEquals(List.of("old"), toList(snapshot.findByPrefix("ol", null)));
+        assertEquals(List.of("a.txt", "b.txt", "c.txt"), toList(snapshot.findByGlob("?.txt", null)));
+        try {
+            // Held by two files
+            snapshot.getFileSize("c.txt");
+            fail("Expected FileSystemException was not thrown");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        try {
+            snapshot.addFile("root", "d.txt", 1);
+            fail("Expected FileSystemException was not thrown");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        // The manager itself moved on, and a new snapshot sees it
+        assertEquals("huge.bin", fileSystemManager.getBiggestFile());
+        FileSystemSnapshot later = fileSystemManager.snapshot();
+        assertEquals(print(fileSystemManager), print(later));
+        assertEquals(0, later.getFileCount("old"));
+        assertEquals(List.of("huge.bin", "c.txt"), later.getBiggestFiles(5));
+    }
+
+    @Test
+    public void testSnapshotsMatchTheManagerAtTheirTime() throws FileSystemException, IOException {
+        Random random = new Random(13);
+        List<String> dirs = new ArrayList<>(List.of("root"));
+        List<FileSystemSnapshot> snapshots = new ArrayList<>();
+        List<String> expectedPrints = new ArrayList<>();
+        List<List<String>> expectedBiggest = new ArrayList<>();
+        int next = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                int operation = random.nextInt(10);
+                int parent = random.nextInt(dirs.size());
+                try {
+                    if (operation < 2) {
+                        String dir = "d" + next++;
+                        fileSystemManager.addDir(dirs.get(parent), dir);
+                        dirs.add(dir);
+                    } else if (operation < 9 || parent == 0) {
+                        fileSystemManager.addFile(dirs.get(parent), "f" + next++, 1 + random.nextInt(1_000));
+                    } else {
+                        fileSystemManager.delete(dirs.get(parent));
+                        dirs.remove(parent);
+                    }
+                } catch (FileSystemException e) {
+                    // Deleted with one of its ancestors
+                    dirs.remove(parent);
+                }
+            }
+            snapshots.add(fileSystemManager.snapshot());
+            expectedPrints.add(print(fileSystemManager));
+            expectedBiggest.add(fileSystemManager.getBiggestFiles(20));
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertEquals(expectedPrints.get(i), print(snapshots.get(i)));
+            assertEquals(expectedBiggest.get(i), snapshots.get(i).getBiggestFiles(20));
+        }
+    }
+
+    @Test
+    public void testMoveAndRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.addFile("work", "report.pdf", 700);
+        fileSystemManager.addFile("work", "notes.txt", 30);
+        fileSystemManager.addFile("docs", "cv.docx", 200);
+        fileSystemManager.addFile("archive", "old.zip", 100);
+
+        fileSystemManager.move("work", "archive");
+        assertEquals(200, fileSystemManager.getDirectorySize("docs"));
+        assertEquals(1, fileSystemManager.getFileCount("docs"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("docs"));
+        assertEquals(830, fileSystemManager.getDirectorySize("archive"));
+        assertEquals(3, fileSystemManager.getFileCount("archive"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("archive"));
+        assertEquals(1030, fileSystemManager.getDirectorySize("root"));
+        assertEquals(List.of("report.pdf", "old.zip", "notes.txt"), fileSystemManager.getBiggestFiles("archive", 5));
+        assertEquals(List.of("cv.docx"), fileSystemManager.getBiggestFiles("docs", 5));
+
+        fileSystemManager.move("report.pdf", "docs");
+        assertEquals("report.pdf", fileSystemManager.getBiggestFile("docs"));
+        assertEquals("old.zip", fileSystemManager.getBiggestFile("archive"));
+        assertEquals(900, fileSystemManager.getDirectorySize("docs"));
+        assertEquals(30, fileSystemManager.getDirectorySize("work"));
+
+        fileSystemManager.rename("report.pdf", "summary.pdf");
+        fileSystemManager.rename("archive", "backup");
+        assertEquals(700, fileSystemManager.getFileSize("summary.pdf"));
+        assertEquals("summary.pdf", fileSystemManager.getBiggestFile());
+        assertEquals(130, fileSystemManager.getDirectorySize("backup"));
+        assertEquals(700, fileSystemManager.getFileSizeByPath("/docs/summary.pdf"));
+        assertEquals(30, fileSystemManager.getFileSizeByPath("/backup/work/notes.txt"));
+        assertEquals(List.of("summary.pdf"), toList(fileSystemManager.findByPrefix("su", null)));
+        assertEquals(List.of(), toList(fileSystemManager.findByPrefix("rep", null)));
+        // The old names are free again
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.addFile("archive", "report.pdf", 1);
+        assertEquals(4, fileSystemManager.getDirectoryCount("root"));
+    }
+
+    @Test
+    public void testInvalidMoveAndRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addFile("work", "notes.txt", 30);
+        try {
+            fileSystemManager.move("docs", "work");
+            fail("Expected FileSystemException was not thrown for a move into its own subtree");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.move("work", "notes.txt");
+            fail("Expected DirectoryNotFoundException was not thrown for a move under a file");
+        } catch (DirectoryNotFoundException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.rename("notes.txt", "work");
+            fail("Expected NameAlreadyExistsException was not thrown for a taken name");
+        } catch (NameAlreadyExistsException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.rename("root", "top");
+            fail("Expected FileSystemException was not thrown for the root");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        assertEquals(30, fileSystemManager.getDirectorySize("docs"));
+        assertEquals(30, fileSystemManager.getFileSizeByPath("/docs/work/notes.txt"));
+    }
+
+    @Test
+    public void testMoveAfterLazyDelete() throws FileSystemException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addDir("work", "tmp");
+        fileSystemManager.addFile("tmp", "big.bin", 900);
+        fileSystemManager.addFile("work", "notes.txt", 30);
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.delete("tmp");
+
+        fileSystemManager.move("work", "archive");
+        assertEquals(List.of("notes.txt"), fileSystemManager.getBiggestFiles("archive", 5));
+        assertEquals(30, fileSystemManager.getDirectorySize("archive"));
+        assertEquals(0, fileSystemManager.getDirectorySize("docs"));
+    }
+
+    @Test
+    public void testMoveLeavesPendingDeletesToTheReclaimer() throws FileSystemException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addDir("work", "tmp");
+        fileSystemManager.addFile("tmp", "big.bin", 900);
+        fileSystemManager.addFile("work", "notes.txt", 30);
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.addDir("root", "cache");
+        for (int i = 0; i < 1000; i++) {
+            fileSystemManager.addFile("cache", "c" + i, 1 + i);
+        }
+        fileSystemManager.delete("cache");
+        fileSystemManager.delete("tmp");
+
+        // The move never visits the subtree, the deletes of tmp and cache both stay pending and hidden
+        fileSystemManager.move("work", "archive");
+        assertTrue(fileSystemManager.reclaimDeleted(1));
+        assertEquals(List.of("notes.txt"), fileSystemManager.getBiggestFiles("archive", 5));
+        assertEquals(List.of("notes.txt"), fileSystemManager.getBiggestFiles(5));
+
+        while (fileSystemManager.reclaimDeleted(100)) {
+            // Reclaim everything
+        }
+        fileSystemManager.move("archive", "docs");
+        assertEquals(List.of("notes.txt"), fileSystemManager.getBiggestFiles("docs", 5));
+        assertEquals(30, fileSystemManager.getDirectorySize("root"));
+        assertEquals(30, fileSystemManager.getFileSizeAtRank(0));
+    }
+
+    @Test
+    public void testSubtreeTopKMatchesAScanAfterRandomChanges() throws FileSystemException {
+        Random random = new Random(42);
+        List<String> dirs = new ArrayList<>(List.of("root"));
+        List<String> files = new ArrayList<>();
+        Map<String, String> parents = new HashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
+        Set<Long> usedSizes = new HashSet<>();
+        for (int step = 0; step < 3000; step++) {
+            int op = random.nextInt(10);
+            if (op < 2) {
+                String dir = "d" + step;
+                String parent = dirs.get(random.nextInt(dirs.size()));
+                fileSystemManager.addDir(parent, dir);
+                dirs.add(dir);
+                parents.put(dir, parent);
+            } else if (op < 6) {
+                String file = "f" + step;
+                String parent = dirs.get(random.nextInt(dirs.size()));
+                long size = uniqueSize(random, usedSizes);
+                fileSystemManager.addFile(parent, file, (int) size);
+                files.add(file);
+                parents.put(file, parent);
+                sizes.put(file, size);
+            } else if (op == 6 && !files.isEmpty()) {
+                String file = files.get(random.nextInt(files.size()));
+                long size = uniqueSize(random, usedSizes);
+                fileSystemManager.resize(file, size);
+                sizes.put(file, size);
+            } else if (op == 7 && dirs.size() > 1) {
+                String dir = dirs.get(1 + random.nextInt(dirs.size() - 1));
+                String newParent = dirs.get(random.nextInt(dirs.size()));
+                if (isUnder(newParent, dir, parents)) {
+                    continue;
+                }
+                fileSystemManager.move(dir, newParent);
+                parents.put(dir, newParent);
+            } else if (op == 8 && !files.isEmpty()) {
+                String file = files.get(random.nextInt(files.size()));
+                String newParent = dirs.get(random.nextInt(dirs.size()));
+                fileSystemManager.move(file, newParent);
+                parents.put(file, newParent);
+            } else if (op == 9 && dirs.size() > 1 && random.nextInt(4) == 0) {
+                String deleted = dirs.get(1 + random.nextInt(dirs.size() - 1));
+                fileSystemManager.delete(deleted);
+                dirs.removeIf(dir -> isUnder(dir, deleted, parents));
+                files.removeIf(file -> isUnder(file, deleted, parents));
+            }
+        }
+
+        for (String dir : dirs) {
+            List<String> expected = new ArrayList<>();
+            for (String file : files) {
+                if (isUnder(file, dir, parents)) {
+                    expected.add(file);
+                }
+            }
+            expected.sort((a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+            List<String> top = expected.subList(0, Math.min(5, expected.size()));
+            assertEquals(top, fileSystemManager.getBiggestFiles(dir, 5));
+            if (!expected.isEmpty()) {
+                assertEquals(expected.get(0), fileSystemManager.getBiggestFile(dir));
+            }
+        }
+    }
+
+    private static long uniqueSize(Random random, Set<Long> usedSizes) {
+        long size;
+        do {
+            size = 1 + random.nextInt(1_000_000);
+        } while (!usedSizes.add(size));
+        return size;
+    }
+
+    private static boolean isUnder(String name, String ancestor, Map<String, String> parents) {
+        for (String current = name; current != null; current = parents.get(current)) {
+            if (current.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSnapshotSkipsPendingDeletesWithoutReclaimingThem() throws FileSystemException {
+        fileSystemManager.addDir("root", "keep");
+        fileSystemManager.addFile("keep", "kept.txt", 10);
+        fileSystemManager.addDir("root", "big");
+        for (int i = 0; i < 1_000; i++) {
+            fileSystemManager.addFile("big", "big_" + i, 100 + i);
+        }
+        FileSystemSnapshot before = fileSystemManager.snapshot();
+
+        fileSystemManager.delete("big");
+        FileSystemSnapshot after = fileSystemManager.snapshot();
+        // Taking the snapshot left the delete to the reclaimer
+        assertTrue(fileSystemManager.reclaimDeleted(0));
+        assertEquals("kept.txt", after.getBiggestFile());
+        assertEquals(List.of("kept.txt"), after.getBiggestFiles(3));
+        assertFalse(after.getFilesInSizeRange(100, 10_000).hasNext());
+        assertFalse(after.findByPrefix("big_", null).hasNext());
+        assertEquals(FileSystemManager.NO_SIZE, after.tryGetFileSize("big_1"));
+        assertEquals(NodeType.NONE, after.nodeType("big"));
+        assertEquals(10, after.getFileSizeAtRank(0));
+        assertEquals(10, after.getFileSizePercentile(50));
+        assertEquals(10, after.getDirectorySize("root"));
+        try {
+            after.getFileSize("big_1");
+            fail("Expected FileSystemException was not thrown");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        try {
+            after.getFileSizeAtRank(1);
+            fail("Expected FileSystemException was not thrown");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        // The snapshot taken before the delete still sees the subtree
+        assertEquals("big_999", before.getBiggestFile());
+        assertEquals(101, before.getFileSize("big_1"));
+
+        while (fileSystemManager.reclaimDeleted(100)) {
+            // Reclaim everything
+        }
+        fileSystemManager.addDir("root", "big");
+        fileSystemManager.addFile("big", "big_1", 5);
+        FileSystemSnapshot reused = fileSystemManager.snapshot();
+        assertEquals(5, reused.getFileSize("big_1"));
+        assertEquals(List.of("kept.txt", "big_1"), reused.getBiggestFiles(5));
+        assertEquals(FileSystemManager.NO_SIZE, after.tryGetFileSize("big_1"));
+        assertEquals(101, before.getFileSize("big_1"));
+        assertEquals(1000, before.getFileCount("big"));
+    }
+
+    @Test
+    public void testSnapshotIsUnchangedByMoveAndRename() throws FileSystemException, IOException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.addFile("work", "report.pdf", 700);
+        fileSystemManager.addFile("docs", "cv.docx", 200);
+
+        FileSystemSnapshot snapshot = fileSystemManager.snapshot();
+        String printed = print(snapshot);
+
+        fileSystemManager.move("work", "archive");
+        fileSystemManager.rename("report.pdf", "summary.pdf");
+        fileSystemManager.rename("docs", "papers");
+
+        assertEquals(printed, print(snapshot));
+        assertEquals("report.pdf", snapshot.getBiggestFile());
+        assertEquals(900, snapshot.getDirectorySize("docs"));
+        assertEquals(0, snapshot.getDirectorySize("archive"));
+        assertEquals(print(fileSystemManager), print(fileSystemManager.snapshot()));
+        assertEquals("summary.pdf", fileSystemManager.snapshot().getBiggestFile("archive"));
+        assertEquals(200, fileSystemManager.snapshot().getDirectorySize("papers"));
+    }
+
+    @Test
+    public void testSnapshotSizeQueriesAfterRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "d");
+        fileSystemManager.addFile("d", "a", 100);
+        fileSystemManager.addFile("d", "b", 200);
+        FileSystemSnapshot before = fileSystemManager.snapshot();
+        fileSystemManager.rename("b", "c");
+
+        FileSystemSnapshot after = fileSystemManager.snapshot();
+        assertEquals("c", after.getBiggestFile());
+        assertEquals(List.of("c", "a"), after.getBiggestFiles(10));
+        assertEquals(fileSystemManager.getBiggestFiles(10), after.getBiggestFiles(10));
+        List<String> inRange = new ArrayList<>();
+        after.getFilesInSizeRange(150, 250).forEachRemaining(inRange::add);
+        assertEquals(List.of("c"), inRange);
+        assertEquals(List.of("b", "a"), before.getBiggestFiles(10));
+    }
+
+    @Test
+    public void testLookupsWithoutExceptions() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "report.pdf", 700);
+
+        assertEquals(700, fileSystemManager.tryGetFileSize("report.pdf"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("Work"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("missing.txt"));
+        assertEquals(NodeType.FILE, fileSystemManager.nodeType("report.pdf"));
+        assertEquals(NodeType.DIRECTORY, fileSystemManager.nodeType("root"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("missing.txt"));
+        assertTrue(fileSystemManager.exists("Work"));
+
+        // The subtree of a deleted directory is dead before it is reclaimed
+        fileSystemManager.delete("Documents");
+        assertFalse(fileSystemManager.exists("Work"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("report.pdf"));
+
+        // A shared name doesn't designate a single node
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/b");
+        fileSystemManager.addFileByPath("/a/notes.txt", 10);
+        fileSystemManager.addFileByPath("/b/notes.txt", 20);
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("notes.txt"));
+        fileSystemManager.delete("b");
+        assertEquals(10, fileSystemManager.tryGetFileSize("notes.txt"));
+    }
+
+    @Test
+    public void testExceptionsWithoutStackTraces() throws FileSystemException {
+        FileSystemException.setStackTraces(false);
+        try {
+            fileSystemManager.getFileSize("missing.txt");
+            fail("A missing file has no size");
+        } catch (FileSystemException e) {
+            assertEquals(0, e.getStackTrace().length);
+            // The message is only formatted now
+            assertEquals("Node not found: missing.txt", e.getMessage());
+        } finally {
+            FileSystemException.setStackTraces(true);
+        }
+        try {
+            fileSystemManager.getDirectorySize("missing");
+            fail("A missing directory has no size");
+        } catch (DirectoryNotFoundException e) {
+            assertTrue(e.getStackTrace().length > 0);
+            assertEquals("Directory not found: missing", e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the whole tree with the lines sorted, the managers don't list the children of a directory in the same order.
+     */
+    private static String print(FileSystemManager manager) throws IOException {
+        StringBuilder out = new StringBuilder();
+        manager.showFileSystem(out, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES);
+        String[] lines = out.toString().split("\n");
+        Arrays.sort(lines);
+        return String.join("\n", lines);
+    }
+
+    private static List<String> toList(Iterator<String> names) {
+        List<String> list = new ArrayList<>();
+        names.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,151 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidFileSizeException;
+import filesystem.exceptions.persistence.PersistenceException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.BulkLoader;
+import filesystem.persistence.Manifest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bulk-loader-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testParentsAfterChildren() throws FileSystemException {
+        BulkLoader loader = new BulkLoader(6);
+        loader.file("Work", "project.docx", 800);
+        loader.file("Documents", "resume.docx", 500);
+        loader.directory("Documents", "Work");
+        loader.file("Pictures", "vacation.jpg", 6400);
+        loader.directory("root", "Documents");
+        loader.directory("root", "Pictures");
+        BasicFileSystemManager fileSystemManager = loader.build();
+
+        assertEquals("vacation.jpg", fileSystemManager.getBiggestFile());
+        assertEquals(800, fileSystemManager.getFileSize("project.docx"));
+        assertEquals(1300, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(3, fileSystemManager.getDirectoryCount("root"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile("Documents"));
+        assertEquals(List.of("vacation.jpg", "project.docx", "resume.docx"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(800, fileSystemManager.getFileSizePercentile(50));
+
+        // The loaded manager is a regular one
+        fileSystemManager.addFile("Work", "notes.txt", 10_000);
+        fileSystemManager.delete("Pictures");
+        assertEquals("notes.txt", fileSystemManager.getBiggestFile());
+        assertEquals(3, fileSystemManager.getFileCount("root"));
+    }
+
+    @Test
+    public void testSortBySizeKeepsArrivalOrderOfEqualSizes() throws FileSystemException {
+        BulkLoader loader = new BulkLoader(0);
+        long[] sizes = {70_000, 5, 1L << 40, 5, 65_536, 1, 70_000};
+        for (int i = 0; i < sizes.length; i++) {
+            loader.file("root", "f" + i, sizes[i]);
+        }
+        BasicFileSystemManager fileSystemManager = loader.build();
+
+        assertEquals(List.of("f2", "f6", "f0", "f4", "f3", "f1", "f5"), fileSystemManager.getBiggestFiles(10));
+        assertEquals(1, fileSystemManager.getFileSizeAtRank(0));
+        assertEquals(1L << 40, fileSystemManager.getFileSizeAtRank(6));
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testDuplicateName() throws FileSystemException {
+        BulkLoader loader = new BulkLoader(2);
+        loader.directory("root", "Documents");
+        loader.file("Documents", "Documents", 10); // Should throw exception
+    }
+
+    @Test(expected = InvalidFileSizeException.class)
+    public void testInvalidSize() throws FileSystemException {
+        new BulkLoader(1).file("root", "empty.txt", 0); // Should throw exception
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testParentIsAFile() throws FileSystemException {
+        BulkLoader loader = new BulkLoader(2);
+        loader.file("root", "resume.docx", 500);
+        loader.file("resume.docx", "notes.txt", 100);
+        loader.build(); // Should throw exception
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testCycleNeverReachesTheRoot() throws FileSystemException {
+        BulkLoader loader = new BulkLoader(3);
+        loader.directory("b", "a");
+        loader.directory("a", "b");
+        loader.file("a", "lost.txt", 10);
+        loader.build(); // Should throw exception
+    }
+
+    @Test
+    public void testCsvManifest() throws IOException, FileSystemException {
+        Path manifest = directory.resolve("inventory.csv");
+        Files.writeString(manifest, String.join("\n",
+                "# parent,name,size",
+                "Documents,\"a,b.txt\",120",
+                "root,Documents,",
+                "Documents,\"say \"\"hi\"\".txt\",30",
+                ""));
+        BasicFileSystemManager fileSystemManager = BulkLoader.loadCsv(manifest, 3);
+
+        assertEquals(120, fileSystemManager.getFileSize("a,b.txt"));
+        assertEquals(30, fileSystemManager.getFileSize("say \"hi\".txt"));
+        assertEquals(150, fileSystemManager.getDirectorySize("Documents"));
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testMalformedCsvManifest() throws IOException, FileSystemException {
+        Path manifest = directory.resolve("inventory.csv");
+        Files.writeString(manifest, "root,a.txt,12kb\n");
+        BulkLoader.loadCsv(manifest, 0); // Should throw exception
+    }
+
+    @Test
+    public void testBinaryManifest() throws IOException, FileSystemException {
+        Path manifest = directory.resolve("inventory.bin");
+        int dirs = 100;
+        int filesPerDir = 50;
+        try (Manifest.BinaryWriter writer = new Manifest.BinaryWriter(manifest)) {
+            for (int d = 0; d < dirs; d++) {
+                for (int f = 0; f < filesPerDir; f++) {
+                    writer.file("dir" + d, "f" + d + "_" + f, 1 + d * filesPerDir + f);
+                }
+                writer.directory(d == 0 ? "root" : "dir" + (d - 1), "dir" + d);
+            }
+        }
+        BasicFileSystemManager fileSystemManager = BulkLoader.loadBinary(manifest, dirs * (filesPerDir + 1));
+
+        assertEquals(dirs * filesPerDir, fileSystemManager.getFileCount("root"));
+        assertEquals(dirs - 1, fileSystemManager.getDirectoryCount("dir0"));
+        assertEquals("f99_49", fileSystemManager.getBiggestFile("dir50"));
+        assertEquals(dirs * filesPerDir, fileSystemManager.getFileSize("f99_49"));
+    }
+}
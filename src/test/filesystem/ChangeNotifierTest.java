@@ -0,0 +1,285 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.nodes.NodeType;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.ConcurrentFileSystemManager;
+import filesystem.operations.ShardedFileSystemManager;
+import filesystem.watch.ChangeBatch;
+import filesystem.watch.ChangeEvent;
+import filesystem.watch.ChangeListener;
+import filesystem.watch.Subscription;
+import filesystem.watch.WatchOptions;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChangeNotifierTest {
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+    }
+
+    @Test
+    public void testChildrenOfADirectory() throws Throwable {
+        fileSystemManager.addDir("root", "Documents");
+        Recorder recorder = new Recorder();
+        Subscription subscription = fileSystemManager.watch("Documents", false, WatchOptions.defaults(), recorder);
+
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800); // Below a child, not reported
+        fileSystemManager.addFile("root", "notes.txt", 20); // Outside, not reported
+        fileSystemManager.delete("resume.docx");
+
+        List<ChangeEvent> events = recorder.await(3);
+        assertEquals(ChangeEvent.Kind.ADDED, events.get(0).getKind());
+        assertEquals("resume.docx", events.get(0).getName());
+        assertEquals("Documents", events.get(0).getParentName());
+        assertEquals(500, events.get(0).getSize());
+        assertEquals(NodeType.DIRECTORY, events.get(1).getType());
+        assertEquals("Work", events.get(1).getName());
+        assertEquals(ChangeEvent.Kind.REMOVED, events.get(2).getKind());
+        assertEquals("resume.docx", events.get(2).getName());
+
+        subscription.close();
+        fileSystemManager.addFile("Documents", "late.txt", 1);
+        assertFalse(subscription.isActive());
+        assertTrue(recorder.nothingMore());
+    }
+
+    @Test
+    public void testDeletedSubtreeIsOneEvent() throws Throwable {
+        fileSystemManager.addDir("root", "Logs");
+        fileSystemManager.addDir("Logs", "2024");
+        for (int i = 0; i < 1000; i++) {
+            fileSystemManager.addFile(i % 2 == 0 ? "Logs" : "2024", "log" + i, 10);
+        }
+        Recorder recorder = new Recorder();
+        fileSystemManager.watch("root", true, WatchOptions.defaults(), recorder);
+
+        fileSystemManager.delete("Logs");
+        List<ChangeEvent> events = recorder.await(1);
+        ChangeEvent removed = events.get(0);
+        assertEquals(ChangeEvent.Kind.SUBTREE_REMOVED, removed.getKind());
+        assertEquals("Logs", removed.getName());
+        assertEquals("root", removed.getParentName());
+        assertEquals(1000, removed.getFileCount());
+        assertEquals(1, removed.getDirectoryCount());
+        assertEquals(10_000, removed.getSize());
+        assertTrue(recorder.nothingMore());
+    }
+
+    @Test
+    public void testSubscriptionEndsWithItsDirectory() throws Throwable {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        Recorder recorder = new Recorder();
+        Subscription subscription = fileSystemManager.watch("Work", true, WatchOptions.defaults(), recorder);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+
+        fileSystemManager.delete("Documents");
+        List<ChangeEvent> events = recorder.await(2);
+        assertEquals(ChangeEvent.Kind.SUBTREE_REMOVED, events.get(1).getKind());
+        assertEquals("Documents", events.get(1).getName());
+        assertTrue(recorder.lastBatch().isLast());
+        assertFalse(subscription.isActive());
+
+        // The name can be used again, the ended subscription doesn't follow it
+        fileSystemManager.addDir("root", "Work");
+        fileSystemManager.addFile("Work", "other.docx", 10);
+        assertTrue(recorder.nothingMore());
+        try {
+            fileSystemManager.watch("Documents", true, WatchOptions.defaults(), recorder);
+            fail("A deleted directory can't be watched");
+        } catch (DirectoryNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMoveAndRename() throws Throwable {
+        fileSystemManager.addDir("root", "Inbox");
+        fileSystemManager.addDir("root", "Archive");
+        fileSystemManager.addFile("Inbox", "mail.eml", 30);
+        Recorder inbox = new Recorder();
+        Recorder archive = new Recorder();
+        fileSystemManager.watch("Inbox", false, WatchOptions.defaults(), inbox);
+        Subscription archiveSubscription = fileSystemManager.watch("Archive", false, WatchOptions.defaults(), archive);
+
+        fileSystemManager.move("mail.eml", "Archive");
+        fileSystemManager.rename("mail.eml", "2024.eml");
+        // The subscription follows its renamed directory
+        fileSystemManager.rename("Archive", "Old");
+        fileSystemManager.addFile("Old", "more.eml", 5);
+
+        assertEquals(ChangeEvent.Kind.REMOVED, inbox.await(1).get(0).getKind());
+        List<ChangeEvent> events = archive.await(3);
+        assertEquals(ChangeEvent.Kind.ADDED, events.get(0).getKind());
+        assertEquals("mail.eml", events.get(0).getName());
+        assertEquals(ChangeEvent.Kind.RENAMED, events.get(1).getKind());
+        assertEquals("mail.eml", events.get(1).getOldName());
+        assertEquals("2024.eml", events.get(1).getName());
+        assertEquals("more.eml", events.get(2).getName());
+        assertEquals("Old", events.get(2).getParentName());
+        assertTrue(archiveSubscription.isActive());
+    }
+
+    @Test
+    public void testResizes() throws Throwable {
+        fileSystemManager.addDir("root", "Logs");
+        fileSystemManager.addFile("Logs", "app.log", 100);
+        Recorder recorder = new Recorder();
+        fileSystemManager.watch("root", true, WatchOptions.defaults(), recorder);
+
+        fileSystemManager.append("app.log", 50);
+        fileSystemManager.resize("app.log", 150); // Same size, not reported
+        fileSystemManager.resize("app.log", 10);
+
+        List<ChangeEvent> events = recorder.await(2);
+        assertEquals(ChangeEvent.Kind.RESIZED, events.get(0).getKind());
+        assertEquals("Logs", events.get(0).getParentName());
+        assertEquals(150, events.get(0).getSize());
+        assertEquals(10, events.get(1).getSize());
+        assertTrue(recorder.nothingMore());
+    }
+
+    @Test
+    public void testSlowListenerNeverBlocksMutations() throws Throwable {
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onChanges(ChangeBatch batch) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onChanges(batch);
+            }
+        };
+        Subscription subscription = fileSystemManager.watch("root", false, new WatchOptions(16, 4), recorder);
+
+        int files = 1000;
+        for (int i = 0; i < files; i++) {
+            fileSystemManager.addFile("root", "f" + i, 1 + i);
+        }
+        // All the adds returned while the listener was stuck on its first batch
+        release.countDown();
+
+        long delivered = 0;
+        long dropped = 0;
+        while (delivered + dropped < files) {
+            ChangeBatch batch = recorder.nextBatch();
+            assertTrue(batch.getEvents().size() <= 4);
+            delivered += batch.getEvents().size();
+            dropped += batch.getDroppedEvents();
+        }
+        assertEquals(files, delivered + dropped);
+        assertTrue(dropped > 0);
+        assertEquals(dropped, subscription.getDroppedEvents());
+    }
+
+    @Test
+    public void testConcurrentManager() throws Throwable {
+        ConcurrentFileSystemManager concurrentManager = new ConcurrentFileSystemManager();
+        int threads = 4;
+        int filesPerThread = 500;
+        for (int t = 0; t < threads; t++) {
+            concurrentManager.addDir("root", "dir" + t);
+        }
+        Recorder recorder = new Recorder();
+        concurrentManager.watch("root", true, new WatchOptions(threads * filesPerThread, 64), recorder);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> adds = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            adds.add(executor.submit(() -> {
+                try {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        concurrentManager.addFile("dir" + thread, "f" + thread + "_" + i, 1 + i);
+                    }
+                } catch (FileSystemException e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> add : adds) {
+            add.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * filesPerThread, recorder.await(threads * filesPerThread).size());
+        concurrentManager.delete("dir0");
+        ChangeEvent removed = recorder.await(1).get(0);
+        assertEquals(ChangeEvent.Kind.SUBTREE_REMOVED, removed.getKind());
+        assertEquals(filesPerThread, removed.getFileCount());
+    }
+
+    @Test
+    public void testShardedRootWatch() throws Throwable {
+        try (ShardedFileSystemManager shardedManager = ShardedFileSystemManager.inMemory(3)) {
+            Recorder recorder = new Recorder();
+            Subscription subscription = shardedManager.watch("root", true, WatchOptions.defaults(), recorder);
+            for (int d = 0; d < 6; d++) {
+                shardedManager.addDir("root", "dir" + d);
+                shardedManager.addFile("dir" + d, "f" + d, 10);
+            }
+            assertEquals(12, recorder.await(12).size());
+            subscription.close();
+            assertFalse(subscription.isActive());
+        }
+    }
+
+    /**
+     * Collects the batches, and waits for a number of events.
+     */
+    private static class Recorder implements ChangeListener {
+        private final LinkedBlockingQueue<ChangeBatch> batches = new LinkedBlockingQueue<>();
+        private ChangeBatch lastBatch;
+
+        @Override
+        public void onChanges(ChangeBatch batch) {
+            batches.add(batch);
+        }
+
+        ChangeBatch nextBatch() throws InterruptedException {
+            ChangeBatch batch = batches.poll(10, TimeUnit.SECONDS);
+            assertNotNull("No batch delivered", batch);
+            lastBatch = batch;
+            return batch;
+        }
+
+        List<ChangeEvent> await(int count) throws InterruptedException {
+            List<ChangeEvent> events = new ArrayList<>();
+            while (events.size() < count) {
+                events.addAll(nextBatch().getEvents());
+            }
+            assertEquals(count, events.size());
+            return events;
+        }
+
+        ChangeBatch lastBatch() {
+            return lastBatch;
+        }
+
+        boolean nothingMore() throws InterruptedException {
+            return batches.poll(100, TimeUnit.MILLISECONDS) == null;
+        }
+    }
+}
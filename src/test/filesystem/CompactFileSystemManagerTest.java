@@ -0,0 +1,275 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.nodes.NodeType;
+import filesystem.operations.CompactFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactFileSystemManagerTest {
+    private CompactFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() {
+        fileSystemManager = new CompactFileSystemManager();
+    }
+
+    @Test
+    public void testAddAndDelete() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("root", "notes.txt", 20);
+
+        assertEquals(500, fileSystemManager.getFileSize("resume.docx"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile());
+        assertEquals(1320, fileSystemManager.getDirectorySize("root"));
+        assertEquals(2, fileSystemManager.getDirectoryCount("root"));
+
+        fileSystemManager.delete("Documents");
+        assertEquals("notes.txt", fileSystemManager.getBiggestFile());
+        assertEquals(20, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getFileCount("root"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("root"));
+        try {
+            fileSystemManager.getFileSize("project.docx");
+            fail("Expected FileSystemException was not thrown for project.docx file");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        // Names of deleted nodes can be used again
+        fileSystemManager.addDir("root", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 30);
+        assertEquals(30, fileSystemManager.getFileSize("project.docx"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile());
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testAddDuplicateName() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("root", "Documents", 10); // Should throw exception
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testAddFileUnderFile() throws FileSystemException {
+        fileSystemManager.addFile("root", "a.txt", 10);
+        fileSystemManager.addFile("a.txt", "b.txt", 10); // Should throw exception
+    }
+
+    @Test(expected = InvalidNameException.class)
+    public void testInvalidFileName() throws FileSystemException {
+        fileSystemManager.addFile("root", "a".repeat(33), 123); // Should throw exception
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testDeleteRoot() throws FileSystemException {
+        fileSystemManager.delete("root"); // Should throw exception
+    }
+
+    @Test
+    public void testSubtreeQueries() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addDir("root", "Pictures");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("Work", "notes.txt", 20);
+        fileSystemManager.addFile("Pictures", "large.jpg", 6400);
+
+        assertEquals("large.jpg", fileSystemManager.getBiggestFile("root"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile("Documents"));
+        assertEquals(List.of("project.docx", "resume.docx"), fileSystemManager.getBiggestFiles("Documents", 2));
+        assertEquals(List.of("project.docx", "notes.txt"), fileSystemManager.getBiggestFiles("Work", 5));
+        assertEquals(List.of("large.jpg", "project.docx"), fileSystemManager.getBiggestFiles("root", 2));
+    }
+
+    @Test
+    public void testShowFileSystemLimits() throws FileSystemException, IOException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+
+        StringBuilder out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, CompactFileSystemManager.UNLIMITED_DEPTH,
+                CompactFileSystemManager.UNLIMITED_NODES);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("root [created="));
+        assertTrue(lines[1].endsWith("[files=1, dirs=1, size=800 bytes]"));
+        assertTrue(lines[3].startsWith("         project.docx [size=800 bytes"));
+
+        out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, 2, CompactFileSystemManager.UNLIMITED_NODES);
+        lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("         ...", lines[3]);
+
+        out = new StringBuilder();
+        fileSystemManager.showFileSystem(out, CompactFileSystemManager.UNLIMITED_DEPTH, 2);
+        lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("      ...", lines[2]);
+    }
+
+    @Test
+    public void testMatchesBasicManager() throws FileSystemException {
+        BasicFileSystemManager expected = new BasicFileSystemManager();
+        Random random = new Random(42);
+        List<String> dirs = new ArrayList<>(List.of("root"));
+        List<String> names = new ArrayList<>();
+        // Enough churn to reuse the ids of deleted nodes
+        for (int i = 0; i < 20_000; i++) {
+            int action = random.nextInt(10);
+            if (action < 2 || names.isEmpty()) {
+                String dir = "d" + i;
+                String parent = dirs.get(random.nextInt(dirs.size()));
+                expected.addDir(parent, dir);
+                fileSystemManager.addDir(parent, dir);
+                dirs.add(dir);
+                names.add(dir);
+            } else if (action < 8) {
+                String file = "f" + i;
+                String parent = dirs.get(random.nextInt(dirs.size()));
+                int size = 1 + random.nextInt(1000);
+                expected.addFile(parent, file, size);
+                fileSystemManager.addFile(parent, file, size);
+                names.add(file);
+            } else {
+                String name = names.get(random.nextInt(names.size()));
+                expected.delete(name);
+                fileSystemManager.delete(name);
+                // The deleted node may have taken a whole subtree with it
+                names.removeIf(node -> !exists(expected, node));
+                dirs.removeIf(node -> !exists(expected, node));
+            }
+        }
+
+        for (String dir : dirs) {
+            assertEquals(expected.getDirectorySize(dir), fileSystemManager.getDirectorySize(dir));
+            assertEquals(expected.getFileCount(dir), fileSystemManager.getFileCount(dir));
+            assertEquals(expected.getDirectoryCount(dir), fileSystemManager.getDirectoryCount(dir));
+        }
+        long fileCount = expected.getFileCount("root");
+        for (long rank = 0; rank < fileCount; rank += 7) {
+            assertEquals(expected.getFileSizeAtRank(rank), fileSystemManager.getFileSizeAtRank(rank));
+        }
+        assertEquals(expected.getFileSizePercentile(90), fileSystemManager.getFileSizePercentile(90));
+        assertEquals(expected.getFileSize(expected.getBiggestFile()),
+                fileSystemManager.getFileSize(fileSystemManager.getBiggestFile()));
+        assertEquals(count(expected.getFilesInSizeRange(100, 200)),
+                count(fileSystemManager.getFilesInSizeRange(100, 200)));
+    }
+
+    @Test
+    public void testMoveAndRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "docs");
+        fileSystemManager.addDir("docs", "work");
+        fileSystemManager.addDir("root", "archive");
+        fileSystemManager.addFile("work", "report.pdf", 700);
+        fileSystemManager.addFile("docs", "cv.docx", 200);
+        fileSystemManager.findByPrefix("", null);
+
+        fileSystemManager.move("work", "archive");
+        assertEquals(200, fileSystemManager.getDirectorySize("docs"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("docs"));
+        assertEquals(700, fileSystemManager.getDirectorySize("archive"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("archive"));
+        assertEquals(900, fileSystemManager.getDirectorySize("root"));
+        assertEquals("report.pdf", fileSystemManager.getBiggestFile("archive"));
+
+        fileSystemManager.rename("report.pdf", "summary.pdf");
+        assertEquals(700, fileSystemManager.getFileSize("summary.pdf"));
+        assertEquals("summary.pdf", fileSystemManager.getBiggestFile());
+        assertTrue(fileSystemManager.findByPrefix("su", null).hasNext());
+        assertFalse(fileSystemManager.findByPrefix("rep", null).hasNext());
+        fileSystemManager.addFile("root", "report.pdf", 1);
+
+        try {
+            fileSystemManager.move("archive", "work");
+            fail("Expected FileSystemException was not thrown for a move into its own subtree");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testLookupsWithoutExceptions() throws FileSystemException {
+        fileSystemManager.addDir("root", "Fotos");
+        fileSystemManager.addFile("Fotos", "été.jpg", 300);
+        fileSystemManager.addFile("Fotos", "winter.jpg", 400);
+
+        // Non ASCII names are encoded before the lookup, ASCII names are compared as they are
+        assertEquals(300, fileSystemManager.tryGetFileSize("été.jpg"));
+        assertEquals(400, fileSystemManager.tryGetFileSize("winter.jpg"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("Fotos"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("ete.jpg"));
+        assertEquals(NodeType.DIRECTORY, fileSystemManager.nodeType("Fotos"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("winter.jp"));
+
+        fileSystemManager.delete("Fotos");
+        assertFalse(fileSystemManager.exists("winter.jpg"));
+    }
+
+    @Test
+    public void testNameSearch() throws FileSystemException {
+        fileSystemManager.addDir("root", "logs");
+        fileSystemManager.addFile("logs", "app.log", 10);
+        fileSystemManager.addFile("root", "notes.txt", 20);
+
+        // The index is built by the first search and maintained afterwards
+        assertEquals(List.of("app.log"), toList(fileSystemManager.findBySuffix(".log", null)));
+        fileSystemManager.addFile("logs", "db.log", 20);
+        fileSystemManager.addDir("logs", "old");
+        fileSystemManager.addFile("old", "old.log", 5);
+        assertEquals(List.of("db.log", "old.log", "app.log"), toList(fileSystemManager.findBySuffix(".log", null)));
+        assertEquals(List.of("old", "old.log"), toList(fileSystemManager.findByGlob("o*", null)));
+
+        fileSystemManager.delete("logs");
+        assertFalse(fileSystemManager.findByGlob("*.log", null).hasNext());
+        assertEquals(List.of("notes.txt"), toList(fileSystemManager.findByPrefix("", null)));
+    }
+
+    private static List<String> toList(Iterator<String> names) {
+        List<String> list = new ArrayList<>();
+        names.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static boolean exists(BasicFileSystemManager manager, String name) {
+        try {
+            manager.getDirectorySize(name);
+            return true;
+        } catch (FileSystemException e) {
+            try {
+                manager.getFileSize(name);
+                return true;
+            } catch (FileSystemException notFound) {
+                return false;
+            }
+        }
+    }
+
+    private static int count(Iterator<String> names) {
+        int count = 0;
+        while (names.hasNext()) {
+            names.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,204 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.operations.ConcurrentFileSystemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentFileSystemManagerTest {
+    private static final int THREADS = 8;
+    private static final int FILES_PER_THREAD = 2_000;
+
+    private ConcurrentFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new ConcurrentFileSystemManager();
+    }
+
+    @Test
+    public void testAddFilesAndBiggestFile() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("root", "Pictures");
+        fileSystemManager.addFile("Documents", "small.txt", 100);
+        fileSystemManager.addFile("Pictures", "large.jpg", 6400);
+        fileSystemManager.addFile("Documents", "medium.doc", 1000);
+
+        assertEquals(100, fileSystemManager.getFileSize("small.txt"));
+        assertEquals("large.jpg", fileSystemManager.getBiggestFile());
+
+        fileSystemManager.delete("Pictures");
+        assertEquals("medium.doc", fileSystemManager.getBiggestFile());
+        assertEquals("medium.doc", fileSystemManager.getBiggestFile("Documents"));
+        assertEquals(List.of("medium.doc", "small.txt"), fileSystemManager.getBiggestFiles("root", 3));
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testAddDuplicateFile() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("root", "resume.docx", 300); // Should throw exception
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testAddFileToFile() throws FileSystemException {
+        fileSystemManager.addFile("root", "resume.docx", 500);
+        fileSystemManager.addFile("resume.docx", "newfile.txt", 100); // Should throw exception
+    }
+
+    @Test
+    public void testMoveAndRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addDir("root", "Archive");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+
+        fileSystemManager.move("Work", "Archive");
+        fileSystemManager.rename("project.docx", "final.docx");
+
+        assertEquals(500, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("Documents"));
+        assertEquals(800, fileSystemManager.getDirectorySize("Archive"));
+        assertEquals(List.of("final.docx"), fileSystemManager.getBiggestFiles("Archive", 5));
+        assertEquals("final.docx", fileSystemManager.getBiggestFile());
+        assertEquals(800, fileSystemManager.getFileSize("final.docx"));
+        assertFalse(fileSystemManager.findByPrefix("project", null).hasNext());
+        fileSystemManager.addFile("root", "project.docx", 1);
+    }
+
+    @Test
+    public void testRecursiveDirectoryDelete() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+
+        fileSystemManager.delete("Documents");
+
+        try {
+            fileSystemManager.getFileSize("project.docx");
+            fail("Expected FileSystemException was not thrown for project.docx file");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        // Names of deleted nodes can be reused
+        fileSystemManager.addDir("root", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 10);
+        assertEquals(10, fileSystemManager.getFileSize("project.docx"));
+    }
+
+    @Test
+    public void testParallelAddsUnderDifferentParents() throws Throwable {
+        for (int t = 0; t < THREADS; t++) {
+            fileSystemManager.addDir("root", "dir" + t);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    for (int i = 0; i < FILES_PER_THREAD; i++) {
+                        fileSystemManager.addFile("dir" + thread, "f" + thread + "_" + i, 1 + i);
+                    }
+                } catch (FileSystemException e) {
+                    // FileSystemException is not an Exception, so it can't be thrown from a Callable
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < FILES_PER_THREAD; i++) {
+                assertEquals(1 + i, fileSystemManager.getFileSize("f" + t + "_" + i));
+            }
+        }
+        assertEquals(FILES_PER_THREAD, fileSystemManager.getFileSize(fileSystemManager.getBiggestFile()));
+        assertEquals(1, fileSystemManager.getFileSizeAtRank(0));
+        assertEquals(FILES_PER_THREAD / 2, fileSystemManager.getFileSizePercentile(50));
+        assertEquals((long) THREADS * FILES_PER_THREAD, fileSystemManager.getFileCount("root"));
+        assertEquals((long) THREADS * FILES_PER_THREAD * (FILES_PER_THREAD + 1) / 2,
+                fileSystemManager.getDirectorySize("root"));
+
+        // Every name added in parallel reached the name index
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(FILES_PER_THREAD, count(fileSystemManager.findByPrefix("f" + t + "_", null)));
+        }
+        fileSystemManager.delete("dir0");
+        assertFalse(fileSystemManager.findByPrefix("f0_", null).hasNext());
+        assertEquals(FILES_PER_THREAD / 10, count(fileSystemManager.findByGlob("f1_*7", null)));
+    }
+
+    private static int count(Iterator<String> names) {
+        int count = 0;
+        while (names.hasNext()) {
+            names.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testDeleteIsAtomicForReaders() throws Throwable {
+        fileSystemManager.addDir("root", "keep");
+        fileSystemManager.addFile("keep", "kept.txt", 10);
+        fileSystemManager.addDir("root", "drop");
+        for (int i = 0; i < FILES_PER_THREAD; i++) {
+            fileSystemManager.addFile("drop", "d" + i, 100 + i);
+        }
+
+        // Once one file of the subtree is gone every other file read after it must be gone as well
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                boolean lastVisible = isVisible("d" + (FILES_PER_THREAD - 1));
+                boolean firstVisible = isVisible("d0");
+                if (!lastVisible && firstVisible) {
+                    failed.set(true);
+                }
+            }
+        });
+        reader.start();
+        fileSystemManager.delete("drop");
+        done.set(true);
+        reader.join();
+
+        assertFalse(failed.get());
+        assertEquals("kept.txt", fileSystemManager.getBiggestFile());
+        assertEquals(10, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("root"));
+    }
+
+    private boolean isVisible(String fileName) {
+        try {
+            fileSystemManager.getFileSize(fileName);
+            return true;
+        } catch (FileSystemException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.nodes.FileSystemNode;
+import filesystem.nodes.NodeType;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.ConcurrentFileSystemManager;
+import filesystem.operations.InstrumentedFileSystemManager;
+import filesystem.operations.PipelinedFileSystemManager;
+import filesystem.persistence.DurabilityOptions;
+import filesystem.pipeline.PipelineOptions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CreationTimeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+        fileSystemManager.addDir("root", "Big");
+        fileSystemManager.addDir("root", "Small");
+        fileSystemManager.addDir("Small", "Inner");
+    }
+
+    @Test
+    public void testOldestAndNewest() throws FileSystemException {
+        // Files created within the same millisecond keep their creation order
+        for (int i = 0; i < 10; i++) {
+            fileSystemManager.addFile("Big", "f" + i, 10 + i);
+        }
+        assertEquals(List.of("f0", "f1", "f2"), fileSystemManager.getOldestFiles(3));
+        assertEquals(List.of("f9", "f8", "f7"), fileSystemManager.getNewestFiles(3));
+        assertEquals(10, fileSystemManager.getOldestFiles(50).size());
+        assertTrue(fileSystemManager.getNewestFiles(0).isEmpty());
+
+        fileSystemManager.delete("f0");
+        fileSystemManager.delete("f9");
+        assertEquals(List.of("f1"), fileSystemManager.getOldestFiles(1));
+        assertEquals(List.of("f8"), fileSystemManager.getNewestFiles(1));
+    }
+
+    @Test
+    public void testDirectoryScope() throws FileSystemException {
+        fileSystemManager.addFile("Small", "s0", 1);
+        for (int i = 0; i < 100; i++) {
+            fileSystemManager.addFile("Big", "b" + i, 1 + i);
+        }
+        fileSystemManager.addFile("Inner", "s1", 2);
+        fileSystemManager.addFile("Small", "s2", 3);
+
+        // A directory holding most files walks the time index, a small one sorts its own files
+        assertEquals(List.of("b0", "b1", "b2"), fileSystemManager.getOldestFiles("Big", 3));
+        assertEquals(List.of("b99", "b98"), fileSystemManager.getNewestFiles("Big", 2));
+        assertEquals(List.of("s0", "s1"), fileSystemManager.getOldestFiles("Small", 2));
+        assertEquals(List.of("s2", "s1", "s0"), fileSystemManager.getNewestFiles("Small", 10));
+        assertEquals(List.of("s1"), fileSystemManager.getNewestFiles("Inner", 10));
+
+        // Files of a deleted directory are out of scope while they wait for the reclaimer
+        fileSystemManager.delete("Inner");
+        assertEquals(List.of("s2", "s0"), fileSystemManager.getNewestFiles("Small", 10));
+        assertEquals(List.of("s2", "b99"), fileSystemManager.getNewestFiles("root", 2));
+    }
+
+    @Test
+    public void testDatesAreInTheDefaultTimeZone() {
+        long millis = 1_700_000_000_123L;
+        assertEquals(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()),
+                FileSystemNode.toDate(millis));
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testScopeMustBeADirectory() throws FileSystemException {
+        fileSystemManager.addFile("Big", "a.txt", 1);
+        fileSystemManager.getOldestFiles("a.txt", 1); // Should throw exception
+    }
+
+    @Test
+    public void testRangeAndDeleteOlderThan() throws Throwable {
+        fileSystemManager.addFile("Big", "old1", 100);
+        fileSystemManager.addFile("Inner", "old2", 50);
+        Thread.sleep(5);
+        long cutoff = System.currentTimeMillis();
+        fileSystemManager.addFile("Big", "new1", 10);
+        fileSystemManager.addFile("Inner", "new2", 20);
+
+        assertEquals(List.of("old1", "old2"), names(fileSystemManager.getFilesCreatedBetween(0, cutoff - 1)));
+        assertEquals(List.of("new1", "new2"), names(fileSystemManager.getFilesCreatedBetween(cutoff, Long.MAX_VALUE)));
+
+        assertEquals(2, fileSystemManager.deleteOlderThan(cutoff));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("old1"));
+        assertEquals(NodeType.DIRECTORY, fileSystemManager.nodeType("Inner"));
+        assertEquals(30, fileSystemManager.getDirectorySize("root"));
+        assertEquals(20, fileSystemManager.getDirectorySize("Small"));
+        assertEquals("new2", fileSystemManager.getBiggestFile());
+        assertEquals(List.of("new1", "new2"), fileSystemManager.getOldestFiles(5));
+        assertEquals(0, fileSystemManager.deleteOlderThan(cutoff));
+    }
+
+    @Test
+    public void testDeleteOlderThanSkipsDeletedDirectories() throws Throwable {
+        for (int i = 0; i < 200; i++) {
+            fileSystemManager.addFile("Inner", "dead" + i, 1);
+        }
+        fileSystemManager.addFile("Big", "old", 5);
+        Thread.sleep(5);
+        long cutoff = System.currentTimeMillis();
+        fileSystemManager.addFile("Big", "new", 7);
+
+        // The files of the directory wait for the reclaimer, they are not counted again
+        fileSystemManager.delete("Small");
+        assertEquals(1, fileSystemManager.deleteOlderThan(cutoff));
+        assertEquals(7, fileSystemManager.getDirectorySize("root"));
+        while (fileSystemManager.reclaimDeleted(1000)) {
+            // Reclaim everything
+        }
+        assertEquals(List.of("new"), fileSystemManager.getOldestFiles(5));
+    }
+
+    @Test
+    public void testDurableCreationTimes() throws Throwable {
+        DurabilityOptions options = new DurabilityOptions(folder.getRoot().toPath(), 1, 0, 0);
+        BasicFileSystemManager durable = BasicFileSystemManager.open(options);
+        durable.addDir("root", "Logs");
+        durable.addFile("Logs", "a.log", 10);
+        durable.addFile("Logs", "b.log", 20);
+        durable.checkpoint();
+        durable.addFile("Logs", "c.log", 30);
+        Thread.sleep(5);
+        long cutoff = System.currentTimeMillis();
+        durable.addFile("Logs", "d.log", 40);
+        assertEquals(3, durable.deleteOlderThan(cutoff));
+        durable.close();
+
+        // The snapshot and the log keep the creation times, the logged cutoff deletes the same files again
+        durable = BasicFileSystemManager.open(options);
+        assertEquals(List.of("d.log"), durable.getOldestFiles("Logs", 5));
+        assertEquals(40, durable.getDirectorySize("root"));
+        durable.close();
+
+        durable = BasicFileSystemManager.open(options);
+        durable.addFile("Logs", "e.log", 50);
+        durable.checkpoint();
+        durable.close();
+        durable = BasicFileSystemManager.open(options);
+        assertEquals(List.of("e.log", "d.log"), durable.getNewestFiles(5));
+        assertEquals(List.of("d.log"), durable.getOldestFiles(1));
+        durable.close();
+    }
+
+    @Test
+    public void testPipelined() throws Throwable {
+        try (PipelinedFileSystemManager pipelined =
+                     new PipelinedFileSystemManager(new BasicFileSystemManager(), PipelineOptions.defaults())) {
+            pipelined.addDir("root", "Logs");
+            pipelined.addFile("Logs", "a.log", 10);
+            Thread.sleep(5);
+            long cutoff = System.currentTimeMillis();
+            pipelined.addFile("Logs", "b.log", 20);
+
+            assertEquals(List.of("b.log", "a.log"), pipelined.getNewestFiles("Logs", 5));
+            assertEquals(List.of("a.log"), names(pipelined.getFilesCreatedBetween(0, cutoff - 1)));
+            assertEquals(1, pipelined.deleteOlderThan(cutoff));
+            assertEquals(List.of("b.log"), pipelined.getOldestFiles(5));
+            assertEquals(20, pipelined.getDirectorySize("root"));
+        }
+    }
+
+    @Test
+    public void testInstrumented() throws FileSystemException {
+        InstrumentedFileSystemManager instrumented = new InstrumentedFileSystemManager(fileSystemManager);
+        for (int i = 0; i < 3; i++) {
+            instrumented.addFile("Big", "b" + i, 10);
+        }
+        assertEquals(List.of("b0", "b1"), instrumented.getOldestFiles("Big", 2));
+        assertEquals(0, instrumented.deleteOlderThan(Long.MIN_VALUE));
+
+        // The concurrent manager has no time index, the instrumentation only forwards the capability
+        InstrumentedFileSystemManager unsupported = new InstrumentedFileSystemManager(new ConcurrentFileSystemManager());
+        unsupported.addFile("root", "a.log", 10);
+        try {
+            unsupported.getOldestFiles(1);
+            fail("Expected UnsupportedOperationException was not thrown");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        try {
+            unsupported.deleteOlderThan(Long.MAX_VALUE);
+            fail("Expected UnsupportedOperationException was not thrown");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        assertEquals(10, unsupported.getFileSize("a.log"));
+    }
+
+    private static List<String> names(Iterator<String> iterator) {
+        List<String> names = new ArrayList<>();
+        iterator.forEachRemaining(names::add);
+        return names;
+    }
+}
@@ -0,0 +1,117 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.nodes.Directory;
+import filesystem.nodes.File;
+import filesystem.nodes.FileSystemNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DirectoryTest {
+    @Test
+    public void testEmptyDirectory() throws FileSystemException {
+        Directory dir = new Directory("Documents");
+        assertTrue(dir.getChildren().isEmpty());
+        assertFalse(dir.getChildren().iterator().hasNext());
+        assertNull(dir.getChild("resume.docx"));
+
+        File file = new File("resume.docx", 500);
+        dir.addChild(file);
+        dir.removeChild(file);
+        assertTrue(dir.getChildren().isEmpty());
+        assertNull(file.getParent());
+    }
+
+    @Test
+    public void testSmallDirectoryKeepsInsertionOrder() throws FileSystemException {
+        Directory dir = new Directory("Documents");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            dir.addChild(new File("f" + i, 1 + i));
+            names.add("f" + i);
+        }
+        dir.removeChild(dir.getChild("f2"));
+        names.remove("f2");
+
+        assertEquals(names, namesOf(dir));
+        assertEquals(5, dir.getChildren().size());
+        assertSame(dir, dir.getChild("f5").getParent());
+    }
+
+    @Test
+    public void testGrowAndShrinkThroughTheHashTable() throws FileSystemException {
+        Directory dir = new Directory("Documents");
+        for (int i = 0; i < 1000; i++) {
+            dir.addChild(new File("f" + i, 1 + i));
+        }
+        assertEquals(1000, dir.getChildren().size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(1 + i, ((File) dir.getChild("f" + i)).getSize());
+        }
+        for (int i = 0; i < 998; i++) {
+            dir.removeChild(dir.getChild("f" + i));
+        }
+        assertEquals(List.of("f998", "f999"), namesOf(dir));
+        assertNull(dir.getChild("f0"));
+    }
+
+    @Test
+    public void testRenameAndMoveChild() throws FileSystemException {
+        Directory source = new Directory("source");
+        Directory target = new Directory("target");
+        for (int i = 0; i < 20; i++) {
+            source.addChild(new File("f" + i, 1 + i));
+        }
+        FileSystemNode node = source.getChild("f7");
+        source.renameChild(node, "seven");
+        assertNull(source.getChild("f7"));
+        assertSame(node, source.getChild("seven"));
+
+        source.moveChild(node, target);
+        assertNull(source.getChild("seven"));
+        assertSame(node, target.getChild("seven"));
+        assertSame(target, node.getParent());
+        assertEquals(19, source.getChildren().size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchAMap() throws FileSystemException {
+        Random random = new Random(7);
+        Directory dir = new Directory("Documents");
+        Map<String, FileSystemNode> expected = new HashMap<>();
+        for (int step = 0; step < 50_000; step++) {
+            // Names from a small pool, so the directory keeps crossing the inline and hash table thresholds
+            String name = "n" + random.nextInt(40);
+            FileSystemNode existing = dir.getChild(name);
+            assertSame(expected.get(name), existing);
+            if (existing == null) {
+                File file = new File(name, 1 + step);
+                dir.addChild(file);
+                expected.put(name, file);
+            } else if (random.nextInt(3) == 0) {
+                dir.removeChild(existing);
+                expected.remove(name);
+            }
+            if (step % 1000 == 0) {
+                assertEquals(expected.size(), dir.getChildren().size());
+                assertEquals(expected.keySet(), new HashSet<>(namesOf(dir)));
+            }
+        }
+    }
+
+    private static List<String> namesOf(Directory dir) {
+        List<String> names = new ArrayList<>();
+        for (FileSystemNode child : dir.getChildren()) {
+            names.add(child.getName());
+        }
+        return names;
+    }
+}
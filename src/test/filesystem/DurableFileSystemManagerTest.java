@@ -0,0 +1,254 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.persistence.PersistenceException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemBatch;
+import filesystem.persistence.DurabilityOptions;
+import filesystem.persistence.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DurableFileSystemManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DurabilityOptions options;
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        // Sync every mutation and only snapshot on demand, so each test controls what ends up where
+        options = new DurabilityOptions(folder.getRoot().toPath(), 1, 0, 0);
+        fileSystemManager = BasicFileSystemManager.open(options);
+    }
+
+    @After
+    public void tearDown() throws FileSystemException {
+        fileSystemManager.close();
+    }
+
+    @Test
+    public void testRestoreFromLogOnly() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.delete("resume.docx");
+
+        reopen();
+
+        assertEquals(800, fileSystemManager.getFileSize("project.docx"));
+        assertEquals("project.docx", fileSystemManager.getBiggestFile());
+        assertEquals(800, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getFileCount("root"));
+        try {
+            fileSystemManager.getFileSize("resume.docx");
+            fail("Expected FileSystemException was not thrown for resume.docx file");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRestoreFromSnapshotAndLogTail() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.checkpoint();
+        fileSystemManager.addFile("Work", "notes.txt", 20);
+        fileSystemManager.delete("resume.docx");
+
+        reopen();
+
+        assertEquals(List.of("project.docx", "notes.txt"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(List.of("project.docx", "notes.txt"), fileSystemManager.getBiggestFiles("Documents", 5));
+        assertEquals(820, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(2, fileSystemManager.getDirectoryCount("root"));
+        assertEquals(20, fileSystemManager.getFileSizeAtRank(0));
+
+        // The restored manager keeps logging
+        fileSystemManager.addFile("root", "late.txt", 5);
+        reopen();
+        assertEquals(5, fileSystemManager.getFileSize("late.txt"));
+    }
+
+    @Test
+    public void testSnapshotIsTakenPeriodically() throws FileSystemException {
+        fileSystemManager.close();
+        fileSystemManager = BasicFileSystemManager.open(new DurabilityOptions(folder.getRoot().toPath(), 4, 0, 10));
+        for (int i = 0; i < 25; i++) {
+            fileSystemManager.addFile("root", "f" + i, 1 + i);
+        }
+
+        reopen();
+
+        assertEquals(25, fileSystemManager.getFileCount("root"));
+        assertEquals("f24", fileSystemManager.getBiggestFile());
+    }
+
+    @Test
+    public void testTornLogTailIsDropped() throws FileSystemException, IOException {
+        fileSystemManager.addFile("root", "kept.txt", 10);
+        fileSystemManager.addFile("root", "torn.txt", 20);
+        fileSystemManager.close();
+
+        // Cut the last record in half, as a crash in the middle of a write would
+        try (FileChannel channel = FileChannel.open(options.getLogFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        fileSystemManager = BasicFileSystemManager.open(options);
+        assertEquals(10, fileSystemManager.getFileSize("kept.txt"));
+        assertEquals("kept.txt", fileSystemManager.getBiggestFile());
+
+        // New records go after the last valid one
+        fileSystemManager.addFile("root", "torn.txt", 30);
+        reopen();
+        assertEquals(30, fileSystemManager.getFileSize("torn.txt"));
+    }
+
+    @Test
+    public void testReplayStreamsALogLargerThanItsBuffer() throws FileSystemException, IOException {
+        fileSystemManager.close();
+        options = new DurabilityOptions(folder.getRoot().toPath(), 1_000, 0, 0);
+        fileSystemManager = BasicFileSystemManager.open(options);
+        fileSystemManager.addDir("root", "logs");
+        for (int i = 0; i < 6_000; i++) {
+            fileSystemManager.addFile("logs", "file_" + i, i + 1);
+            if (i % 1_000 == 0) {
+                // Batches whose records straddle the end of the buffer
+                FileSystemBatch batch = new FileSystemBatch().addDir("root", "batch" + i);
+                for (int j = 0; j < 300; j++) {
+                    batch.addFile("batch" + i, "batch_" + i + "_" + j, 1);
+                }
+                fileSystemManager.apply(batch);
+            }
+        }
+        fileSystemManager.close();
+        assertTrue(Files.size(options.getLogFile()) > 4 * 64 * 1024);
+
+        // A record header claiming more than a record can hold is a torn write, not an allocation
+        try (FileChannel channel = FileChannel.open(options.getLogFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE).putInt(0).flip(), channel.size());
+        }
+
+        fileSystemManager = BasicFileSystemManager.open(options);
+        assertEquals(6_000 + 6 * 300, fileSystemManager.getFileCount("root"));
+        assertEquals(6_000, fileSystemManager.getFileSize("file_5999"));
+        assertEquals(300, fileSystemManager.getFileCount("batch5000"));
+        fileSystemManager.addFile("root", "after.txt", 7);
+        reopen();
+        assertEquals(7, fileSystemManager.getFileSize("after.txt"));
+        assertEquals(6_000 + 6 * 300 + 1, fileSystemManager.getFileCount("root"));
+    }
+
+    @Test
+    public void testRestorePathOperations() throws FileSystemException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/b");
+        fileSystemManager.addFileByPath("/a/same.txt", 10);
+        fileSystemManager.addFileByPath("/b/same.txt", 20);
+        fileSystemManager.checkpoint();
+        fileSystemManager.addFileByPath("/a/other.txt", 30);
+        fileSystemManager.deleteByPath("/b/same.txt");
+
+        reopen();
+
+        assertEquals(10, fileSystemManager.getFileSizeByPath("/a/same.txt"));
+        assertEquals(30, fileSystemManager.getFileSizeByPath("/a/other.txt"));
+        assertEquals(0, fileSystemManager.getDirectorySizeByPath("/b"));
+        assertEquals(10, fileSystemManager.getFileSize("same.txt"));
+    }
+
+    @Test
+    public void testRestoreMoveAndRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addDir("root", "Archive");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.checkpoint();
+        fileSystemManager.move("Work", "Archive");
+        fileSystemManager.rename("project.docx", "final.docx");
+
+        reopen();
+
+        assertEquals(800, fileSystemManager.getFileSize("final.docx"));
+        assertEquals(0, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(List.of("final.docx"), fileSystemManager.getBiggestFiles("Archive", 5));
+        assertEquals(800, fileSystemManager.getFileSizeByPath("/Archive/Work/final.docx"));
+    }
+
+    @Test
+    public void testRestorePathMoveRenameAndResize() throws FileSystemException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/b");
+        fileSystemManager.addFileByPath("/a/same.txt", 10);
+        fileSystemManager.addFileByPath("/b/same.txt", 20);
+        fileSystemManager.checkpoint();
+        fileSystemManager.appendByPath("/a/same.txt", 5);
+        fileSystemManager.resizeByPath("/b/same.txt", 7);
+        fileSystemManager.renameByPath("/a/same.txt", "kept.txt");
+        fileSystemManager.moveByPath("/b/same.txt", "/a");
+
+        reopen();
+
+        assertEquals(15, fileSystemManager.getFileSizeByPath("/a/kept.txt"));
+        assertEquals(7, fileSystemManager.getFileSizeByPath("/a/same.txt"));
+        assertEquals(0, fileSystemManager.getDirectorySizeByPath("/b"));
+        assertEquals(22, fileSystemManager.getDirectorySizeByPath("/a"));
+    }
+
+    @Test
+    public void testRecordsTooLargeToBeLogged() throws FileSystemException, IOException {
+        String longPath = "/a".repeat(10_000);
+        WriteAheadLog log = WriteAheadLog.open(new DurabilityOptions(folder.newFolder("other").toPath(), 1, 0, 0), 1);
+        try {
+            try {
+                log.logMove("a.txt", longPath);
+                fail("Expected PersistenceException was not thrown for the move");
+            } catch (PersistenceException e) {
+                // Expected
+            }
+            try {
+                log.logRename(longPath, "b.txt");
+                fail("Expected PersistenceException was not thrown for the rename");
+            } catch (PersistenceException e) {
+                // Expected
+            }
+            try {
+                log.logResize(longPath, 10);
+                fail("Expected PersistenceException was not thrown for the resize");
+            } catch (PersistenceException e) {
+                // Expected
+            }
+            // The rejected records left nothing behind, the next one is logged as usual
+            log.logRename("a.txt", "b.txt");
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testCheckpointRequiresDurableManager() throws FileSystemException {
+        new BasicFileSystemManager().checkpoint(); // Should throw exception
+    }
+
+    private void reopen() throws FileSystemException {
+        fileSystemManager.close();
+        fileSystemManager = BasicFileSystemManager.open(options);
+    }
+}
@@ -0,0 +1,235 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.nodes.NodeType;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.CompactFileSystemManager;
+import filesystem.operations.FileSystemBatch;
+import filesystem.operations.FileSystemSnapshot;
+import filesystem.operations.InstrumentedFileSystemManager;
+import filesystem.operations.PipelinedFileSystemManager;
+import filesystem.persistence.DurabilityOptions;
+import filesystem.pipeline.PipelineOptions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileSystemBatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+    }
+
+    @Test
+    public void testApplyBuildsSubtrees() throws FileSystemException {
+        fileSystemManager.apply(new FileSystemBatch()
+                .addDir("Documents", "Work")
+                .addDir("Work", "Reports")
+                .addFile("Reports", "q1.pdf", 300)
+                .addFile("Work", "notes.txt", 20)
+                .addFile("root", "todo.txt", 5));
+
+        assertEquals(825, fileSystemManager.getDirectorySize("root"));
+        assertEquals(820, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals(320, fileSystemManager.getDirectorySize("Work"));
+        assertEquals(2, fileSystemManager.getFileCount("Work"));
+        assertEquals(3, fileSystemManager.getDirectoryCount("root"));
+        assertEquals(List.of("resume.docx", "q1.pdf", "notes.txt"), fileSystemManager.getBiggestFiles("Documents", 5));
+        assertEquals(List.of("resume.docx", "q1.pdf", "notes.txt", "todo.txt"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(300, fileSystemManager.getFileSizeByPath("/Documents/Work/Reports/q1.pdf"));
+        assertEquals(5, fileSystemManager.getFileSizeAtRank(0));
+    }
+
+    @Test
+    public void testFailedBatchChangesNothing() throws FileSystemException {
+        FileSystemBatch batch = new FileSystemBatch()
+                .addDir("Documents", "Work")
+                .addFile("Work", "notes.txt", 20)
+                .delete("resume.docx")
+                .addFile("Missing", "lost.txt", 10);
+        try {
+            fileSystemManager.apply(batch);
+            fail("Expected DirectoryNotFoundException was not thrown for the Missing directory");
+        } catch (DirectoryNotFoundException e) {
+            // Expected
+        }
+
+        assertEquals(500, fileSystemManager.getFileSize("resume.docx"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("Work"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("notes.txt"));
+        assertEquals(500, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("root"));
+    }
+
+    @Test
+    public void testOperationsSeeThePreviousOnes() throws FileSystemException {
+        fileSystemManager.apply(new FileSystemBatch()
+                .delete("resume.docx")
+                .addFile("Documents", "resume.docx", 700)
+                .addDir("root", "Temp")
+                .addFile("Temp", "scratch.txt", 50)
+                .delete("Temp")
+                .addDir("Documents", "Temp"));
+
+        assertEquals(700, fileSystemManager.getFileSize("resume.docx"));
+        assertEquals(700, fileSystemManager.getDirectorySize("root"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("scratch.txt"));
+        assertEquals(0, fileSystemManager.getDirectorySizeByPath("/Documents/Temp"));
+        assertEquals(List.of("resume.docx"), fileSystemManager.getBiggestFiles(5));
+    }
+
+    @Test
+    public void testDeleteBelowNewDirectory() throws FileSystemException {
+        fileSystemManager.apply(new FileSystemBatch()
+                .addDir("Documents", "Work")
+                .addDir("Work", "Old")
+                .addFile("Old", "a.txt", 10)
+                .addFile("Work", "b.txt", 20)
+                .delete("Old"));
+
+        assertEquals(20, fileSystemManager.getDirectorySize("Work"));
+        assertEquals(0, fileSystemManager.getDirectoryCount("Work"));
+        assertEquals(2, fileSystemManager.getDirectoryCount("root"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("a.txt"));
+        assertEquals(List.of("resume.docx", "b.txt"), fileSystemManager.getBiggestFiles("root", 5));
+    }
+
+    @Test
+    public void testDeleteParentOfNewNodes() throws FileSystemException {
+        fileSystemManager.addDir("root", "Archive");
+        fileSystemManager.apply(new FileSystemBatch()
+                .addFile("Documents", "draft.txt", 30)
+                .addDir("Documents", "Work")
+                .addFile("Work", "notes.txt", 20)
+                .delete("Documents")
+                .addFile("Archive", "resume.docx", 40));
+
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("draft.txt"));
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("Work"));
+        assertEquals(40, fileSystemManager.getDirectorySize("root"));
+        assertEquals(1, fileSystemManager.getDirectoryCount("root"));
+        assertEquals(List.of("resume.docx"), fileSystemManager.getBiggestFiles(5));
+        // The names of the dropped nodes are free again
+        fileSystemManager.addFile("Archive", "notes.txt", 1);
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testNameAddedTwice() throws FileSystemException {
+        fileSystemManager.apply(new FileSystemBatch()
+                .addFile("Documents", "a.txt", 1)
+                .addFile("root", "a.txt", 2)); // Should throw exception
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testDeleteTwice() throws FileSystemException {
+        fileSystemManager.apply(new FileSystemBatch()
+                .delete("resume.docx")
+                .delete("resume.docx")); // Should throw exception
+    }
+
+    @Test
+    public void testSnapshotsSeeTheWholeBatch() throws FileSystemException {
+        FileSystemSnapshot before = fileSystemManager.snapshot();
+        fileSystemManager.apply(new FileSystemBatch()
+                .addDir("Documents", "Work")
+                .addFile("Work", "notes.txt", 20)
+                .delete("resume.docx"));
+        FileSystemSnapshot after = fileSystemManager.snapshot();
+
+        assertEquals(500, before.getDirectorySize("root"));
+        assertEquals(NodeType.NONE, before.nodeType("notes.txt"));
+        assertEquals(20, after.getDirectorySize("root"));
+        assertEquals(20, after.getDirectorySize("Work"));
+        assertEquals(NodeType.NONE, after.nodeType("resume.docx"));
+    }
+
+    @Test
+    public void testDurableBatch() throws FileSystemException, IOException {
+        DurabilityOptions options = new DurabilityOptions(folder.getRoot().toPath(), 1, 0, 0);
+        BasicFileSystemManager durable = BasicFileSystemManager.open(options);
+        durable.addDir("root", "Documents");
+        durable.addFile("Documents", "resume.docx", 500);
+        durable.apply(new FileSystemBatch()
+                .delete("resume.docx")
+                .addDir("Documents", "Work")
+                .addFile("Work", "notes.txt", 20)
+                .addFile("Documents", "resume.docx", 700));
+        durable.apply(new FileSystemBatch()
+                .addFile("root", "a.txt", 1)
+                .addFile("root", "b.txt", 2));
+        durable.close();
+
+        // Cut the last record of the second batch, which drops the whole batch
+        try (FileChannel channel = FileChannel.open(options.getLogFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        durable = BasicFileSystemManager.open(options);
+        assertEquals(720, durable.getDirectorySize("root"));
+        assertEquals(700, durable.getFileSize("resume.docx"));
+        assertEquals(20, durable.getFileSizeByPath("/Documents/Work/notes.txt"));
+        assertEquals(NodeType.NONE, durable.nodeType("a.txt"));
+
+        // New records go after the last complete batch
+        durable.apply(new FileSystemBatch().addFile("root", "a.txt", 3));
+        durable.close();
+        durable = BasicFileSystemManager.open(options);
+        assertEquals(3, durable.getFileSize("a.txt"));
+        durable.close();
+    }
+
+    @Test
+    public void testPipelinedBatch() throws Throwable {
+        try (PipelinedFileSystemManager pipelined =
+                     new PipelinedFileSystemManager(new BasicFileSystemManager(), PipelineOptions.defaults())) {
+            pipelined.addDir("root", "Documents");
+            FileSystemBatch batch = new FileSystemBatch()
+                    .addDir("Documents", "Work")
+                    .addFile("Work", "notes.txt", 20);
+            pipelined.apply(batch);
+            assertEquals(20, pipelined.getDirectorySize("Documents"));
+
+            try {
+                pipelined.apply(batch);
+                fail("Expected NameAlreadyExistsException was not thrown for the Work directory");
+            } catch (NameAlreadyExistsException e) {
+                // Expected
+            }
+            assertEquals(1, pipelined.getFileCount("root"));
+        }
+    }
+
+    @Test
+    public void testInstrumentedBatch() throws FileSystemException {
+        InstrumentedFileSystemManager instrumented = new InstrumentedFileSystemManager(fileSystemManager);
+        instrumented.apply(new FileSystemBatch().addDir("Documents", "Work").addFile("Work", "notes.txt", 20));
+        assertEquals(520, instrumented.getDirectorySize("Documents"));
+
+        // The compact manager has no batches, the instrumentation only forwards the capability
+        InstrumentedFileSystemManager compact = new InstrumentedFileSystemManager(new CompactFileSystemManager());
+        try {
+            compact.apply(new FileSystemBatch().addDir("root", "Work"));
+            fail("Expected UnsupportedOperationException was not thrown");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        assertEquals(NodeType.NONE, compact.nodeType("Work"));
+    }
+}
@@ -0,0 +1,142 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.metrics.FileSystemMetrics;
+import filesystem.metrics.FileSystemMetrics.Operation;
+import filesystem.metrics.LatencyHistogram;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.CompactFileSystemManager;
+import filesystem.operations.InstrumentedFileSystemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedFileSystemManagerTest {
+    private InstrumentedFileSystemManager fileSystemManager;
+    private FileSystemMetrics metrics;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new InstrumentedFileSystemManager(new BasicFileSystemManager());
+        metrics = fileSystemManager.getMetrics();
+    }
+
+    @Test
+    public void testOperationsAreCounted() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("Documents", "notes.txt", 100);
+        assertEquals(500, fileSystemManager.getFileSize("resume.docx"));
+        assertEquals("resume.docx", fileSystemManager.getBiggestFile());
+
+        assertEquals(1, metrics.getOperationCount(Operation.ADD_DIR));
+        assertEquals(2, metrics.getOperationCount(Operation.ADD_FILE));
+        assertEquals(1, metrics.getOperationCount(Operation.GET_FILE_SIZE));
+        assertEquals(1, metrics.getOperationCount(Operation.GET_BIGGEST_FILE));
+        assertEquals(0, metrics.getFailureCount(Operation.ADD_FILE));
+        assertTrue(metrics.getLatency(Operation.ADD_FILE).getMax() > 0);
+    }
+
+    @Test
+    public void testExceptionsAreCountedByType() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        assertThrows(NameAlreadyExistsException.class, () -> fileSystemManager.addFile("root", "resume.docx", 300));
+        assertThrows(NameAlreadyExistsException.class, () -> fileSystemManager.addDir("root", "Documents"));
+        assertThrows(DirectoryNotFoundException.class, () -> fileSystemManager.addFile("Missing", "a.txt", 1));
+        assertThrows(FileSystemException.class, () -> fileSystemManager.getFileSize("missing.txt"));
+
+        assertEquals(2, metrics.getExceptionCount(NameAlreadyExistsException.class));
+        assertEquals(1, metrics.getExceptionCount(DirectoryNotFoundException.class));
+        assertEquals(1, metrics.getExceptionCount(FileSystemException.class));
+        assertEquals(2, metrics.getFailureCount(Operation.ADD_FILE));
+        assertEquals(3, metrics.getOperationCount(Operation.ADD_FILE));
+        assertEquals(Map.of("DirectoryNotFoundException", 1L, "FileSystemException", 1L,
+                "NameAlreadyExistsException", 2L), metrics.getExceptionCounts());
+    }
+
+    @Test
+    public void testDeletedNodesAreCounted() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addDir("Documents", "Work");
+        fileSystemManager.addFile("Work", "project.docx", 800);
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+
+        fileSystemManager.delete("resume.docx");
+        assertEquals(1, metrics.getDeletedNodeCount());
+        fileSystemManager.delete("Documents");
+        assertEquals(4, metrics.getDeletedNodeCount());
+        assertEquals(2, metrics.getOperationCount(Operation.DELETE));
+    }
+
+    @Test
+    public void testGauges() throws FileSystemException {
+        assertEquals(0, fileSystemManager.getMaxDepth());
+        fileSystemManager.addDir("root", "a");
+        fileSystemManager.addDir("a", "b");
+        fileSystemManager.addDir("b", "c");
+        fileSystemManager.addFile("c", "deep.txt", 10);
+        fileSystemManager.addFile("root", "...", 20);
+        fileSystemManager.addDir("root", "x");
+
+        Map<String, Long> gauges = metrics.readGauges();
+        assertEquals(Long.valueOf(7), gauges.get("nodes"));
+        assertEquals(Long.valueOf(2), gauges.get("files"));
+        assertEquals(Long.valueOf(4), gauges.get("maxDepth"));
+        assertTrue(gauges.get("heapUsedBytes") > 0);
+
+        fileSystemManager.delete("a");
+        assertEquals(1, fileSystemManager.getMaxDepth());
+    }
+
+    @Test
+    public void testMaxDepthOfCompactManager() throws FileSystemException {
+        InstrumentedFileSystemManager compact = new InstrumentedFileSystemManager(new CompactFileSystemManager());
+        String parent = "root";
+        for (int depth = 1; depth <= 37; depth++) {
+            compact.addDir(parent, "dir" + depth);
+            parent = "dir" + depth;
+        }
+        assertEquals(37, compact.getMaxDepth());
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() throws FileSystemException {
+        fileSystemManager.setEnabled(false);
+        fileSystemManager.addDir("root", "Documents");
+        assertThrows(NameAlreadyExistsException.class, () -> fileSystemManager.addDir("root", "Documents"));
+        assertEquals(0, metrics.getOperationCount(Operation.ADD_DIR));
+        assertTrue(metrics.getExceptionCounts().isEmpty());
+
+        fileSystemManager.setEnabled(true);
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        assertEquals(1, metrics.getOperationCount(Operation.ADD_FILE));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        // Within the 1/32 relative error of a bucket
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 / 32.0);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 990_000 / 32.0);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(1000, histogram.getValueAtPercentile(0), 1000 / 32.0);
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
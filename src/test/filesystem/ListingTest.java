@@ -0,0 +1,201 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.InvalidCursorException;
+import filesystem.listing.ListingPage;
+import filesystem.listing.SortKey;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.ConcurrentFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import filesystem.operations.PipelinedFileSystemManager;
+import filesystem.operations.ShardedFileSystemManager;
+import filesystem.pipeline.PipelineOptions;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ListingTest {
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+        fileSystemManager.addDir("root", "Documents");
+    }
+
+    @Test
+    public void testOrdersAndPages() throws FileSystemException {
+        // Sizes in reverse order of the names, so the two orders differ
+        for (int i = 0; i < 30; i++) {
+            fileSystemManager.addFile("Documents", String.format("f%02d", i), 100 - i);
+        }
+        fileSystemManager.addDir("Documents", "b-dir");
+        fileSystemManager.addDir("Documents", "a-dir");
+
+        List<String> byName = new ArrayList<>(List.of("a-dir", "b-dir"));
+        List<String> bySize = new ArrayList<>(List.of("a-dir", "b-dir"));
+        for (int i = 0; i < 30; i++) {
+            byName.add(String.format("f%02d", i));
+            bySize.add(String.format("f%02d", 29 - i));
+        }
+        assertEquals(byName, listAll(fileSystemManager, "Documents", 7, SortKey.NAME));
+        assertEquals(bySize, listAll(fileSystemManager, "Documents", 7, SortKey.SIZE));
+        // Every node was created within a few milliseconds, the ties are broken by name
+        assertEquals(32, listAll(fileSystemManager, "Documents", 7, SortKey.CREATION_DATE).size());
+
+        ListingPage last = fileSystemManager.list("Documents", null, 32, SortKey.NAME);
+        assertEquals(32, last.getNames().size());
+        assertFalse(last.hasNext());
+    }
+
+    @Test
+    public void testCreationDateOrder() throws Throwable {
+        for (String name : List.of("c.txt", "a.txt", "b.txt")) {
+            fileSystemManager.addFile("Documents", name, 10);
+            Thread.sleep(2);
+        }
+        assertEquals(List.of("c.txt", "a.txt", "b.txt"), listAll(fileSystemManager, "Documents", 2, SortKey.CREATION_DATE));
+    }
+
+    @Test
+    public void testCursorSurvivesInsertsAndDeletes() throws FileSystemException {
+        for (int i = 0; i < 20; i += 2) {
+            fileSystemManager.addFile("Documents", String.format("f%02d", i), 1 + i);
+        }
+        ListingPage first = fileSystemManager.list("Documents", null, 4, SortKey.NAME);
+        assertEquals(List.of("f00", "f02", "f04", "f06"), first.getNames());
+
+        // The last listed child and a child not listed yet are deleted, children are added on both sides of the cursor
+        fileSystemManager.delete("f06");
+        fileSystemManager.delete("f10");
+        fileSystemManager.addFile("Documents", "f03", 3);
+        fileSystemManager.addFile("Documents", "f07", 7);
+
+        List<String> rest = new ArrayList<>();
+        String cursor = first.getNextCursor();
+        while (cursor != null) {
+            ListingPage page = fileSystemManager.list("Documents", cursor, 4, SortKey.NAME);
+            rest.addAll(page.getNames());
+            cursor = page.getNextCursor();
+        }
+        assertEquals(List.of("f07", "f08", "f12", "f14", "f16", "f18"), rest);
+    }
+
+    @Test
+    public void testRenamesAndMovesUpdateTheOrders() throws FileSystemException {
+        fileSystemManager.addDir("root", "Archive");
+        for (int i = 0; i < 12; i++) {
+            fileSystemManager.addFile("Documents", "f" + (char) ('a' + i), 10 + i);
+        }
+        // Build the orders of the directory before changing it
+        listAll(fileSystemManager, "Documents", 5, SortKey.NAME);
+        listAll(fileSystemManager, "Documents", 5, SortKey.SIZE);
+
+        fileSystemManager.rename("fa", "zz");
+        fileSystemManager.move("fb", "Archive");
+        fileSystemManager.move("Archive", "Documents");
+
+        List<String> byName = listAll(fileSystemManager, "Documents", 5, SortKey.NAME);
+        assertEquals("Archive", byName.get(0));
+        assertEquals("zz", byName.get(byName.size() - 1));
+        assertFalse(byName.contains("fa") || byName.contains("fb"));
+        assertEquals(List.of("Archive", "zz", "fc"), listAll(fileSystemManager, "Documents", 5, SortKey.SIZE).subList(0, 3));
+        assertEquals(List.of("fb"), listAll(fileSystemManager, "Archive", 5, SortKey.SIZE));
+
+        // Back to a handful of children, which are sorted on every listing
+        for (char c = 'c'; c <= 'j'; c++) {
+            fileSystemManager.delete("f" + c);
+        }
+        assertEquals(List.of("Archive", "fk", "fl", "zz"), listAll(fileSystemManager, "Documents", 3, SortKey.NAME));
+    }
+
+    @Test
+    public void testEmptyDirectory() throws FileSystemException {
+        ListingPage page = fileSystemManager.list("Documents", null, 10, SortKey.SIZE);
+        assertTrue(page.getNames().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void testCursorOfAnotherOrder() throws FileSystemException {
+        for (int i = 0; i < 4; i++) {
+            fileSystemManager.addFile("Documents", "f" + i, 1 + i);
+        }
+        String cursor = fileSystemManager.list("Documents", null, 2, SortKey.NAME).getNextCursor();
+        fileSystemManager.list("Documents", cursor, 2, SortKey.SIZE); // Should throw exception
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void testMalformedCursor() throws FileSystemException {
+        fileSystemManager.list("Documents", "not a cursor!", 2, SortKey.NAME); // Should throw exception
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testListAFile() throws FileSystemException {
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.list("resume.docx", null, 2, SortKey.NAME); // Should throw exception
+    }
+
+    @Test
+    public void testListByPath() throws FileSystemException {
+        fileSystemManager.addDirByPath("/Documents/Work");
+        fileSystemManager.addFileByPath("/Documents/Work/b.txt", 2);
+        fileSystemManager.addFileByPath("/Documents/Work/a.txt", 1);
+        assertEquals(List.of("a.txt", "b.txt"),
+                fileSystemManager.listByPath("/Documents/Work", null, 10, SortKey.NAME).getNames());
+    }
+
+    @Test
+    public void testOtherManagers() throws Throwable {
+        ConcurrentFileSystemManager concurrent = new ConcurrentFileSystemManager();
+        ShardedFileSystemManager sharded = ShardedFileSystemManager.inMemory(3);
+        try (PipelinedFileSystemManager pipelined =
+                     new PipelinedFileSystemManager(new BasicFileSystemManager(), PipelineOptions.defaults())) {
+            List<String> expected = new ArrayList<>();
+            for (FileSystemManager manager : List.of(concurrent, sharded, pipelined)) {
+                for (int i = 0; i < 25; i++) {
+                    manager.addFile("root", "f" + i, 1000 - i);
+                }
+                manager.addDir("root", "Work");
+                manager.addFile("Work", "notes.txt", 5);
+            }
+            expected.add("Work");
+            for (int i = 24; i >= 0; i--) {
+                expected.add("f" + i);
+            }
+            for (FileSystemManager manager : List.of(concurrent, sharded, pipelined)) {
+                assertEquals(expected, listAll(manager, "root", 4, SortKey.SIZE));
+                assertEquals(List.of("notes.txt"), listAll(manager, "Work", 4, SortKey.NAME));
+            }
+        } finally {
+            sharded.close();
+        }
+    }
+
+    /**
+     * Lists the whole directory page by page and checks that no name is returned twice.
+     */
+    static List<String> listAll(FileSystemManager manager, String dirName, int limit, SortKey sortKey)
+            throws FileSystemException {
+        List<String> names = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        String cursor = null;
+        do {
+            ListingPage page = manager.list(dirName, cursor, limit, sortKey);
+            assertTrue(page.getNames().size() <= limit);
+            for (String name : page.getNames()) {
+                assertTrue("Listed twice: " + name, seen.add(name));
+                names.add(name);
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return names;
+    }
+}
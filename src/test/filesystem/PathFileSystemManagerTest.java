@@ -0,0 +1,201 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.InvalidPathException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.exceptions.nodes.InvalidNameException;
+import filesystem.operations.BasicFileSystemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PathFileSystemManagerTest {
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+    }
+
+    @Test
+    public void testSameNameInDifferentDirectories() throws FileSystemException {
+        fileSystemManager.addDirByPath("/Documents");
+        fileSystemManager.addDirByPath("/Pictures");
+        fileSystemManager.addDirByPath("/Documents/2024");
+        fileSystemManager.addDirByPath("/Pictures/2024");
+        fileSystemManager.addFileByPath("/Documents/2024/notes.txt", 100);
+        fileSystemManager.addFileByPath("/Pictures/2024/notes.txt", 300);
+
+        assertEquals(100, fileSystemManager.getFileSizeByPath("/Documents/2024/notes.txt"));
+        assertEquals(300, fileSystemManager.getFileSizeByPath("/Pictures/2024/notes.txt"));
+        assertEquals(400, fileSystemManager.getDirectorySizeByPath("/"));
+        assertEquals(1, fileSystemManager.getFileCountByPath("/Documents"));
+        assertEquals(1, fileSystemManager.getDirectoryCountByPath("/Pictures"));
+        assertEquals("/Pictures/2024/notes.txt", fileSystemManager.getBiggestFilePath());
+        assertEquals(List.of("/Pictures/2024/notes.txt", "/Documents/2024/notes.txt"),
+                fileSystemManager.getBiggestFilePaths(5));
+        assertEquals("/Documents/2024/notes.txt", fileSystemManager.getBiggestFilePath("/Documents"));
+        assertEquals(List.of("/Documents/2024/notes.txt"), fileSystemManager.getBiggestFilePaths("/Documents", 5));
+
+        Iterator<String> range = fileSystemManager.getFilePathsInSizeRange(50, 150);
+        assertEquals("/Documents/2024/notes.txt", range.next());
+        assertFalse(range.hasNext());
+
+        // Unique names can still be used by name
+        assertEquals(100, fileSystemManager.getDirectorySize("Documents"));
+        assertEquals("notes.txt", fileSystemManager.getBiggestFile());
+    }
+
+    @Test
+    public void testSharedNameIsRejectedByName() throws FileSystemException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/b");
+        fileSystemManager.addFileByPath("/a/same.txt", 10);
+        fileSystemManager.addFileByPath("/b/same.txt", 20);
+        try {
+            fileSystemManager.getFileSize("same.txt");
+            fail("Expected FileSystemException was not thrown for a shared name");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.addFile("root", "same.txt", 5);
+            fail("Expected NameAlreadyExistsException was not thrown for a shared name");
+        } catch (NameAlreadyExistsException e) {
+            // Expected
+        }
+
+        // Once only one node holds the name, it can be used by name again
+        fileSystemManager.deleteByPath("/a");
+        assertEquals(20, fileSystemManager.getFileSize("same.txt"));
+        fileSystemManager.delete("same.txt");
+        fileSystemManager.addFile("root", "same.txt", 5);
+        assertEquals(5, fileSystemManager.getFileSizeByPath("/same.txt"));
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testDuplicateNameInSameDirectory() throws FileSystemException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addFileByPath("/a/x", 10);
+        fileSystemManager.addDirByPath("/a/x"); // Should throw exception
+    }
+
+    @Test(expected = DirectoryNotFoundException.class)
+    public void testAddUnderMissingDirectory() throws FileSystemException {
+        fileSystemManager.addFileByPath("/missing/x", 10); // Should throw exception
+    }
+
+    @Test
+    public void testCachedPathsFollowDeletes() throws FileSystemException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/a/b");
+        fileSystemManager.addFileByPath("/a/b/c", 10);
+        // Cache the paths of the whole chain
+        assertEquals(10, fileSystemManager.getFileSizeByPath("/a/b/c"));
+        assertEquals(10, fileSystemManager.getDirectorySizeByPath("/a/b"));
+
+        fileSystemManager.deleteByPath("/a");
+        try {
+            fileSystemManager.getFileSizeByPath("/a/b/c");
+            fail("Expected FileSystemException was not thrown for a deleted path");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        // The same paths now lead to new nodes
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/a/b");
+        fileSystemManager.addFileByPath("/a/b/c", 70);
+        assertEquals(70, fileSystemManager.getFileSizeByPath("/a/b/c"));
+        assertEquals(70, fileSystemManager.getDirectorySizeByPath("/a/b"));
+    }
+
+    @Test
+    public void testShowSubtree() throws FileSystemException, IOException {
+        fileSystemManager.addDirByPath("/a");
+        fileSystemManager.addDirByPath("/a/b");
+        fileSystemManager.addFileByPath("/a/b/c", 10);
+
+        StringBuilder out = new StringBuilder();
+        fileSystemManager.showFileSystemByPath("/a/b", out, BasicFileSystemManager.UNLIMITED_DEPTH,
+                BasicFileSystemManager.UNLIMITED_NODES);
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("b ["));
+        assertTrue(lines[1].startsWith("   c [size=10 bytes"));
+    }
+
+    @Test
+    public void testMoveRenameAndResizeSharedNames() throws FileSystemException {
+        fileSystemManager.addDirByPath("/Documents");
+        fileSystemManager.addDirByPath("/Pictures");
+        fileSystemManager.addFileByPath("/Documents/notes.txt", 100);
+        fileSystemManager.addFileByPath("/Pictures/notes.txt", 300);
+
+        fileSystemManager.appendByPath("/Documents/notes.txt", 50);
+        fileSystemManager.resizeByPath("/Pictures/notes.txt", 30);
+        assertEquals(150, fileSystemManager.getFileSizeByPath("/Documents/notes.txt"));
+        assertEquals(30, fileSystemManager.getDirectorySizeByPath("/Pictures"));
+        assertEquals("/Documents/notes.txt", fileSystemManager.getBiggestFilePath());
+
+        // The name stays shared after the rename, the new one is unique
+        fileSystemManager.renameByPath("/Pictures/notes.txt", "caption.txt");
+        assertEquals(30, fileSystemManager.getFileSize("caption.txt"));
+        assertEquals(150, fileSystemManager.getFileSize("notes.txt"));
+        fileSystemManager.renameByPath("/Pictures/caption.txt", "notes.txt");
+
+        try {
+            fileSystemManager.moveByPath("/Pictures/notes.txt", "/Documents");
+            fail("Expected NameAlreadyExistsException was not thrown for a taken name");
+        } catch (NameAlreadyExistsException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.renameByPath("/Pictures", "Documents");
+            fail("Expected NameAlreadyExistsException was not thrown for a taken name");
+        } catch (NameAlreadyExistsException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.moveByPath("/Documents", "/Documents");
+            fail("Expected FileSystemException was not thrown for a move into its own subtree");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.resizeByPath("/Pictures", 10);
+            fail("Expected FileSystemException was not thrown for a directory");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        fileSystemManager.moveByPath("/Pictures", "/Documents");
+        assertEquals(180, fileSystemManager.getDirectorySizeByPath("/Documents"));
+        assertEquals(30, fileSystemManager.getFileSizeByPath("/Documents/Pictures/notes.txt"));
+        assertEquals(List.of("/Documents/notes.txt", "/Documents/Pictures/notes.txt"),
+                fileSystemManager.getBiggestFilePaths(5));
+    }
+
+    @Test
+    public void testMalformedPaths() throws FileSystemException {
+        for (String path : new String[]{"a/b", "", "/a//b", "/a/"}) {
+            try {
+                fileSystemManager.getFileSizeByPath(path);
+                fail("Expected InvalidPathException was not thrown for " + path);
+            } catch (InvalidPathException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = InvalidNameException.class)
+    public void testNameWithSeparator() throws FileSystemException {
+        fileSystemManager.addFile("root", "a/b", 10); // Should throw exception
+    }
+}
@@ -0,0 +1,194 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemSnapshot;
+import filesystem.operations.PipelinedFileSystemManager;
+import filesystem.pipeline.MpscRingBuffer;
+import filesystem.pipeline.PipelineOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipelinedFileSystemManagerTest {
+    private static final int THREADS = 8;
+    private static final int FILES_PER_THREAD = 2_000;
+
+    private PipelinedFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new PipelinedFileSystemManager(new BasicFileSystemManager(), PipelineOptions.defaults());
+    }
+
+    @After
+    public void tearDown() {
+        fileSystemManager.close();
+    }
+
+    @Test
+    public void testReadsSeeAwaitedWrites() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "resume.docx", 500);
+        fileSystemManager.addFile("root", "large.jpg", 6400);
+
+        assertEquals(500, fileSystemManager.getFileSize("resume.docx"));
+        assertEquals("large.jpg", fileSystemManager.getBiggestFile());
+        assertEquals(6900, fileSystemManager.getDirectorySize("root"));
+
+        fileSystemManager.delete("large.jpg");
+        assertEquals("resume.docx", fileSystemManager.getBiggestFile());
+    }
+
+    @Test
+    public void testSizeQueriesAfterRename() throws FileSystemException {
+        fileSystemManager.addDir("root", "d");
+        fileSystemManager.addFile("d", "a", 100);
+        fileSystemManager.addFile("d", "b", 200);
+        fileSystemManager.rename("b", "c");
+
+        // Reads go to the published view, whose size index must follow the rename
+        assertEquals("c", fileSystemManager.getBiggestFile());
+        assertEquals(List.of("c", "a"), fileSystemManager.getBiggestFiles(10));
+        List<String> inRange = new ArrayList<>();
+        fileSystemManager.getFilesInSizeRange(150, 250).forEachRemaining(inRange::add);
+        assertEquals(List.of("c"), inRange);
+    }
+
+    @Test(expected = NameAlreadyExistsException.class)
+    public void testAddDuplicateFile() throws FileSystemException {
+        fileSystemManager.addFile("root", "resume.docx", 500);
+        fileSystemManager.addFile("root", "resume.docx", 300); // Should throw exception
+    }
+
+    @Test
+    public void testFailedCommandCompletesExceptionally() throws InterruptedException {
+        CompletableFuture<Void> added = fileSystemManager.submitAddFile("Missing", "a.txt", 1);
+        try {
+            added.get();
+            fail("Adding under a missing directory should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DirectoryNotFoundException);
+        }
+    }
+
+    @Test
+    public void testViewIsNotChangedByLaterBatches() throws FileSystemException {
+        fileSystemManager.addFile("root", "a.txt", 100);
+        FileSystemSnapshot before = fileSystemManager.view();
+        fileSystemManager.addFile("root", "b.txt", 200);
+
+        assertEquals(1, before.getFileCount("root"));
+        assertEquals(2, fileSystemManager.getFileCount("root"));
+    }
+
+    @Test
+    public void testBigDeleteDoesNotBlockTheWriter() throws Throwable {
+        fileSystemManager.close();
+        BasicFileSystemManager basic = new BasicFileSystemManager();
+        basic.addDir("root", "big");
+        for (int i = 0; i < 100_000; i++) {
+            basic.addFile("big", "big_" + i, 1 + i);
+        }
+        basic.addFile("root", "kept.txt", 10);
+        fileSystemManager = new PipelinedFileSystemManager(basic, PipelineOptions.defaults());
+        FileSystemSnapshot before = fileSystemManager.view();
+
+        fileSystemManager.submitDelete("big").get(5, TimeUnit.SECONDS);
+        // The view is published without reclaiming the subtree, the writer only freed a batch of it
+        assertTrue(basic.reclaimDeleted(0));
+        assertEquals("kept.txt", fileSystemManager.getBiggestFile());
+        assertEquals(1, fileSystemManager.getFileCount("root"));
+        assertFalse(fileSystemManager.findByPrefix("big_", null).hasNext());
+
+        fileSystemManager.submitAddFile("root", "after.txt", 20).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("after.txt", "kept.txt"), fileSystemManager.getBiggestFiles(5));
+        assertTrue(basic.reclaimDeleted(0));
+        assertEquals("big_99999", before.getBiggestFile());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Throwable {
+        fileSystemManager.close();
+        // Small batches published after a short wait, so batches are filled by several producers
+        fileSystemManager = new PipelinedFileSystemManager(new BasicFileSystemManager(),
+                new PipelineOptions(256, 64, 100, PipelineOptions.Backpressure.BLOCK));
+        for (int t = 0; t < THREADS; t++) {
+            fileSystemManager.addDir("root", "dir" + t);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<CompletableFuture<Void>>>> producers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            producers.add(executor.submit(() -> {
+                List<CompletableFuture<Void>> added = new ArrayList<>();
+                for (int i = 0; i < FILES_PER_THREAD; i++) {
+                    added.add(fileSystemManager.submitAddFile("dir" + thread, "f" + thread + "_" + i, 1 + i));
+                }
+                return added;
+            }));
+        }
+        for (Future<List<CompletableFuture<Void>>> producer : producers) {
+            for (CompletableFuture<Void> added : producer.get()) {
+                added.get(10, TimeUnit.SECONDS);
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(THREADS * FILES_PER_THREAD, fileSystemManager.getFileCount("root"));
+        assertEquals(FILES_PER_THREAD, fileSystemManager.getFileCount("dir3"));
+        assertEquals(FILES_PER_THREAD, fileSystemManager.getFileSize("f5_" + (FILES_PER_THREAD - 1)));
+    }
+
+    @Test
+    public void testCloseAppliesPendingCommands() throws Throwable {
+        List<CompletableFuture<Void>> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            added.add(fileSystemManager.submitAddFile("root", "f" + i, 1 + i));
+        }
+        fileSystemManager.close();
+        for (CompletableFuture<Void> future : added) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+        assertEquals(1000, fileSystemManager.getFileCount("root"));
+
+        try {
+            fileSystemManager.submitAddDir("root", "late").get();
+            fail("A command submitted after close should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testRingBuffer() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drain(drained::add, 3));
+        assertTrue(buffer.offer(4));
+        assertEquals(2, buffer.drain(drained::add, 10));
+        assertEquals(List.of(0, 1, 2, 3, 4), drained);
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,196 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.nodes.InvalidFileSizeException;
+import filesystem.listing.SortKey;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.ConcurrentFileSystemManager;
+import filesystem.operations.FileSystemSnapshot;
+import filesystem.operations.InstrumentedFileSystemManager;
+import filesystem.operations.PipelinedFileSystemManager;
+import filesystem.persistence.DurabilityOptions;
+import filesystem.pipeline.PipelineOptions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResizeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BasicFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = new BasicFileSystemManager();
+        fileSystemManager.addDir("root", "Logs");
+        fileSystemManager.addDir("Logs", "Archive");
+        fileSystemManager.addFile("Logs", "app.log", 100);
+        fileSystemManager.addFile("Archive", "old.log", 300);
+        fileSystemManager.addFile("root", "notes.txt", 200);
+    }
+
+    @Test
+    public void testGrowAndShrink() throws FileSystemException {
+        fileSystemManager.append("app.log", 400);
+        assertEquals(500, fileSystemManager.getFileSize("app.log"));
+        assertEquals("app.log", fileSystemManager.getBiggestFile());
+        assertEquals(List.of("app.log", "old.log", "notes.txt"), fileSystemManager.getBiggestFiles(5));
+        assertEquals(1000, fileSystemManager.getDirectorySize("root"));
+        assertEquals(800, fileSystemManager.getDirectorySize("Logs"));
+        assertEquals(300, fileSystemManager.getDirectorySize("Archive"));
+        assertEquals(500, fileSystemManager.getFileSizeAtRank(2));
+
+        fileSystemManager.resize("app.log", 50);
+        assertEquals("old.log", fileSystemManager.getBiggestFile());
+        assertEquals(List.of("old.log", "app.log"), fileSystemManager.getBiggestFiles("Logs", 5));
+        assertEquals(350, fileSystemManager.getDirectorySize("Logs"));
+        assertEquals(550, fileSystemManager.getDirectorySize("root"));
+        assertEquals(2, fileSystemManager.getFileCount("Logs"));
+        assertEquals(List.of("app.log"), names(fileSystemManager.getFilesInSizeRange(1, 100)));
+        assertEquals(50, fileSystemManager.getFileSizeAtRank(0));
+
+        fileSystemManager.append("old.log", -299);
+        assertEquals(List.of("notes.txt", "app.log", "old.log"), fileSystemManager.getBiggestFiles(5));
+        assertEquals("app.log", fileSystemManager.getBiggestFile("Logs"));
+        assertEquals(1, fileSystemManager.getDirectorySize("Archive"));
+    }
+
+    @Test
+    public void testInvalidSizesChangeNothing() throws FileSystemException {
+        for (long newSize : new long[] {0, -5}) {
+            try {
+                fileSystemManager.resize("app.log", newSize);
+                fail("Expected InvalidFileSizeException was not thrown for " + newSize);
+            } catch (InvalidFileSizeException e) {
+                // Expected
+            }
+        }
+        try {
+            fileSystemManager.append("app.log", Long.MAX_VALUE);
+            fail("Expected InvalidFileSizeException was not thrown for an overflowing append");
+        } catch (InvalidFileSizeException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.append("app.log", -100);
+            fail("Expected InvalidFileSizeException was not thrown for an empty file");
+        } catch (InvalidFileSizeException e) {
+            // Expected
+        }
+        assertEquals(100, fileSystemManager.getFileSize("app.log"));
+        assertEquals(600, fileSystemManager.getDirectorySize("root"));
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testResizeADirectory() throws FileSystemException {
+        fileSystemManager.resize("Archive", 10); // Should throw exception
+    }
+
+    @Test(expected = FileSystemException.class)
+    public void testResizeAMissingFile() throws FileSystemException {
+        fileSystemManager.append("missing.log", 10); // Should throw exception
+    }
+
+    @Test
+    public void testIdentityIsKept() throws Throwable {
+        Thread.sleep(5);
+        fileSystemManager.addFile("Logs", "new.log", 1);
+        fileSystemManager.append("app.log", 1000);
+
+        // The file keeps its creation time and its place in the listings, which are rekeyed by size
+        assertEquals(List.of("app.log", "old.log", "notes.txt"), fileSystemManager.getOldestFiles(3));
+        for (int i = 0; i < 10; i++) {
+            fileSystemManager.addFile("Logs", "f" + i, 10 + i);
+        }
+        assertEquals(List.of("Archive", "new.log", "f0"),
+                ListingTest.listAll(fileSystemManager, "Logs", 4, SortKey.SIZE).subList(0, 3));
+        fileSystemManager.resize("new.log", 15);
+        fileSystemManager.resize("app.log", 2);
+        assertEquals(List.of("Archive", "app.log", "f0", "f1", "f2", "f3", "f4", "f5", "new.log", "f6"),
+                ListingTest.listAll(fileSystemManager, "Logs", 4, SortKey.SIZE).subList(0, 10));
+    }
+
+    @Test
+    public void testSnapshots() throws FileSystemException {
+        FileSystemSnapshot before = fileSystemManager.snapshot();
+        fileSystemManager.append("app.log", 900);
+        FileSystemSnapshot after = fileSystemManager.snapshot();
+
+        assertEquals(100, before.getFileSize("app.log"));
+        assertEquals("old.log", before.getBiggestFile());
+        assertEquals(600, before.getDirectorySize("root"));
+        assertEquals(1000, after.getFileSize("app.log"));
+        assertEquals("app.log", after.getBiggestFile());
+        assertEquals(1300, after.getDirectorySize("Logs"));
+        assertEquals(1500, after.getDirectorySize("root"));
+    }
+
+    @Test
+    public void testDurableResizes() throws Throwable {
+        DurabilityOptions options = new DurabilityOptions(folder.getRoot().toPath(), 1, 0, 0);
+        BasicFileSystemManager durable = BasicFileSystemManager.open(options);
+        durable.addDir("root", "Logs");
+        durable.addFile("Logs", "a.log", 10);
+        durable.addFile("Logs", "b.log", 20);
+        durable.append("a.log", 5);
+        durable.checkpoint();
+        durable.append("a.log", 30);
+        durable.resize("b.log", 7);
+        durable.close();
+
+        durable = BasicFileSystemManager.open(options);
+        assertEquals(45, durable.getFileSize("a.log"));
+        assertEquals(7, durable.getFileSize("b.log"));
+        assertEquals(52, durable.getDirectorySize("root"));
+        assertEquals("a.log", durable.getBiggestFile());
+        durable.close();
+    }
+
+    @Test
+    public void testOtherManagers() throws Throwable {
+        InstrumentedFileSystemManager instrumented = new InstrumentedFileSystemManager(new BasicFileSystemManager());
+        instrumented.addFile("root", "a.log", 10);
+        instrumented.append("a.log", 10);
+        instrumented.resize("a.log", 5);
+        assertEquals(5, instrumented.getFileSize("a.log"));
+
+        // A manager without resizes doesn't offer them, the instrumentation forwards the capability only if it has it
+        InstrumentedFileSystemManager concurrent = new InstrumentedFileSystemManager(new ConcurrentFileSystemManager());
+        concurrent.addFile("root", "a.log", 10);
+        try {
+            concurrent.resize("a.log", 5);
+            fail("Expected UnsupportedOperationException was not thrown");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        assertEquals(10, concurrent.getFileSize("a.log"));
+
+        try (PipelinedFileSystemManager pipelined =
+                     new PipelinedFileSystemManager(new BasicFileSystemManager(), PipelineOptions.defaults())) {
+            pipelined.addFile("root", "a.log", 10);
+            pipelined.addFile("root", "b.log", 20);
+            for (int i = 0; i < 100; i++) {
+                pipelined.submitAppend("a.log", 1);
+            }
+            pipelined.append("a.log", 1);
+            assertEquals(111, pipelined.getFileSize("a.log"));
+            assertEquals("a.log", pipelined.getBiggestFile());
+            pipelined.resize("a.log", 1);
+            assertEquals(21, pipelined.getDirectorySize("root"));
+        }
+    }
+
+    private static List<String> names(Iterator<String> iterator) {
+        List<String> names = new ArrayList<>();
+        iterator.forEachRemaining(names::add);
+        return names;
+    }
+}
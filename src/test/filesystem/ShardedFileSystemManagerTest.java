@@ -0,0 +1,294 @@
+package test.filesystem;
+
+import filesystem.exceptions.FileSystemException;
+import filesystem.exceptions.manager.DirectoryNotFoundException;
+import filesystem.exceptions.manager.NameAlreadyExistsException;
+import filesystem.listing.SortKey;
+import filesystem.nodes.NodeType;
+import filesystem.operations.BasicFileSystemManager;
+import filesystem.operations.FileSystemManager;
+import filesystem.operations.ShardedFileSystemManager;
+import filesystem.sharding.RemoteShard;
+import filesystem.sharding.ShardServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShardedFileSystemManagerTest {
+    private static final int SHARDS = 4;
+
+    private ShardedFileSystemManager fileSystemManager;
+
+    @Before
+    public void setUp() throws FileSystemException {
+        fileSystemManager = ShardedFileSystemManager.inMemory(SHARDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystemManager.close();
+    }
+
+    @Test
+    public void testSubtreesStayOnTheirShard() throws FileSystemException {
+        for (int d = 0; d < 20; d++) {
+            fileSystemManager.addDir("root", "dir" + d);
+            fileSystemManager.addDir("dir" + d, "sub" + d);
+            fileSystemManager.addFile("sub" + d, "file" + d, 10 + d);
+        }
+        boolean[] used = new boolean[SHARDS];
+        for (int d = 0; d < 20; d++) {
+            int shard = fileSystemManager.shardOf("dir" + d);
+            used[shard] = true;
+            assertEquals(shard, fileSystemManager.shardOf("sub" + d));
+            assertEquals(shard, fileSystemManager.shardOf("file" + d));
+            assertEquals(10 + d, fileSystemManager.getFileSize("file" + d));
+            assertEquals(10 + d, fileSystemManager.getDirectorySize("dir" + d));
+        }
+        for (boolean shardUsed : used) {
+            assertTrue(shardUsed);
+        }
+        assertEquals(-1, fileSystemManager.shardOf("missing"));
+        assertEquals(20, fileSystemManager.getFileCount("root"));
+        assertEquals(40, fileSystemManager.getDirectoryCount("root"));
+        assertEquals(NodeType.DIRECTORY, fileSystemManager.nodeType("root"));
+        assertEquals(NodeType.FILE, fileSystemManager.nodeType("file3"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("sub3"));
+    }
+
+    @Test
+    public void testNamesAreUniqueAcrossShards() throws FileSystemException {
+        fileSystemManager.addDir("root", "a");
+        fileSystemManager.addDir("root", "b");
+        fileSystemManager.addFile("a", "notes.txt", 10);
+        try {
+            fileSystemManager.addFile("b", "notes.txt", 20);
+            fail("A name taken on another shard should be rejected");
+        } catch (NameAlreadyExistsException e) {
+            // Expected
+        }
+        try {
+            fileSystemManager.addFile("missing", "other.txt", 20);
+            fail("A missing parent should be rejected");
+        } catch (DirectoryNotFoundException e) {
+            // Expected
+        }
+        // The failed add released the name
+        fileSystemManager.addFile("b", "other.txt", 20);
+        assertEquals(30, fileSystemManager.getDirectorySize("root"));
+    }
+
+    @Test
+    public void testScatterGatherMatchesSingleManager() throws FileSystemException {
+        BasicFileSystemManager expected = new BasicFileSystemManager();
+        buildRandomTree(new Random(7), fileSystemManager, expected);
+
+        assertEquals(expected.getBiggestFile(), fileSystemManager.getBiggestFile());
+        assertEquals(expected.getBiggestFiles(25), fileSystemManager.getBiggestFiles(25));
+        assertEquals(expected.getBiggestFiles("root", 3), fileSystemManager.getBiggestFiles("root", 3));
+        assertEquals(expected.getBiggestFile("dir2"), fileSystemManager.getBiggestFile("dir2"));
+        assertEquals(expected.getDirectorySize("root"), fileSystemManager.getDirectorySize("root"));
+        assertEquals(expected.getFileCount("root"), fileSystemManager.getFileCount("root"));
+        assertEquals(expected.getDirectoryCount("root"), fileSystemManager.getDirectoryCount("root"));
+        long fileCount = expected.getFileCount("root");
+        for (long rank : new long[] {0, 1, fileCount / 3, fileCount / 2, fileCount - 1}) {
+            assertEquals(expected.getFileSizeAtRank(rank), fileSystemManager.getFileSizeAtRank(rank));
+        }
+        for (double percentile : new double[] {0, 10, 50, 90, 99.9, 100}) {
+            assertEquals(expected.getFileSizePercentile(percentile), fileSystemManager.getFileSizePercentile(percentile));
+        }
+        try {
+            fileSystemManager.getFileSizeAtRank(fileCount);
+            fail("A rank past the last file should be rejected");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        assertEquals(toList(expected.getFilesInSizeRange(1_000, 50_000)),
+                toList(fileSystemManager.getFilesInSizeRange(1_000, 50_000)));
+        assertEquals(toList(expected.findByPrefix("f1", null)), toList(fileSystemManager.findByPrefix("f1", null)));
+        assertEquals(toList(expected.findByPrefix("f", "f5")), toList(fileSystemManager.findByPrefix("f", "f5")));
+        assertEquals(toList(expected.findBySuffix("7.txt", null)), toList(fileSystemManager.findBySuffix("7.txt", null)));
+        assertEquals(toList(expected.findByGlob("f*3.txt", null)), toList(fileSystemManager.findByGlob("f*3.txt", null)));
+        assertEquals(toList(expected.findByGlob("*3.t?t", null)), toList(fileSystemManager.findByGlob("*3.t?t", null)));
+    }
+
+    @Test
+    public void testShowFileSystem() throws IOException, FileSystemException {
+        BasicFileSystemManager expected = new BasicFileSystemManager();
+        buildRandomTree(new Random(11), fileSystemManager, expected);
+
+        assertEquals(sortedLines(show(expected, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES)),
+                sortedLines(show(fileSystemManager, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES)));
+        assertEquals(sortedLines(show(expected, 1, FileSystemManager.UNLIMITED_NODES)),
+                sortedLines(show(fileSystemManager, 1, FileSystemManager.UNLIMITED_NODES)));
+
+        String[] limited = show(fileSystemManager, FileSystemManager.UNLIMITED_DEPTH, 50).split("\n");
+        assertEquals(51, limited.length);
+        assertEquals("...", limited[50].trim());
+        assertEquals(2, show(fileSystemManager, 0, FileSystemManager.UNLIMITED_NODES).split("\n").length);
+        assertEquals(1, show(fileSystemManager, FileSystemManager.UNLIMITED_DEPTH, 1).split("\n").length - 1);
+    }
+
+    @Test
+    public void testMoveAcrossShards() throws FileSystemException {
+        String[] dirs = dirsOnTwoShards();
+        fileSystemManager.addDir(dirs[0], "inner");
+        fileSystemManager.addFile("inner", "report.pdf", 300);
+        fileSystemManager.addFile(dirs[1], "other.pdf", 100);
+
+        fileSystemManager.move("report.pdf", dirs[1]);
+        assertEquals(fileSystemManager.shardOf(dirs[1]), fileSystemManager.shardOf("report.pdf"));
+        assertEquals(400, fileSystemManager.getDirectorySize(dirs[1]));
+        assertEquals(0, fileSystemManager.getDirectorySize(dirs[0]));
+        assertEquals("report.pdf", fileSystemManager.getBiggestFile());
+
+        // Within a shard, a directory moves as usual
+        fileSystemManager.move("inner", "root");
+        assertEquals(1, fileSystemManager.getDirectoryCount("root") - 2);
+        try {
+            fileSystemManager.move("inner", dirs[1]);
+            fail("A directory can't move to another shard");
+        } catch (FileSystemException e) {
+            assertEquals(NodeType.DIRECTORY, fileSystemManager.nodeType("inner"));
+        }
+    }
+
+    @Test
+    public void testStaleRoutesAfterDirectoryDelete() throws FileSystemException {
+        String[] dirs = dirsOnTwoShards();
+        fileSystemManager.addDir(dirs[0], "photos");
+        fileSystemManager.addFile("photos", "beach.jpg", 700);
+        fileSystemManager.delete(dirs[0]);
+
+        assertEquals(NodeType.NONE, fileSystemManager.nodeType("beach.jpg"));
+        assertEquals(FileSystemManager.NO_SIZE, fileSystemManager.tryGetFileSize("beach.jpg"));
+        try {
+            fileSystemManager.getFileSize("beach.jpg");
+            fail("A node deleted with its directory should not be found");
+        } catch (FileSystemException e) {
+            // Expected
+        }
+
+        // The names of the deleted subtree can be used again, on another shard
+        fileSystemManager.addFile(dirs[1], "beach.jpg", 50);
+        fileSystemManager.addDir(dirs[1], "photos");
+        assertEquals(fileSystemManager.shardOf(dirs[1]), fileSystemManager.shardOf("beach.jpg"));
+        assertEquals(50, fileSystemManager.getFileSize("beach.jpg"));
+        assertEquals("beach.jpg", fileSystemManager.getBiggestFile());
+    }
+
+    @Test
+    public void testRenameKeepsTheShard() throws FileSystemException {
+        fileSystemManager.addDir("root", "Documents");
+        fileSystemManager.addFile("Documents", "draft.txt", 40);
+        int shard = fileSystemManager.shardOf("Documents");
+
+        fileSystemManager.rename("draft.txt", "final.txt");
+        fileSystemManager.rename("Documents", "Archive");
+        assertEquals(shard, fileSystemManager.shardOf("final.txt"));
+        assertEquals(shard, fileSystemManager.shardOf("Archive"));
+        assertEquals(-1, fileSystemManager.shardOf("draft.txt"));
+        assertEquals(40, fileSystemManager.getDirectorySize("Archive"));
+    }
+
+    @Test
+    public void testRemoteShards() throws Throwable {
+        fileSystemManager.close();
+        BasicFileSystemManager served = new BasicFileSystemManager();
+        try (ShardServer server = new ShardServer(served, 0)) {
+            fileSystemManager = new ShardedFileSystemManager(List.of(
+                    RemoteShard.connect(server.getPort()), RemoteShard.spawn(), new BasicFileSystemManager()));
+            BasicFileSystemManager expected = new BasicFileSystemManager();
+            buildRandomTree(new Random(3), fileSystemManager, expected);
+
+            assertEquals(expected.getBiggestFiles(10), fileSystemManager.getBiggestFiles(10));
+            assertEquals(expected.getFileSizePercentile(50), fileSystemManager.getFileSizePercentile(50));
+            assertEquals(toList(expected.findByPrefix("f", null)), toList(fileSystemManager.findByPrefix("f", null)));
+            assertEquals(ListingTest.listAll(expected, "root", 3, SortKey.SIZE),
+                    ListingTest.listAll(fileSystemManager, "root", 3, SortKey.SIZE));
+            assertEquals(sortedLines(show(expected, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES)),
+                    sortedLines(show(fileSystemManager, FileSystemManager.UNLIMITED_DEPTH, FileSystemManager.UNLIMITED_NODES)));
+            assertTrue(served.getFileCount("root") > 0);
+
+            // Failures of a remote shard are thrown as the same exceptions
+            String remoteDir = null;
+            for (int d = 0; remoteDir == null; d++) {
+                if (fileSystemManager.shardOf("dir" + d) < 2) {
+                    remoteDir = "dir" + d;
+                }
+            }
+            fileSystemManager.addFile(remoteDir, "remote.txt", 5);
+            try {
+                fileSystemManager.addDir("remote.txt", "nested");
+                fail("A file can't be a parent directory");
+            } catch (DirectoryNotFoundException e) {
+                // Expected
+            }
+            assertEquals(5, fileSystemManager.getFileSize("remote.txt"));
+        }
+    }
+
+    /**
+     * Adds the same tree of top level directories, subdirectories and files of distinct sizes to both managers.
+     */
+    private static void buildRandomTree(Random random, FileSystemManager... managers) throws FileSystemException {
+        List<String> dirs = new ArrayList<>();
+        for (int d = 0; d < 12; d++) {
+            String parent = d < 6 ? "root" : dirs.get(random.nextInt(dirs.size()));
+            String dir = "dir" + d;
+            for (FileSystemManager manager : managers) {
+                manager.addDir(parent, dir);
+            }
+            dirs.add(dir);
+        }
+        int[] sizes = random.ints(1, 100_000).distinct().limit(1500).toArray();
+        for (int f = 0; f < sizes.length; f++) {
+            String parent = f % 40 == 0 ? "root" : dirs.get(random.nextInt(dirs.size()));
+            for (FileSystemManager manager : managers) {
+                manager.addFile(parent, "f" + f + ".txt", sizes[f]);
+            }
+        }
+    }
+
+    private String[] dirsOnTwoShards() throws FileSystemException {
+        fileSystemManager.addDir("root", "dir0");
+        int first = fileSystemManager.shardOf("dir0");
+        for (int d = 1; ; d++) {
+            fileSystemManager.addDir("root", "dir" + d);
+            if (fileSystemManager.shardOf("dir" + d) != first) {
+                return new String[] {"dir0", "dir" + d};
+            }
+        }
+    }
+
+    private static String show(FileSystemManager manager, int maxDepth, long maxNodes) throws IOException {
+        StringBuilder out = new StringBuilder();
+        manager.showFileSystem(out, maxDepth, maxNodes);
+        return out.toString();
+    }
+
+    /**
+     * The lines without the creation dates, sorted since the shards print their subtrees one after the other.
+     */
+    private static List<String> sortedLines(String output) {
+        String[] lines = output.replaceAll("created=[^],]*", "").split("\n");
+        Arrays.sort(lines);
+        return Arrays.asList(lines);
+    }
+
+    private static List<String> toList(Iterator<String> names) {
+        List<String> list = new ArrayList<>();
+        names.forEachRemaining(list::add);
+        return list;
+    }
+}